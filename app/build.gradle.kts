@@ -50,6 +50,19 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    testOptions {
+        unitTests.all { test ->
+            // Benchmark DocumentDetector trên JVM (bỏ qua nếu không truyền thư mục frame):
+            // ./gradlew :app:testDebugUnitTest --tests "*DocumentDetectorBenchmark" \
+            //     -Ddetector.benchmark.frames=/path/to/frames -Dopencv.native.dir=/path/to/opencv/lib
+            System.getProperty("detector.benchmark.frames")?.let { framesDir ->
+                test.systemProperty("detector.benchmark.frames", framesDir)
+            }
+            System.getProperty("opencv.native.dir")?.let { nativeDir ->
+                test.jvmArgs("-Djava.library.path=$nativeDir")
+            }
+        }
+    }
 }
 
 dependencies {
@@ -0,0 +1,223 @@
+package com.example.camerascanner;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.camerascanner.activitycamera.AnalysisCalibration;
+import com.example.camerascanner.detection.AnalysisProfile;
+import com.google.android.gms.tasks.Tasks;
+import com.google.mlkit.vision.common.InputImage;
+import com.google.mlkit.vision.text.TextRecognition;
+import com.google.mlkit.vision.text.TextRecognizer;
+import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
+
+import org.opencv.android.OpenCVLoader;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lớp **AppWarmUp** nạp trước các thư viện nặng ngay khi ứng dụng khởi động, trên một luồng nền:
+ * - Thư viện native OpenCV (OpenCVLoader.initLocal()).
+ * - Cấu hình phân tích đã lưu của màn hình camera ({@link AnalysisCalibration#loadCached}, chỉ đọc cache).
+ * - Một TextRecognizer ML Kit dùng chung, đã chạy thử một lần trên ảnh nhỏ để mô hình được nạp sẵn.
+ * Phép đo hiệu chỉnh ở lần chạy đầu không chạy lúc khởi động (nó tranh CPU với khởi động CameraX và làm chậm
+ * TextRecognizer): màn hình camera yêu cầu qua {@link #calibrateAnalysisIfNeeded()} sau frame phân tích đầu tiên.
+ * Các màn hình chờ cùng một future thay vì tự nạp trên luồng chính. Mỗi lần chờ được ghi log là "warm"
+ * (đã sẵn sàng) hoặc "cold" (phải chờ) kèm thời gian chờ, để theo dõi độ trễ khởi động trên từng thiết bị.
+ * TextRecognizer dùng chung thuộc về tiến trình: người dùng không được close().
+ */
+public final class AppWarmUp {
+
+    private static final String TAG = "AppWarmUp";
+    private static final AppWarmUp INSTANCE = new AppWarmUp();
+
+    // Kích thước ảnh chạy thử để ML Kit nạp mô hình nhận dạng
+    private static final int WARM_UP_IMAGE_SIZE = 32;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final CompletableFuture<Boolean> openCvFuture = new CompletableFuture<>();
+    private final CompletableFuture<TextRecognizer> textRecognizerFuture = new CompletableFuture<>();
+    private final CompletableFuture<AnalysisProfile> analysisProfileFuture = new CompletableFuture<>();
+    private boolean started = false;
+    private boolean calibrationRequested = false;
+    private Context appContext;
+
+    private volatile long openCvLoadMs = -1;
+    private volatile long textRecognizerInitMs = -1;
+
+    private AppWarmUp() {
+    }
+
+    public static AppWarmUp getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Bắt đầu nạp trước (gọi từ Application.onCreate). Gọi nhiều lần chỉ có tác dụng lần đầu.
+     * OpenCV được nạp trước vì màn hình camera cần nó sớm nhất; TextRecognizer ngay sau một lần đọc cache cấu hình.
+     * @param context Context bất kỳ (chỉ giữ Application context)
+     */
+    public synchronized void start(Context context) {
+        if (started) {
+            return;
+        }
+        started = true;
+        appContext = context.getApplicationContext();
+        executor.execute(() -> {
+            long startMs = SystemClock.elapsedRealtime();
+            boolean loaded = false;
+            try {
+                loaded = OpenCVLoader.initLocal();
+            } catch (Throwable t) {
+                Log.e(TAG, "Lỗi khi nạp OpenCV: " + t.getMessage(), t);
+            }
+            openCvLoadMs = SystemClock.elapsedRealtime() - startMs;
+            Log.i(TAG, "Nạp OpenCV " + (loaded ? "thành công" : "thất bại") + " trong " + openCvLoadMs + " ms");
+            openCvFuture.complete(loaded);
+        });
+        executor.execute(() -> {
+            // Chỉ đọc cache: vài ms, xong trước khi màn hình camera đọc cấu hình
+            AnalysisProfile cached = AnalysisCalibration.loadCached(appContext);
+            if (cached != null) {
+                analysisProfileFuture.complete(cached);
+            }
+        });
+        executor.execute(() -> {
+            long startMs = SystemClock.elapsedRealtime();
+            TextRecognizer recognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
+            Bitmap blank = Bitmap.createBitmap(WARM_UP_IMAGE_SIZE, WARM_UP_IMAGE_SIZE, Bitmap.Config.ARGB_8888);
+            try {
+                Tasks.await(recognizer.process(InputImage.fromBitmap(blank, 0)));
+            } catch (Exception e) {
+                // Mô hình vẫn có thể được nạp ở lần nhận dạng thật; recognizer vẫn dùng được
+                Log.w(TAG, "Chạy thử TextRecognizer thất bại: " + e.getMessage());
+            } finally {
+                blank.recycle();
+            }
+            textRecognizerInitMs = SystemClock.elapsedRealtime() - startMs;
+            Log.i(TAG, "Khởi tạo TextRecognizer trong " + textRecognizerInitMs + " ms");
+            textRecognizerFuture.complete(recognizer);
+        });
+        executor.shutdown();
+    }
+
+    /**
+     * Hiệu chỉnh cấu hình phân tích nếu thiết bị chưa có cấu hình đã lưu, trên một luồng nền riêng.
+     * Gọi khi camera đã chạy (sau frame phân tích đầu tiên); chỉ có tác dụng lần đầu trong tiến trình.
+     * Cấu hình đo được áp dụng từ lần mở màn hình camera sau.
+     */
+    public synchronized void calibrateAnalysisIfNeeded() {
+        if (!started || calibrationRequested || analysisProfileFuture.isDone()) {
+            return;
+        }
+        calibrationRequested = true;
+        ExecutorService calibrationExecutor = Executors.newSingleThreadExecutor();
+        calibrationExecutor.execute(() -> {
+            if (!openCvFuture.join()) {
+                analysisProfileFuture.complete(AnalysisProfile.DEFAULT);
+                return;
+            }
+            AnalysisProfile profile = AnalysisProfile.DEFAULT;
+            try {
+                profile = AnalysisCalibration.loadOrCalibrate(appContext);
+            } catch (Exception e) {
+                Log.e(TAG, "Lỗi khi hiệu chỉnh cấu hình phân tích: " + e.getMessage(), e);
+            }
+            analysisProfileFuture.complete(profile);
+        });
+        calibrationExecutor.shutdown();
+    }
+
+    /**
+     * @return Future hoàn thành với true khi OpenCV đã được nạp, false nếu nạp thất bại
+     */
+    public CompletableFuture<Boolean> openCvFuture() {
+        return openCvFuture;
+    }
+
+    /**
+     * @return Future hoàn thành với TextRecognizer dùng chung (không close())
+     */
+    public CompletableFuture<TextRecognizer> textRecognizerFuture() {
+        return textRecognizerFuture;
+    }
+
+    /**
+     * Cấu hình phân tích của thiết bị nếu đã sẵn sàng. Không chờ: màn hình camera mở trước khi hiệu chỉnh lần đầu
+     * xong sẽ dùng cấu hình mặc định, cấu hình đo được áp dụng từ lần mở sau.
+     * @param caller Tên nơi gọi, dùng cho log
+     * @return Cấu hình đã hiệu chỉnh, hoặc {@link AnalysisProfile#DEFAULT}
+     */
+    public AnalysisProfile getAnalysisProfileNow(String caller) {
+        if (analysisProfileFuture.isDone()) {
+            logAcquire(caller, "AnalysisProfile", true, 0);
+        } else {
+            Log.i(TAG, caller + ": AnalysisProfile chưa hiệu chỉnh xong, dùng mặc định");
+        }
+        return analysisProfileFuture.getNow(AnalysisProfile.DEFAULT);
+    }
+
+    /**
+     * Chờ OpenCV được nạp. Chỉ chặn nếu quá trình nạp trước chưa xong.
+     * @param caller Tên nơi gọi, dùng cho log thời gian chờ
+     * @return true nếu OpenCV dùng được
+     */
+    public boolean awaitOpenCv(String caller) {
+        return Boolean.TRUE.equals(await(openCvFuture(), "OpenCV", caller));
+    }
+
+    /**
+     * Chờ TextRecognizer dùng chung. Không gọi trên luồng chính.
+     * @param caller Tên nơi gọi, dùng cho log thời gian chờ
+     * @return TextRecognizer dùng chung, hoặc null nếu không khởi tạo được
+     */
+    public TextRecognizer awaitTextRecognizer(String caller) {
+        return await(textRecognizerFuture(), "TextRecognizer", caller);
+    }
+
+    /**
+     * Ghi nhận một lần dùng future: "warm" nếu đã sẵn sàng, "cold" kèm thời gian chờ nếu chưa.
+     * @param caller Tên nơi gọi
+     * @param resource Tên tài nguyên
+     * @param wasReady Future đã hoàn thành tại thời điểm yêu cầu
+     * @param waitedMs Thời gian đã chờ
+     */
+    public static void logAcquire(String caller, String resource, boolean wasReady, long waitedMs) {
+        if (wasReady) {
+            Log.i(TAG, caller + ": " + resource + " warm");
+        } else {
+            Log.i(TAG, caller + ": " + resource + " cold, chờ " + waitedMs + " ms");
+        }
+    }
+
+    /**
+     * @return Thời gian nạp OpenCV (ms), -1 nếu chưa xong
+     */
+    public long getOpenCvLoadMs() {
+        return openCvLoadMs;
+    }
+
+    /**
+     * @return Thời gian khởi tạo và chạy thử TextRecognizer (ms), -1 nếu chưa xong
+     */
+    public long getTextRecognizerInitMs() {
+        return textRecognizerInitMs;
+    }
+
+    private static <T> T await(CompletableFuture<T> future, String resource, String caller) {
+        boolean wasReady = future.isDone();
+        long startMs = SystemClock.elapsedRealtime();
+        try {
+            return future.get();
+        } catch (Exception e) {
+            Log.e(TAG, caller + ": lỗi khi chờ " + resource + ": " + e.getMessage(), e);
+            return null;
+        } finally {
+            logAcquire(caller, resource, wasReady, SystemClock.elapsedRealtime() - startMs);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.example.camerascanner;
+
+import android.app.Application;
+
+/**
+ * Application của ứng dụng: bắt đầu nạp trước OpenCV và ML Kit trên luồng nền ngay khi tiến trình khởi động,
+ * để màn hình đầu tiên cần chúng không phải trả chi phí nạp trên luồng chính.
+ */
+public class CameraScannerApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        AppWarmUp.getInstance().start(this);
+    }
+}
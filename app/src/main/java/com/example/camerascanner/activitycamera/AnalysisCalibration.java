@@ -0,0 +1,80 @@
+package com.example.camerascanner.activitycamera;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.camerascanner.detection.AnalysisProfile;
+import com.example.camerascanner.detection.ResolutionCalibrator;
+
+/**
+ * Lớp **AnalysisCalibration** cung cấp cấu hình phân tích ({@link AnalysisProfile}) cho thiết bị hiện tại.
+ * Lần đầu chạy (hoặc sau khi cập nhật hệ điều hành / đổi phiên bản hiệu chỉnh), bộ phát hiện được đo ngay trên máy
+ * bằng {@link ResolutionCalibrator}; kết quả được lưu trong SharedPreferences nên các lần sau không phải đo lại.
+ */
+public final class AnalysisCalibration {
+
+    private static final String TAG = "AnalysisCalibration";
+    private static final String PREFS_NAME = "AnalysisCalibrationPrefs";
+    private static final String KEY_DEVICE = "device";
+    private static final String KEY_WIDTH = "width";
+    private static final String KEY_HEIGHT = "height";
+    private static final String KEY_PYRAMID_LEVEL = "pyramidLevel";
+    // Tăng khi thay đổi bộ phát hiện hoặc danh sách cấu hình để buộc hiệu chỉnh lại
+    private static final int CALIBRATION_VERSION = 1;
+
+    private AnalysisCalibration() {
+    }
+
+    /**
+     * Chỉ đọc cấu hình đã lưu, không đo. Rẻ (một lần đọc SharedPreferences) và không cần OpenCV.
+     * @param context Context (chỉ dùng SharedPreferences)
+     * @return Cấu hình đã hiệu chỉnh cho thiết bị này, hoặc null nếu chưa có / đã lỗi thời
+     */
+    public static AnalysisProfile loadCached(Context context) {
+        SharedPreferences prefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        if (!deviceKey().equals(prefs.getString(KEY_DEVICE, null))) {
+            return null;
+        }
+        AnalysisProfile cached = new AnalysisProfile(
+                prefs.getInt(KEY_WIDTH, AnalysisProfile.DEFAULT.getWidth()),
+                prefs.getInt(KEY_HEIGHT, AnalysisProfile.DEFAULT.getHeight()),
+                prefs.getInt(KEY_PYRAMID_LEVEL, AnalysisProfile.DEFAULT.getPyramidLevel()));
+        Log.i(TAG, "Dùng cấu hình phân tích đã hiệu chỉnh: " + cached);
+        return cached;
+    }
+
+    /**
+     * Đọc cấu hình đã lưu, hoặc hiệu chỉnh rồi lưu lại nếu chưa có. Có thể chạy vài trăm ms: không gọi trên luồng UI.
+     * Phải được gọi sau khi OpenCV đã được nạp.
+     * @param context Context (chỉ dùng SharedPreferences)
+     * @return Cấu hình phân tích cho thiết bị này
+     */
+    public static AnalysisProfile loadOrCalibrate(Context context) {
+        AnalysisProfile cached = loadCached(context);
+        if (cached != null) {
+            return cached;
+        }
+
+        long startMs = SystemClock.elapsedRealtime();
+        ResolutionCalibrator.Result result =
+                new ResolutionCalibrator(ResolutionCalibrator.DEFAULT_TARGET_LATENCY_MS).calibrate();
+        AnalysisProfile profile = result.getProfile();
+        Log.i(TAG, "Hiệu chỉnh xong trong " + (SystemClock.elapsedRealtime() - startMs) + " ms: " + profile
+                + " (" + result.getMeasurements() + ")");
+
+        context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE).edit()
+                .putString(KEY_DEVICE, deviceKey())
+                .putInt(KEY_WIDTH, profile.getWidth())
+                .putInt(KEY_HEIGHT, profile.getHeight())
+                .putInt(KEY_PYRAMID_LEVEL, profile.getPyramidLevel())
+                .apply();
+        return profile;
+    }
+
+    private static String deviceKey() {
+        return Build.FINGERPRINT + "#" + CALIBRATION_VERSION;
+    }
+}
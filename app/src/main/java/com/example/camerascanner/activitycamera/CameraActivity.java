@@ -1,65 +1,68 @@
 package com.example.camerascanner.activitycamera;
 
 import android.Manifest;
-import android.content.ContentResolver;
 import android.content.Intent;
 import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Rect;
+import android.hardware.camera2.CameraCharacteristics;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
-import android.util.Pair;
 import android.util.Size;
-import android.view.Display;
-import android.view.Surface;
 import android.view.View;
 import android.widget.ImageButton;
 import android.widget.ImageView;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
-import androidx.camera.core.CameraSelector;
+import androidx.appcompat.app.AlertDialog;
+import androidx.camera.camera2.interop.Camera2CameraInfo;
+import androidx.camera.camera2.interop.ExperimentalCamera2Interop;
+import androidx.camera.core.Camera;
 import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageCaptureException;
 import androidx.camera.core.ImageProxy;
-import androidx.camera.core.Preview;
-import androidx.camera.core.resolutionselector.ResolutionSelector;
-import androidx.camera.core.resolutionselector.ResolutionStrategy;
-import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.camera.view.PreviewView;
 import androidx.core.content.ContextCompat;
 
+import com.example.camerascanner.AppWarmUp;
 import com.example.camerascanner.R;
 import com.example.camerascanner.activitycrop.CropActivity;
 import com.example.camerascanner.BaseActivity;
 import com.example.camerascanner.activitypdfgroup.PDFGroupActivity;
+import com.example.camerascanner.capture.BitmapPixelSource;
+import com.example.camerascanner.capture.BurstPagePipeline;
+import com.example.camerascanner.capture.CapturedPageDecoder;
+import com.example.camerascanner.capture.GalleryImportPipeline;
+import com.example.camerascanner.capture.PageBuffer;
+import com.example.camerascanner.capture.PageBufferRegistry;
+import com.example.camerascanner.detection.AnalysisProfile;
+import com.example.camerascanner.detection.DocumentDetector;
+import com.example.camerascanner.detection.DocumentPresenceClassifier;
+import com.example.camerascanner.detection.FrameMetrics;
+import com.example.camerascanner.detection.QuadCandidate;
+import com.example.camerascanner.detection.QuadCoordinateMapper;
+import com.example.camerascanner.detection.QuadGeometry;
+import com.example.camerascanner.detection.QuadRefiner;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
 import com.google.android.material.tabs.TabLayout;
-import com.google.common.util.concurrent.ListenableFuture;
 
-import org.opencv.android.OpenCVLoader;
-import org.opencv.core.Core;
-import org.opencv.core.CvType;
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfPoint;
-import org.opencv.core.MatOfPoint2f;
 import org.opencv.core.Point;
-import org.opencv.imgproc.CLAHE;
-import org.opencv.imgproc.Imgproc;
 
 import java.io.File;
-import java.io.FileOutputStream;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.nio.ByteBuffer;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -73,36 +76,85 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
     private ImageView imageView;
     private FloatingActionButton btnTakePhoto;
     private ImageButton btnSelectImage;
-
-    private ListenableFuture<ProcessCameraProvider> cameraProviderFuture;
+    private ImageButton btnBurstDone;
+    private TextView textViewBurstCounter;
+
+    private CameraSessionManager cameraSessionManager;
+    // Đặt vùng lấy nét/đo sáng vào khung đang phát hiện, chỉ cập nhật trên detectionExecutor
+    private QuadMeteringController quadMeteringController;
+    // Cấu hình phân tích (độ phân giải, tầng pyramid) của thiết bị, xem AnalysisCalibration
+    private AnalysisProfile analysisProfile = AnalysisProfile.DEFAULT;
     private ImageCapture imageCapture;
     private ImageAnalysis imageAnalysis;
+    // Bước 1 của analyzer: đọc mặt phẳng và tiền xử lý tới ảnh cạnh
     private ExecutorService cameraExecutor;
+    // Bước 2 của analyzer: tìm khung, theo dõi, tự động chụp và overlay (xem FrameHandoff)
+    private ExecutorService detectionExecutor;
+    private FrameHandoff frameHandoff;
+    // Luồng giải mã ảnh chụp độ phân giải đầy đủ, tách khỏi luồng phân tích
+    private ExecutorService captureExecutor;
+    // Pool Mat và bộ đọc mặt phẳng Y, chỉ được dùng trên cameraExecutor
+    private final FramePool framePool = new FramePool();
+    private final YPlaneIngestor yPlaneIngestor = new YPlaneIngestor(framePool);
+    // Bộ phát hiện khung tài liệu, tách theo hai bước của pipeline và được tạo lười trên luồng của từng bước
+    // sau khi OpenCV đã nạp: preprocessDetector chỉ dùng trên cameraExecutor, documentDetector trên detectionExecutor
+    private DocumentDetector preprocessDetector;
+    private DocumentDetector documentDetector;
+    // Bộ đọc mặt phẳng U/V cho phát hiện có hỗ trợ màu, chỉ dùng trên cameraExecutor
+    private ChromaPlaneIngestor chromaPlaneIngestor;
+    // Kết hợp cạnh màu (U/V) với cạnh độ sáng: tách giấy trắng khỏi nền sáng có màu (bàn gỗ, nền kem...)
+    private static final boolean CHROMA_ASSISTED_DETECTION = true;
+    // Bộ lọc sớm trên ảnh 80x60: bỏ qua chuỗi phát hiện đầy đủ khi khung hình rõ ràng không có tài liệu
+    private DocumentPresenceClassifier presenceClassifier;
     private AppPermissionHandler appPermissionHandler;
 
     // Flag để kiểm tra xem Activity có đang bị destroy không
     private boolean isDestroyed = false;
 
-    // --- Các hằng số và biến OpenCV ---
-    private static final double CANNY_THRESHOLD1 = 40;
-    private static final double CANNY_THRESHOLD2 = 120;
-    private double dynamicCannyThreshold1 = CANNY_THRESHOLD1;
-    private double dynamicCannyThreshold2 = CANNY_THRESHOLD2;
-    private static final double APPROX_POLY_DP_EPSILON_FACTOR = 0.03;
-    private static final double MIN_COSINE_ANGLE = 0.3;
-    private static final double MIN_AREA_PERCENTAGE = 0.02;
-    private static final double MAX_AREA_PERCENTAGE = 0.90;
-
+    // --- Các biến OpenCV ---
+    // lastDetectedQuadrilateral và kích thước frame chỉ dùng trên detectionExecutor;
+    // luồng chính chỉ đọc bản sao bất biến publishedQuad
     private MatOfPoint lastDetectedQuadrilateral = null;
+    private volatile QuadSnapshot publishedQuad = null;
     private int lastImageProxyWidth = 0;
     private int lastImageProxyHeight = 0;
     private int lastRotationDegrees = 0;
+    // Tỷ lệ khung vùng điểm ảnh hoạt động của cảm biến, dùng để ánh xạ khung từ luồng phân tích sang ảnh chụp
+    private volatile double sensorAspectRatio = QuadCoordinateMapper.DEFAULT_SENSOR_ASPECT_RATIO;
 
     private long lastDetectionTimestamp = 0L;
     private static final long QUAD_PERSISTENCE_TIMEOUT_MS = 1500;
 
     private int frameCount = 0;
-    private static final int PROCESS_FRAME_INTERVAL = 3;
+
+    // --- Theo dõi khung giữa các lần phát hiện đầy đủ (optical flow) ---
+    // Tạo trên luồng chính khi OpenCV đã được nạp (setupOpenCvDependents, giữ Mat native), trước khi gắn analyzer
+    // quadTracker chỉ dùng trên detectionExecutor; bước 1 đọc trạng thái qua quadTrackingActive
+    private QuadTracker quadTracker;
+    private volatile boolean quadTrackingActive = false;
+    private volatile boolean redetectRequested = false;
+
+    // --- Lập lịch frame theo ngân sách độ trễ ---
+    // Tỷ lệ một nhân CPU dành cho phân tích frame
+    private static final double ANALYZER_CPU_BUDGET = 0.30;
+    // Tần suất làm mới overlay tối thiểu khi đang theo dõi khung
+    private static final int MIN_OVERLAY_FPS = 10;
+    // Khi đang theo dõi tốt, chạy lại bộ phát hiện ít nhất sau số frame này để chống trôi
+    private static final int MAX_FRAMES_BETWEEN_DETECTIONS = 30;
+    // Ghi log thống kê của scheduler sau mỗi số frame này
+    private static final int SCHEDULER_STATS_LOG_INTERVAL = 300;
+    private final FrameScheduler frameScheduler =
+            new FrameScheduler(ANALYZER_CPU_BUDGET, MIN_OVERLAY_FPS, MAX_FRAMES_BETWEEN_DETECTIONS);
+
+    // --- Đo thời gian từng bước xử lý frame ---
+    // Log.d theo từng frame (kích thước, xoay, tỷ lệ khung...) bị loại khỏi hot path khi tắt (hằng số lúc biên dịch)
+    private static final boolean VERBOSE_FRAME_LOGGING = false;
+    // Hiện bảng p50/p95/max lên overlay và ghi ra file khi rời màn hình (chỉ dùng khi tinh chỉnh)
+    private static final boolean SHOW_FRAME_METRICS = false;
+    private static final int FRAME_METRICS_OVERLAY_INTERVAL = 30;
+    // Mỗi bước của pipeline ghi vào FrameMetrics riêng (FrameMetrics chỉ có một luồng ghi)
+    private final FrameMetrics ingestMetrics = new FrameMetrics();
+    private final FrameMetrics frameMetrics = new FrameMetrics();
     private TabLayout tabLayoutCameraModes;
     private Uri selectedImageUri;
     private ActivityResultLauncher<String> galleryLauncher;
@@ -115,7 +167,34 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
     private static final double ID_CARD_ASPECT_RATIO_MIN = 1.5;
     private static final double ID_CARD_ASPECT_RATIO_MAX = 1.85;
     private int consecutiveValidFrames = 0;
+    // Số frame liên tiếp có tỷ lệ khung hợp lệ (kể cả frame theo dõi); độ nét và độ ổn định do captureQualityGate quyết định
     private static final int REQUIRED_CONSECUTIVE_FRAMES = 10;
+    // Cổng chất lượng (độ nét Laplacian + độ ổn định góc) trước khi tự động chụp, chỉ dùng trên detectionExecutor
+    private CaptureQualityGate captureQualityGate;
+    // Độ nét trong vùng khung của frame vừa xử lý (-1 nếu không đo)
+    private double lastFrameSharpness = -1;
+    // Tinh chỉnh khung trên ảnh chụp độ phân giải đầy đủ trước khi mở CropActivity, chỉ dùng trên captureExecutor
+    private QuadRefiner captureQuadRefiner;
+
+    // --- Chế độ chụp nhiều trang liên tiếp (burst) ---
+    private boolean isBurstMode = false;
+    // Khoảng cách tối thiểu giữa hai lần tự động chụp trang
+    private static final long BURST_CAPTURE_COOLDOWN_MS = 1200;
+    // Tạm dừng tự động chụp khi số trang chờ xử lý đạt mức này (giới hạn bộ nhớ JPEG đang giữ)
+    private static final int BURST_MAX_PENDING_PAGES = 3;
+    // Khung phải dịch chuyển trung bình quá tỷ lệ đường chéo này (hoặc biến mất) mới coi là trang mới
+    private static final double BURST_NEW_PAGE_DISPLACEMENT_FRACTION = 0.05;
+    // Hàng đợi làm phẳng + tăng cường trang ở nền, tạo khi vào chế độ burst
+    private BurstPagePipeline burstPagePipeline;
+    // Trang vừa chụp chỉ được coi là đã rời khung sau chừng này frame phát hiện liên tiếp không có khung
+    // và ít nhất BURST_PAGE_GONE_MS kể từ lần cuối thấy khung (một frame mờ hay bị bộ lọc sớm từ chối thì chưa đủ)
+    private static final int BURST_PAGE_GONE_MISSES = 3;
+    private static final long BURST_PAGE_GONE_MS = 400;
+    // Khung của trang vừa chụp (hướng hiển thị), null khi đang chờ trang mới; chỉ dùng trên detectionExecutor
+    private Point[] burstCapturedQuad = null;
+    private int burstMissedDetections = 0;
+    private long burstQuadLastSeenTime = 0L;
+    private long burstSessionStartTime = 0L;
 
     // Biến để xác định có phải từ PDFGroup không
     private boolean isFromPdfGroup = false;
@@ -132,25 +211,33 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
             Log.d(TAG, "CameraActivity started from PDFGroup: " + isFromPdfGroup);
         }
 
-        // Khởi tạo OpenCV
-        if (!OpenCVLoader.initLocal()) {
-            Log.e(TAG, "OpenCV initialization failed!");
-            Toast.makeText(this, "OpenCV failed to load!", Toast.LENGTH_LONG).show();
-            return;
-        } else {
-            Log.d(TAG, "OpenCV initialization successful!");
-        }
-
         previewView = findViewById(R.id.previewView);
         customOverlayView = findViewById(R.id.customOverlayView);
         imageView = findViewById(R.id.imageView);
         btnTakePhoto = findViewById(R.id.btnTakePhoto);
         btnSelectImage = findViewById(R.id.btnSelectImage);
+        btnBurstDone = findViewById(R.id.btnBurstDone);
+        textViewBurstCounter = findViewById(R.id.textViewBurstCounter);
 
         previewView.setScaleType(PreviewView.ScaleType.FIT_CENTER);
         cameraExecutor = Executors.newSingleThreadExecutor();
+        detectionExecutor = Executors.newSingleThreadExecutor();
+        frameHandoff = new FrameHandoff(detectionExecutor, this::processAnalysisJob);
+        captureExecutor = Executors.newSingleThreadExecutor();
         appPermissionHandler = new AppPermissionHandler(this, this);
 
+        // Use case được tạo một lần; camera chỉ được bind khi có quyền (startCamera).
+        // Độ phân giải phân tích và tầng pyramid lấy từ cấu hình đã hiệu chỉnh cho thiết bị
+        analysisProfile = AppWarmUp.getInstance().getAnalysisProfileNow(TAG);
+        cameraSessionManager = new CameraSessionManager(this, previewView,
+                new Size(analysisProfile.getWidth(), analysisProfile.getHeight()),
+                camera -> sensorAspectRatio = readSensorAspectRatio(camera));
+        imageAnalysis = cameraSessionManager.getImageAnalysis();
+        imageCapture = cameraSessionManager.getImageCapture();
+        quadMeteringController = cameraSessionManager.getQuadMeteringController();
+        // Camera và giao diện sẵn sàng ngay; phần cần OpenCV được gắn khi OpenCV nạp xong
+        setupOpenCvDependents();
+
         if (appPermissionHandler.checkCameraPermission()) {
             startCamera();
         } else {
@@ -159,7 +246,21 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
 
         initLaunchers();
 
-        btnTakePhoto.setOnClickListener(v -> takePhoto());
+        btnTakePhoto.setOnClickListener(v -> {
+            if (isBurstMode) {
+                // Chụp tay trong chế độ burst: thêm trang vào hàng đợi với khung hiện tại, không mở CropActivity
+                QuadSnapshot snapshot = publishedQuad;
+                float[] quadPoints = snapshot != null ? snapshot.quadPoints : null;
+                takeBurstPhoto(quadPoints, snapshot != null ? snapshot.width : 0, snapshot != null ? snapshot.height : 0);
+                // Trang này đã được chụp: tự động chụp phải chờ trang mới như sau một lần tự động chụp
+                if (!detectionExecutor.isShutdown()) {
+                    detectionExecutor.execute(() -> markBurstPageCaptured(toPoints(quadPoints)));
+                }
+            } else {
+                takePhoto();
+            }
+        });
+        btnBurstDone.setOnClickListener(v -> finishBurstSession());
 
         btnSelectImage.setOnClickListener(v -> {
             if (appPermissionHandler.checkStoragePermission()) {
@@ -178,6 +279,7 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
             public void onTabSelected(TabLayout.Tab tab) {
                 int position = tab.getPosition();
                 isIdCardMode = false;
+                setBurstMode(position == 2);
                 switch (position) {
                     case 0:
                         Log.d(TAG, "Chế độ: Quét");
@@ -187,10 +289,13 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
                         isIdCardMode = true;
                         Toast.makeText(CameraActivity.this, getString(R.string.id_mode_activated_auto_capture), Toast.LENGTH_SHORT).show();
                         break;
+                    case 2:
+                        Log.d(TAG, "Chế độ: Nhiều trang");
+                        Toast.makeText(CameraActivity.this, getString(R.string.burst_mode_activated), Toast.LENGTH_SHORT).show();
+                        break;
                 }
                 if (customOverlayView != null) {
                     customOverlayView.clearBoundingBox();
-                    customOverlayView.invalidate();
                 }
             }
 
@@ -239,326 +344,574 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
     private void initLaunchers() {
         galleryLauncher = registerForActivityResult(new ActivityResultContracts.GetMultipleContents(), uris -> {
             if (uris != null && !uris.isEmpty() && !isDestroyed) {
-                // Sử dụng ExecutorService để xử lý trong luồng nền
-                Executors.newSingleThreadExecutor().execute(() -> {
-                    ArrayList<String> newUriStrings = new ArrayList<>();
-                    for (Uri uri : uris) {
-                        try {
-                            // Sao chép và lưu tệp ảnh vào bộ nhớ cache của ứng dụng
-                            File tempFile = copyAndSaveImageFromUri(uri);
-                            if (tempFile != null) {
-                                Uri tempUri = Uri.fromFile(tempFile);
-                                newUriStrings.add(tempUri.toString());
-                            }
-                        } catch (IOException e) {
-                            Log.e(TAG, "Error copying file from gallery URI: " + uri.toString(), e);
-                        }
-                    }
-
-                    // Sau khi xử lý xong, chuyển về luồng chính để khởi chạy Activity mới
-                    runOnUiThread(() -> {
-                        if (!newUriStrings.isEmpty()) {
-                            // Khởi động PDFGroupActivity và truyền danh sách URI mới
-                            Intent pdfGroupIntent = new Intent(CameraActivity.this, PDFGroupActivity.class);
-                            pdfGroupIntent.putStringArrayListExtra("processedImageUris", newUriStrings);
-                            startActivity(pdfGroupIntent);
-                            finish(); // Đóng CameraActivity
-                        } else {
-                            Toast.makeText(this, getString(R.string.failed_to_get_image_from_gallery), Toast.LENGTH_SHORT).show();
-                            Log.e(TAG, "Danh sách URI từ thư viện rỗng.");
-                        }
-                    });
-                });
+                showGalleryImportOptions(uris);
             } else if (!isDestroyed) {
                 Toast.makeText(this, getString(R.string.failed_to_get_image_from_gallery), Toast.LENGTH_SHORT).show();
                 Log.e(TAG, "Danh sách URI từ thư viện rỗng.");
             }
         });
     }
+
     /**
-     * Sao chép nội dung của một URI ảnh vào một tệp tạm trong bộ nhớ cache.
-     * @param uri URI của ảnh cần sao chép.
-     * @return File đã được sao chép hoặc null nếu thất bại.
+     * Hỏi người dùng có tự động cắt trang cho các ảnh vừa chọn hay giữ nguyên ảnh gốc, rồi bắt đầu nhập.
+     * @param uris URI ảnh theo thứ tự đã chọn
      */
-    private File copyAndSaveImageFromUri(Uri uri) throws IOException {
-        if (uri == null) {
-            return null;
-        }
-
-        ContentResolver contentResolver = getContentResolver();
-        String filename = "gallery_image_" + System.currentTimeMillis() + ".jpeg";
-        File tempFile = new File(getCacheDir(), filename);
-
-        try (InputStream inputStream = contentResolver.openInputStream(uri);
-             OutputStream outputStream = new FileOutputStream(tempFile)) {
-
-            if (inputStream == null) {
-                Log.e(TAG, "InputStream is null for URI: " + uri);
-                return null;
-            }
-
-            byte[] buffer = new byte[4096];
-            int bytesRead;
-            while ((bytesRead = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, bytesRead);
-            }
-            outputStream.flush();
-            Log.d(TAG, "Image copied to: " + tempFile.getAbsolutePath());
-            return tempFile;
+    private void showGalleryImportOptions(List<Uri> uris) {
+        String[] options = {getString(R.string.gallery_import_auto_crop), getString(R.string.gallery_import_keep_original)};
+        new AlertDialog.Builder(this)
+                .setTitle(getString(R.string.gallery_import_options_title))
+                .setItems(options, (dialog, which) -> startGalleryImport(uris, which == 0))
+                .show();
+    }
 
-        } catch (Exception e) {
-            Log.e(TAG, "Failed to copy image from URI: " + uri, e);
-            if (tempFile.exists()) {
-                tempFile.delete();
-            }
-            throw e;
-        }
+    /**
+     * NHẬP ẢNH TỪ THƯ VIỆN THEO LUỒNG:
+     * Sao chép (và tự động cắt nếu được chọn) song song trên pool dùng chung; PDFGroupActivity được mở ngay
+     * và nhận từng ảnh theo thứ tự khi ảnh đó sẵn sàng, thay vì chờ xử lý xong toàn bộ.
+     */
+    private void startGalleryImport(List<Uri> uris, boolean autoCrop) {
+        if (isDestroyed) return;
+        String importHandle = GalleryImportPipeline.getInstance()
+                .start(this, uris, new File(getCacheDir(), "gallery_images"), autoCrop);
+        Intent pdfGroupIntent = new Intent(CameraActivity.this, PDFGroupActivity.class);
+        pdfGroupIntent.putExtra(PDFGroupActivity.EXTRA_GALLERY_IMPORT_HANDLE, importHandle);
+        startActivity(pdfGroupIntent);
+        finish(); // Đóng CameraActivity
     }
 
     /**
-     * Khởi tạo camera sử dụng CameraX ProcessCameraProvider.
-     * Thiết lập camera provider và binding các use cases (Preview, ImageAnalysis, ImageCapture).
-     * Xử lý lifecycle và error handling.
+     * Bind camera qua CameraSessionManager. Gọi nhiều lần là an toàn: chỉ lần đầu thực sự bind,
+     * sau đó CameraX tự dừng/mở lại camera theo vòng đời Activity.
      */
     private void startCamera() {
-        if (isDestroyed) {
-            Log.w(TAG, "Activity is destroyed, not starting camera");
+        if (isDestroyed || cameraSessionManager == null) {
+            Log.w(TAG, "Activity is destroyed or OpenCV failed to load, not starting camera");
             return;
         }
+        cameraSessionManager.start();
+    }
 
-        cameraProviderFuture = ProcessCameraProvider.getInstance(this);
-        cameraProviderFuture.addListener(() -> {
+    /**
+     * KHỞI TẠO PHẦN PHỤ THUỘC OPENCV:
+     * OpenCV được nạp trước ở nền từ lúc ứng dụng khởi động (AppWarmUp); nếu chưa xong thì chờ không chặn luồng chính.
+     * Tracker, cổng chất lượng, bộ tinh chỉnh khung và analyzer chỉ được tạo trên luồng chính khi OpenCV đã nạp;
+     * trước đó preview và nút chụp vẫn hoạt động (ảnh chụp chưa có khung thì giữ cả ảnh).
+     */
+    private void setupOpenCvDependents() {
+        CompletableFuture<Boolean> openCvFuture = AppWarmUp.getInstance().openCvFuture();
+        boolean wasReady = openCvFuture.isDone();
+        long requestedAtMs = SystemClock.elapsedRealtime();
+        openCvFuture.thenAcceptAsync(loaded -> {
+            AppWarmUp.logAcquire(TAG, "OpenCV", wasReady, SystemClock.elapsedRealtime() - requestedAtMs);
             if (isDestroyed) {
-                Log.w(TAG, "Activity is destroyed, not binding camera");
                 return;
             }
-            try {
-                ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
-                bindCameraUseCases(cameraProvider);
-            } catch (ExecutionException | InterruptedException e) {
-                Log.e(TAG, "Lỗi khi bắt đầu camera: " + e.getMessage(), e);
+            if (!Boolean.TRUE.equals(loaded)) {
+                Log.e(TAG, "OpenCV initialization failed!");
+                Toast.makeText(this, "OpenCV failed to load!", Toast.LENGTH_LONG).show();
+                return;
             }
+            Log.d(TAG, "OpenCV initialization successful!");
+            quadTracker = new QuadTracker();
+            captureQualityGate = new CaptureQualityGate();
+            captureQuadRefiner = new QuadRefiner();
+            setupImageAnalyzer();
         }, ContextCompat.getMainExecutor(this));
     }
 
     /**
-     * Binding các use cases của camera (Preview, ImageAnalysis, ImageCapture) với ProcessCameraProvider.
-     * Thiết lập ImageAnalysis để xử lý frame realtime với OpenCV detection.
-     * Xử lý auto-capture ID card và hiển thị bounding box overlay.
-     * @param cameraProvider ProcessCameraProvider đã được khởi tạo
+     * Thiết lập ImageAnalyzer (một lần, trên use case do CameraSessionManager giữ).
+     * Analyzer chạy theo pipeline hai bước trên hai luồng, giao nhận qua {@link FrameHandoff}:
+     * - Bước 1 (cameraExecutor, hàm này): lập lịch, đọc mặt phẳng, lọc sớm và tiền xử lý tới ảnh cạnh,
+     *   sao chép ảnh xám vào job rồi đóng ImageProxy ngay.
+     * - Bước 2 (detectionExecutor, {@link #processAnalysisJob}): tìm khung, theo dõi, tự động chụp và overlay.
      */
-    private void bindCameraUseCases(@NonNull ProcessCameraProvider cameraProvider) {
-        if (isDestroyed || previewView == null) {
-            Log.w(TAG, "Activity is destroyed or previewView is null, not binding camera");
+    private void setupImageAnalyzer() {
+        imageAnalysis.setAnalyzer(cameraExecutor, imageProxy -> {
+            if (isDestroyed) {
+                imageProxy.close();
+                return;
+            }
+
+            if (VERBOSE_FRAME_LOGGING) {
+                Log.d(TAG, "DEBUG_DIM: ImageProxy original dimensions: " + imageProxy.getWidth() + "x" + imageProxy.getHeight() + " Rotation: " + imageProxy.getImageInfo().getRotationDegrees());
+            }
+
+            FrameHandoff.Job job = null;
+            try {
+                // Bước 2 còn bận và đã có một frame chờ: bỏ frame này trước khi tốn công tiền xử lý
+                if (frameHandoff.isFull()) {
+                    return;
+                }
+
+                // CHỌN GIỮA PHÁT HIỆN ĐẦY ĐỦ, THEO DÕI HOẶC BỎ QUA:
+                // frameScheduler quyết định dựa trên chi phí đo được và ngân sách CPU,
+                // thay cho chu kỳ xử lý cố định 1/3 frame trước đây.
+                FrameScheduler.Decision decision = frameScheduler.decide(
+                        imageProxy.getImageInfo().getTimestamp(), quadTrackingActive, redetectRequested);
+                long stageOneStartNs = System.nanoTime();
+
+                job = frameHandoff.obtain();
+                job.decision = decision;
+                job.reservedNs = frameScheduler.getLastReservationNs();
+                job.rejectedByPresence = false;
+                job.hasFrame = false;
+                job.sensorWidth = imageProxy.getWidth();
+                job.sensorHeight = imageProxy.getHeight();
+                job.rotationDegrees = imageProxy.getImageInfo().getRotationDegrees();
+
+                if (decision == FrameScheduler.Decision.DETECT) {
+                    redetectRequested = false;
+                    preprocessImageFrame(imageProxy, job);
+                } else if (decision == FrameScheduler.Decision.TRACK) {
+                    copyFrameForTracking(imageProxy, job);
+                }
+                job.stageOneNs = System.nanoTime() - stageOneStartNs;
+
+                frameHandoff.offer(job);
+                job = null;
+            } catch (Exception e) {
+                Log.e(TAG, "Error in image analysis: " + e.getMessage(), e);
+            } finally {
+                // Bước 2 chỉ dùng bản sao trong job: trả buffer cho camera ngay
+                imageProxy.close();
+                if (job != null) {
+                    // Frame không tới được bước 2: trả lại ngân sách đã giữ trước cho nó
+                    frameScheduler.cancel(job.reservedNs);
+                    frameHandoff.recycle(job);
+                }
+            }
+        });
+    }
+
+    /**
+     * BƯỚC 2 CỦA ANALYZER (detectionExecutor):
+     * Tìm khung trên frame đã tiền xử lý hoặc theo dõi bằng optical flow, cập nhật trạng thái khung,
+     * tự động chụp, báo chi phí cho frameScheduler và công bố khung cho overlay.
+     * @param job Frame do bước 1 giao (ImageProxy gốc đã được đóng)
+     */
+    private void processAnalysisJob(FrameHandoff.Job job) {
+        if (isDestroyed) {
             return;
         }
 
-        Preview preview = new Preview.Builder().build();
-        preview.setSurfaceProvider(previewView.getSurfaceProvider());
+        MatOfPoint newlyDetectedQuadrilateral = null;
+        long stageTwoStartNs = System.nanoTime();
+        try {
+            final MatOfPoint finalQuadrilateralForOverlay;
+            FrameScheduler.Decision decision = job.decision;
 
-        CameraSelector cameraSelector = new CameraSelector.Builder()
-                .requireLensFacing(CameraSelector.LENS_FACING_BACK)
-                .build();
+            if (decision == FrameScheduler.Decision.DETECT) {
+                newlyDetectedQuadrilateral = detectInFrame(job);
 
-        imageAnalysis = new ImageAnalysis.Builder()
-                .setResolutionSelector(new ResolutionSelector.Builder()
-                        .setResolutionStrategy(new ResolutionStrategy(new Size(640, 480),
-                                ResolutionStrategy.FALLBACK_RULE_CLOSEST_HIGHER_THEN_LOWER))
-                        .build())
-                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
-                .build();
+                if (VERBOSE_FRAME_LOGGING) {
+                    Log.d(TAG, "Đã xử lý khung hình đầy đủ. Khung: " + frameCount);
+                }
 
-        // Thiết lập ImageAnalyzer để xử lý frame realtime
-        // Mỗi frame sẽ được phân tích để detect document boundaries và xử lý auto-capture
-        imageAnalysis.setAnalyzer(cameraExecutor, imageProxy -> {
-            if (isDestroyed) {
-                imageProxy.close();
-                return;
+                if (newlyDetectedQuadrilateral != null) {
+                    // Kích thước frame theo hướng hiển thị, tính từ kích thước cảm biến (không cần giữ Mat)
+                    lastImageProxyWidth = QuadGeometry.displayWidth(job.sensorWidth, job.sensorHeight, job.rotationDegrees);
+                    lastImageProxyHeight = QuadGeometry.displayHeight(job.sensorWidth, job.sensorHeight, job.rotationDegrees);
+                    lastRotationDegrees = job.rotationDegrees;
+                    setLastDetectedQuadrilateral(newlyDetectedQuadrilateral);
+
+                    finalQuadrilateralForOverlay = newlyDetectedQuadrilateral;
+                    if (VERBOSE_FRAME_LOGGING) {
+                        Log.d(TAG, "DEBUG_DIM: Stored lastImageProxyWidth: " + lastImageProxyWidth + " lastImageProxyHeight: " + lastImageProxyHeight);
+                    }
+
+                    handleAutoCapture(newlyDetectedQuadrilateral);
+                } else {
+                    expireLastQuadrilateralIfStale();
+                    finalQuadrilateralForOverlay = lastDetectedQuadrilateral;
+                    resetAutoCaptureProgress();
+                    // Không còn khung nào (cả detector lẫn tracker): sau đủ số frame và thời gian vắng khung,
+                    // trang kế tiếp sẽ được coi là trang mới
+                    noteBurstQuadMissing();
+                }
+            } else if (decision == FrameScheduler.Decision.TRACK) {
+                // FRAME THEO DÕI: lan truyền 4 góc bằng optical flow thay vì chạy lại toàn bộ bộ phát hiện
+                newlyDetectedQuadrilateral = trackImageFrame(job);
+                if (newlyDetectedQuadrilateral != null) {
+                    setLastDetectedQuadrilateral(newlyDetectedQuadrilateral);
+                    finalQuadrilateralForOverlay = newlyDetectedQuadrilateral;
+
+                    handleAutoCapture(newlyDetectedQuadrilateral);
+                } else {
+                    // Mất dấu: yêu cầu phát hiện đầy đủ sớm nhất mà ngân sách cho phép
+                    if (VERBOSE_FRAME_LOGGING) {
+                        Log.d(TAG, "Tracker mất dấu khung (confidence thấp). Sẽ phát hiện lại ở frame kế tiếp.");
+                    }
+                    redetectRequested = true;
+                    expireLastQuadrilateralIfStale();
+                    finalQuadrilateralForOverlay = lastDetectedQuadrilateral;
+                }
+            } else {
+                expireLastQuadrilateralIfStale();
+                finalQuadrilateralForOverlay = lastDetectedQuadrilateral;
+                if (VERBOSE_FRAME_LOGGING) {
+                    Log.d(TAG, "Bỏ qua xử lý khung hình đầy đủ. Khung: " + frameCount + ". Hiển thị khung cũ nếu có.");
+                }
+            }
+            quadTrackingActive = quadTracker.isTracking();
+
+            // Chi phí CPU của frame = bước 1 + bước 2. Frame bị bộ lọc sớm từ chối chỉ tốn một phần nhỏ
+            // chi phí phát hiện: không đưa vào EMA chi phí phát hiện
+            FrameScheduler.Decision recordedDecision = job.rejectedByPresence ? FrameScheduler.Decision.SKIP : decision;
+            frameScheduler.record(recordedDecision, job.stageOneNs + System.nanoTime() - stageTwoStartNs, job.reservedNs);
+            if (frameCount % SCHEDULER_STATS_LOG_INTERVAL == 0) {
+                Log.i(TAG, "FrameScheduler: " + frameScheduler.getStats());
+            }
+            if (SHOW_FRAME_METRICS && customOverlayView != null && frameCount % FRAME_METRICS_OVERLAY_INTERVAL == 0) {
+                customOverlayView.setDebugText(ingestMetrics.summarize() + "\n" + frameMetrics.summarize()
+                        + "\n" + frameScheduler.getStats());
+            }
+
+            // CẬP NHẬT UI VỚI BOUNDING BOX:
+            // Công bố khung (tọa độ image space) vào bộ đệm của overlay; overlay tự scale sang screen space
+            // và chỉ vẽ lại ở vsync kế tiếp khi khung thực sự thay đổi
+            if (customOverlayView != null) {
+                customOverlayView.publishQuadrilateral(
+                        finalQuadrilateralForOverlay, lastImageProxyWidth, lastImageProxyHeight);
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG, "Error in image analysis: " + e.getMessage(), e);
+        } finally {
+            if (newlyDetectedQuadrilateral != null) {
+                newlyDetectedQuadrilateral.release();
+            }
+            if (frameCount == 0) {
+                // Camera đã khởi động xong: lúc này mới đo cấu hình phân tích nếu thiết bị chưa có
+                AppWarmUp.getInstance().calibrateAnalysisIfNeeded();
             }
+            frameCount++;
+        }
+    }
 
-            Log.d(TAG, "DEBUG_DIM: ImageProxy original dimensions: " + imageProxy.getWidth() + "x" + imageProxy.getHeight() + " Rotation: " + imageProxy.getImageInfo().getRotationDegrees());
+    /**
+     * Chuyển khung của frame hiện tại cho logic tự động chụp của chế độ đang chọn.
+     * @param quadrilateral Khung tứ giác của frame hiện tại (hướng hiển thị, đã sắp xếp)
+     */
+    private void handleAutoCapture(MatOfPoint quadrilateral) {
+        if (isBurstMode) {
+            handleBurstAutoCapture(quadrilateral);
+        } else {
+            handleIdCardAutoCapture(quadrilateral);
+        }
+    }
 
-            MatOfPoint newlyDetectedQuadrilateral = null;
-            Mat processedFrameForDimensions = null;
+    /**
+     * XỬ LÝ TỰ ĐỘNG CHỤP NHIỀU TRANG:
+     * Chụp một trang khi khung đã nét và ổn định (captureQualityGate), rồi chờ trang mới:
+     * khung phải biến mất (lật trang che khung) hoặc dịch chuyển rõ rệt so với trang vừa chụp.
+     * Không chụp khi hàng đợi xử lý nền đã đầy, để bộ nhớ không tăng theo tốc độ chụp.
+     * @param quadrilateral Khung tứ giác của frame hiện tại
+     */
+    private void handleBurstAutoCapture(MatOfPoint quadrilateral) {
+        Point[] points = quadrilateral.toArray();
+        if (!autoCaptureEnabled || isDestroyed || burstPagePipeline == null || points.length != 4) {
+            resetAutoCaptureProgress();
+            return;
+        }
+        burstMissedDetections = 0;
+        burstQuadLastSeenTime = System.currentTimeMillis();
+
+        // CHỜ TRANG MỚI: khung vẫn nằm gần vị trí trang vừa chụp thì đó vẫn là trang cũ
+        if (burstCapturedQuad != null) {
+            double totalDisplacement = 0;
+            for (int i = 0; i < 4; i++) {
+                totalDisplacement += QuadGeometry.distance(points[i], burstCapturedQuad[i]);
+            }
+            double diagonal = Math.hypot(lastImageProxyWidth, lastImageProxyHeight);
+            if (totalDisplacement / 4 < BURST_NEW_PAGE_DISPLACEMENT_FRACTION * diagonal) {
+                resetAutoCaptureProgress();
+                return;
+            }
+            burstCapturedQuad = null;
+        }
 
-            try {
-                final MatOfPoint finalQuadrilateralForOverlay;
+        boolean qualityReady = captureQualityGate.update(points, lastFrameSharpness,
+                lastImageProxyWidth, lastImageProxyHeight);
+        long currentTime = System.currentTimeMillis();
+        if (qualityReady
+                && currentTime - lastAutoCaptureTime > BURST_CAPTURE_COOLDOWN_MS
+                && burstPagePipeline.getPendingCount() < BURST_MAX_PENDING_PAGES) {
+            markBurstPageCaptured(points);
+
+            float[] quadPoints = toQuadPoints(quadrilateral);
+            int sourceWidth = lastImageProxyWidth;
+            int sourceHeight = lastImageProxyHeight;
+            runOnUiThread(() -> {
+                if (!isDestroyed && isBurstMode) {
+                    takeBurstPhoto(quadPoints, sourceWidth, sourceHeight);
+                }
+            });
+        }
+    }
 
-                // Chỉ xử lý 1/3 frame để tối ưu performance
-                // PROCESS_FRAME_INTERVAL = 3, nghĩa là chỉ xử lý frame thứ 0, 3, 6, 9...
-                if (frameCount % PROCESS_FRAME_INTERVAL == 0) {
-                    Pair<MatOfPoint, Mat> detectionResult = processImageFrame(imageProxy);
-                    newlyDetectedQuadrilateral = detectionResult.first;
-                    processedFrameForDimensions = detectionResult.second;
+    /**
+     * Ghi nhận một trang vừa được chụp (tự động hoặc bằng tay) ở chế độ nhiều trang: tự động chụp chờ trang mới
+     * và thời gian cooldown bắt đầu lại. Chạy trên detectionExecutor.
+     * @param points Khung của trang vừa chụp (hướng hiển thị), hoặc null nếu chụp cả ảnh
+     */
+    private void markBurstPageCaptured(Point[] points) {
+        long currentTime = System.currentTimeMillis();
+        burstCapturedQuad = points;
+        burstMissedDetections = 0;
+        burstQuadLastSeenTime = currentTime;
+        lastAutoCaptureTime = currentTime;
+        resetAutoCaptureProgress();
+    }
 
-                    Log.d(TAG, "Đã xử lý khung hình đầy đủ. Khung: " + frameCount);
+    /**
+     * Ghi nhận một frame phát hiện không có khung. Trang vừa chụp chỉ được coi là đã rời khung khi vắng khung
+     * liên tiếp BURST_PAGE_GONE_MISSES frame và ít nhất BURST_PAGE_GONE_MS. Chạy trên detectionExecutor.
+     */
+    private void noteBurstQuadMissing() {
+        if (burstCapturedQuad == null) {
+            return;
+        }
+        burstMissedDetections++;
+        if (burstMissedDetections >= BURST_PAGE_GONE_MISSES
+                && System.currentTimeMillis() - burstQuadLastSeenTime >= BURST_PAGE_GONE_MS) {
+            burstCapturedQuad = null;
+            burstMissedDetections = 0;
+        }
+    }
 
-                    if (newlyDetectedQuadrilateral != null && processedFrameForDimensions != null) {
-                        if (lastDetectedQuadrilateral != null) {
-                            lastDetectedQuadrilateral.release();
-                        }
-                        lastDetectedQuadrilateral = new MatOfPoint(newlyDetectedQuadrilateral.toArray());
-                        lastDetectionTimestamp = System.currentTimeMillis();
+    /**
+     * Đọc tỷ lệ khung của vùng điểm ảnh hoạt động trên cảm biến (SENSOR_INFO_ACTIVE_ARRAY_SIZE).
+     * Mọi luồng CameraX đều là vùng cắt giữa của vùng này, nên đây là hệ quy chiếu chung để ánh xạ khung.
+     * @param camera Camera vừa được bind
+     * @return Tỷ lệ cạnh dài / cạnh ngắn, hoặc giá trị mặc định nếu không đọc được
+     */
+    @androidx.annotation.OptIn(markerClass = ExperimentalCamera2Interop.class)
+    private static double readSensorAspectRatio(Camera camera) {
+        try {
+            Rect activeArray = Camera2CameraInfo.from(camera.getCameraInfo())
+                    .getCameraCharacteristic(CameraCharacteristics.SENSOR_INFO_ACTIVE_ARRAY_SIZE);
+            if (activeArray != null && activeArray.width() > 0 && activeArray.height() > 0) {
+                return (double) Math.max(activeArray.width(), activeArray.height())
+                        / Math.min(activeArray.width(), activeArray.height());
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Không đọc được kích thước cảm biến: " + e.getMessage());
+        }
+        return QuadCoordinateMapper.DEFAULT_SENSOR_ASPECT_RATIO;
+    }
 
-                        lastImageProxyWidth = processedFrameForDimensions.width();
-                        lastImageProxyHeight = processedFrameForDimensions.height();
-                        lastRotationDegrees = imageProxy.getImageInfo().getRotationDegrees();
+    /**
+     * XỬ LÝ TỰ ĐỘNG CHỤP THẺ ID:
+     * Được gọi cho mỗi frame có khung mới (phát hiện đầy đủ hoặc theo dõi bằng optical flow).
+     * Đếm số frame liên tiếp có tỷ lệ khung khớp với thẻ ID và kích hoạt takePhoto() khi đủ.
+     * @param quadrilateral Khung tứ giác của frame hiện tại
+     */
+    private void handleIdCardAutoCapture(MatOfPoint quadrilateral) {
+        // LOGIC TỰ ĐỘNG CHỤP THẺ ID:
+        // Kiểm tra xem có đang ở chế độ ID Card và auto-capture có được bật không
+        // Nếu phát hiện khung có tỷ lệ khớp với thẻ ID (1.5-1.85), sẽ tự động chụp
+        if (isIdCardMode && autoCaptureEnabled && !isDestroyed) {
+            long currentTime = System.currentTimeMillis();
+            Point[] points = quadrilateral.toArray();
+            if (points.length == 4) {
+                MatOfPoint sortedPoints = QuadGeometry.sortPoints(new MatOfPoint(points));
+                Point[] sortedPts = sortedPoints.toArray();
+
+                // TÍNH TOÁN KÍCH THƯỚC VÀ TỶ LỆ KHUNG:
+                // Tính chiều rộng trung bình (top và bottom)
+                double widthTop = Math.sqrt(Math.pow(sortedPts[0].x - sortedPts[1].x, 2) + Math.pow(sortedPts[0].y - sortedPts[1].y, 2));
+                double widthBottom = Math.sqrt(Math.pow(sortedPts[3].x - sortedPts[2].x, 2) + Math.pow(sortedPts[3].y - sortedPts[2].y, 2));
+                double avgWidth = (widthTop + widthBottom) / 2.0;
+
+                // Tính chiều cao trung bình (left và right)
+                double heightLeft = Math.sqrt(Math.pow(sortedPts[0].x - sortedPts[3].x, 2) + Math.pow(sortedPts[0].y - sortedPts[3].y, 2));
+                double heightRight = Math.sqrt(Math.pow(sortedPts[1].x - sortedPts[2].x, 2) + Math.pow(sortedPts[1].y - sortedPts[2].y, 2));
+                double avgHeight = (heightLeft + heightRight) / 2.0;
+
+                if (avgHeight > 0) {
+                    double aspectRatio = avgWidth / avgHeight;
+                    if (VERBOSE_FRAME_LOGGING) {
+                        Log.d(TAG, "Calculated Aspect Ratio: " + String.format("%.2f", aspectRatio) + " (Min: " + ID_CARD_ASPECT_RATIO_MIN + ", Max: " + ID_CARD_ASPECT_RATIO_MAX + ")");
+                    }
 
-                        finalQuadrilateralForOverlay = newlyDetectedQuadrilateral;
-                        Log.d(TAG, "DEBUG_DIM: Processed Mat dimensions (from processedFrameForDimensions): " + processedFrameForDimensions.width() + "x" + processedFrameForDimensions.height());
-                        Log.d(TAG, "DEBUG_DIM: Stored lastImageProxyWidth: " + lastImageProxyWidth + " lastImageProxyHeight: " + lastImageProxyHeight);
+                    // KIỂM TRA TỶ LỆ KHUNG CÓ KHỚP VỚI THẺ ID KHÔNG:
+                    // Tỷ lệ thẻ ID: 1.5-1.85 (cả chiều ngang và chiều dọc)
+                    // Nếu khớp, tăng số frame hợp lệ liên tiếp
+                    if (aspectRatio >= ID_CARD_ASPECT_RATIO_MIN && aspectRatio <= ID_CARD_ASPECT_RATIO_MAX || aspectRatio >= 1/ID_CARD_ASPECT_RATIO_MAX && aspectRatio <= 1/ID_CARD_ASPECT_RATIO_MIN) {
+                        consecutiveValidFrames++;
+                        // CỔNG CHẤT LƯỢNG: độ nét trong khung và độ dịch chuyển góc giữa các frame
+                        boolean qualityReady = captureQualityGate.update(sortedPts, lastFrameSharpness,
+                                lastImageProxyWidth, lastImageProxyHeight);
+                        if (VERBOSE_FRAME_LOGGING) {
+                            Log.d(TAG, "Valid frame. Consecutive: " + consecutiveValidFrames + "/" + REQUIRED_CONSECUTIVE_FRAMES
+                                    + " sharpness: " + lastFrameSharpness + " quality: " + captureQualityGate.getLastScore());
+                        }
 
-                        // LOGIC TỰ ĐỘNG CHỤP THẺ ID:
-                        // Kiểm tra xem có đang ở chế độ ID Card và auto-capture có được bật không
-                        // Nếu phát hiện khung có tỷ lệ khớp với thẻ ID (1.5-1.85), sẽ tự động chụp
-                        if (isIdCardMode && autoCaptureEnabled && !isDestroyed) {
-                            long currentTime = System.currentTimeMillis();
-                            Point[] points = newlyDetectedQuadrilateral.toArray();
-                            if (points.length == 4) {
-                                MatOfPoint sortedPoints = sortPoints(new MatOfPoint(points));
-                                Point[] sortedPts = sortedPoints.toArray();
-
-                                // TÍNH TOÁN KÍCH THƯỚC VÀ TỶ LỆ KHUNG:
-                                // Tính chiều rộng trung bình (top và bottom)
-                                double widthTop = Math.sqrt(Math.pow(sortedPts[0].x - sortedPts[1].x, 2) + Math.pow(sortedPts[0].y - sortedPts[1].y, 2));
-                                double widthBottom = Math.sqrt(Math.pow(sortedPts[3].x - sortedPts[2].x, 2) + Math.pow(sortedPts[3].y - sortedPts[2].y, 2));
-                                double avgWidth = (widthTop + widthBottom) / 2.0;
-
-                                // Tính chiều cao trung bình (left và right)
-                                double heightLeft = Math.sqrt(Math.pow(sortedPts[0].x - sortedPts[3].x, 2) + Math.pow(sortedPts[0].y - sortedPts[3].y, 2));
-                                double heightRight = Math.sqrt(Math.pow(sortedPts[1].x - sortedPts[2].x, 2) + Math.pow(sortedPts[1].y - sortedPts[2].y, 2));
-                                double avgHeight = (heightLeft + heightRight) / 2.0;
-
-                                if (avgHeight > 0) {
-                                    double aspectRatio = avgWidth / avgHeight;
-                                    Log.d(TAG, "Calculated Aspect Ratio: " + String.format("%.2f", aspectRatio) + " (Min: " + ID_CARD_ASPECT_RATIO_MIN + ", Max: " + ID_CARD_ASPECT_RATIO_MAX + ")");
-
-                                    // KIỂM TRA TỶ LỆ KHUNG CÓ KHỚP VỚI THẺ ID KHÔNG:
-                                    // Tỷ lệ thẻ ID: 1.5-1.85 (cả chiều ngang và chiều dọc)
-                                    // Nếu khớp, tăng số frame hợp lệ liên tiếp
-                                    if (aspectRatio >= ID_CARD_ASPECT_RATIO_MIN && aspectRatio <= ID_CARD_ASPECT_RATIO_MAX || aspectRatio >= 1/ID_CARD_ASPECT_RATIO_MAX && aspectRatio <= 1/ID_CARD_ASPECT_RATIO_MIN) {
-                                        consecutiveValidFrames++;
-                                        Log.d(TAG, "Valid frame. Consecutive: " + consecutiveValidFrames + "/" + REQUIRED_CONSECUTIVE_FRAMES);
-
-                                        // AUTO-CAPTURE TRIGGER:
-                                        // Nếu đủ số frame hợp lệ liên tiếp (10 frame) và đã qua thời gian cooldown (3 giây)
-                                        // Thì tự động chụp ảnh và reset counter
-                                        if (consecutiveValidFrames >= REQUIRED_CONSECUTIVE_FRAMES) {
-                                            if (currentTime - lastAutoCaptureTime > AUTO_CAPTURE_COOLDOWN_MS) {
-                                                Log.d(TAG, "Phát hiện thẻ ID hợp lệ liên tục. Đang tự động chụp...");
-                                                runOnUiThread(() -> {
-                                                    if (!isDestroyed) {
-                                                        Toast.makeText(CameraActivity.this, "Tự động chụp thẻ ID!", Toast.LENGTH_SHORT).show();
-                                                        takePhoto();
-                                                    }
-                                                });
-                                                lastAutoCaptureTime = currentTime;
-                                                consecutiveValidFrames = 0;
-                                            }
-                                        }
-                                    } else {
-                                        consecutiveValidFrames = 0;
-                                        Log.d(TAG, "Aspect ratio out of range. Resetting consecutive frames.");
+                        // AUTO-CAPTURE TRIGGER:
+                        // Nếu đủ số frame hợp lệ liên tiếp (REQUIRED_CONSECUTIVE_FRAMES), điểm chất lượng đã ổn định
+                        // trên ngưỡng và đã qua thời gian cooldown (3 giây) thì tự động chụp ảnh và reset counter
+                        if (consecutiveValidFrames >= REQUIRED_CONSECUTIVE_FRAMES && qualityReady) {
+                            if (currentTime - lastAutoCaptureTime > AUTO_CAPTURE_COOLDOWN_MS) {
+                                Log.d(TAG, "Phát hiện thẻ ID hợp lệ liên tục. Đang tự động chụp...");
+                                runOnUiThread(() -> {
+                                    if (!isDestroyed) {
+                                        Toast.makeText(CameraActivity.this, "Tự động chụp thẻ ID!", Toast.LENGTH_SHORT).show();
+                                        takePhoto();
                                     }
-                                } else {
-                                    consecutiveValidFrames = 0;
-                                    Log.d(TAG, "AvgHeight is zero. Resetting consecutive frames.");
-                                }
-                                sortedPoints.release();
-                            } else {
-                                consecutiveValidFrames = 0;
-                                Log.d(TAG, "Not a 4-point quadrilateral. Resetting consecutive frames.");
+                                });
+                                lastAutoCaptureTime = currentTime;
+                                resetAutoCaptureProgress();
                             }
-                        } else {
-                            consecutiveValidFrames = 0;
                         }
                     } else {
-                        if (lastDetectedQuadrilateral != null && (System.currentTimeMillis() - lastDetectionTimestamp > QUAD_PERSISTENCE_TIMEOUT_MS)) {
-                            Log.d(TAG, "lastDetectedQuadrilateral đã hết thời gian chờ. Giải phóng và đặt là null.");
-                            lastDetectedQuadrilateral.release();
-                            lastDetectedQuadrilateral = null;
+                        resetAutoCaptureProgress();
+                        if (VERBOSE_FRAME_LOGGING) {
+                            Log.d(TAG, "Aspect ratio out of range. Resetting consecutive frames.");
                         }
-                        finalQuadrilateralForOverlay = lastDetectedQuadrilateral;
                     }
                 } else {
-                    if (lastDetectedQuadrilateral != null && (System.currentTimeMillis() - lastDetectionTimestamp > QUAD_PERSISTENCE_TIMEOUT_MS)) {
-                        Log.d(TAG, "lastDetectedQuadrilateral đã hết thời gian chờ trên khung bị bỏ qua. Giải phóng và đặt là null.");
-                        lastDetectedQuadrilateral.release();
-                        lastDetectedQuadrilateral = null;
+                    resetAutoCaptureProgress();
+                    if (VERBOSE_FRAME_LOGGING) {
+                        Log.d(TAG, "AvgHeight is zero. Resetting consecutive frames.");
                     }
-                    finalQuadrilateralForOverlay = lastDetectedQuadrilateral;
-                    Log.d(TAG, "Bỏ qua xử lý khung hình đầy đủ. Khung: " + frameCount + ". Hiển thị khung cũ nếu có.");
                 }
+                sortedPoints.release();
+            } else {
+                resetAutoCaptureProgress();
+                if (VERBOSE_FRAME_LOGGING) {
+                    Log.d(TAG, "Not a 4-point quadrilateral. Resetting consecutive frames.");
+                }
+            }
+        } else {
+            resetAutoCaptureProgress();
+        }
+    }
 
-                // CẬP NHẬT UI VỚI BOUNDING BOX:
-                // Chuyển về main thread để cập nhật overlay view
-                // Scale tọa độ từ image space sang screen space để hiển thị chính xác
-                runOnUiThread(() -> {
-                    if (!isDestroyed && customOverlayView != null && previewView != null) {
-                        if (finalQuadrilateralForOverlay != null) {
-                            int effectiveImageWidth = lastImageProxyWidth;
-                            int effectiveImageHeight = lastImageProxyHeight;
-
-                            // Scale tọa độ khung nhận diện từ image space sang screen space
-                            customOverlayView.setQuadrilateral(
-                                    CustomOverlayView.scalePointsToOverlayView(
-                                            finalQuadrilateralForOverlay,
-                                            effectiveImageWidth,
-                                            effectiveImageHeight,
-                                            previewView.getWidth(),
-                                            previewView.getHeight()
-                                    )
-                            );
-                        } else {
-                            customOverlayView.clearBoundingBox();
-                        }
-                        customOverlayView.invalidate();
-                    }
-                });
+    /**
+     * Đặt lại bộ đếm frame hợp lệ và cổng chất lượng của chế độ tự động chụp thẻ ID.
+     */
+    private void resetAutoCaptureProgress() {
+        consecutiveValidFrames = 0;
+        if (captureQualityGate != null) {
+            captureQualityGate.reset();
+        }
+    }
 
-            } catch (Exception e) {
-                Log.e(TAG, "Error in image analysis: " + e.getMessage(), e);
-            } finally {
-                imageProxy.close();
-                if (newlyDetectedQuadrilateral != null) {
-                    newlyDetectedQuadrilateral.release();
-                }
-                if (processedFrameForDimensions != null) {
-                    processedFrameForDimensions.release();
-                }
-                frameCount++;
+    /**
+     * Đo độ nét trong vùng khung khi đang ở chế độ thẻ ID hoặc nhiều trang (chỉ khi đó mới cần cho cổng chất lượng).
+     * @param gray Ảnh xám của frame (hướng cảm biến)
+     * @param sensorQuad 4 góc khung trong tọa độ của gray, hoặc null
+     */
+    private void updateFrameSharpness(Mat gray, Point[] sensorQuad) {
+        // captureQualityGate được tạo sau khi OpenCV nạp xong (setupOpenCvDependents) và bị giải phóng trong onDestroy
+        lastFrameSharpness = ((isIdCardMode || isBurstMode) && sensorQuad != null && captureQualityGate != null)
+                ? captureQualityGate.measureSharpness(gray, sensorQuad)
+                : -1;
+    }
+
+    /**
+     * BƯỚC 1 CỦA FRAME THEO DÕI: chỉ sao chép mặt phẳng Y vào job để bước 2 chạy optical flow.
+     * @param imageProxy Frame ảnh từ camera (chưa đóng)
+     * @param job Job nhận bản sao; hasFrame = false nếu buffer không đủ dữ liệu
+     */
+    private void copyFrameForTracking(ImageProxy imageProxy, FrameHandoff.Job job) {
+        Mat gray = null;
+        try {
+            gray = yPlaneIngestor.wrap(imageProxy);
+            if (gray != null) {
+                job.frame.copyGrayFrom(gray);
+                job.hasFrame = true;
             }
-        });
+        } finally {
+            yPlaneIngestor.release(gray);
+        }
+    }
 
-        int targetRotation = Surface.ROTATION_0;
+    /**
+     * Chuyển khung (hướng cảm biến, tọa độ buffer phân tích) cho quadMeteringController.
+     * @param sensorQuad 4 góc khung, hoặc null nếu frame không có khung
+     * @param job Frame chứa kích thước buffer
+     */
+    private void updateMetering(Point[] sensorQuad, FrameHandoff.Job job) {
+        if (quadMeteringController != null) {
+            quadMeteringController.update(sensorQuad, job.sensorWidth, job.sensorHeight);
+        }
+    }
+
+    /**
+     * THEO DÕI KHUNG TRÊN FRAME BỎ QUA PHÁT HIỆN (bước 2):
+     * Chạy Lucas–Kanade cho 4 góc (theo hướng cảm biến) thông qua quadTracker trên bản sao mặt phẳng Y.
+     * Rẻ hơn nhiều so với phát hiện đầy đủ vì không blur, Canny hay findContours.
+     * @param job Frame do bước 1 giao
+     * @return MatOfPoint khung đã theo dõi (tọa độ hướng hiển thị) hoặc null nếu mất dấu
+     */
+    private MatOfPoint trackImageFrame(FrameHandoff.Job job) {
         try {
-            Display display = previewView.getDisplay();
-            if (display != null) {
-                targetRotation = display.getRotation();
-            } else {
-                Log.w(TAG, "Display is null, using default rotation");
+            if (!job.hasFrame) {
+                quadTracker.lose();
+                return null;
             }
+
+            Mat gray = job.frame.getGray();
+            quadTracker.pushFrame(gray);
+            Point[] trackedQuad = quadTracker.track();
+            updateFrameSharpness(gray, trackedQuad);
+            updateMetering(trackedQuad, job);
+            return trackedQuad != null ? toDisplayQuadrilateral(trackedQuad, job) : null;
         } catch (Exception e) {
-            Log.e(TAG, "Error getting display rotation: " + e.getMessage(), e);
+            Log.e(TAG, "Error tracking image frame: " + e.getMessage(), e);
+            quadTracker.lose();
+            return null;
         }
+    }
 
-        imageCapture = new ImageCapture.Builder()
-                .setTargetRotation(targetRotation)
-                .build();
-        Log.d("CameraActivity", "ImageCapture target rotation: " + imageCapture.getTargetRotation());
+    /**
+     * Xoay 4 góc từ hướng cảm biến sang hướng hiển thị và sắp xếp lại theo thứ tự chuẩn.
+     * @param sensorQuad 4 góc trong tọa độ ảnh cảm biến
+     * @param job Frame chứa kích thước cảm biến và góc xoay
+     * @return MatOfPoint mới trong tọa độ hướng hiển thị
+     */
+    private static MatOfPoint toDisplayQuadrilateral(Point[] sensorQuad, FrameHandoff.Job job) {
+        Point[] displayQuad = QuadGeometry.rotateToDisplay(sensorQuad, job.sensorWidth, job.sensorHeight,
+                job.rotationDegrees);
+        return new MatOfPoint(QuadGeometry.sortPoints(displayQuad));
+    }
 
-        cameraProvider.unbindAll();
+    /**
+     * Thay khung cuối cùng bằng bản sao của khung vừa tìm được và công bố bản sao bất biến cho luồng chính.
+     * Gọi trên detectionExecutor, sau khi lastImageProxyWidth/Height đã ứng với frame của khung.
+     * @param quadrilateral Khung của frame hiện tại (hướng hiển thị); người gọi vẫn giữ quyền sở hữu
+     */
+    private void setLastDetectedQuadrilateral(MatOfPoint quadrilateral) {
+        if (lastDetectedQuadrilateral != null) {
+            lastDetectedQuadrilateral.release();
+        }
+        lastDetectedQuadrilateral = new MatOfPoint(quadrilateral.toArray());
+        lastDetectionTimestamp = System.currentTimeMillis();
+        float[] quadPoints = toQuadPoints(quadrilateral);
+        publishedQuad = quadPoints != null
+                ? new QuadSnapshot(quadPoints, lastImageProxyWidth, lastImageProxyHeight)
+                : null;
+    }
 
-        try {
-            cameraProvider.bindToLifecycle(this, cameraSelector, preview, imageAnalysis, imageCapture);
-        } catch (Exception e) {
-            Log.e(TAG, "Lỗi khi liên kết các trường hợp sử dụng camera: " + e.getMessage(), e);
+    /**
+     * Giải phóng khung cuối cùng nếu đã quá QUAD_PERSISTENCE_TIMEOUT_MS kể từ lần phát hiện/theo dõi thành công.
+     */
+    private void expireLastQuadrilateralIfStale() {
+        if (lastDetectedQuadrilateral != null && (System.currentTimeMillis() - lastDetectionTimestamp > QUAD_PERSISTENCE_TIMEOUT_MS)) {
+            if (VERBOSE_FRAME_LOGGING) {
+                Log.d(TAG, "lastDetectedQuadrilateral đã hết thời gian chờ. Giải phóng và đặt là null.");
+            }
+            publishedQuad = null;
+            lastDetectedQuadrilateral.release();
+            lastDetectedQuadrilateral = null;
         }
     }
 
     /**
      * Chụp ảnh sử dụng CameraX ImageCapture.
-     * Lưu ảnh vào cache và tự động chuyển sang CropActivity.
+     * Giữ ảnh đã giải mã trong bộ nhớ, ghi file cache ở nền và tự động chuyển sang CropActivity.
      * Xử lý error handling và lifecycle management.
      */
     private void takePhoto() {
@@ -571,52 +924,313 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
         }
 
         File photoFile = new File(getCacheDir(), "captured_image_" + System.currentTimeMillis() + ".jpeg");
+        // Giữ khung tại thời điểm bấm chụp (tọa độ frame phân tích) để ánh xạ sang ảnh chụp khi có kích thước thật.
+        // Đọc một lần bản sao bất biến do bước 2 công bố: khung và kích thước frame luôn khớp nhau
+        QuadSnapshot snapshot = publishedQuad;
+        float[] analysisQuad = snapshot != null ? snapshot.quadPoints : null;
+        int analysisWidth = snapshot != null ? snapshot.width : 0;
+        int analysisHeight = snapshot != null ? snapshot.height : 0;
+
+        // CHỤP VÀO BỘ NHỚ THAY VÌ GHI FILE RỒI GIẢI MÃ LẠI:
+        // JPEG được giải mã một lần thành Bitmap đúng hướng trên captureExecutor, đăng ký vào PageBufferRegistry
+        // và chỉ handle được truyền sang CropActivity. File trên đĩa được ghi lười ở nền (dùng làm đường dự phòng).
+        imageCapture.takePicture(captureExecutor, new ImageCapture.OnImageCapturedCallback() {
+            @Override
+            public void onCaptureSuccess(@NonNull ImageProxy image) {
+                byte[] jpegBytes;
+                int rotationDegrees;
+                try {
+                    jpegBytes = CapturedPageDecoder.readJpegBytes(image);
+                    rotationDegrees = image.getImageInfo().getRotationDegrees();
+                } finally {
+                    image.close();
+                }
+
+                Bitmap pageBitmap = CapturedPageDecoder.decodeOriented(jpegBytes, rotationDegrees);
+                if (pageBitmap == null) {
+                    Log.e(TAG, "Không thể giải mã ảnh đã chụp.");
+                    runOnUiThread(() -> {
+                        if (!isDestroyed) {
+                            Toast.makeText(CameraActivity.this, getString(R.string.failed_to_save_image), Toast.LENGTH_SHORT).show();
+                        }
+                    });
+                    return;
+                }
 
-        ImageCapture.OutputFileOptions outputFileOptions =
-                new ImageCapture.OutputFileOptions.Builder(photoFile).build();
+                // ÁNH XẠ KHUNG SANG ĐỘ PHÂN GIẢI ẢNH CHỤP: tính đến tỷ lệ khung khác nhau giữa hai luồng
+                int pageWidth = pageBitmap.getWidth();
+                int pageHeight = pageBitmap.getHeight();
+                float[] pageQuad = QuadCoordinateMapper.map(analysisQuad, analysisWidth, analysisHeight,
+                        pageWidth, pageHeight, sensorAspectRatio);
+                // TINH CHỈNH KHUNG Ở ĐỘ PHÂN GIẢI ĐẦY ĐỦ: chỉ tìm cạnh trong dải hẹp quanh khung đã phóng
+                if (pageQuad != null && analysisWidth > 0) {
+                    pageQuad = refinePageQuad(pageBitmap, pageQuad, (double) pageWidth / analysisWidth);
+                }
 
-        imageCapture.takePicture(outputFileOptions, ContextCompat.getMainExecutor(this), new ImageCapture.OnImageSavedCallback() {
-            @Override
-            public void onImageSaved(ImageCapture.OutputFileResults outputFileResults) {
-                if (isDestroyed) return;
+                PageBufferRegistry registry = PageBufferRegistry.getInstance();
+                PageBuffer pageBuffer = new PageBuffer(pageBitmap);
+                registry.persistAsync(pageBuffer, jpegBytes, rotationDegrees, photoFile);
+                String pageHandle = registry.register(pageBuffer);
 
-                Uri savedUri = outputFileResults.getSavedUri();
-                if (savedUri != null) {
+                runOnUiThread(() -> {
+                    if (isDestroyed) {
+                        registry.remove(pageHandle);
+                        return;
+                    }
                     Toast.makeText(CameraActivity.this, getString(R.string.photo_captured_saved), Toast.LENGTH_SHORT).show();
-                    Log.d(TAG, "Ảnh đã chụp và lưu: " + savedUri);
+                    Log.d(TAG, "Ảnh đã chụp vào bộ nhớ: " + pageHandle);
 
                     // LUÔN chuyển sang CropActivity sau khi chụp ảnh
-                    // Truyền URI ảnh và khung nhận diện (nếu có) để auto-crop
-                    startCropActivity(savedUri, lastDetectedQuadrilateral);
+                    // Truyền handle trang, URI file dự phòng và khung nhận diện (nếu có, theo tọa độ ảnh chụp) để auto-crop
+                    startCropActivity(Uri.fromFile(photoFile), pageHandle, pageQuad, pageWidth, pageHeight);
+                });
+            }
 
-                } else {
-                    Toast.makeText(CameraActivity.this, getString(R.string.failed_to_save_image), Toast.LENGTH_SHORT).show();
-                    Log.e(TAG, "Không thể lưu ảnh: Uri null");
-                }
+            @Override
+            public void onError(@NonNull ImageCaptureException exception) {
+                Log.e(TAG, "Lỗi khi chụp ảnh: " + exception.getMessage(), exception);
+                runOnUiThread(() -> {
+                    if (!isDestroyed) {
+                        Toast.makeText(CameraActivity.this, "Lỗi khi chụp ảnh: " + exception.getMessage(), Toast.LENGTH_SHORT).show();
+                    }
+                });
             }
+        });
+    }
+
+    /**
+     * Tinh chỉnh khung đã phóng từ frame phân tích trên ảnh chụp bằng QuadRefiner (chạy trên captureExecutor).
+     * QuadRefiner đọc các dải quanh cạnh thẳng từ Bitmap, không chuyển cả ảnh chụp sang Mat.
+     * @param pageBitmap Ảnh chụp đã xoay đúng hướng
+     * @param pageQuad Khung thô trong tọa độ ảnh chụp
+     * @param scale Hệ số phóng từ frame phân tích lên ảnh chụp
+     * @return Khung đã tinh chỉnh, hoặc khung thô nếu không tinh chỉnh được
+     */
+    private float[] refinePageQuad(Bitmap pageBitmap, float[] pageQuad, double scale) {
+        // Chưa tạo (OpenCV chưa nạp) hoặc đã giải phóng (onDestroy): dùng khung thô
+        if (captureQuadRefiner == null) {
+            return pageQuad;
+        }
+        long startNs = System.nanoTime();
+        try {
+            Point[] coarse = new Point[4];
+            for (int i = 0; i < 4; i++) {
+                coarse[i] = new Point(pageQuad[i * 2], pageQuad[i * 2 + 1]);
+            }
+            Point[] refined = captureQuadRefiner.refine(new BitmapPixelSource(pageBitmap), coarse,
+                    QuadRefiner.searchRadiusForScale(scale));
+            float[] result = new float[8];
+            for (int i = 0; i < 4; i++) {
+                result[i * 2] = (float) refined[i].x;
+                result[i * 2 + 1] = (float) refined[i].y;
+            }
+            Log.d(TAG, "Tinh chỉnh khung trên ảnh chụp: " + (System.nanoTime() - startNs) / 1_000_000 + " ms");
+            return result;
+        } catch (Exception e) {
+            Log.e(TAG, "Lỗi khi tinh chỉnh khung: " + e.getMessage(), e);
+            return pageQuad;
+        }
+    }
 
+    /**
+     * CHỤP MỘT TRANG Ở CHẾ ĐỘ NHIỀU TRANG:
+     * Chỉ sao chép JPEG và đóng ImageProxy trên captureExecutor; giải mã, làm phẳng và tăng cường
+     * chạy trong burstPagePipeline để camera sẵn sàng cho trang tiếp theo ngay.
+     * @param quadPoints 4 góc khung theo hướng hiển thị của frame phân tích, hoặc null để giữ cả ảnh
+     * @param sourceWidth Chiều rộng frame phân tích chứa quadPoints
+     * @param sourceHeight Chiều cao frame phân tích chứa quadPoints
+     */
+    private void takeBurstPhoto(float[] quadPoints, int sourceWidth, int sourceHeight) {
+        if (imageCapture == null || isDestroyed || burstPagePipeline == null) {
+            Log.e(TAG, "ImageCapture hoặc hàng đợi trang chưa sẵn sàng.");
+            return;
+        }
+        BurstPagePipeline pipeline = burstPagePipeline;
+        imageCapture.takePicture(captureExecutor, new ImageCapture.OnImageCapturedCallback() {
             @Override
-            public void onError(ImageCaptureException exception) {
-                if (isDestroyed) return;
+            public void onCaptureSuccess(@NonNull ImageProxy image) {
+                byte[] jpegBytes;
+                int rotationDegrees;
+                int pageWidth;
+                int pageHeight;
+                try {
+                    jpegBytes = CapturedPageDecoder.readJpegBytes(image);
+                    rotationDegrees = image.getImageInfo().getRotationDegrees();
+                    pageWidth = QuadGeometry.displayWidth(image.getWidth(), image.getHeight(), rotationDegrees);
+                    pageHeight = QuadGeometry.displayHeight(image.getWidth(), image.getHeight(), rotationDegrees);
+                } finally {
+                    image.close();
+                }
+                float[] pageQuad = QuadCoordinateMapper.map(quadPoints, sourceWidth, sourceHeight,
+                        pageWidth, pageHeight, sensorAspectRatio);
+                int refineRadius = sourceWidth > 0
+                        ? QuadRefiner.searchRadiusForScale((double) pageWidth / sourceWidth)
+                        : 0;
+                pipeline.submit(jpegBytes, rotationDegrees, pageQuad, refineRadius);
+            }
 
-                Log.e(TAG, "Lỗi khi chụp ảnh: " + exception.getMessage(), exception);
-                Toast.makeText(CameraActivity.this, "Lỗi khi chụp ảnh: " + exception.getMessage(), Toast.LENGTH_SHORT).show();
+            @Override
+            public void onError(@NonNull ImageCaptureException exception) {
+                Log.e(TAG, "Lỗi khi chụp trang: " + exception.getMessage(), exception);
             }
         });
     }
 
+    /**
+     * Bật/tắt chế độ nhiều trang: tạo hàng đợi xử lý nền và hiện bộ đếm trang, nút hoàn tất.
+     * Khi rời chế độ, các trang đã chụp vẫn được xử lý xong ở nền nhưng không được chuyển tiếp.
+     * @param enabled true nếu tab Nhiều trang được chọn
+     */
+    private void setBurstMode(boolean enabled) {
+        if (enabled == isBurstMode) {
+            return;
+        }
+        isBurstMode = enabled;
+        if (!detectionExecutor.isShutdown()) {
+            detectionExecutor.execute(() -> {
+                burstCapturedQuad = null;
+                burstMissedDetections = 0;
+            });
+        }
+        if (enabled) {
+            burstPagePipeline = new BurstPagePipeline(new File(getCacheDir(), "burst_pages"),
+                    (processed, pending) -> runOnUiThread(() -> updateBurstCounter(processed, pending)));
+            burstSessionStartTime = System.currentTimeMillis();
+            updateBurstCounter(0, 0);
+        } else if (burstPagePipeline != null) {
+            burstPagePipeline.shutdown();
+            burstPagePipeline = null;
+        }
+        textViewBurstCounter.setVisibility(enabled ? View.VISIBLE : View.GONE);
+        btnBurstDone.setVisibility(enabled ? View.VISIBLE : View.GONE);
+        btnSelectImage.setVisibility(enabled ? View.GONE : View.VISIBLE);
+    }
+
+    private void updateBurstCounter(int processed, int pending) {
+        if (isDestroyed || !isBurstMode) {
+            return;
+        }
+        textViewBurstCounter.setText(pending > 0
+                ? getString(R.string.burst_page_counter_processing, processed + pending, pending)
+                : getString(R.string.burst_page_counter, processed));
+    }
+
+    /**
+     * HOÀN TẤT PHIÊN NHIỀU TRANG:
+     * Chờ các trang còn trong hàng đợi xử lý xong rồi chuyển toàn bộ danh sách sang PDFGroupActivity
+     * (hoặc trả về PDFGroupActivity nếu được mở từ đó).
+     */
+    private void finishBurstSession() {
+        BurstPagePipeline pipeline = burstPagePipeline;
+        if (pipeline == null || isDestroyed) {
+            return;
+        }
+        if (pipeline.getProcessedCount() + pipeline.getPendingCount() == 0) {
+            Toast.makeText(this, getString(R.string.burst_no_pages), Toast.LENGTH_SHORT).show();
+            return;
+        }
+        if (pipeline.getPendingCount() > 0) {
+            Toast.makeText(this, getString(R.string.burst_finishing), Toast.LENGTH_SHORT).show();
+        }
+        btnBurstDone.setEnabled(false);
+        btnTakePhoto.setEnabled(false);
+
+        pipeline.finish(pageUris -> runOnUiThread(() -> {
+            if (isDestroyed) {
+                return;
+            }
+            double minutes = (System.currentTimeMillis() - burstSessionStartTime) / 60000.0;
+            Log.i(TAG, "Chụp nhiều trang: " + pageUris.size() + " trang, "
+                    + String.format("%.1f", minutes > 0 ? pageUris.size() / minutes : 0) + " trang/phút");
+            btnBurstDone.setEnabled(true);
+            btnTakePhoto.setEnabled(true);
+            if (pageUris.isEmpty()) {
+                Toast.makeText(this, getString(R.string.burst_no_pages), Toast.LENGTH_SHORT).show();
+                return;
+            }
+            if (isFromPdfGroup) {
+                Intent resultIntent = new Intent();
+                resultIntent.putStringArrayListExtra("processedImageUris", pageUris);
+                setResult(RESULT_OK, resultIntent);
+            } else {
+                Intent pdfGroupIntent = new Intent(this, PDFGroupActivity.class);
+                pdfGroupIntent.putStringArrayListExtra("processedImageUris", pageUris);
+                startActivity(pdfGroupIntent);
+            }
+            finish();
+        }));
+    }
+
+    /**
+     * Chuyển khung sang mảng [x1, y1, ..., x4, y4].
+     * @param quadrilateral Khung tứ giác, có thể null
+     * @return Mảng 8 số, hoặc null nếu không có khung hợp lệ
+     */
+    private static float[] toQuadPoints(MatOfPoint quadrilateral) {
+        if (quadrilateral == null || quadrilateral.empty()) {
+            return null;
+        }
+        Point[] points = quadrilateral.toArray();
+        if (points.length != 4) {
+            return null;
+        }
+        float[] quadPoints = new float[8];
+        for (int i = 0; i < 4; i++) {
+            quadPoints[i * 2] = (float) points[i].x;
+            quadPoints[i * 2 + 1] = (float) points[i].y;
+        }
+        return quadPoints;
+    }
+
+    /**
+     * Chuyển mảng [x1, y1, ..., x4, y4] về 4 điểm.
+     * @param quadPoints Mảng 8 số, có thể null
+     * @return 4 điểm, hoặc null nếu không có khung
+     */
+    private static Point[] toPoints(float[] quadPoints) {
+        if (quadPoints == null || quadPoints.length != 8) {
+            return null;
+        }
+        Point[] points = new Point[4];
+        for (int i = 0; i < 4; i++) {
+            points[i] = new Point(quadPoints[i * 2], quadPoints[i * 2 + 1]);
+        }
+        return points;
+    }
+
+    /**
+     * Bản sao bất biến của khung cuối cùng cùng kích thước frame phân tích chứa nó (hướng hiển thị).
+     * Bước 2 công bố qua một trường volatile duy nhất để luồng chính đọc khung và kích thước nhất quán,
+     * không chạm vào MatOfPoint native mà detectionExecutor có thể giải phóng bất cứ lúc nào.
+     */
+    private static final class QuadSnapshot {
+        final float[] quadPoints;
+        final int width;
+        final int height;
+
+        QuadSnapshot(float[] quadPoints, int width, int height) {
+            this.quadPoints = quadPoints;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
     /**
      * Khởi động CropActivity với ảnh đã chụp.
      * Truyền thông tin khung nhận diện để auto-crop chính xác.
      * Xử lý flow khác nhau cho PDFGroup và single image.
-     * @param imageUri URI của ảnh đã chụp
-     * @param detectedQuadrilateral Khung nhận diện từ camera (có thể null)
+     * @param imageUri URI của ảnh đã chụp (file có thể đang được ghi ở nền)
+     * @param pageHandle Handle của trang trong PageBufferRegistry
+     * @param pageQuad Khung nhận diện từ camera trong tọa độ ảnh chụp (có thể null)
+     * @param pageWidth Chiều rộng ảnh chụp (đã xoay đúng hướng)
+     * @param pageHeight Chiều cao ảnh chụp (đã xoay đúng hướng)
      */
-    private void startCropActivity(Uri imageUri, MatOfPoint detectedQuadrilateral) {
+    private void startCropActivity(Uri imageUri, String pageHandle, float[] pageQuad, int pageWidth, int pageHeight) {
         if (isDestroyed) return;
 
         Intent cropIntent = new Intent(CameraActivity.this, CropActivity.class);
         cropIntent.putExtra("imageUri", imageUri.toString());
+        cropIntent.putExtra(CropActivity.EXTRA_PAGE_BUFFER_HANDLE, pageHandle);
 
         // Truyền thông tin về nguồn gọi
         if (isFromPdfGroup) {
@@ -630,18 +1244,11 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
         // TRUYỀN THÔNG TIN KHUNG NHẬN DIỆN ĐỂ AUTO-CROP:
         // Nếu có khung phát hiện từ camera, truyền các điểm tọa độ
         // Format: [x1, y1, x2, y2, x3, y3, x4, y4] - 4 điểm của khung tứ giác
-        if (detectedQuadrilateral != null && !detectedQuadrilateral.empty()) {
-            Point[] points = detectedQuadrilateral.toArray();
-            if (points.length == 4) {
-                float[] quadPoints = new float[8]; // 4 điểm x 2 tọa độ (x,y)
-                for (int i = 0; i < 4; i++) {
-                    quadPoints[i * 2] = (float) points[i].x;
-                    quadPoints[i * 2 + 1] = (float) points[i].y;
-                }
-                cropIntent.putExtra("detectedQuadrilateral", quadPoints);
-                cropIntent.putExtra("originalImageWidth", lastImageProxyWidth);
-                cropIntent.putExtra("originalImageHeight", lastImageProxyHeight);
-            }
+        // Khung đã được ánh xạ sang ảnh chụp, nên originalImageWidth/Height là kích thước ảnh chụp
+        if (pageQuad != null) {
+            cropIntent.putExtra("detectedQuadrilateral", pageQuad);
+            cropIntent.putExtra("originalImageWidth", pageWidth);
+            cropIntent.putExtra("originalImageHeight", pageHeight);
         }
 
         startActivityForResult(cropIntent, REQUEST_CODE_CROP);
@@ -713,311 +1320,239 @@ public class CameraActivity extends BaseActivity implements AppPermissionHandler
         super.onDestroy();
 
         if (cameraExecutor != null) {
+            // Giải phóng bộ đệm của từng bước trên chính luồng của bước đó để không tranh chấp với frame đang xử lý
+            cameraExecutor.execute(() -> {
+                framePool.clear();
+                if (preprocessDetector != null) {
+                    preprocessDetector.release();
+                    preprocessDetector = null;
+                }
+                if (chromaPlaneIngestor != null) {
+                    chromaPlaneIngestor.close();
+                    chromaPlaneIngestor = null;
+                }
+                if (presenceClassifier != null) {
+                    presenceClassifier.release();
+                    presenceClassifier = null;
+                }
+            });
             cameraExecutor.shutdown();
         }
-
-        if (lastDetectedQuadrilateral != null) {
-            lastDetectedQuadrilateral.release();
-            lastDetectedQuadrilateral = null;
+        if (detectionExecutor != null) {
+            detectionExecutor.execute(() -> {
+                frameHandoff.close();
+                if (quadTracker != null) {
+                    quadTracker.release();
+                }
+                if (captureQualityGate != null) {
+                    captureQualityGate.release();
+                }
+                if (documentDetector != null) {
+                    documentDetector.release();
+                    documentDetector = null;
+                }
+                publishedQuad = null;
+                if (lastDetectedQuadrilateral != null) {
+                    lastDetectedQuadrilateral.release();
+                    lastDetectedQuadrilateral = null;
+                }
+            });
+            detectionExecutor.shutdown();
+        }
+        if (captureExecutor != null) {
+            captureExecutor.execute(() -> {
+                if (captureQuadRefiner != null) {
+                    captureQuadRefiner.release();
+                }
+            });
+            captureExecutor.shutdown();
+        }
+        if (burstPagePipeline != null) {
+            burstPagePipeline.shutdown();
+            burstPagePipeline = null;
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        if (cameraProviderFuture != null) {
-            try {
-                ProcessCameraProvider cameraProvider = cameraProviderFuture.get();
-                cameraProvider.unbindAll();
-            } catch (Exception e) {
-                Log.e(TAG, "Error unbinding camera in onPause: " + e.getMessage(), e);
-            }
+    /**
+     * Lấy bảng thời gian từng bước (p50/p95/max) của bước 2 (tìm khung) của các frame phát hiện gần nhất.
+     * @return Bảng tổng hợp của FrameMetrics
+     */
+    public FrameMetrics.Summary getFrameMetricsSummary() {
+        return frameMetrics.summarize();
+    }
+
+    /**
+     * Lấy bảng thời gian từng bước của bước 1 (đọc mặt phẳng, lọc sớm, tiền xử lý) của các frame gần nhất.
+     * @return Bảng tổng hợp của FrameMetrics
+     */
+    public FrameMetrics.Summary getIngestMetricsSummary() {
+        return ingestMetrics.summarize();
+    }
+
+    /**
+     * Ghi bảng thời gian từng bước ra file CSV trong thư mục files riêng của ứng dụng.
+     */
+    private void dumpFrameMetrics() {
+        long timestamp = System.currentTimeMillis();
+        dumpFrameMetrics(ingestMetrics, new File(getExternalFilesDir(null), "frame_metrics_ingest_" + timestamp + ".csv"));
+        dumpFrameMetrics(frameMetrics, new File(getExternalFilesDir(null), "frame_metrics_" + timestamp + ".csv"));
+    }
+
+    private static void dumpFrameMetrics(FrameMetrics metrics, File metricsFile) {
+        try (FileWriter writer = new FileWriter(metricsFile)) {
+            metrics.summarize().writeCsv(writer);
+            Log.i(TAG, "Đã ghi thời gian xử lý frame vào: " + metricsFile.getAbsolutePath());
+        } catch (IOException e) {
+            Log.e(TAG, "Không thể ghi thời gian xử lý frame: " + e.getMessage(), e);
         }
     }
 
+    /**
+     * Lấy thống kê hiện tại của bộ lập lịch frame (chi phí phát hiện/theo dõi, số quyết định, mức dùng CPU).
+     * Dùng để tinh chỉnh ngân sách trên từng thiết bị.
+     * @return Ảnh chụp thống kê của frameScheduler
+     */
+    public FrameScheduler.Stats getFrameSchedulerStats() {
+        return frameScheduler.getStats();
+    }
+
     @Override
-    protected void onResume() {
-        super.onResume();
-        if (!isDestroyed && appPermissionHandler.checkCameraPermission()) {
-            startCamera();
+    protected void onPause() {
+        super.onPause();
+        if (SHOW_FRAME_METRICS && cameraExecutor != null && !cameraExecutor.isShutdown()) {
+            cameraExecutor.execute(this::dumpFrameMetrics);
         }
     }
 
     /**
-     * XỬ LÝ FRAME ẢNH VỚI OPENCV:
-     * Chuyển đổi ImageProxy thành Mat, xử lý ảnh và detect document boundaries.
-     * Sử dụng Canny edge detection, contour finding và quadrilateral detection.
-     * @param imageProxy Frame ảnh từ camera để xử lý
-     * @return Pair<MatOfPoint, Mat> - Khung tứ giác phát hiện và Mat để lưu kích thước
+     * BƯỚC 1 CỦA FRAME PHÁT HIỆN (cameraExecutor):
+     * Bọc mặt phẳng Y (và U/V) thành Mat, lọc sớm khi khung hình rõ ràng không có tài liệu, rồi tiền xử lý
+     * tới ảnh cạnh vào job bằng preprocessDetector. Job giữ bản sao ảnh xám nên ImageProxy có thể đóng ngay sau đó.
+     * @param imageProxy Frame ảnh từ camera (chưa đóng)
+     * @param job Job nhận kết quả; hasFrame = false nếu frame bị từ chối hoặc lỗi
      */
     @androidx.annotation.OptIn(markerClass = androidx.camera.core.ExperimentalGetImage.class)
-    private Pair<MatOfPoint, Mat> processImageFrame(ImageProxy imageProxy) {
-        if (isDestroyed) {
-            return new Pair<>(null, null);
-        }
-
+    private void preprocessImageFrame(ImageProxy imageProxy, FrameHandoff.Job job) {
         Mat gray = null;
-        Mat edges = null;
-        Mat hierarchy = null;
-        List<MatOfPoint> contours = null;
-        MatOfPoint bestQuadrilateral = null;
-        Mat matForDimensionStorage = null;
 
+        ingestMetrics.beginFrame();
         try {
-            ImageProxy.PlaneProxy yPlane = imageProxy.getPlanes()[0];
-            ByteBuffer yBuffer = yPlane.getBuffer();
-            int yRowStride = yPlane.getRowStride();
-            int yPixelStride = yPlane.getPixelStride();
-
-            int originalFrameWidth = imageProxy.getWidth();
-            int originalFrameHeight = imageProxy.getHeight();
-            int rotationDegrees = imageProxy.getImageInfo().getRotationDegrees();
-
-            // Điều chỉnh tham số OpenCV dựa trên độ phân giải frame để tối ưu detection
-            adjustOpenCVParametersForResolution(originalFrameWidth, originalFrameHeight);
-
-            gray = new Mat(originalFrameHeight, originalFrameWidth, CvType.CV_8UC1);
-
-            byte[] data = new byte[originalFrameWidth * originalFrameHeight];
-            int bufferOffset = 0;
-
-            for (int row = 0; row < originalFrameHeight; ++row) {
-                int bytesToReadInRow = originalFrameWidth;
-                if (yBuffer.remaining() < bytesToReadInRow) {
-                    Log.e(TAG, "BufferUnderflow: Not enough bytes for row " + row + ". Remaining: " + yBuffer.remaining() + ", Needed: " + bytesToReadInRow + ". Skipping frame.");
-                    return new Pair<>(null, null);
+            // ĐỌC MẶT PHẲNG Y KHÔNG SAO CHÉP:
+            // gray tham chiếu trực tiếp buffer của camera (theo rowStride), không cấp phát mảng byte mỗi frame
+            gray = yPlaneIngestor.wrap(imageProxy);
+            if (gray == null) {
+                ingestMetrics.abortFrame();
+                return;
+            }
+            ingestMetrics.mark(FrameMetrics.Stage.PLANE_COPY);
+
+            // LỌC SỚM KHI KHÔNG CÓ TÀI LIỆU:
+            // Khi chưa bám được khung nào, phân loại trên ảnh 80x60 trước; trần nhà, tường trơn, bàn trống
+            // không phải chạy blur/CLAHE/Canny/findContours ở độ phân giải phân tích
+            if (!quadTrackingActive) {
+                if (presenceClassifier == null) {
+                    presenceClassifier = new DocumentPresenceClassifier();
                 }
-                yBuffer.get(data, bufferOffset, bytesToReadInRow);
-                bufferOffset += bytesToReadInRow;
-
-                int paddingBytes = yRowStride - originalFrameWidth;
-                if (paddingBytes > 0) {
-                    if (yBuffer.remaining() >= paddingBytes) {
-                        yBuffer.position(yBuffer.position() + paddingBytes);
-                    } else {
-                        Log.w(TAG, "Not enough buffer remaining to skip padding for row " + row + ". Remaining: " + yBuffer.remaining() + ", Expected padding: " + paddingBytes + ". Further rows might be misaligned.");
-                        break;
-                    }
+                boolean likelyDocument = presenceClassifier.shouldRunDetection(gray);
+                ingestMetrics.mark(FrameMetrics.Stage.PRESENCE_CHECK);
+                if (!likelyDocument) {
+                    job.rejectedByPresence = true;
+                    // Không ghi frame này vào FrameMetrics để p50/p95 vẫn phản ánh chuỗi phát hiện đầy đủ
+                    ingestMetrics.abortFrame();
+                    return;
                 }
             }
-            gray.put(0, 0, data);
-
-            // XỬ LÝ ROTATION ẢNH:
-            // Nếu ảnh bị xoay 90° hoặc 270°, cần transpose và flip để có orientation đúng
-            Mat processedGray = gray;
-            boolean needsRotation = (rotationDegrees == 90 || rotationDegrees == 270);
-
-            if (needsRotation) {
-                Mat rotatedGray = new Mat();
-                Core.transpose(gray, rotatedGray);        // Chuyển vị ma trận
-                Core.flip(rotatedGray, rotatedGray, (rotationDegrees == 90) ? 1 : 0);  // Flip theo trục
-                processedGray = rotatedGray;
-            }
-
-            int finalProcessedWidth = processedGray.width();
-            int finalProcessedHeight = processedGray.height();
-
-            Log.d(TAG, "DEBUG_ROTATION: Original " + originalFrameWidth + "x" + originalFrameHeight +
-                    " -> Processed " + finalProcessedWidth + "x" + finalProcessedHeight +
-                    " (rotation: " + rotationDegrees + "°)");
-
-            // TIỀN XỬ LÝ ẢNH ĐỂ TĂNG CHẤT LƯỢNG DETECTION:
-            // 1. Median blur: Loại bỏ noise (salt & pepper)
-            // 2. Gaussian blur: Làm mịn ảnh
-            // 3. CLAHE: Tăng độ tương phản cục bộ
-            Imgproc.medianBlur(processedGray, processedGray, 3);
-            Imgproc.GaussianBlur(processedGray, processedGray, new org.opencv.core.Size(7,7), 0);
-
-            CLAHE clahe = Imgproc.createCLAHE(2.0, new org.opencv.core.Size(8, 8));
-            clahe.apply(processedGray, processedGray);
-
-            // PHÁT HIỆN CẠNH VÀ TĂNG CƯỜNG:
-            // 1. Canny edge detection: Phát hiện cạnh với threshold động
-            // 2. Morphological dilation: Tăng cường cạnh để kết nối các đường đứt đoạn
-            edges = new Mat();
-            Imgproc.Canny(processedGray, edges, dynamicCannyThreshold1, dynamicCannyThreshold2);
-
-            Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new org.opencv.core.Size(3, 3));
-            Imgproc.dilate(edges, edges, kernel);
-            kernel.release();
-
-            // TÌM CONTOUR VÀ PHÁT HIỆN KHUNG TỨ GIÁC:
-            // 1. findContours: Tìm tất cả contour trong ảnh edge
-            // 2. findBestQuadrilateral: Lọc và chọn khung tứ giác tốt nhất
-            contours = new ArrayList<>();
-            hierarchy = new Mat();
-            Imgproc.findContours(edges, contours, hierarchy, Imgproc.RETR_LIST, Imgproc.CHAIN_APPROX_SIMPLE);
-            bestQuadrilateral = findBestQuadrilateral(contours, finalProcessedWidth, finalProcessedHeight);
 
-            if (bestQuadrilateral != null && !bestQuadrilateral.empty()) {
-                matForDimensionStorage = processedGray.clone();
+            // TIỀN XỬ LÝ BẰNG preprocessDetector:
+            // Tạo lười trên cameraExecutor; cùng tầng pyramid với documentDetector của bước 2
+            if (preprocessDetector == null) {
+                preprocessDetector = new DocumentDetector(analysisProfile.getPyramidLevel(), DocumentDetector.DEFAULT_MAX_RESULTS);
+                preprocessDetector.setMetrics(ingestMetrics);
             }
-
-            if (needsRotation && processedGray != gray) {
-                if (matForDimensionStorage == null) {
-                    processedGray.release();
+            // Mặt phẳng U/V có sẵn ở 1/2 x 1/2, đúng bằng kích thước ảnh phát hiện ở tầng pyramid mặc định
+            if (CHROMA_ASSISTED_DETECTION) {
+                if (chromaPlaneIngestor == null) {
+                    chromaPlaneIngestor = new ChromaPlaneIngestor();
+                }
+                if (chromaPlaneIngestor.ingest(imageProxy)) {
+                    preprocessDetector.preprocess(gray, chromaPlaneIngestor.getU(), chromaPlaneIngestor.getV(), job.frame);
+                } else {
+                    preprocessDetector.preprocess(gray, null, null, job.frame);
                 }
+            } else {
+                preprocessDetector.preprocess(gray, null, null, job.frame);
             }
-
+            job.hasFrame = true;
         } catch (Exception e) {
-            Log.e(TAG, "Error processing image frame: " + e.getMessage(), e);
-            return new Pair<>(null, null);
+            Log.e(TAG, "Error preprocessing image frame: " + e.getMessage(), e);
+            ingestMetrics.abortFrame();
         } finally {
-            if (gray != null) gray.release();
-            if (edges != null) edges.release();
-            if (hierarchy != null) hierarchy.release();
-            if (contours != null) {
-                for (MatOfPoint m : contours) {
-                    m.release();
-                }
+            // Trả Mat về pool trước khi ImageProxy bị đóng ở analyzer
+            yPlaneIngestor.release(gray);
+            if (chromaPlaneIngestor != null) {
+                chromaPlaneIngestor.release();
             }
+            ingestMetrics.endFrame();
         }
-
-        return new Pair<>(bestQuadrilateral, matForDimensionStorage);
     }
 
     /**
-     * ĐIỀU CHỈNH THAM SỐ OPENCV THEO ĐỘ PHÂN GIẢI:
-     * Canny threshold được điều chỉnh động để phù hợp với kích thước frame.
-     * Frame nhỏ cần threshold thấp, frame lớn cần threshold cao hơn.
-     * @param frameWidth Chiều rộng frame
-     * @param frameHeight Chiều cao frame
+     * BƯỚC 2 CỦA FRAME PHÁT HIỆN (detectionExecutor):
+     * Giao frame đã tiền xử lý cho documentDetector để tìm khung ngay trên hướng cảm biến.
+     * Chỉ 4 góc kết quả được xoay sang hướng hiển thị, thay vì transpose + flip cả frame và giữ bản clone để nhớ kích thước.
+     * Kết quả được dùng để neo lại quadTracker; nếu không tìm thấy khung nhưng tracker vẫn bám thì trả về khung theo dõi.
+     * @param job Frame do bước 1 giao
+     * @return Khung tứ giác phát hiện (tọa độ hướng hiển thị) hoặc null
      */
-    private void adjustOpenCVParametersForResolution(int frameWidth, int frameHeight) {
-        if (frameWidth <= 480) {
-            dynamicCannyThreshold1 = 20;
-            dynamicCannyThreshold2 = 60;
-        } else if (frameWidth <= 640) {
-            dynamicCannyThreshold1 = 30;
-            dynamicCannyThreshold2 = 90;
-        } else if (frameWidth <= 1280) {
-            dynamicCannyThreshold1 = 40;
-            dynamicCannyThreshold2 = 120;
-        } else {
-            dynamicCannyThreshold1 = 50;
-            dynamicCannyThreshold2 = 150;
+    private MatOfPoint detectInFrame(FrameHandoff.Job job) {
+        if (isDestroyed || !job.hasFrame || !job.frame.isPreprocessed()) {
+            updateMetering(null, job);
+            return null;
         }
-        Log.d(TAG, "Canny thresholds adjusted to: " + dynamicCannyThreshold1 + ", " + dynamicCannyThreshold2 + " for resolution " + frameWidth + "x" + frameHeight);
-    }
 
-    /**
-     * TÌM KHUNG TỨ GIÁC TỐT NHẤT TỪ DANH SÁCH CONTOUR:
-     * Lọc contour theo các tiêu chí: 4 đỉnh, diện tích hợp lệ, hình dạng lồi, góc vuông.
-     * Sử dụng thuật toán approxPolyDP để làm mịn contour.
-     * @param contours Danh sách contour từ findContours
-     * @param imageWidth Chiều rộng ảnh
-     * @param imageHeight Chiều cao ảnh
-     * @return MatOfPoint khung tứ giác tốt nhất hoặc null
-     */
-    private MatOfPoint findBestQuadrilateral(List<MatOfPoint> contours, int imageWidth, int imageHeight) {
         MatOfPoint bestQuadrilateral = null;
-        double maxArea = 0;
-        double totalArea = imageWidth * imageHeight;
-        double minAllowedArea = totalArea * MIN_AREA_PERCENTAGE;
-        double maxAllowedArea = totalArea * MAX_AREA_PERCENTAGE;
-
-        // DUYỆT QUA TỪNG CONTOUR ĐỂ TÌM KHUNG TỨ GIÁC TỐT NHẤT:
-        for (MatOfPoint contour : contours) {
-            // Chuyển đổi contour sang MatOfPoint2f để xử lý với approxPolyDP
-            MatOfPoint2f contour2f = new MatOfPoint2f(contour.toArray());
-            double perimeter = Imgproc.arcLength(contour2f, true);
-            MatOfPoint2f approxCurve = new MatOfPoint2f();
-            
-            // Làm mịn contour với thuật toán Douglas-Peucker
-            Imgproc.approxPolyDP(contour2f, approxCurve, APPROX_POLY_DP_EPSILON_FACTOR * perimeter, true);
-
-            long numVertices = approxCurve.total();
-            double currentArea = Imgproc.contourArea(approxCurve);
-
-            // KIỂM TRA TIÊU CHÍ KHUNG TỨ GIÁC:
-            // 1. Phải có đúng 4 đỉnh
-            // 2. Diện tích phải nằm trong khoảng cho phép (2%-90% ảnh)
-            // 3. Phải là hình lồi (convex)
-            // 4. Góc phải gần vuông (cosine < 0.3)
-            if (numVertices == 4 &&
-                    currentArea > minAllowedArea &&
-                    currentArea < maxAllowedArea) {
-
-                if (Imgproc.isContourConvex(new MatOfPoint(approxCurve.toArray()))) {
-                    double maxCosine = 0;
-                    Point[] points = approxCurve.toArray();
-
-                    // TÍNH GÓC TẠI MỖI ĐỈNH:
-                    // Sử dụng 3 điểm liên tiếp để tính góc
-                    for (int i = 0; i < 4; i++) {
-                        Point p1 = points[i];
-                        Point p2 = points[(i + 1) % 4];
-                        Point p3 = points[(i + 2) % 4];
-
-                        double cosineAngle = Math.abs(angle(p1, p2, p3));
-                        maxCosine = Math.max(maxCosine, cosineAngle);
-                    }
 
-                    // Chọn khung có góc gần vuông nhất (cosine nhỏ nhất)
-                    if (maxCosine < MIN_COSINE_ANGLE) {
-                        if (currentArea > maxArea) {
-                            maxArea = currentArea;
-                            bestQuadrilateral = new MatOfPoint(points);
-                        }
-                    }
-                }
-            }
-            contour2f.release();
-            approxCurve.release();
-        }
-        return bestQuadrilateral;
-    }
-
-    /**
-     * TÍNH GÓC GIỮA 3 ĐIỂM (p1-p2-p3):
-     * Sử dụng công thức dot product để tính cosine của góc.
-     * Góc càng gần 90° thì cosine càng gần 0.
-     * @param p1 Điểm đầu
-     * @param p2 Điểm giữa (đỉnh góc)
-     * @param p3 Điểm cuối
-     * @return Giá trị cosine của góc (0 = 90°, 1 = 0° hoặc 180°)
-     */
-    private double angle(Point p1, Point p2, Point p3) {
-        double dx1 = p1.x - p2.x;
-        double dy1 = p1.y - p2.y;
-        double dx2 = p3.x - p2.x;
-        double dy2 = p3.y - p2.y;
-        // CÔNG THỨC DOT PRODUCT: cos(θ) = (a·b) / (|a|·|b|)
-        // Thêm 1e-10 để tránh chia cho 0
-        return (dx1 * dx2 + dy1 * dy2) / (Math.sqrt(dx1 * dx1 + dy1 * dy1) * Math.sqrt(dx2 * dx2 + dy2 * dy2) + 1e-10);
-    }
+        frameMetrics.beginFrame();
+        try {
+            Mat gray = job.frame.getGray();
 
-    /**
-     * SẮP XẾP 4 ĐIỂM THEO THỨ TỰ CHUẨN:
-     * Sắp xếp điểm theo thứ tự: [top-left, top-right, bottom-right, bottom-left].
-     * Điểm có y nhỏ nhất = top, y lớn nhất = bottom.
-     * Trong mỗi hàng, sắp xếp theo x (trái → phải).
-     * @param pointsMat MatOfPoint chứa 4 điểm của khung tứ giác
-     * @return MatOfPoint với các điểm đã sắp xếp theo thứ tự chuẩn
-     */
-    private MatOfPoint sortPoints(MatOfPoint pointsMat) {
-        Point[] pts = pointsMat.toArray();
-        Point[] rect = new Point[4];
+            // Lưu frame (thu nhỏ) cho tracker để các frame kế tiếp có thể theo dõi bằng optical flow
+            quadTracker.pushFrame(gray);
+            frameMetrics.mark(FrameMetrics.Stage.TRACKER_UPDATE);
 
-        // SẮP XẾP THEO CHIỀU DỌC (Y):
-        // Điểm có y nhỏ nhất = top, y lớn nhất = bottom
-        Arrays.sort(pts, (p1, p2) -> Double.compare(p1.y, p2.y));
+            // PHÁT HIỆN KHUNG BẰNG DocumentDetector:
+            // Detector được tạo lười trên detectionExecutor và giữ bộ đệm suốt phiên camera
+            if (documentDetector == null) {
+                documentDetector = new DocumentDetector(analysisProfile.getPyramidLevel(), DocumentDetector.DEFAULT_MAX_RESULTS);
+                documentDetector.setMetrics(frameMetrics);
+            }
+            List<QuadCandidate> candidates = documentDetector.detect(job.frame);
+
+            Point[] sensorQuad = null;
+            if (!candidates.isEmpty()) {
+                // Neo lại tracker và làm mượt khung bằng Kalman
+                sensorQuad = quadTracker.reset(candidates.get(0).getCorners());
+            } else if (quadTracker.isTracking()) {
+                // Bộ phát hiện bỏ lỡ frame này (mờ, lóa...) nhưng tracker vẫn bám được: dùng kết quả theo dõi
+                sensorQuad = quadTracker.track();
+            }
 
-        // Tách thành 2 hàng: top (2 điểm đầu) và bottom (2 điểm cuối)
-        Point[] topPoints = Arrays.copyOfRange(pts, 0, 2);
-        Point[] bottomPoints = Arrays.copyOfRange(pts, 2, 4);
+            updateFrameSharpness(gray, sensorQuad);
+            updateMetering(sensorQuad, job);
 
-        // SẮP XẾP THEO CHIỀU NGANG (X) TRONG MỖI HÀNG:
-        // Top row: trái → phải
-        Arrays.sort(topPoints, (p1, p2) -> Double.compare(p1.x, p2.x));
-        rect[0] = topPoints[0];    // top-left
-        rect[1] = topPoints[1];    // top-right
+            // XỬ LÝ ROTATION: chỉ xoay 4 góc sang hướng hiển thị
+            if (sensorQuad != null) {
+                bestQuadrilateral = toDisplayQuadrilateral(sensorQuad, job);
+            }
 
-        // Bottom row: trái → phải
-        Arrays.sort(bottomPoints, (p1, p2) -> Double.compare(p1.x, p2.x));
-        rect[3] = bottomPoints[0]; // bottom-left
-        rect[2] = bottomPoints[1]; // bottom-right
+        } catch (Exception e) {
+            Log.e(TAG, "Error processing image frame: " + e.getMessage(), e);
+            frameMetrics.abortFrame();
+            return null;
+        } finally {
+            frameMetrics.endFrame();
+        }
 
-        return new MatOfPoint(rect);
+        return bestQuadrilateral;
     }
-    }
\ No newline at end of file
+}
@@ -0,0 +1,187 @@
+package com.example.camerascanner.activitycamera;
+
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Display;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.camera.core.Camera;
+import androidx.camera.core.CameraSelector;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.ImageCapture;
+import androidx.camera.core.Preview;
+import androidx.camera.core.resolutionselector.ResolutionSelector;
+import androidx.camera.core.resolutionselector.ResolutionStrategy;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.camera.view.PreviewView;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Lớp **CameraSessionManager** quản lý phiên camera CameraX của CameraActivity.
+ * - Các use case (Preview, ImageAnalysis, ImageCapture) được tạo một lần và dùng lại suốt vòng đời Activity.
+ * - ProcessCameraProvider chỉ được lấy một lần; bind chỉ xảy ra một lần. Sau đó CameraX tự dừng/mở lại camera
+ *   theo vòng đời (onStop/onStart), nên không cần unbindAll() ở onPause hay bind lại ở onResume.
+ * - Không bao giờ chặn luồng chính: provider được nhận qua listener của future trên main executor.
+ * - Đo thời gian từ lúc yêu cầu mở camera (lần đầu hoặc khi Activity quay lại foreground) tới khi PreviewView
+ *   chuyển sang STREAMING, ghi log và lưu lại để theo dõi độ trễ khởi động camera.
+ * - Giữ {@link QuadMeteringController} để đặt vùng lấy nét/đo sáng vào khung tài liệu đang phát hiện.
+ * Mọi phương thức phải được gọi trên luồng chính.
+ */
+public class CameraSessionManager implements DefaultLifecycleObserver {
+
+    private static final String TAG = "CameraSessionManager";
+
+    /**
+     * Nhận thông báo khi camera đã được bind (trên luồng chính).
+     */
+    public interface Listener {
+        void onCameraBound(@NonNull Camera camera);
+    }
+
+    private final AppCompatActivity activity;
+    private final PreviewView previewView;
+    private final Listener listener;
+
+    private final Preview preview;
+    private final ImageAnalysis imageAnalysis;
+    private final ImageCapture imageCapture;
+    private final QuadMeteringController quadMeteringController;
+
+    private ListenableFuture<ProcessCameraProvider> cameraProviderFuture;
+    private Camera camera;
+    private boolean bindRequested = false;
+
+    // Thời điểm (elapsedRealtime) yêu cầu mở camera đang chờ frame preview đầu tiên, 0 nếu không chờ
+    private long startRequestedAtMs = 0;
+    private long lastStartupLatencyMs = -1;
+
+    /**
+     * @param activity Activity sở hữu phiên camera (cũng là LifecycleOwner để bind)
+     * @param previewView View hiển thị preview
+     * @param analysisResolution Độ phân giải mong muốn của frame phân tích (CameraX chọn kích thước gần nhất)
+     * @param listener Nhận Camera sau khi bind (có thể null)
+     */
+    public CameraSessionManager(@NonNull AppCompatActivity activity, @NonNull PreviewView previewView,
+                                @NonNull Size analysisResolution, Listener listener) {
+        this.activity = activity;
+        this.previewView = previewView;
+        this.listener = listener;
+
+        preview = new Preview.Builder().build();
+        preview.setSurfaceProvider(previewView.getSurfaceProvider());
+
+        imageAnalysis = new ImageAnalysis.Builder()
+                .setResolutionSelector(new ResolutionSelector.Builder()
+                        .setResolutionStrategy(new ResolutionStrategy(analysisResolution,
+                                ResolutionStrategy.FALLBACK_RULE_CLOSEST_HIGHER_THEN_LOWER))
+                        .build())
+                .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                .build();
+
+        imageCapture = new ImageCapture.Builder().build();
+        quadMeteringController = new QuadMeteringController(imageAnalysis);
+
+        activity.getLifecycle().addObserver(this);
+        previewView.getPreviewStreamState().observe(activity, state -> {
+            if (state == PreviewView.StreamState.STREAMING && startRequestedAtMs != 0) {
+                lastStartupLatencyMs = SystemClock.elapsedRealtime() - startRequestedAtMs;
+                startRequestedAtMs = 0;
+                Log.i(TAG, "Thời gian tới frame preview đầu tiên: " + lastStartupLatencyMs + " ms");
+            }
+        });
+    }
+
+    public ImageAnalysis getImageAnalysis() {
+        return imageAnalysis;
+    }
+
+    public ImageCapture getImageCapture() {
+        return imageCapture;
+    }
+
+    public QuadMeteringController getQuadMeteringController() {
+        return quadMeteringController;
+    }
+
+    /**
+     * @return Độ trễ (ms) từ lúc yêu cầu mở camera tới frame preview đầu tiên của lần mở gần nhất, -1 nếu chưa đo được
+     */
+    public long getLastStartupLatencyMs() {
+        return lastStartupLatencyMs;
+    }
+
+    /**
+     * Bind camera nếu chưa bind. Gọi nhiều lần là an toàn (ví dụ từ onCreate và khi được cấp quyền).
+     */
+    public void start() {
+        if (bindRequested) {
+            return;
+        }
+        bindRequested = true;
+        markStartRequested();
+
+        cameraProviderFuture = ProcessCameraProvider.getInstance(activity);
+        cameraProviderFuture.addListener(() -> {
+            if (activity.isDestroyed()) {
+                Log.w(TAG, "Activity is destroyed, not binding camera");
+                return;
+            }
+            try {
+                bind(cameraProviderFuture.get());
+            } catch (Exception e) {
+                bindRequested = false;
+                Log.e(TAG, "Lỗi khi bắt đầu camera: " + e.getMessage(), e);
+            }
+        }, ContextCompat.getMainExecutor(activity));
+    }
+
+    /**
+     * Activity quay lại foreground: CameraX tự mở lại camera, chỉ cần bắt đầu đo lại độ trễ và cập nhật hướng chụp.
+     */
+    @Override
+    public void onStart(@NonNull LifecycleOwner owner) {
+        if (camera != null) {
+            markStartRequested();
+            updateTargetRotation();
+        }
+    }
+
+    private void bind(@NonNull ProcessCameraProvider cameraProvider) {
+        CameraSelector cameraSelector = new CameraSelector.Builder()
+                .requireLensFacing(CameraSelector.LENS_FACING_BACK)
+                .build();
+        updateTargetRotation();
+        try {
+            camera = cameraProvider.bindToLifecycle(activity, cameraSelector, preview, imageAnalysis, imageCapture);
+        } catch (Exception e) {
+            bindRequested = false;
+            Log.e(TAG, "Lỗi khi liên kết các trường hợp sử dụng camera: " + e.getMessage(), e);
+            return;
+        }
+        quadMeteringController.setCamera(camera);
+        if (listener != null) {
+            listener.onCameraBound(camera);
+        }
+    }
+
+    private void updateTargetRotation() {
+        Display display = previewView.getDisplay();
+        if (display != null) {
+            imageCapture.setTargetRotation(display.getRotation());
+        } else {
+            Log.w(TAG, "Display is null, keeping current capture rotation");
+        }
+    }
+
+    private void markStartRequested() {
+        if (previewView.getPreviewStreamState().getValue() != PreviewView.StreamState.STREAMING) {
+            startRequestedAtMs = SystemClock.elapsedRealtime();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.camerascanner.activitycamera;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfDouble;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Lớp **CaptureQualityGate** quyết định khi nào khung hình đủ tốt để tự động chụp ảnh độ phân giải cao.
+ * - Độ nét: phương sai của Laplacian trong vùng bao khung (ROI), tính trên bản thu nhỏ của ROI ở frame phân tích.
+ * - Độ ổn định: độ dịch chuyển trung bình của 4 góc giữa hai frame liên tiếp, so với đường chéo ảnh.
+ * Điểm chất lượng = điểm nét × điểm ổn định (0..1). Cổng chỉ mở khi điểm vượt ngưỡng liên tục
+ * REQUIRED_STABLE_FRAMES frame, tránh chụp ảnh mờ do rung tay rồi phải chụp lại.
+ * Chỉ dùng trên luồng phân tích.
+ */
+public class CaptureQualityGate {
+
+    // Cạnh dài tối đa của ROI sau khi thu nhỏ (đủ để đo độ nét của chữ trên thẻ, rẻ để tính Laplacian)
+    private static final int ROI_MAX_DIMENSION = 160;
+    // Phương sai Laplacian (trên ROI thu nhỏ) mà tại đó điểm nét đạt tối đa
+    private static final double FULL_SHARPNESS_VARIANCE = 120.0;
+    // Dịch chuyển góc trung bình mỗi frame (tỷ lệ đường chéo) mà tại đó điểm ổn định về 0
+    private static final double MAX_DISPLACEMENT_FRACTION = 0.01;
+    // Ngưỡng điểm chất lượng và số frame liên tiếp phải vượt ngưỡng
+    private static final double QUALITY_THRESHOLD = 0.6;
+    private static final int REQUIRED_STABLE_FRAMES = 6;
+
+    // Bộ đệm tái sử dụng
+    private final Mat roiScaled = new Mat();
+    private final Mat laplacian = new Mat();
+    private final MatOfDouble mean = new MatOfDouble();
+    private final MatOfDouble stdDev = new MatOfDouble();
+
+    private final Point[] previousQuad = new Point[]{new Point(), new Point(), new Point(), new Point()};
+    private boolean hasPreviousQuad = false;
+    private int stableFrames = 0;
+    private double lastScore = 0;
+
+    /**
+     * ĐO ĐỘ NÉT TRONG VÙNG KHUNG:
+     * Lấy bounding rect của khung (submat, không sao chép), thu nhỏ về tối đa ROI_MAX_DIMENSION
+     * rồi tính phương sai của Laplacian.
+     * @param gray Ảnh xám của frame phân tích
+     * @param quad 4 góc khung trong tọa độ của gray
+     * @return Phương sai Laplacian, hoặc -1 nếu ROI không hợp lệ
+     */
+    public double measureSharpness(Mat gray, Point[] quad) {
+        double minX = Double.MAX_VALUE;
+        double minY = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        double maxY = -Double.MAX_VALUE;
+        for (Point p : quad) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+        int left = (int) Math.max(0, Math.floor(minX));
+        int top = (int) Math.max(0, Math.floor(minY));
+        int right = (int) Math.min(gray.width(), Math.ceil(maxX));
+        int bottom = (int) Math.min(gray.height(), Math.ceil(maxY));
+        if (right - left < 8 || bottom - top < 8) {
+            return -1;
+        }
+
+        Mat roi = gray.submat(new Rect(left, top, right - left, bottom - top));
+        try {
+            double scale = Math.min(1.0, (double) ROI_MAX_DIMENSION / Math.max(roi.width(), roi.height()));
+            Mat source = roi;
+            if (scale < 1.0) {
+                Imgproc.resize(roi, roiScaled, new Size(Math.max(1, roi.width() * scale), Math.max(1, roi.height() * scale)),
+                        0, 0, Imgproc.INTER_AREA);
+                source = roiScaled;
+            }
+            Imgproc.Laplacian(source, laplacian, CvType.CV_16S);
+            Core.meanStdDev(laplacian, mean, stdDev);
+            double sigma = stdDev.toArray()[0];
+            return sigma * sigma;
+        } finally {
+            roi.release();
+        }
+    }
+
+    /**
+     * Cập nhật cổng với frame mới.
+     * @param quad 4 góc khung (đã sắp xếp theo thứ tự chuẩn) của frame hiện tại
+     * @param sharpness Kết quả {@link #measureSharpness}, âm nếu không đo được
+     * @param frameWidth Chiều rộng ảnh chứa quad
+     * @param frameHeight Chiều cao ảnh chứa quad
+     * @return true nếu điểm chất lượng đã ổn định trên ngưỡng đủ lâu để chụp
+     */
+    public boolean update(Point[] quad, double sharpness, int frameWidth, int frameHeight) {
+        double stabilityScore = 0;
+        if (hasPreviousQuad) {
+            double totalDisplacement = 0;
+            for (int i = 0; i < 4; i++) {
+                totalDisplacement += Math.hypot(quad[i].x - previousQuad[i].x, quad[i].y - previousQuad[i].y);
+            }
+            double diagonal = Math.hypot(frameWidth, frameHeight);
+            double displacementFraction = diagonal > 0 ? totalDisplacement / 4 / diagonal : 1;
+            stabilityScore = Math.max(0, 1 - displacementFraction / MAX_DISPLACEMENT_FRACTION);
+        }
+        for (int i = 0; i < 4; i++) {
+            previousQuad[i].x = quad[i].x;
+            previousQuad[i].y = quad[i].y;
+        }
+        hasPreviousQuad = true;
+
+        double sharpnessScore = sharpness > 0 ? Math.min(1.0, sharpness / FULL_SHARPNESS_VARIANCE) : 0;
+        lastScore = sharpnessScore * stabilityScore;
+        stableFrames = lastScore >= QUALITY_THRESHOLD ? stableFrames + 1 : 0;
+        return stableFrames >= REQUIRED_STABLE_FRAMES;
+    }
+
+    /**
+     * @return Điểm chất lượng của frame gần nhất (0..1)
+     */
+    public double getLastScore() {
+        return lastScore;
+    }
+
+    /**
+     * Đặt lại trạng thái (mất khung, vừa chụp xong, đổi chế độ...).
+     */
+    public void reset() {
+        hasPreviousQuad = false;
+        stableFrames = 0;
+        lastScore = 0;
+    }
+
+    /**
+     * Giải phóng bộ nhớ native khi kết thúc phiên camera.
+     */
+    public void release() {
+        reset();
+        roiScaled.release();
+        laplacian.release();
+        mean.release();
+        stdDev.release();
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.camerascanner.activitycamera;
+
+import android.util.Log;
+
+import androidx.camera.core.ImageProxy;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lớp **ChromaPlaneIngestor** đưa hai mặt phẳng màu (U, V) của ImageProxy vào OpenCV ở độ phân giải gốc 1/2 x 1/2.
+ * - pixelStride = 1 (I420), buffer direct: tạo Mat "header" trỏ thẳng vào buffer của camera, không sao chép.
+ * - pixelStride = 2 (NV12/NV21, phổ biến nhất): U và V xen kẽ nhau. Sao chép cả mặt phẳng một lần vào mảng byte
+ *   tái sử dụng, coi nó là Mat 2 kênh rồi tách kênh 0 bằng Core.extractChannel (chạy native, không lặp từng pixel trong Java).
+ * - Các trường hợp khác: sao chép từng pixel theo pixelStride.
+ * Mọi bộ đệm được cấp phát một lần và chỉ cấp phát lại khi kích thước frame thay đổi.
+ * Mat trả về chỉ hợp lệ cho đến khi ImageProxy bị đóng và phải được trả lại bằng {@link #release()}.
+ * Không an toàn đa luồng: chỉ dùng trên luồng phân tích.
+ */
+public class ChromaPlaneIngestor {
+
+    private static final String TAG = "ChromaPlaneIngestor";
+
+    private final PlaneBuffers uBuffers = new PlaneBuffers();
+    private final PlaneBuffers vBuffers = new PlaneBuffers();
+
+    private Mat u;
+    private Mat v;
+
+    /**
+     * Đọc hai mặt phẳng U/V của frame.
+     * @param imageProxy Frame từ ImageAnalysis (định dạng YUV_420_888)
+     * @return true nếu đọc được cả hai mặt phẳng (lấy bằng {@link #getU()} / {@link #getV()})
+     */
+    public boolean ingest(ImageProxy imageProxy) {
+        ImageProxy.PlaneProxy[] planes = imageProxy.getPlanes();
+        if (planes.length < 3) {
+            return false;
+        }
+        int width = (imageProxy.getWidth() + 1) / 2;
+        int height = (imageProxy.getHeight() + 1) / 2;
+        u = ingestPlane(planes[1], width, height, uBuffers);
+        v = u != null ? ingestPlane(planes[2], width, height, vBuffers) : null;
+        if (v == null) {
+            release();
+            return false;
+        }
+        return true;
+    }
+
+    public Mat getU() {
+        return u;
+    }
+
+    public Mat getV() {
+        return v;
+    }
+
+    /**
+     * Trả lại các Mat của frame hiện tại. Phải gọi trước khi đóng ImageProxy.
+     */
+    public void release() {
+        releasePlane(u, uBuffers);
+        releasePlane(v, vBuffers);
+        u = null;
+        v = null;
+    }
+
+    /**
+     * Giải phóng toàn bộ bộ đệm (khi dừng phân tích).
+     */
+    public void close() {
+        release();
+        uBuffers.close();
+        vBuffers.close();
+    }
+
+    private static Mat ingestPlane(ImageProxy.PlaneProxy plane, int width, int height, PlaneBuffers buffers) {
+        ByteBuffer buffer = plane.getBuffer();
+        int rowStride = plane.getRowStride();
+        int pixelStride = plane.getPixelStride();
+
+        long requiredBytes = (long) rowStride * (height - 1) + (long) (width - 1) * pixelStride + 1;
+        if (buffer.capacity() < requiredBytes) {
+            Log.e(TAG, "BufferUnderflow: mặt phẳng màu có " + buffer.capacity() + " byte, cần " + requiredBytes + ". Bỏ qua.");
+            return null;
+        }
+
+        // ĐƯỜNG ZERO-COPY (I420)
+        if (pixelStride == 1 && buffer.isDirect()) {
+            buffer.rewind();
+            return new Mat(height, width, CvType.CV_8UC1, buffer, rowStride);
+        }
+
+        // ĐƯỜNG XEN KẼ (NV12/NV21):
+        // Hàng cuối của mặt phẳng thiếu byte của kênh còn lại, nên chép vào mảng có đủ height * rowStride byte
+        if (pixelStride == 2 && rowStride % 2 == 0) {
+            int stagingSize = height * rowStride;
+            if (buffers.staging == null || buffers.staging.length != stagingSize) {
+                buffers.staging = new byte[stagingSize];
+            }
+            buffer.rewind();
+            buffer.get(buffers.staging, 0, Math.min(buffer.remaining(), stagingSize));
+            buffers.interleaved.create(height, rowStride / 2, CvType.CV_8UC2);
+            buffers.interleaved.put(0, 0, buffers.staging);
+            Mat interleavedRoi = buffers.interleaved.colRange(0, width);
+            try {
+                Core.extractChannel(interleavedRoi, buffers.output, 0);
+            } finally {
+                interleavedRoi.release();
+            }
+            return buffers.output;
+        }
+
+        // ĐƯỜNG DỰ PHÒNG: sao chép từng pixel theo pixelStride
+        int planeSize = width * height;
+        if (buffers.staging == null || buffers.staging.length != planeSize) {
+            buffers.staging = new byte[planeSize];
+        }
+        int out = 0;
+        for (int row = 0; row < height; row++) {
+            int rowStart = row * rowStride;
+            for (int col = 0; col < width; col++) {
+                buffers.staging[out++] = buffer.get(rowStart + col * pixelStride);
+            }
+        }
+        buffers.output.create(height, width, CvType.CV_8UC1);
+        buffers.output.put(0, 0, buffers.staging);
+        return buffers.output;
+    }
+
+    private static void releasePlane(Mat plane, PlaneBuffers buffers) {
+        // Chỉ giải phóng header zero-copy; Mat thuộc bộ đệm được giữ lại cho frame sau
+        if (plane != null && plane != buffers.output) {
+            plane.release();
+        }
+    }
+
+    /**
+     * Bộ đệm tái sử dụng của một mặt phẳng màu.
+     */
+    private static final class PlaneBuffers {
+        byte[] staging;
+        final Mat interleaved = new Mat();
+        final Mat output = new Mat();
+
+        void close() {
+            staging = null;
+            interleaved.release();
+            output.release();
+        }
+    }
+}
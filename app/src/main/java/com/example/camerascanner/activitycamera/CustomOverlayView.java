@@ -5,19 +5,31 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Path; // Thêm import cho Path
-import android.graphics.PointF;
+import android.graphics.Typeface;
 import android.util.AttributeSet;
-import android.util.Log;
 import android.view.View;
 
 import androidx.annotation.Nullable;
 
 import org.opencv.core.MatOfPoint;
-import org.opencv.core.Point;
+
+/**
+ * View vẽ khung tài liệu phát hiện được lên trên PreviewView.
+ * Luồng phân tích công bố khung (tọa độ ảnh nguồn) vào {@link OverlayQuadBuffer}; onDraw đọc trạng thái
+ * mới nhất ở vsync kế tiếp và tự scale sang tọa độ view, nên không cần runOnUiThread cho mỗi frame.
+ */
 public class CustomOverlayView extends View {
 
     private Paint rectPaint;
-    private MatOfPoint currentQuadrilateral; // Thay RectF bằng MatOfPoint
+    private Paint debugTextPaint;
+    // Bảng thời gian xử lý frame (chỉ hiện khi bật SHOW_FRAME_METRICS trong CameraActivity)
+    private volatile String debugText;
+    private final OverlayQuadBuffer quadBuffer = new OverlayQuadBuffer();
+    // Bộ đệm dùng lại, chỉ dùng trên luồng vẽ
+    private final Path quadPath = new Path();
+    // Bộ đệm dùng lại, chỉ dùng trên luồng phân tích
+    private final int[] matPointBuffer = new int[8];
+    private final float[] publishBuffer = new float[8];
 
     private static final String TAG = "CustomOverlayView";
 
@@ -36,94 +48,91 @@ public class CustomOverlayView extends View {
         rectPaint.setColor(Color.GREEN);
         rectPaint.setStyle(Paint.Style.STROKE);
         rectPaint.setStrokeWidth(5);
+
+        debugTextPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        debugTextPaint.setColor(Color.YELLOW);
+        debugTextPaint.setTypeface(Typeface.MONOSPACE);
+        debugTextPaint.setTextSize(24);
+        debugTextPaint.setShadowLayer(2, 1, 1, Color.BLACK);
+    }
+
+    /**
+     * Hiển thị văn bản debug nhiều dòng ở góc trên bên trái (an toàn khi gọi từ bất kỳ luồng nào).
+     * @param text Nội dung, hoặc null để ẩn
+     */
+    public void setDebugText(@Nullable String text) {
+        debugText = text;
+        postInvalidateOnAnimation();
     }
 
-    // Đặt hàm này để nhận MatOfPoint đã được scale và sẵn sàng vẽ
-    public void setQuadrilateral(MatOfPoint points) {
-        if (this.currentQuadrilateral != null) {
-            this.currentQuadrilateral.release(); // Giải phóng MatOfPoint cũ nếu có
+    /**
+     * Công bố khung mới từ luồng phân tích (an toàn khi gọi từ bất kỳ luồng nào).
+     * Chỉ yêu cầu vẽ lại ở vsync kế tiếp khi khung thực sự thay đổi.
+     * @param quadrilateral Khung 4 điểm trong tọa độ ảnh nguồn, hoặc null để xóa khung
+     * @param sourceWidth Chiều rộng ảnh nguồn (đã xoay đúng hướng)
+     * @param sourceHeight Chiều cao ảnh nguồn (đã xoay đúng hướng)
+     */
+    public void publishQuadrilateral(@Nullable MatOfPoint quadrilateral, int sourceWidth, int sourceHeight) {
+        boolean changed;
+        synchronized (publishBuffer) {
+            if (quadrilateral == null || quadrilateral.empty() || quadrilateral.total() != 4
+                    || sourceWidth <= 0 || sourceHeight <= 0) {
+                changed = quadBuffer.publish(null, sourceWidth, sourceHeight);
+            } else {
+                quadrilateral.get(0, 0, matPointBuffer);
+                for (int i = 0; i < 8; i++) {
+                    publishBuffer[i] = matPointBuffer[i];
+                }
+                changed = quadBuffer.publish(publishBuffer, sourceWidth, sourceHeight);
+            }
+        }
+        if (changed) {
+            postInvalidateOnAnimation();
         }
-        this.currentQuadrilateral = points;
-        postInvalidate(); // Yêu cầu vẽ lại View trên luồng UI
     }
 
     public void clearBoundingBox() { // Đổi tên thành clearQuadrilateral nếu muốn nhất quán
-        if (this.currentQuadrilateral != null) {
-            this.currentQuadrilateral.release();
-            this.currentQuadrilateral = null;
-        }
-        postInvalidate(); // Yêu cầu vẽ lại để xóa khung
+        publishQuadrilateral(null, 0, 0);
     }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
-        if (currentQuadrilateral != null && !currentQuadrilateral.empty()) {
-            Path path = new Path();
-            Point[] points = currentQuadrilateral.toArray();
-
-            // Đảm bảo có đúng 4 điểm
-            if (points.length == 4) {
-                // Các điểm được vẽ trực tiếp vì chúng đã được scale và sắp xếp trong CameraActivity
-                path.moveTo((float) points[0].x, (float) points[0].y);
-                path.lineTo((float) points[1].x, (float) points[1].y);
-                path.lineTo((float) points[2].x, (float) points[2].y);
-                path.lineTo((float) points[3].x, (float) points[3].y);
-                path.close();
-                canvas.drawPath(path, rectPaint);
-            } else {
-                Log.w(TAG, "currentQuadrilateral không chứa 4 điểm. Số điểm: " + points.length);
-            }
+        drawDebugText(canvas);
+        OverlayQuadBuffer.Slot slot = quadBuffer.acquireLatest();
+        if (!slot.hasQuad || slot.sourceWidth <= 0 || slot.sourceHeight <= 0) {
+            return;
         }
-    }
 
-    // HÀM SCALE NÀY ĐƯỢC ĐẶT TRONG CustomOverlayView
-    // CameraActivity sẽ gọi hàm static này để nhận lại MatOfPoint đã được scale
-    public static MatOfPoint scalePointsToOverlayView(MatOfPoint originalPoints, int matWidth, int matHeight, int viewWidth, int viewHeight) {
-        if (originalPoints == null || originalPoints.empty()) {
-            Log.w(TAG, "originalPoints là null hoặc rỗng, không thể scale điểm.");
-            return null;
+        // Tính toán tỷ lệ để hình ảnh từ camera khớp với PreviewView (FIT_CENTER):
+        // ảnh được thu/phóng vừa khít trong view và căn giữa
+        int viewWidth = getWidth();
+        int viewHeight = getHeight();
+        float scale = Math.min((float) viewWidth / slot.sourceWidth, (float) viewHeight / slot.sourceHeight);
+        float startX = (viewWidth - slot.sourceWidth * scale) / 2f;
+        float startY = (viewHeight - slot.sourceHeight * scale) / 2f;
+
+        // Các điểm đã được sắp xếp theo thứ tự vòng trong CameraActivity
+        float[] points = slot.points;
+        quadPath.rewind();
+        quadPath.moveTo(points[0] * scale + startX, points[1] * scale + startY);
+        for (int i = 1; i < 4; i++) {
+            quadPath.lineTo(points[i * 2] * scale + startX, points[i * 2 + 1] * scale + startY);
         }
+        quadPath.close();
+        canvas.drawPath(quadPath, rectPaint);
+    }
 
-        Point[] original = originalPoints.toArray();
-
-        if (original.length != 4) {
-            Log.w(TAG, "originalPoints không chứa 4 điểm, mà có: " + original.length + " điểm. Không thể scale.");
-            return null;
+    private void drawDebugText(Canvas canvas) {
+        String text = debugText;
+        if (text == null) {
+            return;
         }
-
-        int previewViewActualWidth = viewWidth;
-        int previewViewActualHeight = viewHeight;
-
-        // Tính toán tỷ lệ để hình ảnh từ camera khớp với PreviewView
-        // Sử dụng Math.max để mô phỏng hành vi CENTER_CROP
-        float scaleX = (float) previewViewActualWidth / matWidth;
-        float scaleY = (float) previewViewActualHeight / matHeight;
-
-        // Nhân thêm 1.2f (có thể điều chỉnh) để ảnh được phóng to hơn một chút,
-        // thường dùng trong các trường hợp "centerCrop" để lấp đầy màn hình và cắt bớt phần thừa.
-        float scale = Math.min(scaleX, scaleY);
-
-        // Tính toán kích thước của ảnh sau khi đã scale.
-        float scaledImageWidth = matWidth * scale;
-        float scaledImageHeight = matHeight * scale;
-
-        // Tính toán offset (phần bù) để căn giữa phần ảnh được giữ lại trong PreviewView.
-        // Đây là cách mô phỏng hành vi centerCrop: ảnh được phóng to để lấp đầy và phần thừa bị cắt.
-        float startX = (previewViewActualWidth - scaledImageWidth) / 2f;
-        float startY = (previewViewActualHeight - scaledImageHeight) / 2f;
-
-
-        Log.d(TAG, "Scaling (CENTER_CROP): Camera Mat (" + matWidth + "x" + matHeight + ") -> PreviewView Actual Size (" + previewViewActualWidth + "x" + previewViewActualHeight + ")");
-        Log.d(TAG, "Scale factor: " + scale + ", Offset X: " + startX + ", Offset Y: " + startY);
-
-        Point[] scaledPoints = new Point[4];
-        // Áp dụng tỷ lệ và offset cho từng điểm.
-        for (int i = 0; i < 4; i++) {
-            scaledPoints[i] = new Point(original[i].x * scale + startX, original[i].y * scale + startY);
+        float lineHeight = debugTextPaint.getFontSpacing();
+        float y = lineHeight;
+        for (String line : text.split("\n")) {
+            canvas.drawText(line, 8, y, debugTextPaint);
+            y += lineHeight;
         }
-
-        MatOfPoint result = new MatOfPoint(scaledPoints);
-        return result;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,178 @@
+package com.example.camerascanner.activitycamera;
+
+import com.example.camerascanner.detection.PreprocessedFrame;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Lớp **FrameHandoff** là điểm giao nhận một chỗ (one-slot) giữa hai bước của analyzer chạy trên hai luồng:
+ * - Bước 1 (cameraExecutor): đọc mặt phẳng Y/U/V, tiền xử lý tới ảnh cạnh, sao chép ảnh xám rồi đóng ImageProxy
+ *   và {@link #offer} frame.
+ * - Bước 2 (luồng phát hiện): tìm contour, chấm điểm, cập nhật tracker, tự động chụp và overlay.
+ * Hai bước của hai frame liên tiếp chạy song song trên hai nhân, nên tốc độ phân tích bị giới hạn bởi bước chậm hơn
+ * thay vì tổng của hai bước. Độ trễ của một frame không đổi: bước 2 bắt đầu ngay khi bước 1 giao frame.
+ * Chỉ có một chỗ chờ: bước 1 kiểm tra {@link #isFull()} trước khi nhận frame mới từ camera và đóng ngay frame đó
+ * nếu bước 2 còn đang bận với một frame đang chờ (giống STRATEGY_KEEP_ONLY_LATEST, không tốn công tiền xử lý thừa).
+ * Các {@link Job} (kèm Mat) được tái sử dụng qua một pool nhỏ, tối đa ba job tồn tại cùng lúc
+ * (đang ở bước 1, đang chờ, đang ở bước 2).
+ */
+class FrameHandoff {
+
+    /**
+     * Một frame đi qua hai bước. Chỉ một luồng sở hữu job tại một thời điểm.
+     */
+    static final class Job {
+        // Quyết định của FrameScheduler; DETECT bị bộ lọc sớm từ chối vẫn giữ DETECT và đặt rejectedByPresence
+        FrameScheduler.Decision decision;
+        boolean rejectedByPresence;
+        // Frame đã sao chép (và đã tiền xử lý nếu là DETECT); không có dữ liệu nếu hasFrame = false
+        final PreprocessedFrame frame = new PreprocessedFrame();
+        boolean hasFrame;
+        // Thông tin của ImageProxy gốc (đã đóng)
+        int sensorWidth;
+        int sensorHeight;
+        int rotationDegrees;
+        // Thời gian bước 1 đã tiêu, cộng với bước 2 khi báo chi phí cho FrameScheduler
+        long stageOneNs;
+        // Chi phí FrameScheduler đã giữ trước cho frame này, được quyết toán khi bước 2 ghi nhận chi phí thực
+        long reservedNs;
+    }
+
+    /**
+     * Xử lý job ở bước 2, trên luồng của executor được truyền vào.
+     */
+    interface Consumer {
+        void process(Job job);
+    }
+
+    private final Executor executor;
+    private final Consumer consumer;
+    private final Object lock = new Object();
+    private final ArrayDeque<Job> freeJobs = new ArrayDeque<>();
+    private Job pending;
+    private boolean draining = false;
+    private boolean closed = false;
+
+    /**
+     * @param executor Executor một luồng của bước 2
+     * @param consumer Xử lý từng job ở bước 2
+     */
+    FrameHandoff(Executor executor, Consumer consumer) {
+        this.executor = executor;
+        this.consumer = consumer;
+    }
+
+    /**
+     * @return true nếu đã có một frame chờ bước 2 (bước 1 nên bỏ qua frame mới)
+     */
+    boolean isFull() {
+        synchronized (lock) {
+            return pending != null;
+        }
+    }
+
+    /**
+     * Lấy một job trống cho bước 1. Phải được trả lại bằng {@link #offer} hoặc {@link #recycle}.
+     * Phải được gọi sau khi thư viện OpenCV đã được nạp.
+     */
+    Job obtain() {
+        synchronized (lock) {
+            Job job = freeJobs.poll();
+            return job != null ? job : new Job();
+        }
+    }
+
+    /**
+     * Giao job cho bước 2. Nếu vẫn còn một job chờ (chỉ xảy ra khi bước 1 bỏ qua {@link #isFull()}),
+     * job cũ bị thay thế và trả về pool. Sau lời gọi này job không còn thuộc về người gọi, kể cả khi
+     * executor của bước 2 đã dừng.
+     */
+    void offer(Job job) {
+        Job replaced;
+        synchronized (lock) {
+            if (closed) {
+                job.frame.release();
+                return;
+            }
+            replaced = pending;
+            pending = job;
+            if (replaced != null) {
+                freeJobs.push(replaced);
+            }
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        try {
+            executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // Executor của bước 2 đã dừng (Activity bị hủy khi bước 1 còn đang xử lý frame): job thuộc về FrameHandoff
+            // từ lúc được nhận, nên được gỡ khỏi chỗ chờ và giải phóng ở đây, người gọi không được trả lại nó
+            boolean owned;
+            synchronized (lock) {
+                closed = true;
+                draining = false;
+                owned = pending == job;
+                if (owned) {
+                    pending = null;
+                }
+            }
+            if (owned) {
+                job.frame.release();
+            }
+        }
+    }
+
+    /**
+     * Trả job về pool mà không giao cho bước 2 (ví dụ khi bước 1 gặp lỗi).
+     */
+    void recycle(Job job) {
+        synchronized (lock) {
+            if (closed) {
+                job.frame.release();
+            } else {
+                freeJobs.push(job);
+            }
+        }
+    }
+
+    /**
+     * Giải phóng mọi job đang rảnh hoặc đang chờ; job trả về sau đó được giải phóng ngay.
+     * Gọi trên luồng của bước 2 khi dừng phân tích.
+     */
+    void close() {
+        synchronized (lock) {
+            closed = true;
+            if (pending != null) {
+                pending.frame.release();
+                pending = null;
+            }
+            for (Job job : freeJobs) {
+                job.frame.release();
+            }
+            freeJobs.clear();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Job job;
+            synchronized (lock) {
+                job = pending;
+                pending = null;
+                if (job == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            try {
+                consumer.process(job);
+            } finally {
+                recycle(job);
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.example.camerascanner.activitycamera;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.util.ArrayDeque;
+
+/**
+ * Lớp **FramePool** giữ một số ít Mat xám (CV_8UC1) để tái sử dụng giữa các frame phân tích.
+ * Thay vì cấp phát Mat mới cho mỗi frame, luồng phân tích mượn Mat từ pool và trả lại sau khi xử lý xong.
+ * Pool chỉ được dùng trên luồng phân tích nên không cần đồng bộ hóa.
+ */
+public class FramePool {
+
+    // Số Mat tối đa được giữ lại trong pool
+    private static final int POOL_CAPACITY = 3;
+
+    private final ArrayDeque<Mat> freeMats = new ArrayDeque<>(POOL_CAPACITY);
+
+    /**
+     * Mượn một Mat xám có kích thước yêu cầu.
+     * Mat trong pool có kích thước khác (ví dụ khi độ phân giải thay đổi) sẽ được cấp phát lại bởi create().
+     * @param rows Số hàng (chiều cao)
+     * @param cols Số cột (chiều rộng)
+     * @return Mat CV_8UC1 có kích thước rows x cols
+     */
+    public Mat acquire(int rows, int cols) {
+        Mat mat = freeMats.pollFirst();
+        if (mat == null) {
+            mat = new Mat();
+        }
+        // create() không cấp phát lại nếu kích thước và kiểu đã khớp
+        mat.create(rows, cols, CvType.CV_8UC1);
+        return mat;
+    }
+
+    /**
+     * Trả Mat về pool. Nếu pool đã đầy thì giải phóng Mat.
+     * @param mat Mat đã mượn bằng acquire()
+     */
+    public void recycle(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        if (freeMats.size() < POOL_CAPACITY) {
+            freeMats.addFirst(mat);
+        } else {
+            mat.release();
+        }
+    }
+
+    /**
+     * Giải phóng toàn bộ Mat đang nằm trong pool. Gọi khi kết thúc phiên camera.
+     */
+    public void clear() {
+        Mat mat;
+        while ((mat = freeMats.pollFirst()) != null) {
+            mat.release();
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.example.camerascanner.activitycamera;
+
+import java.util.Locale;
+
+/**
+ * Lớp **FrameScheduler** quyết định mỗi frame phân tích sẽ chạy phát hiện đầy đủ, chỉ theo dõi, hay bỏ qua,
+ * dựa trên chi phí thực đo được thay vì một chu kỳ cố định.
+ * - Chi phí của phát hiện đầy đủ và của theo dõi được đo bằng trung bình trượt hàm mũ (EMA).
+ * - Ngân sách CPU được cấp theo thời gian thực giữa các frame (ví dụ 30% của một nhân) vào một "tài khoản" thời gian;
+ *   mỗi lần xử lý trừ đi chi phí ước tính. Thiết bị nhanh vì thế phát hiện dày hơn, thiết bị chậm tự giãn ra.
+ * - Quyết định và chi phí thực đến ở hai thời điểm khác nhau (analyzer hai bước: quyết định ở bước 1, đo xong ở bước 2),
+ *   nên {@link #decide} giữ trước chi phí ước tính ngay khi chọn, và {@link #record} chỉ bù phần chênh lệch với chi phí
+ *   thực. Frame kế tiếp vì thế không tiêu lại phần ngân sách mà frame đang xử lý dở sẽ dùng.
+ * - Khi đang theo dõi khung, overlay vẫn được làm mới tối thiểu minOverlayFps lần mỗi giây kể cả khi hết ngân sách.
+ * Các quyết định và chi phí đo được có thể đọc qua {@link #getStats()} để tinh chỉnh trên thiết bị thật.
+ */
+public class FrameScheduler {
+
+    public enum Decision {
+        DETECT,     // Chạy toàn bộ bộ phát hiện khung
+        TRACK,      // Chỉ lan truyền khung bằng optical flow
+        SKIP        // Không xử lý, giữ nguyên overlay
+    }
+
+    // Hệ số làm mượt của trung bình trượt hàm mũ
+    private static final double EMA_ALPHA = 0.1;
+    // Tài khoản ngân sách không được tích lũy quá số lần phát hiện này (tránh dồn cục sau khi rảnh lâu)
+    private static final double MAX_BANKED_DETECTIONS = 2.0;
+    // Khoảng cách frame mặc định khi chưa đo được (30 fps)
+    private static final long DEFAULT_FRAME_INTERVAL_NS = 33_333_333L;
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private final double cpuBudget;
+    private final long minOverlayIntervalNs;
+    private final int maxFramesBetweenDetections;
+
+    // Các giá trị đo được
+    private double detectCostNs = 0;
+    private double trackCostNs = 0;
+    private double frameIntervalNs = DEFAULT_FRAME_INTERVAL_NS;
+    private long lastFrameTimestampNs = -1;
+    private long lastOverlayUpdateNs = -1;
+
+    // Tài khoản ngân sách CPU (nano giây có thể tiêu)
+    private double budgetCreditNs = 0;
+    private int framesSinceDetection = 0;
+    // Chi phí đã giữ trước cho quyết định gần nhất của decide()
+    private long lastReservationNs = 0;
+
+    // Thống kê
+    private long detectCount = 0;
+    private long trackCount = 0;
+    private long skipCount = 0;
+    private double busyNs = 0;
+    private double elapsedNs = 0;
+
+    /**
+     * @param cpuBudget Tỷ lệ một nhân CPU dành cho phân tích (0..1), ví dụ 0.3 = 30%
+     * @param minOverlayFps Tần suất làm mới overlay tối thiểu khi đang theo dõi khung
+     * @param maxFramesBetweenDetections Số frame tối đa giữa hai lần phát hiện khi đang theo dõi (chống trôi)
+     */
+    public FrameScheduler(double cpuBudget, int minOverlayFps, int maxFramesBetweenDetections) {
+        this.cpuBudget = cpuBudget;
+        this.minOverlayIntervalNs = NANOS_PER_SECOND / Math.max(1, minOverlayFps);
+        this.maxFramesBetweenDetections = maxFramesBetweenDetections;
+    }
+
+    /**
+     * Quyết định cách xử lý frame hiện tại.
+     * @param frameTimestampNs Timestamp của frame (ImageInfo.getTimestamp())
+     * @param trackerActive Tracker có đang bám khung hay không
+     * @param redetectRequested Có yêu cầu phát hiện lại ngay (ví dụ vừa mất dấu) hay không
+     * @return Quyết định cho frame này
+     */
+    public synchronized Decision decide(long frameTimestampNs, boolean trackerActive, boolean redetectRequested) {
+        if (lastFrameTimestampNs >= 0 && frameTimestampNs > lastFrameTimestampNs) {
+            long interval = frameTimestampNs - lastFrameTimestampNs;
+            frameIntervalNs += EMA_ALPHA * (interval - frameIntervalNs);
+            elapsedNs += interval;
+            budgetCreditNs += interval * cpuBudget;
+        }
+        lastFrameTimestampNs = frameTimestampNs;
+        double maxCredit = Math.max(detectCostNs, frameIntervalNs) * MAX_BANKED_DETECTIONS;
+        budgetCreditNs = Math.min(budgetCreditNs, maxCredit);
+        framesSinceDetection++;
+
+        Decision decision;
+        if (trackerActive) {
+            boolean detectionDue = redetectRequested || framesSinceDetection > maxFramesBetweenDetections;
+            boolean overlayOverdue = lastOverlayUpdateNs < 0 || frameTimestampNs - lastOverlayUpdateNs >= minOverlayIntervalNs;
+            if (detectionDue && budgetCreditNs >= detectCostNs) {
+                decision = Decision.DETECT;
+            } else if (budgetCreditNs >= trackCostNs || overlayOverdue) {
+                decision = Decision.TRACK;
+            } else {
+                decision = Decision.SKIP;
+            }
+        } else {
+            // Chưa có khung: chỉ phát hiện mới có thể tạo khung, theo dõi không có ý nghĩa
+            decision = budgetCreditNs >= detectCostNs ? Decision.DETECT : Decision.SKIP;
+        }
+
+        if (decision == Decision.DETECT) {
+            framesSinceDetection = 0;
+        }
+        if (decision != Decision.SKIP) {
+            lastOverlayUpdateNs = frameTimestampNs;
+        }
+
+        // GIỮ TRƯỚC CHI PHÍ ƯỚC TÍNH: frame này có thể chưa xử lý xong khi frame kế tiếp được quyết định
+        if (decision == Decision.DETECT) {
+            lastReservationNs = (long) detectCostNs;
+        } else if (decision == Decision.TRACK) {
+            lastReservationNs = (long) trackCostNs;
+        } else {
+            lastReservationNs = 0;
+        }
+        budgetCreditNs -= lastReservationNs;
+        return decision;
+    }
+
+    /**
+     * @return Chi phí (nano giây) đã giữ trước cho quyết định gần nhất của {@link #decide}; người gọi đọc ngay sau
+     *         decide trên cùng luồng và chuyển lại cho {@link #record} hoặc {@link #cancel}
+     */
+    public synchronized long getLastReservationNs() {
+        return lastReservationNs;
+    }
+
+    /**
+     * Trả lại phần ngân sách đã giữ trước cho một frame bị bỏ trước khi kịp xử lý (ví dụ lỗi ở bước 1).
+     * @param reservedNs Giá trị {@link #getLastReservationNs()} của frame đó
+     */
+    public synchronized void cancel(long reservedNs) {
+        budgetCreditNs += reservedNs;
+    }
+
+    /**
+     * Ghi nhận chi phí thực tế của một frame vừa xử lý.
+     * @param decision Quyết định đã thực hiện
+     * @param costNs Thời gian xử lý đo được (nano giây)
+     * @param reservedNs Chi phí {@link #decide} đã giữ trước cho frame này; chỉ phần chênh lệch bị trừ thêm
+     */
+    public synchronized void record(Decision decision, long costNs, long reservedNs) {
+        switch (decision) {
+            case DETECT:
+                detectCostNs = detectCount == 0 ? costNs : detectCostNs + EMA_ALPHA * (costNs - detectCostNs);
+                detectCount++;
+                break;
+            case TRACK:
+                trackCostNs = trackCount == 0 ? costNs : trackCostNs + EMA_ALPHA * (costNs - trackCostNs);
+                trackCount++;
+                break;
+            default:
+                skipCount++;
+                break;
+        }
+        budgetCreditNs -= costNs - reservedNs;
+        busyNs += costNs;
+    }
+
+    /**
+     * Đặt lại bộ đếm thống kê (giữ nguyên chi phí đã học).
+     */
+    public synchronized void resetStats() {
+        detectCount = 0;
+        trackCount = 0;
+        skipCount = 0;
+        busyNs = 0;
+        elapsedNs = 0;
+    }
+
+    /**
+     * @return Ảnh chụp thống kê hiện tại, an toàn khi đọc từ luồng khác
+     */
+    public synchronized Stats getStats() {
+        double cpuUsage = elapsedNs > 0 ? busyNs / elapsedNs : 0;
+        return new Stats(detectCostNs / 1e6, trackCostNs / 1e6, NANOS_PER_SECOND / frameIntervalNs,
+                detectCount, trackCount, skipCount, cpuUsage, cpuBudget);
+    }
+
+    /**
+     * Ảnh chụp bất biến các số liệu của scheduler.
+     */
+    public static class Stats {
+        public final double detectCostMs;
+        public final double trackCostMs;
+        public final double cameraFps;
+        public final long detectCount;
+        public final long trackCount;
+        public final long skipCount;
+        public final double cpuUsage;
+        public final double cpuBudget;
+
+        Stats(double detectCostMs, double trackCostMs, double cameraFps, long detectCount,
+              long trackCount, long skipCount, double cpuUsage, double cpuBudget) {
+            this.detectCostMs = detectCostMs;
+            this.trackCostMs = trackCostMs;
+            this.cameraFps = cameraFps;
+            this.detectCount = detectCount;
+            this.trackCount = trackCount;
+            this.skipCount = skipCount;
+            this.cpuUsage = cpuUsage;
+            this.cpuBudget = cpuBudget;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US,
+                    "detect=%.1fms track=%.1fms camera=%.1ffps decisions D/T/S=%d/%d/%d cpu=%.0f%% (budget %.0f%%)",
+                    detectCostMs, trackCostMs, cameraFps, detectCount, trackCount, skipCount,
+                    cpuUsage * 100, cpuBudget * 100);
+        }
+    }
+}
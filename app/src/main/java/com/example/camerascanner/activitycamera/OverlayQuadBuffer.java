@@ -0,0 +1,100 @@
+package com.example.camerascanner.activitycamera;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Lớp **OverlayQuadBuffer** chuyển khung tứ giác từ luồng phân tích sang luồng vẽ mà không cấp phát
+ * và không khóa phía đọc.
+ * - Ba bộ đệm cố định: một bộ luồng ghi đang điền, một bộ đã công bố, một bộ luồng vẽ đang đọc.
+ * - Luồng ghi điền vào bộ đệm riêng rồi hoán đổi nguyên tử với bộ đã công bố;
+ *   luồng vẽ chỉ hoán đổi lấy bộ đã công bố khi nó mới hơn bộ đang đọc (so theo version).
+ * - Nếu khung mới gần như trùng khung đã công bố (lệch dưới MIN_CHANGE_PX), không công bố và báo
+ *   cho người gọi biết để bỏ qua việc vẽ lại.
+ */
+public final class OverlayQuadBuffer {
+
+    // Độ lệch tối thiểu (pixel ảnh nguồn) để coi là khung đã di chuyển
+    private static final float MIN_CHANGE_PX = 0.5f;
+
+    /**
+     * Một bộ đệm khung: 4 góc [x1, y1, ..., x4, y4] trong tọa độ ảnh nguồn và kích thước ảnh nguồn.
+     */
+    public static final class Slot {
+        public final float[] points = new float[8];
+        public boolean hasQuad;
+        public int sourceWidth;
+        public int sourceHeight;
+        long version;
+    }
+
+    private final AtomicReference<Slot> published = new AtomicReference<>(new Slot());
+    // Chỉ luồng ghi truy cập
+    private Slot writeSlot = new Slot();
+    private final float[] lastPublishedPoints = new float[8];
+    private boolean lastPublishedHasQuad = false;
+    private int lastPublishedWidth = 0;
+    private int lastPublishedHeight = 0;
+    private long nextVersion = 1;
+    // Chỉ luồng vẽ truy cập
+    private Slot readSlot = new Slot();
+
+    /**
+     * Công bố khung mới (phía ghi). Các lời gọi ghi được tuần tự hóa với nhau; phía đọc không bao giờ bị chặn.
+     * @param points 8 tọa độ của 4 góc, hoặc null để xóa khung
+     * @param sourceWidth Chiều rộng ảnh nguồn
+     * @param sourceHeight Chiều cao ảnh nguồn
+     * @return true nếu trạng thái thay đổi và cần vẽ lại, false nếu không có gì khác
+     */
+    public synchronized boolean publish(float[] points, int sourceWidth, int sourceHeight) {
+        boolean hasQuad = points != null;
+        if (!hasChanged(points, hasQuad, sourceWidth, sourceHeight)) {
+            return false;
+        }
+
+        Slot slot = writeSlot;
+        slot.hasQuad = hasQuad;
+        slot.sourceWidth = sourceWidth;
+        slot.sourceHeight = sourceHeight;
+        if (hasQuad) {
+            System.arraycopy(points, 0, slot.points, 0, 8);
+            System.arraycopy(points, 0, lastPublishedPoints, 0, 8);
+        }
+        slot.version = nextVersion++;
+        lastPublishedHasQuad = hasQuad;
+        lastPublishedWidth = sourceWidth;
+        lastPublishedHeight = sourceHeight;
+
+        writeSlot = published.getAndSet(slot);
+        return true;
+    }
+
+    /**
+     * Lấy trạng thái mới nhất (phía đọc, chỉ gọi từ luồng vẽ).
+     * @return Bộ đệm đọc; chỉ hợp lệ đến lần gọi kế tiếp
+     */
+    public Slot acquireLatest() {
+        Slot latest = published.get();
+        if (latest.version > readSlot.version) {
+            readSlot = published.getAndSet(readSlot);
+        }
+        return readSlot;
+    }
+
+    private boolean hasChanged(float[] points, boolean hasQuad, int sourceWidth, int sourceHeight) {
+        if (hasQuad != lastPublishedHasQuad) {
+            return true;
+        }
+        if (!hasQuad) {
+            return false;
+        }
+        if (sourceWidth != lastPublishedWidth || sourceHeight != lastPublishedHeight) {
+            return true;
+        }
+        for (int i = 0; i < 8; i++) {
+            if (Math.abs(points[i] - lastPublishedPoints[i]) >= MIN_CHANGE_PX) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
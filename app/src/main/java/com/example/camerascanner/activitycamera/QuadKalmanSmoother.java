@@ -0,0 +1,100 @@
+package com.example.camerascanner.activitycamera;
+
+import org.opencv.core.Point;
+
+/**
+ * Lớp **QuadKalmanSmoother** làm mượt 4 góc của khung tứ giác theo thời gian.
+ * Mỗi tọa độ (x, y của 4 góc = 8 giá trị) được theo dõi bởi một bộ lọc Kalman 1 chiều độc lập
+ * với mô hình vận tốc không đổi (trạng thái = vị trí + vận tốc, đơn vị thời gian = 1 frame).
+ * Phép đo từ bộ phát hiện đầy đủ được tin cậy hơn phép đo từ optical flow thông qua nhiễu đo khác nhau.
+ */
+public class QuadKalmanSmoother {
+
+    private static final int NUM_COORDINATES = 8;
+    // Phương sai ban đầu của vận tốc khi vừa khởi tạo (pixel/frame)^2
+    private static final double INITIAL_VELOCITY_VARIANCE = 4.0;
+
+    // Nhiễu quá trình: mức độ cho phép gia tốc thay đổi giữa hai frame
+    private final double processNoise;
+
+    private final double[] position = new double[NUM_COORDINATES];
+    private final double[] velocity = new double[NUM_COORDINATES];
+    // Ma trận hiệp phương sai 2x2 đối xứng cho từng tọa độ: [p00 p01; p01 p11]
+    private final double[] p00 = new double[NUM_COORDINATES];
+    private final double[] p01 = new double[NUM_COORDINATES];
+    private final double[] p11 = new double[NUM_COORDINATES];
+
+    private boolean initialized = false;
+
+    /**
+     * @param processNoise Nhiễu quá trình (pixel^2). Giá trị lớn bám theo chuyển động nhanh hơn nhưng ít mượt hơn.
+     */
+    public QuadKalmanSmoother(double processNoise) {
+        this.processNoise = processNoise;
+    }
+
+    /**
+     * Xóa trạng thái, phép đo kế tiếp sẽ khởi tạo lại bộ lọc.
+     */
+    public void reset() {
+        initialized = false;
+    }
+
+    public boolean isInitialized() {
+        return initialized;
+    }
+
+    /**
+     * Cập nhật bộ lọc với 4 góc vừa đo và ghi kết quả đã làm mượt vào mảng out.
+     * Thứ tự góc trong measured phải ổn định giữa các lần gọi.
+     * @param measured 4 góc đo được
+     * @param measurementNoise Phương sai nhiễu đo (pixel^2)
+     * @param out Mảng 4 Point nhận kết quả (được ghi đè, không cấp phát mới)
+     */
+    public void update(Point[] measured, double measurementNoise, Point[] out) {
+        if (!initialized) {
+            for (int i = 0; i < NUM_COORDINATES; i++) {
+                position[i] = coordinate(measured, i);
+                velocity[i] = 0;
+                p00[i] = measurementNoise;
+                p01[i] = 0;
+                p11[i] = INITIAL_VELOCITY_VARIANCE;
+            }
+            initialized = true;
+            writeOutput(out);
+            return;
+        }
+
+        for (int i = 0; i < NUM_COORDINATES; i++) {
+            // DỰ ĐOÁN: x = x + v, P = F P F^T + Q
+            position[i] += velocity[i];
+            double np00 = p00[i] + 2 * p01[i] + p11[i] + processNoise * 0.25;
+            double np01 = p01[i] + p11[i] + processNoise * 0.5;
+            double np11 = p11[i] + processNoise;
+
+            // CẬP NHẬT: chỉ đo vị trí (H = [1 0])
+            double innovation = coordinate(measured, i) - position[i];
+            double s = np00 + measurementNoise;
+            double k0 = np00 / s;
+            double k1 = np01 / s;
+            position[i] += k0 * innovation;
+            velocity[i] += k1 * innovation;
+            p00[i] = (1 - k0) * np00;
+            p01[i] = (1 - k0) * np01;
+            p11[i] = np11 - k1 * np01;
+        }
+        writeOutput(out);
+    }
+
+    private static double coordinate(Point[] points, int index) {
+        Point p = points[index >> 1];
+        return (index & 1) == 0 ? p.x : p.y;
+    }
+
+    private void writeOutput(Point[] out) {
+        for (int i = 0; i < NUM_COORDINATES / 2; i++) {
+            out[i].x = position[i * 2];
+            out[i].y = position[i * 2 + 1];
+        }
+    }
+}
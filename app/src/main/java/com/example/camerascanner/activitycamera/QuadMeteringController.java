@@ -0,0 +1,149 @@
+package com.example.camerascanner.activitycamera;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.camera.core.Camera;
+import androidx.camera.core.CameraControl;
+import androidx.camera.core.FocusMeteringAction;
+import androidx.camera.core.FocusMeteringResult;
+import androidx.camera.core.ImageAnalysis;
+import androidx.camera.core.MeteringPoint;
+import androidx.camera.core.MeteringPointFactory;
+import androidx.camera.core.SurfaceOrientedMeteringPointFactory;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import org.opencv.core.Point;
+
+/**
+ * Lớp **QuadMeteringController** đặt vùng lấy nét (AF) và đo sáng (AE) của camera vào khung tài liệu đang phát hiện,
+ * thay cho đo sáng mặc định ở giữa khung hình. Tài liệu nằm gần mép ảnh nhờ vậy được lấy nét và phơi sáng đúng
+ * ngay từ trước khi chụp, nên ảnh chụp dùng được ngay mà không phải chụp lại.
+ * - MeteringPoint đặt tại trọng tâm của khung (tọa độ buffer của ImageAnalysis, hướng cảm biến),
+ *   kích thước theo kích thước khung trong giới hạn [MIN_POINT_SIZE, MAX_POINT_SIZE].
+ * - Chỉ gửi lại khi trọng tâm dịch chuyển quá MOVE_THRESHOLD_FRACTION đường chéo, và không dày hơn MIN_INTERVAL_MS,
+ *   để AF không bị kéo đi kéo lại theo rung tay.
+ * - Vùng đo không tự hủy; khi mất khung quá LOST_RESET_MS thì hủy để camera quay lại đo sáng mặc định.
+ * Các phương thức update/reset được gọi trên luồng phát hiện; setCamera trên luồng chính.
+ */
+public class QuadMeteringController {
+
+    private static final String TAG = "QuadMeteringController";
+
+    private static final long MIN_INTERVAL_MS = 1000;
+    private static final double MOVE_THRESHOLD_FRACTION = 0.08;
+    private static final long LOST_RESET_MS = 2000;
+    // Kích thước điểm đo (tỷ lệ cạnh của buffer) theo cạnh dài của khung bao tài liệu
+    private static final float MIN_POINT_SIZE = 0.1f;
+    private static final float MAX_POINT_SIZE = 0.5f;
+
+    private final ImageAnalysis imageAnalysis;
+    private volatile Camera camera;
+
+    // Chỉ dùng trên luồng phát hiện
+    private double meteredX = Double.NaN;
+    private double meteredY = Double.NaN;
+    private long lastRequestAtMs = 0;
+    private long lastQuadAtMs = 0;
+    private boolean meteringActive = false;
+
+    /**
+     * @param imageAnalysis Use case phân tích; tọa độ khung nằm trong buffer của use case này
+     */
+    public QuadMeteringController(@NonNull ImageAnalysis imageAnalysis) {
+        this.imageAnalysis = imageAnalysis;
+    }
+
+    /**
+     * @param camera Camera vừa được bind (null khi chưa bind)
+     */
+    public void setCamera(Camera camera) {
+        this.camera = camera;
+    }
+
+    /**
+     * Cập nhật vùng đo theo khung của frame hiện tại.
+     * @param sensorQuad 4 góc khung trong tọa độ buffer phân tích (hướng cảm biến), hoặc null nếu không có khung
+     * @param bufferWidth Chiều rộng buffer phân tích
+     * @param bufferHeight Chiều cao buffer phân tích
+     */
+    public void update(Point[] sensorQuad, int bufferWidth, int bufferHeight) {
+        long now = SystemClock.elapsedRealtime();
+        if (sensorQuad == null || sensorQuad.length != 4) {
+            if (meteringActive && now - lastQuadAtMs > LOST_RESET_MS) {
+                reset();
+            }
+            return;
+        }
+        lastQuadAtMs = now;
+
+        double centerX = 0;
+        double centerY = 0;
+        double minX = Double.MAX_VALUE, minY = Double.MAX_VALUE, maxX = -Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+        for (Point corner : sensorQuad) {
+            centerX += corner.x / 4;
+            centerY += corner.y / 4;
+            minX = Math.min(minX, corner.x);
+            minY = Math.min(minY, corner.y);
+            maxX = Math.max(maxX, corner.x);
+            maxY = Math.max(maxY, corner.y);
+        }
+
+        if (now - lastRequestAtMs < MIN_INTERVAL_MS) {
+            return;
+        }
+        if (meteringActive) {
+            double moved = Math.hypot(centerX - meteredX, centerY - meteredY);
+            if (moved < MOVE_THRESHOLD_FRACTION * Math.hypot(bufferWidth, bufferHeight)) {
+                return;
+            }
+        }
+
+        Camera boundCamera = camera;
+        if (boundCamera == null) {
+            return;
+        }
+        float size = (float) Math.max((maxX - minX) / bufferWidth, (maxY - minY) / bufferHeight);
+        size = Math.max(MIN_POINT_SIZE, Math.min(MAX_POINT_SIZE, size));
+        MeteringPointFactory factory = new SurfaceOrientedMeteringPointFactory(bufferWidth, bufferHeight, imageAnalysis);
+        MeteringPoint point = factory.createPoint((float) centerX, (float) centerY, size);
+        FocusMeteringAction action = new FocusMeteringAction.Builder(point,
+                FocusMeteringAction.FLAG_AF | FocusMeteringAction.FLAG_AE)
+                .disableAutoCancel()
+                .build();
+        if (!boundCamera.getCameraInfo().isFocusMeteringSupported(action)) {
+            return;
+        }
+
+        meteredX = centerX;
+        meteredY = centerY;
+        lastRequestAtMs = now;
+        meteringActive = true;
+        ListenableFuture<FocusMeteringResult> future = boundCamera.getCameraControl().startFocusAndMetering(action);
+        future.addListener(() -> {
+            try {
+                FocusMeteringResult result = future.get();
+                Log.d(TAG, "Đo sáng/lấy nét theo khung: focusSuccessful=" + result.isFocusSuccessful());
+            } catch (Exception e) {
+                // Bị thay thế bởi yêu cầu mới hoặc camera đã đóng
+                Log.d(TAG, "Yêu cầu đo sáng/lấy nét không hoàn tất: " + e.getMessage());
+            }
+        }, Runnable::run);
+    }
+
+    /**
+     * Hủy vùng đo theo khung, camera quay lại đo sáng/lấy nét mặc định.
+     */
+    public void reset() {
+        meteringActive = false;
+        meteredX = Double.NaN;
+        meteredY = Double.NaN;
+        Camera boundCamera = camera;
+        if (boundCamera != null) {
+            CameraControl control = boundCamera.getCameraControl();
+            control.cancelFocusAndMetering();
+        }
+    }
+}
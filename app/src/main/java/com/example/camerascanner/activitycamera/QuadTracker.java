@@ -0,0 +1,245 @@
+package com.example.camerascanner.activitycamera;
+
+import com.example.camerascanner.detection.QuadGeometry;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfFloat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.Imgproc;
+import org.opencv.video.Video;
+
+/**
+ * Lớp **QuadTracker** theo dõi 4 góc của khung tài liệu giữa các lần phát hiện đầy đủ.
+ * - Mỗi frame được thu nhỏ (1/TRACKING_SCALE) và lưu lại để làm frame trước cho lần theo dõi kế tiếp.
+ * - Trên các frame bỏ qua phát hiện, 4 góc được lan truyền bằng Lucas–Kanade thưa (calcOpticalFlowPyrLK)
+ *   kèm kiểm tra tiến–lùi (forward-backward) để ước lượng độ tin cậy.
+ * - Kết quả đi qua {@link QuadKalmanSmoother} để khung trên overlay di chuyển mượt.
+ * Khi độ tin cậy giảm dưới ngưỡng, tracker báo mất dấu để CameraActivity chạy lại bộ phát hiện đầy đủ.
+ * Chỉ dùng trên luồng phân tích.
+ */
+public class QuadTracker {
+
+    // Hệ số thu nhỏ của frame theo dõi so với frame phân tích
+    private static final int TRACKING_SCALE = 2;
+    // Tham số Lucas–Kanade
+    private static final Size LK_WINDOW_SIZE = new Size(15, 15);
+    private static final int LK_MAX_PYRAMID_LEVEL = 2;
+    private static final TermCriteria LK_CRITERIA =
+            new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 10, 0.03);
+    // Sai số tiến–lùi tối đa (pixel ở độ phân giải theo dõi) để một góc còn được coi là bám tốt
+    private static final double MAX_FORWARD_BACKWARD_ERROR = 1.5;
+    // Tỷ lệ diện tích tối đa giữa hai frame liên tiếp; vượt quá coi như theo dõi sai
+    private static final double MAX_AREA_CHANGE_RATIO = 1.3;
+    // Độ tin cậy tối thiểu để tiếp tục theo dõi
+    public static final double MIN_TRACKING_CONFIDENCE = 0.5;
+    // Nhiễu đo của Kalman: phát hiện đầy đủ chính xác hơn optical flow
+    private static final double DETECTION_MEASUREMENT_NOISE = 1.0;
+    private static final double TRACKING_MEASUREMENT_NOISE = 4.0;
+    private static final double KALMAN_PROCESS_NOISE = 2.0;
+
+    private Mat previousFrame = new Mat();
+    private Mat currentFrame = new Mat();
+    private boolean hasPreviousFrame = false;
+
+    private final MatOfPoint2f previousPoints = new MatOfPoint2f();
+    private final MatOfPoint2f nextPoints = new MatOfPoint2f();
+    private final MatOfPoint2f backPoints = new MatOfPoint2f();
+    private final MatOfByte status = new MatOfByte();
+    private final MatOfByte backStatus = new MatOfByte();
+    private final MatOfFloat error = new MatOfFloat();
+
+    // 4 góc đang theo dõi, trong tọa độ frame theo dõi (đã thu nhỏ)
+    private final Point[] trackedPoints = newQuad();
+    // 4 góc đã làm mượt, trong tọa độ frame phân tích
+    private final Point[] smoothedQuad = newQuad();
+    private final Point[] measurement = newQuad();
+
+    private final QuadKalmanSmoother smoother = new QuadKalmanSmoother(KALMAN_PROCESS_NOISE);
+
+    private boolean tracking = false;
+    private double confidence = 0;
+
+    /**
+     * Đưa frame mới (theo hướng cảm biến, độ phân giải phân tích) vào tracker.
+     * Frame hiện tại trở thành frame trước, frame mới được thu nhỏ vào bộ đệm tái sử dụng.
+     * @param gray Ảnh xám của frame hiện tại
+     */
+    public void pushFrame(Mat gray) {
+        int trackingWidth = gray.width() / TRACKING_SCALE;
+        int trackingHeight = gray.height() / TRACKING_SCALE;
+        if (hasPreviousFrame && (currentFrame.width() != trackingWidth || currentFrame.height() != trackingHeight)) {
+            // Kích thước frame thay đổi: dữ liệu cũ không còn so sánh được
+            clear();
+        }
+
+        Mat swap = previousFrame;
+        previousFrame = currentFrame;
+        currentFrame = swap;
+        hasPreviousFrame = !previousFrame.empty();
+
+        Imgproc.resize(gray, currentFrame, new Size(trackingWidth, trackingHeight), 0, 0, Imgproc.INTER_AREA);
+    }
+
+    /**
+     * Neo lại tracker vào khung vừa được bộ phát hiện đầy đủ tìm thấy trên frame hiện tại.
+     * @param detectedQuad 4 góc trong tọa độ frame phân tích
+     * @return 4 góc đã làm mượt (mảng nội bộ, chỉ đọc đến lần gọi kế tiếp)
+     */
+    public Point[] reset(Point[] detectedQuad) {
+        Point[] ordered = smoother.isInitialized() ? matchCornerOrder(detectedQuad, smoothedQuad) : detectedQuad;
+        for (int i = 0; i < 4; i++) {
+            measurement[i].x = ordered[i].x;
+            measurement[i].y = ordered[i].y;
+            trackedPoints[i].x = ordered[i].x / TRACKING_SCALE;
+            trackedPoints[i].y = ordered[i].y / TRACKING_SCALE;
+        }
+        smoother.update(measurement, DETECTION_MEASUREMENT_NOISE, smoothedQuad);
+        tracking = true;
+        confidence = 1.0;
+        return smoothedQuad;
+    }
+
+    /**
+     * Lan truyền 4 góc từ frame trước sang frame hiện tại bằng Lucas–Kanade.
+     * @return 4 góc đã làm mượt trong tọa độ frame phân tích, hoặc null nếu mất dấu
+     */
+    public Point[] track() {
+        if (!tracking || !hasPreviousFrame) {
+            return null;
+        }
+
+        previousPoints.fromArray(trackedPoints);
+        Video.calcOpticalFlowPyrLK(previousFrame, currentFrame, previousPoints, nextPoints,
+                status, error, LK_WINDOW_SIZE, LK_MAX_PYRAMID_LEVEL, LK_CRITERIA);
+        // Theo dõi ngược để đo sai số tiến–lùi
+        Video.calcOpticalFlowPyrLK(currentFrame, previousFrame, nextPoints, backPoints,
+                backStatus, error, LK_WINDOW_SIZE, LK_MAX_PYRAMID_LEVEL, LK_CRITERIA);
+
+        byte[] forwardOk = status.toArray();
+        byte[] backwardOk = backStatus.toArray();
+        Point[] next = nextPoints.toArray();
+        Point[] back = backPoints.toArray();
+        if (next.length != 4 || back.length != 4) {
+            lose();
+            return null;
+        }
+
+        double totalError = 0;
+        for (int i = 0; i < 4; i++) {
+            if (forwardOk[i] == 0 || backwardOk[i] == 0) {
+                lose();
+                return null;
+            }
+            totalError += Math.hypot(back[i].x - trackedPoints[i].x, back[i].y - trackedPoints[i].y);
+        }
+
+        double previousArea = QuadGeometry.polygonArea(trackedPoints);
+        double nextArea = QuadGeometry.polygonArea(next);
+        double areaRatio = previousArea > 0 ? nextArea / previousArea : 0;
+        if (!QuadGeometry.isConvex(next) || areaRatio <= 0
+                || areaRatio > MAX_AREA_CHANGE_RATIO || areaRatio < 1 / MAX_AREA_CHANGE_RATIO) {
+            lose();
+            return null;
+        }
+
+        double meanError = totalError / 4;
+        confidence = Math.max(0, 1 - meanError / MAX_FORWARD_BACKWARD_ERROR);
+        if (confidence < MIN_TRACKING_CONFIDENCE) {
+            lose();
+            return null;
+        }
+
+        for (int i = 0; i < 4; i++) {
+            trackedPoints[i].x = next[i].x;
+            trackedPoints[i].y = next[i].y;
+            measurement[i].x = next[i].x * TRACKING_SCALE;
+            measurement[i].y = next[i].y * TRACKING_SCALE;
+        }
+        smoother.update(measurement, TRACKING_MEASUREMENT_NOISE, smoothedQuad);
+        return smoothedQuad;
+    }
+
+    public boolean isTracking() {
+        return tracking;
+    }
+
+    public double getConfidence() {
+        return confidence;
+    }
+
+    /**
+     * Đánh dấu mất dấu nhưng giữ lại frame để có thể neo lại ngay khi phát hiện thành công.
+     */
+    public void lose() {
+        tracking = false;
+        confidence = 0;
+        smoother.reset();
+    }
+
+    /**
+     * Xóa toàn bộ trạng thái, kể cả frame trước.
+     */
+    public void clear() {
+        lose();
+        hasPreviousFrame = false;
+        previousFrame.release();
+        currentFrame.release();
+        previousFrame = new Mat();
+        currentFrame = new Mat();
+    }
+
+    /**
+     * Giải phóng bộ nhớ native khi kết thúc phiên camera.
+     */
+    public void release() {
+        lose();
+        hasPreviousFrame = false;
+        previousFrame.release();
+        currentFrame.release();
+        previousPoints.release();
+        nextPoints.release();
+        backPoints.release();
+        status.release();
+        backStatus.release();
+        error.release();
+    }
+
+    /**
+     * Xoay vòng (và đảo chiều nếu cần) thứ tự 4 góc mới sao cho khớp nhất với thứ tự góc trước đó,
+     * tránh việc bộ lọc Kalman trộn lẫn hai góc khác nhau khi approxPolyDP bắt đầu từ đỉnh khác.
+     */
+    private static Point[] matchCornerOrder(Point[] candidate, Point[] reference) {
+        Point[] best = candidate;
+        double bestDistance = Double.MAX_VALUE;
+        for (int direction = 0; direction < 2; direction++) {
+            for (int shift = 0; shift < 4; shift++) {
+                double distance = 0;
+                for (int i = 0; i < 4; i++) {
+                    Point p = candidate[cornerIndex(i, shift, direction)];
+                    distance += Math.hypot(p.x - reference[i].x, p.y - reference[i].y);
+                }
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    Point[] ordered = new Point[4];
+                    for (int i = 0; i < 4; i++) {
+                        ordered[i] = candidate[cornerIndex(i, shift, direction)];
+                    }
+                    best = ordered;
+                }
+            }
+        }
+        return best;
+    }
+
+    private static int cornerIndex(int i, int shift, int direction) {
+        return direction == 0 ? (i + shift) % 4 : (shift - i + 4) % 4;
+    }
+
+    private static Point[] newQuad() {
+        return new Point[]{new Point(), new Point(), new Point(), new Point()};
+    }
+}
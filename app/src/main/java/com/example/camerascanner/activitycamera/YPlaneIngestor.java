@@ -0,0 +1,96 @@
+package com.example.camerascanner.activitycamera;
+
+import android.util.Log;
+
+import androidx.camera.core.ImageProxy;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Lớp **YPlaneIngestor** đưa mặt phẳng độ sáng (Y) của ImageProxy vào OpenCV mà không sao chép qua heap Java.
+ * - Trường hợp thông thường (pixelStride = 1, buffer direct): tạo Mat "header" trỏ thẳng vào ByteBuffer của camera,
+ *   dùng rowStride làm step nên phần padding cuối mỗi hàng được bỏ qua tự nhiên.
+ * - Trường hợp hiếm (pixelStride khác 1 hoặc buffer không direct): sao chép vào một mảng byte được cấp phát một lần
+ *   rồi đưa vào Mat mượn từ {@link FramePool}.
+ * Mat trả về chỉ hợp lệ cho đến khi ImageProxy bị đóng và phải được trả lại bằng {@link #release(Mat)}.
+ */
+public class YPlaneIngestor {
+
+    private static final String TAG = "YPlaneIngestor";
+
+    private final FramePool framePool;
+
+    // Mảng đệm dùng cho đường dự phòng, chỉ cấp phát lại khi kích thước frame thay đổi
+    private byte[] fallbackBuffer;
+    // Mat được mượn từ pool cho đường dự phòng (null nếu đang dùng header zero-copy)
+    private Mat pooledFallbackMat;
+
+    public YPlaneIngestor(FramePool framePool) {
+        this.framePool = framePool;
+    }
+
+    /**
+     * Bọc mặt phẳng Y của frame thành Mat CV_8UC1 kích thước width x height.
+     * @param imageProxy Frame từ ImageAnalysis (định dạng YUV_420_888)
+     * @return Mat xám của frame, hoặc null nếu buffer không đủ dữ liệu
+     */
+    public Mat wrap(ImageProxy imageProxy) {
+        ImageProxy.PlaneProxy yPlane = imageProxy.getPlanes()[0];
+        ByteBuffer yBuffer = yPlane.getBuffer();
+        int rowStride = yPlane.getRowStride();
+        int pixelStride = yPlane.getPixelStride();
+        int width = imageProxy.getWidth();
+        int height = imageProxy.getHeight();
+
+        // Số byte tối thiểu để đọc hết frame: các hàng đầy đủ + hàng cuối không có padding
+        long requiredBytes = (long) rowStride * (height - 1) + (long) (width - 1) * pixelStride + 1;
+        if (yBuffer.capacity() < requiredBytes) {
+            Log.e(TAG, "BufferUnderflow: Y plane có " + yBuffer.capacity() + " byte, cần " + requiredBytes + ". Bỏ qua frame.");
+            return null;
+        }
+
+        // ĐƯỜNG ZERO-COPY:
+        // Mat tham chiếu trực tiếp vùng nhớ native của camera, không có byte nào được sao chép
+        if (pixelStride == 1 && yBuffer.isDirect()) {
+            yBuffer.rewind();
+            return new Mat(height, width, CvType.CV_8UC1, yBuffer, rowStride);
+        }
+
+        // ĐƯỜNG DỰ PHÒNG:
+        // Sao chép từng pixel theo pixelStride vào mảng đệm tái sử dụng
+        int frameSize = width * height;
+        if (fallbackBuffer == null || fallbackBuffer.length != frameSize) {
+            fallbackBuffer = new byte[frameSize];
+        }
+        int out = 0;
+        for (int row = 0; row < height; row++) {
+            int rowStart = row * rowStride;
+            for (int col = 0; col < width; col++) {
+                fallbackBuffer[out++] = yBuffer.get(rowStart + col * pixelStride);
+            }
+        }
+        pooledFallbackMat = framePool.acquire(height, width);
+        pooledFallbackMat.put(0, 0, fallbackBuffer);
+        return pooledFallbackMat;
+    }
+
+    /**
+     * Trả lại Mat nhận được từ {@link #wrap(ImageProxy)}. Phải gọi trước khi đóng ImageProxy.
+     * @param mat Mat đã được wrap
+     */
+    public void release(Mat mat) {
+        if (mat == null) {
+            return;
+        }
+        if (mat == pooledFallbackMat) {
+            framePool.recycle(mat);
+            pooledFallbackMat = null;
+        } else {
+            // Chỉ giải phóng header, vùng nhớ pixel thuộc về camera
+            mat.release();
+        }
+    }
+}
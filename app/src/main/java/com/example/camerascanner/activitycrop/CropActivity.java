@@ -6,21 +6,28 @@ import android.graphics.Matrix;
 import android.graphics.PointF;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.provider.MediaStore;
 import android.util.Log;
 import android.widget.Button;
 import android.widget.Toast;
 
 import androidx.annotation.Nullable;
+import androidx.core.content.ContextCompat;
 
 import com.canhub.cropper.CropImageView;
+import com.example.camerascanner.AppWarmUp;
 import com.example.camerascanner.R;
 import com.example.camerascanner.BaseActivity;
+import com.example.camerascanner.capture.PageBuffer;
+import com.example.camerascanner.capture.PageBufferRegistry;
+import com.example.camerascanner.detection.DocumentDetector;
+import com.example.camerascanner.detection.QuadCandidate;
+import com.example.camerascanner.detection.QuadCoordinateMapper;
+import com.example.camerascanner.detection.QuadGeometry;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.text.Text;
-import com.google.mlkit.vision.text.TextRecognition;
 import com.google.mlkit.vision.text.TextRecognizer;
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
 
 import org.opencv.android.Utils;
 import org.opencv.core.Mat;
@@ -34,11 +41,18 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class CropActivity extends BaseActivity {
 
     private static final String TAG = "CropActivity";
+    // Handle của trang đã giải mã sẵn trong PageBufferRegistry (ảnh chụp từ camera)
+    public static final String EXTRA_PAGE_BUFFER_HANDLE = "pageBufferHandle";
+    // Cạnh dài tối đa của ảnh thu nhỏ dùng cho DocumentDetector
+    private static final int DETECTION_MAX_DIMENSION = 640;
 
     // Khai báo các thành phần UI
     private CropImageView cropImageView;
@@ -48,10 +62,15 @@ public class CropActivity extends BaseActivity {
 
     // URI của ảnh đầu vào cần cắt
     private Uri imageUriToCrop;
-    // Đối tượng TextRecognizer từ ML Kit để nhận dạng văn bản
-    private TextRecognizer textRecognizer;
-    // Bitmap của ảnh gốc sau khi được tải từ URI
+    // Bitmap của ảnh gốc sau khi được tải từ URI (hoặc lấy từ pageBuffer)
     private Bitmap originalBitmapLoaded;
+    // Trang đã giải mã sẵn từ camera; khi có, originalBitmapLoaded thuộc về buffer và không được recycle trực tiếp
+    private String pageBufferHandle;
+    private PageBuffer pageBuffer;
+    // Luồng nền cho DocumentDetector (thu nhỏ ảnh + phát hiện khung), không chặn luồng chính
+    private final ExecutorService detectionExecutor = Executors.newSingleThreadExecutor();
+    // Tạo lười trên detectionExecutor sau khi OpenCV đã nạp, chỉ dùng trên luồng đó
+    private DocumentDetector cropDocumentDetector;
 
     // Biến để xác định có phải từ PDFGroup không
     private boolean isFromPdfGroup = false;
@@ -68,9 +87,6 @@ public class CropActivity extends BaseActivity {
         btnYesCrop = findViewById(R.id.btnYesCrop);
         magnifierView = findViewById(R.id.magnifierView);
 
-        // Khởi tạo TextRecognizer
-        textRecognizer = TextRecognition.getClient(TextRecognizerOptions.DEFAULT_OPTIONS);
-
         // Thiết lập MagnifierView cho CustomCropView
         customCropView.setMagnifierView(magnifierView);
 
@@ -88,13 +104,11 @@ public class CropActivity extends BaseActivity {
                 imageUriToCrop = Uri.parse(imageUriString);
 
                 if (imageUriToCrop != null) {
-                    // Thiết lập ảnh cho CropImageView
-                    cropImageView.setImageUriAsync(imageUriToCrop);
                     cropImageView.setGuidelines(CropImageView.Guidelines.OFF);
 
                     try {
-                        // Tải Bitmap gốc từ URI
-                        originalBitmapLoaded = getCorrectlyOrientedBitmap(imageUriToCrop);
+                        // Lấy Bitmap gốc: ưu tiên trang đã giải mã sẵn trong bộ nhớ, nếu không thì tải từ URI
+                        originalBitmapLoaded = loadOriginalBitmap();
                         if (originalBitmapLoaded != null) {
                             customCropView.post(() -> {
                                 // Tính toán ma trận chuyển đổi
@@ -116,12 +130,9 @@ public class CropActivity extends BaseActivity {
                                 customCropView.setImageData(originalBitmapLoaded, imageToViewValues, viewToImageValues);
 
                                 // Kiểm tra xem có khung phát hiện từ camera không
-                                if (getIntent().hasExtra("detectedQuadrilateral")) {
-                                    // Có khung từ camera - sử dụng khung đó
-                                    setupCropFromDetectedQuadrilateral();
-                                } else {
-                                    // Không có khung từ camera - tự động phát hiện bằng OCR
-                                    processImageForTextDetection(imageUriToCrop);
+                                if (!setupCropFromDetectedQuadrilateral()) {
+                                    // Không có khung hợp lệ từ camera
+                                    setupCropWithoutCameraQuadrilateral();
                                 }
                             });
                         }
@@ -164,70 +175,214 @@ public class CropActivity extends BaseActivity {
                 transformedPoints.add(new PointF(bitmapCoords[0], bitmapCoords[1]));
             }
 
-            // Cắt Bitmap dựa trên 4 điểm đã chọn
-            Bitmap straightenedBitmap = performPerspectiveTransform(originalBitmapLoaded, transformedPoints);
-            if (straightenedBitmap != null) {
-                Uri straightenedUri = saveBitmapToCache(straightenedBitmap);
-
-                if (straightenedUri != null) {
-                    // Trả kết quả về CameraActivity
-                    Intent resultIntent = new Intent();
-                    resultIntent.putExtra("processedImageUri", straightenedUri.toString());
-                    setResult(RESULT_OK, resultIntent);
-                    finish();
-                } else {
-                    Toast.makeText(this, getString(R.string.failed_to_save_image), Toast.LENGTH_SHORT).show();
-                }
+            // Cắt Bitmap dựa trên 4 điểm đã chọn: biến đổi phối cảnh (có thể phải chờ OpenCV) và nén JPEG
+            // chạy trên detectionExecutor, luồng chính chỉ nhận Uri kết quả
+            btnYesCrop.setEnabled(false);
+            Bitmap source = originalBitmapLoaded;
+            CompletableFuture.supplyAsync(() -> cropAndSave(source, transformedPoints), detectionExecutor)
+                    .whenCompleteAsync((straightenedUri, error) -> {
+                        if (isDestroyed()) {
+                            return;
+                        }
+                        btnYesCrop.setEnabled(true);
+                        if (error != null) {
+                            Log.e(TAG, "Lỗi khi cắt ảnh: " + error.getMessage(), error);
+                            Toast.makeText(this, getString(R.string.error_cropping_image), Toast.LENGTH_SHORT).show();
+                        } else if (straightenedUri == null) {
+                            Toast.makeText(this, getString(R.string.failed_to_save_image), Toast.LENGTH_SHORT).show();
+                        } else {
+                            // Trả kết quả về CameraActivity
+                            Intent resultIntent = new Intent();
+                            resultIntent.putExtra("processedImageUri", straightenedUri.toString());
+                            setResult(RESULT_OK, resultIntent);
+                            finish();
+                        }
+                    }, ContextCompat.getMainExecutor(this));
+        });
+    }
 
-                if (straightenedBitmap != originalBitmapLoaded) {
-                    straightenedBitmap.recycle();
-                }
-            } else {
-                Toast.makeText(this, getString(R.string.error_cropping_image), Toast.LENGTH_SHORT).show();
+    /**
+     * CẮT VÀ LƯU ẢNH (chạy trên detectionExecutor):
+     * Biến đổi phối cảnh theo 4 điểm đã chọn rồi lưu vào cache. Ảnh gốc chỉ được giải phóng trong onDestroy,
+     * sau tác vụ này trên cùng executor, nên vẫn hợp lệ trong suốt lần cắt.
+     * @param source Bitmap gốc
+     * @param bitmapPoints 4 điểm crop trong tọa độ bitmap gốc
+     * @return Uri của ảnh đã cắt, hoặc null nếu không lưu được
+     * @throws IllegalStateException Nếu biến đổi phối cảnh thất bại
+     */
+    private Uri cropAndSave(Bitmap source, ArrayList<PointF> bitmapPoints) {
+        Bitmap straightenedBitmap = performPerspectiveTransform(source, bitmapPoints);
+        if (straightenedBitmap == null) {
+            throw new IllegalStateException("Biến đổi phối cảnh không trả về ảnh");
+        }
+        try {
+            return saveBitmapToCache(straightenedBitmap);
+        } finally {
+            if (straightenedBitmap != source) {
+                straightenedBitmap.recycle();
             }
-        });
+        }
+    }
+
+    /**
+     * TẢI BITMAP GỐC VÀ HIỂN THỊ LÊN CropImageView:
+     * Nếu Intent có handle của PageBufferRegistry (ảnh vừa chụp), dùng luôn Bitmap đã giải mã,
+     * không đọc lại file JPEG. Nếu handle không còn (ví dụ tiến trình đã bị hủy) hoặc không có,
+     * giải mã từ URI như trước.
+     * @return Bitmap đúng hướng của ảnh gốc
+     * @throws IOException Nếu không thể đọc ảnh từ URI
+     */
+    private Bitmap loadOriginalBitmap() throws IOException {
+        pageBufferHandle = getIntent().getStringExtra(EXTRA_PAGE_BUFFER_HANDLE);
+        pageBuffer = PageBufferRegistry.getInstance().acquire(pageBufferHandle);
+        if (pageBuffer != null) {
+            Log.d(TAG, "Dùng trang đã giải mã sẵn từ bộ nhớ: " + pageBufferHandle);
+            cropImageView.setImageBitmap(pageBuffer.getBitmap());
+            return pageBuffer.getBitmap();
+        }
+
+        cropImageView.setImageUriAsync(imageUriToCrop);
+        return getCorrectlyOrientedBitmap(imageUriToCrop);
     }
 
     /**
      * THIẾT LẬP KHUNG CROP TỪ KHUNG ĐÃ PHÁT HIỆN TỪ CAMERA:
-     * Sử dụng khung tứ giác được phát hiện từ CameraActivity để tự động thiết lập điểm crop.
-     * Chuyển đổi tọa độ từ image space sang view space và hiển thị lên CustomCropView.
-     * Nếu dữ liệu không hợp lệ, fallback về OCR detection.
+     * CameraActivity đã ánh xạ khung sang tọa độ ảnh chụp (originalImageWidth/Height là kích thước ảnh chụp).
+     * Khung được ánh xạ thêm một lần bằng QuadCoordinateMapper phòng khi bitmap tải ở đây có kích thước
+     * khác (ví dụ đọc lại từ file dự phòng), rồi chuyển sang view space và hiển thị lên CustomCropView.
+     * @return true nếu đã thiết lập được khung, false nếu Intent không có khung hợp lệ
      */
-    private void setupCropFromDetectedQuadrilateral() {
+    private boolean setupCropFromDetectedQuadrilateral() {
         float[] quadPoints = getIntent().getFloatArrayExtra("detectedQuadrilateral");
         int originalImageWidth = getIntent().getIntExtra("originalImageWidth", 0);
         int originalImageHeight = getIntent().getIntExtra("originalImageHeight", 0);
 
-        if (quadPoints != null && quadPoints.length == 8 && originalImageWidth > 0 && originalImageHeight > 0) {
-            // Chuyển đổi float[] thành ArrayList<PointF> trong tọa độ bitmap gốc
-            ArrayList<PointF> detectedPointsInOriginalImage = new ArrayList<>();
-            for (int i = 0; i < 4; i++) {
-                float x = quadPoints[i * 2];
-                float y = quadPoints[i * 2 + 1];
+        float[] bitmapQuad = QuadCoordinateMapper.map(quadPoints, originalImageWidth, originalImageHeight,
+                originalBitmapLoaded.getWidth(), originalBitmapLoaded.getHeight(),
+                QuadCoordinateMapper.DEFAULT_SENSOR_ASPECT_RATIO);
+        if (bitmapQuad == null) {
+            if (quadPoints != null) {
+                Log.w(TAG, "Dữ liệu khung phát hiện không hợp lệ.");
+            }
+            return false;
+        }
+
+        // Chuyển đổi các điểm từ tọa độ bitmap sang tọa độ view và thiết lập
+        customCropView.clearPoints();
+        for (int i = 0; i < 4; i++) {
+            customCropView.addPoint(transformBitmapPointToViewPoint(bitmapQuad[i * 2], bitmapQuad[i * 2 + 1]));
+        }
+        customCropView.invalidate();
 
-                            // SCALE ĐIỂM TỪ KÍCH THƯỚC PHÁT HIỆN VỀ KÍCH THƯỚC BITMAP GỐC:
-            // Camera phát hiện ở độ phân giải thấp (640x480), cần scale về kích thước bitmap thực tế
-            float scaleX = (float) originalBitmapLoaded.getWidth() / originalImageWidth;
-            float scaleY = (float) originalBitmapLoaded.getHeight() / originalImageHeight;
+        Toast.makeText(this, getString(R.string.camera_crop), Toast.LENGTH_SHORT).show();
+        Log.d(TAG, "Đã thiết lập các điểm crop từ khung phát hiện camera.");
+        return true;
+    }
 
-                detectedPointsInOriginalImage.add(new PointF(x * scaleX, y * scaleY));
-            }
+    /**
+     * THIẾT LẬP KHUNG CROP KHI KHÔNG CÓ KHUNG TỪ CAMERA:
+     * Thử DocumentDetector trên ảnh thu nhỏ trước (ở nền, chỉ 4 góc được đưa về luồng chính).
+     * Nhận dạng văn bản ML Kit trên ảnh độ phân giải đầy đủ chỉ chạy cho ảnh không đến từ camera (thư viện ảnh);
+     * ảnh vừa chụp mà không có khung thì dùng cả ảnh.
+     */
+    private void setupCropWithoutCameraQuadrilateral() {
+        Bitmap source = originalBitmapLoaded;
+        CompletableFuture.supplyAsync(() -> detectDocumentCorners(source), detectionExecutor)
+                .thenAcceptAsync(corners -> {
+                    if (isDestroyed() || originalBitmapLoaded != source) {
+                        return;
+                    }
+                    if (corners != null) {
+                        applyBitmapCropPoints(corners);
+                        Log.d(TAG, "Đã thiết lập các điểm crop từ DocumentDetector.");
+                    } else if (getIntent().hasExtra(EXTRA_PAGE_BUFFER_HANDLE)) {
+                        Log.d(TAG, "Ảnh chụp từ camera không có khung, dùng toàn bộ ảnh.");
+                        setCropPointsToFullImage();
+                    } else {
+                        processImageForTextDetection(imageUriToCrop);
+                    }
+                }, ContextCompat.getMainExecutor(this));
+    }
 
-            // Chuyển đổi các điểm từ tọa độ bitmap sang tọa độ view và thiết lập
-            customCropView.clearPoints();
-            for (PointF point : detectedPointsInOriginalImage) {
-                PointF viewPoint = transformBitmapPointToViewPoint(point.x, point.y);
-                customCropView.addPoint(viewPoint);
+    /**
+     * Đặt 4 điểm crop tại 4 góc ảnh.
+     */
+    private void setCropPointsToFullImage() {
+        int bitmapWidth = originalBitmapLoaded.getWidth();
+        int bitmapHeight = originalBitmapLoaded.getHeight();
+        customCropView.clearPoints();
+        customCropView.addPoint(transformBitmapPointToViewPoint(0, 0));
+        customCropView.addPoint(transformBitmapPointToViewPoint(bitmapWidth, 0));
+        customCropView.addPoint(transformBitmapPointToViewPoint(bitmapWidth, bitmapHeight));
+        customCropView.addPoint(transformBitmapPointToViewPoint(0, bitmapHeight));
+        customCropView.invalidate();
+    }
+
+    /**
+     * Đặt 4 điểm crop từ tọa độ bitmap gốc.
+     * @param bitmapQuad 4 góc [x0, y0, ..., x3, y3] trong tọa độ bitmap gốc
+     */
+    private void applyBitmapCropPoints(float[] bitmapQuad) {
+        customCropView.clearPoints();
+        for (int i = 0; i < 4; i++) {
+            customCropView.addPoint(transformBitmapPointToViewPoint(bitmapQuad[i * 2], bitmapQuad[i * 2 + 1]));
+        }
+        customCropView.invalidate();
+    }
+
+    /**
+     * TÌM KHUNG BẰNG DocumentDetector (chạy trên detectionExecutor):
+     * Dùng cùng bộ phát hiện khung với màn hình camera trên một bản thu nhỏ của ảnh gốc
+     * (cạnh dài tối đa DETECTION_MAX_DIMENSION), rồi phóng các góc về kích thước bitmap gốc.
+     * Rẻ hơn nhiều so với nhận dạng văn bản ML Kit trên ảnh độ phân giải đầy đủ.
+     * Bộ phát hiện được tạo lười và dùng lại; chờ OpenCV ở đây không chặn luồng chính.
+     * @param source Bitmap gốc (không bị thay đổi)
+     * @return 4 góc trong tọa độ bitmap gốc, hoặc null nếu cần fallback về OCR
+     */
+    private float[] detectDocumentCorners(Bitmap source) {
+        if (source == null || source.isRecycled() || !AppWarmUp.getInstance().awaitOpenCv(TAG)) {
+            return null;
+        }
+
+        int bitmapWidth = source.getWidth();
+        int bitmapHeight = source.getHeight();
+        float scale = Math.min(1f, (float) DETECTION_MAX_DIMENSION / Math.max(bitmapWidth, bitmapHeight));
+        Bitmap detectionBitmap = null;
+        Mat rgba = new Mat();
+        Mat gray = new Mat();
+        try {
+            detectionBitmap = scale < 1f
+                    ? Bitmap.createScaledBitmap(source, Math.round(bitmapWidth * scale), Math.round(bitmapHeight * scale), true)
+                    : source;
+            Utils.bitmapToMat(detectionBitmap, rgba);
+            Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+            if (cropDocumentDetector == null) {
+                cropDocumentDetector = new DocumentDetector();
+            }
+            List<QuadCandidate> candidates = cropDocumentDetector.detect(gray);
+            if (candidates.isEmpty()) {
+                Log.d(TAG, "DocumentDetector không tìm thấy khung, fallback về OCR");
+                return null;
             }
-            customCropView.invalidate();
 
-            Toast.makeText(this, getString(R.string.camera_crop), Toast.LENGTH_SHORT).show();
-            Log.d(TAG, "Đã thiết lập các điểm crop từ khung phát hiện camera.");
-        } else {
-            // Fallback về OCR nếu dữ liệu không hợp lệ
-            Log.w(TAG, "Dữ liệu khung phát hiện không hợp lệ, fallback về OCR");
-            processImageForTextDetection(imageUriToCrop);
+            Point[] corners = candidates.get(0).getCorners();
+            float[] bitmapQuad = new float[8];
+            for (int i = 0; i < 4; i++) {
+                bitmapQuad[i * 2] = (float) (corners[i].x / scale);
+                bitmapQuad[i * 2 + 1] = (float) (corners[i].y / scale);
+            }
+            Log.d(TAG, "DocumentDetector tìm thấy khung. Điểm: " + candidates.get(0).getScore());
+            return bitmapQuad;
+        } catch (Throwable t) {
+            // OpenCV chưa được nạp hoặc lỗi xử lý: để OCR đảm nhiệm
+            Log.e(TAG, "Lỗi khi phát hiện khung bằng DocumentDetector: " + t.getMessage(), t);
+            return null;
+        } finally {
+            rgba.release();
+            gray.release();
+            if (detectionBitmap != null && detectionBitmap != source) {
+                detectionBitmap.recycle();
+            }
         }
     }
 
@@ -258,12 +413,28 @@ public class CropActivity extends BaseActivity {
      * XỬ LÝ ẢNH ĐỂ NHẬN DẠNG VĂN BẢN BẰNG ML KIT:
      * Sử dụng TextRecognizer để phát hiện văn bản trong ảnh.
      * Kết quả nhận dạng được sử dụng để tự động thiết lập điểm crop.
-     * Đây là fallback khi không có khung phát hiện từ camera.
+     * Đây là fallback cuối cùng cho ảnh không đến từ camera khi DocumentDetector không tìm thấy khung.
+     * TextRecognizer dùng chung được khởi tạo sẵn ở nền (AppWarmUp); nếu chưa xong thì chờ không chặn luồng chính.
      * @param imageUri URI của ảnh cần xử lý
      */
     private void processImageForTextDetection(Uri imageUri) {
+        CompletableFuture<TextRecognizer> recognizerFuture = AppWarmUp.getInstance().textRecognizerFuture();
+        boolean wasReady = recognizerFuture.isDone();
+        long requestedAtMs = SystemClock.elapsedRealtime();
+        recognizerFuture.thenAcceptAsync(recognizer -> {
+            AppWarmUp.logAcquire(TAG, "TextRecognizer", wasReady, SystemClock.elapsedRealtime() - requestedAtMs);
+            if (!isDestroyed()) {
+                runTextDetection(recognizer, imageUri);
+            }
+        }, ContextCompat.getMainExecutor(this));
+    }
+
+    private void runTextDetection(TextRecognizer textRecognizer, Uri imageUri) {
         try {
-            InputImage inputImage = InputImage.fromFilePath(this, imageUri);
+            // Trang đã có sẵn trong bộ nhớ thì không cần đọc lại file (file có thể còn đang được ghi)
+            InputImage inputImage = pageBuffer != null
+                    ? InputImage.fromBitmap(originalBitmapLoaded, 0)
+                    : InputImage.fromFilePath(this, imageUri);
             textRecognizer.process(inputImage)
                     .addOnSuccessListener(text -> {
                         if (originalBitmapLoaded != null) {
@@ -420,41 +591,7 @@ public class CropActivity extends BaseActivity {
     }
 
     /**
-     * SẮP XẾP 4 ĐIỂM THEO THỨ TỰ CHUẨN:
-     * Sắp xếp điểm theo thứ tự: [top-left, top-right, bottom-right, bottom-left].
-     * Điểm có y nhỏ nhất = top, y lớn nhất = bottom.
-     * Trong mỗi hàng, sắp xếp theo x (trái → phải).
-     * @param pointsMat MatOfPoint chứa 4 điểm của khung tứ giác
-     * @return MatOfPoint với các điểm đã sắp xếp theo thứ tự chuẩn
-     */
-    private MatOfPoint sortPoints(MatOfPoint pointsMat) {
-        Point[] pts = pointsMat.toArray();
-        Point[] rect = new Point[4];
-
-        // SẮP XẾP THEO CHIỀU DỌC (Y):
-        // Điểm có y nhỏ nhất = top, y lớn nhất = bottom
-        Arrays.sort(pts, (p1, p2) -> Double.compare(p1.y, p2.y));
-
-        // Tách thành 2 hàng: top (2 điểm đầu) và bottom (2 điểm cuối)
-        Point[] topPoints = Arrays.copyOfRange(pts, 0, 2);
-        Point[] bottomPoints = Arrays.copyOfRange(pts, 2, 4);
-
-        // SẮP XẾP THEO CHIỀU NGANG (X) TRONG MỖI HÀNG:
-        // Top row: trái → phải
-        Arrays.sort(topPoints, (p1, p2) -> Double.compare(p1.x, p2.x));
-        rect[0] = topPoints[0]; // Top-Left
-        rect[1] = topPoints[1]; // Top-Right
-
-        // Bottom row: trái → phải
-        Arrays.sort(bottomPoints, (p1, p2) -> Double.compare(p1.x, p2.x));
-        rect[3] = bottomPoints[0]; // Bottom-Left
-        rect[2] = bottomPoints[1]; // Bottom-Right
-
-        return new MatOfPoint(rect);
-    }
-
-    /**
-     * THỰC HIỆN BIẾN ĐỔI PHỐI CẢNH (PERSPECTIVE TRANSFORM):
+     * THỰC HIỆN BIẾN ĐỔI PHỐI CẢNH (PERSPECTIVE TRANSFORM, chạy trên detectionExecutor):
      * Sử dụng OpenCV để biến đổi ảnh từ khung tứ giác nghiêng thành hình chữ nhật thẳng.
      * Tính toán kích thước đích dựa trên chiều rộng và chiều cao lớn nhất của khung.
      * Sử dụng getPerspectiveTransform và warpPerspective để thực hiện transform.
@@ -467,6 +604,9 @@ public class CropActivity extends BaseActivity {
             Log.e(TAG, "Dữ liệu đầu vào không hợp lệ cho biến đổi phối cảnh.");
             return null;
         }
+        if (!AppWarmUp.getInstance().awaitOpenCv(TAG)) {
+            return null;
+        }
 
         Mat originalMat = new Mat();
         Utils.bitmapToMat(originalBitmap, originalMat);
@@ -477,7 +617,7 @@ public class CropActivity extends BaseActivity {
         }
 
         MatOfPoint unsortedMatOfPoint = new MatOfPoint(pts);
-        MatOfPoint sortedPointsMat = sortPoints(unsortedMatOfPoint);
+        MatOfPoint sortedPointsMat = QuadGeometry.sortPoints(unsortedMatOfPoint);
         Point[] sortedPts = sortedPointsMat.toArray();
 
         // TÍNH TOÁN KÍCH THƯỚC ĐÍCH CHO ẢNH SAU KHI TRANSFORM:
@@ -604,12 +744,28 @@ public class CropActivity extends BaseActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
-        if (textRecognizer != null) {
-            textRecognizer.close();
-        }
-        if (originalBitmapLoaded != null && !originalBitmapLoaded.isRecycled()) {
-            originalBitmapLoaded.recycle();
-            originalBitmapLoaded = null;
-        }
+        // Giải phóng ảnh gốc trên detectionExecutor, sau lần phát hiện khung có thể còn đang đọc nó
+        PageBuffer ownedPageBuffer = pageBuffer;
+        boolean removePageBuffer = isFinishing();
+        String ownedPageBufferHandle = pageBufferHandle;
+        Bitmap ownedBitmap = ownedPageBuffer == null ? originalBitmapLoaded : null;
+        pageBuffer = null;
+        originalBitmapLoaded = null;
+        detectionExecutor.execute(() -> {
+            if (cropDocumentDetector != null) {
+                cropDocumentDetector.release();
+                cropDocumentDetector = null;
+            }
+            if (ownedPageBuffer != null) {
+                // Bitmap thuộc về pageBuffer: chỉ trả tham chiếu; khi đóng hẳn màn hình thì gỡ khỏi registry
+                ownedPageBuffer.release();
+                if (removePageBuffer) {
+                    PageBufferRegistry.getInstance().remove(ownedPageBufferHandle);
+                }
+            } else if (ownedBitmap != null && !ownedBitmap.isRecycled()) {
+                ownedBitmap.recycle();
+            }
+        });
+        detectionExecutor.shutdown();
     }
 }
\ No newline at end of file
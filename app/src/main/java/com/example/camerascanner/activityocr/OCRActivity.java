@@ -34,15 +34,14 @@ import androidx.appcompat.widget.AppCompatButton;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
+import com.example.camerascanner.AppWarmUp;
 import com.example.camerascanner.R;
 import com.example.camerascanner.activityimagepreview.ImagePreviewActivity;
 import com.example.camerascanner.BaseActivity;
 import com.google.android.gms.tasks.Tasks;
 import com.google.mlkit.vision.common.InputImage;
 import com.google.mlkit.vision.text.Text;
-import com.google.mlkit.vision.text.TextRecognition;
 import com.google.mlkit.vision.text.TextRecognizer;
-import com.google.mlkit.vision.text.latin.TextRecognizerOptions;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -432,10 +431,11 @@ public class OCRActivity extends BaseActivity {
                 // Thử nhiều orientation nếu cần
                 InputImage image = InputImage.fromBitmap(imageBitmap, 0);
 
-                // Sử dụng TextRecognizer với cấu hình tối ưu
-                TextRecognizer recognizer = TextRecognition.getClient(
-                        TextRecognizerOptions.DEFAULT_OPTIONS
-                );
+                // Dùng TextRecognizer chung đã được khởi tạo sẵn ở nền (không tạo client mới mỗi lần OCR)
+                TextRecognizer recognizer = AppWarmUp.getInstance().awaitTextRecognizer(TAG);
+                if (recognizer == null) {
+                    throw new IOException("Không thể khởi tạo TextRecognizer.");
+                }
 
                 // Thực hiện OCR
                 resultText = Tasks.await(recognizer.process(image));
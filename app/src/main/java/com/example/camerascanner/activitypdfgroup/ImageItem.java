@@ -11,6 +11,11 @@ public class ImageItem {
     private String filePath;
     private final long timestamp;
     private boolean isSelected;
+    // Ảnh gốc và khung đã dùng khi tự động cắt (null nếu ảnh không được tự động cắt)
+    private String sourceFilePath;
+    private float[] cropQuad;
+    private int sourceWidth;
+    private int sourceHeight;
 
     public ImageItem(Bitmap bitmap, String name) {
         this.bitmap = bitmap;
@@ -45,6 +50,29 @@ public class ImageItem {
         return isSelected;
     }
 
+    public String getSourceFilePath() {
+        return sourceFilePath;
+    }
+
+    public float[] getCropQuad() {
+        return cropQuad;
+    }
+
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * Ảnh được tự động cắt và còn giữ ảnh gốc để chỉnh lại khung
+     */
+    public boolean hasCropSource() {
+        return sourceFilePath != null && cropQuad != null;
+    }
+
     // Setters
     public void setBitmap(Bitmap bitmap) {
         this.bitmap = bitmap;
@@ -62,6 +90,17 @@ public class ImageItem {
         isSelected = selected;
     }
 
+    public void setCropSource(String sourceFilePath, float[] cropQuad, int sourceWidth, int sourceHeight) {
+        this.sourceFilePath = sourceFilePath;
+        this.cropQuad = cropQuad;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    public void clearCropSource() {
+        setCropSource(null, null, 0, 0);
+    }
+
     /**
      * Kiểm tra bitmap có hợp lệ không
      */
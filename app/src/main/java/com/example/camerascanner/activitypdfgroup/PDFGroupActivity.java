@@ -16,12 +16,14 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.appcompat.app.AlertDialog;
 import androidx.recyclerview.widget.GridLayoutManager;
 import androidx.recyclerview.widget.ItemTouchHelper;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.camerascanner.R;
 import com.example.camerascanner.activitycamera.CameraActivity;
+import com.example.camerascanner.activitycrop.CropActivity;
 import com.example.camerascanner.activityimagepreview.ImagePreviewActivity;
 import com.example.camerascanner.BaseActivity;
 import com.example.camerascanner.activitymain.MainActivity;
@@ -29,6 +31,7 @@ import com.example.camerascanner.activitypdf.DialogHelper;
 import com.example.camerascanner.activitypdf.PermissionHelper;
 import com.example.camerascanner.activitypdf.pdf.PdfGenerator;
 import com.example.camerascanner.activitypdf.pdf.PdfStyle;
+import com.example.camerascanner.capture.GalleryImportPipeline;
 
 import java.io.File;
 import java.io.IOException;
@@ -46,6 +49,9 @@ public class PDFGroupActivity extends BaseActivity implements
     private static final String TAG = "PDFGroupActivity";
     private static final int REQUEST_ADD_IMAGE = 1001;
     private static final int REQUEST_IMAGE_PREVIEW = 1004;
+    private static final int REQUEST_ADJUST_CROP = 1005;
+    // Handle phiên nhập ảnh từ thư viện (GalleryImportPipeline) do CameraActivity truyền sang
+    public static final String EXTRA_GALLERY_IMPORT_HANDLE = "galleryImportHandle";
 
     // UI Components
     private TextView tvTitle;
@@ -72,6 +78,15 @@ public class PDFGroupActivity extends BaseActivity implements
     private ExecutorService executorService;
     private Handler mainHandler;
 
+    // Nhập ảnh từ thư viện theo luồng: các trang được thêm dần khi từng ảnh sao chép xong
+    private String galleryImportHandle;
+    // Số ảnh của phiên nhập đã được xử lý (đã thêm vào danh sách hoặc bỏ qua vì lỗi), dùng khi gắn lại sau xoay màn hình
+    private int galleryImportConsumed = 0;
+    private int galleryImportCompleted = 0;
+    private int galleryImportTotal = 0;
+    // Vị trí ảnh đang được chỉnh khung cắt trong CropActivity (CropActivity không trả lại vị trí)
+    private int adjustCropPosition = -1;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -150,6 +165,14 @@ public class PDFGroupActivity extends BaseActivity implements
             updateUI();
         }
 
+        // Gắn lại phiên nhập ảnh từ thư viện nếu còn đang chạy
+        galleryImportHandle = savedInstanceState.getString(EXTRA_GALLERY_IMPORT_HANDLE);
+        galleryImportConsumed = savedInstanceState.getInt("galleryImportConsumed", 0);
+        adjustCropPosition = savedInstanceState.getInt("adjustCropPosition", -1);
+        if (galleryImportHandle != null) {
+            attachGalleryImport();
+        }
+
         // Restore style
         String styleStr = savedInstanceState.getString("currentPdfStyle");
         if (styleStr != null) {
@@ -173,8 +196,13 @@ public class PDFGroupActivity extends BaseActivity implements
         if (intent != null) {
             // Lấy danh sách URI từ Intent (cho chế độ nhiều ảnh)
             ArrayList<String> processedImageUriStrings = intent.getStringArrayListExtra("processedImageUris");
+            galleryImportHandle = intent.getStringExtra(EXTRA_GALLERY_IMPORT_HANDLE);
 
-            if (processedImageUriStrings != null && !processedImageUriStrings.isEmpty()) {
+            if (galleryImportHandle != null) {
+                // Ảnh từ thư viện đang được nhập ở nền: nhận từng trang khi sẵn sàng
+                galleryImportConsumed = 0;
+                attachGalleryImport();
+            } else if (processedImageUriStrings != null && !processedImageUriStrings.isEmpty()) {
                 setUIEnabled(false);
                 executorService.execute(() -> {
                     List<ImageItem> loadedImages = new ArrayList<>();
@@ -371,6 +399,93 @@ public class PDFGroupActivity extends BaseActivity implements
         }
     }
 
+    /**
+     * Gắn vào phiên nhập ảnh từ thư viện. Nếu phiên không còn (ví dụ tiến trình đã khởi động lại), bỏ qua.
+     */
+    private void attachGalleryImport() {
+        if (!GalleryImportPipeline.getInstance().attach(galleryImportHandle, galleryImportConsumed, galleryImportListener)) {
+            Log.w(TAG, "Phiên nhập ảnh không còn tồn tại: " + galleryImportHandle);
+            galleryImportHandle = null;
+        }
+    }
+
+    /**
+     * NHẬN ẢNH TỪ PHIÊN NHẬP THƯ VIỆN:
+     * Mỗi ảnh được giải mã trên executorService (một luồng, giữ thứ tự) rồi thêm vào danh sách trên luồng chính,
+     * nên người dùng thấy các trang đầu trong khi các ảnh sau vẫn đang được sao chép.
+     * Ảnh đã tự động cắt giữ lại ảnh gốc và khung để người dùng chỉnh khung sau (xem onImageClick).
+     */
+    private final GalleryImportPipeline.Listener galleryImportListener = new GalleryImportPipeline.Listener() {
+        @Override
+        public void onPageImported(int index, GalleryImportPipeline.ImportedPage page) {
+            Uri fileUri = page.getPageUri();
+            executorService.execute(() -> {
+                Bitmap bitmap = null;
+                try {
+                    bitmap = MediaStore.Images.Media.getBitmap(getContentResolver(), fileUri);
+                } catch (Exception e) {
+                    Log.e(TAG, "Error loading bitmap from URI: " + fileUri, e);
+                }
+                final Bitmap finalBitmap = bitmap;
+                mainHandler.post(() -> {
+                    galleryImportConsumed = index + 1;
+                    if (finalBitmap != null) {
+                        String imageName = getString(R.string.image_name_format, imageList.size() + 1);
+                        ImageItem item = new ImageItem(finalBitmap, imageName, fileUri.toString());
+                        if (page.isAutoCropped()) {
+                            item.setCropSource(page.getSourceUri().toString(), page.getCropQuad(),
+                                    page.getSourceWidth(), page.getSourceHeight());
+                        }
+                        if (adapter != null) {
+                            adapter.addImage(item);
+                        } else {
+                            imageList.add(item);
+                        }
+                        updateUIComponents();
+                        showGalleryImportProgress();
+                    }
+                });
+            });
+        }
+
+        @Override
+        public void onPageFailed(int index, Uri sourceUri) {
+            executorService.execute(() -> mainHandler.post(() -> galleryImportConsumed = index + 1));
+        }
+
+        @Override
+        public void onProgress(int completedCount, int totalCount) {
+            galleryImportCompleted = completedCount;
+            galleryImportTotal = totalCount;
+            showGalleryImportProgress();
+        }
+
+        @Override
+        public void onImportFinished(int importedCount, int failedCount) {
+            // Chờ các ảnh còn đang giải mã được thêm vào danh sách rồi mới kết thúc phiên
+            executorService.execute(() -> mainHandler.post(() -> {
+                galleryImportHandle = null;
+                updateUIComponents();
+                if (importedCount == 0) {
+                    Toast.makeText(PDFGroupActivity.this, getString(R.string.cannot_load_any_image), Toast.LENGTH_SHORT).show();
+                } else if (failedCount > 0) {
+                    Toast.makeText(PDFGroupActivity.this, getString(R.string.gallery_import_failed_count, failedCount), Toast.LENGTH_SHORT).show();
+                } else {
+                    Toast.makeText(PDFGroupActivity.this, getString(R.string.images_loaded_from_gallery, importedCount), Toast.LENGTH_SHORT).show();
+                }
+            }));
+        }
+    };
+
+    /**
+     * Hiển thị tiến trình nhập trên tiêu đề khi phiên nhập còn chạy.
+     */
+    private void showGalleryImportProgress() {
+        if (galleryImportHandle != null && tvTitle != null && galleryImportCompleted < galleryImportTotal) {
+            tvTitle.setText(getString(R.string.gallery_import_progress, galleryImportCompleted, galleryImportTotal));
+        }
+    }
+
     /**
      * Mở CameraActivity để người dùng chụp thêm ảnh.
      * Gửi cờ 'FROM_PDF_GROUP' để CameraActivity biết cách xử lý kết quả.
@@ -395,6 +510,42 @@ public class PDFGroupActivity extends BaseActivity implements
         // Xử lý kết quả khi thêm ảnh mới từ CameraActivity
         if (requestCode == REQUEST_ADD_IMAGE) {
             if (resultCode == RESULT_OK && data != null) {
+                // Nhiều trang từ chế độ chụp liên tiếp của CameraActivity
+                ArrayList<String> processedImageUriStrings = data.getStringArrayListExtra("processedImageUris");
+                if (processedImageUriStrings != null && !processedImageUriStrings.isEmpty()) {
+                    setUIEnabled(false);
+                    executorService.execute(() -> {
+                        List<ImageItem> loadedImages = new ArrayList<>();
+                        for (String uriString : processedImageUriStrings) {
+                            try {
+                                Bitmap bitmap = MediaStore.Images.Media.getBitmap(this.getContentResolver(), Uri.parse(uriString));
+                                if (bitmap != null) {
+                                    loadedImages.add(new ImageItem(bitmap, null, uriString));
+                                }
+                            } catch (Exception e) {
+                                Log.e(TAG, "Error loading bitmap from URI: " + uriString, e);
+                            }
+                        }
+
+                        mainHandler.post(() -> {
+                            for (ImageItem item : loadedImages) {
+                                item.setName(getString(R.string.image_name_format, imageList.size() + 1));
+                                if (adapter != null) {
+                                    adapter.addImage(item);
+                                } else {
+                                    imageList.add(item);
+                                }
+                            }
+                            updateUIComponents();
+                            setUIEnabled(true);
+                            if (loadedImages.isEmpty()) {
+                                Toast.makeText(this, getString(R.string.cannot_load_any_image), Toast.LENGTH_SHORT).show();
+                            }
+                        });
+                    });
+                    return;
+                }
+
                 String processedImageUriString = data.getStringExtra("processedImageUri");
                 if (processedImageUriString != null) {
                     Uri newImageUri = Uri.parse(processedImageUriString);
@@ -465,6 +616,8 @@ public class PDFGroupActivity extends BaseActivity implements
                                         }
                                         currentItem.setBitmap(updatedBitmap);
                                         currentItem.setFilePath(updatedImageUri.toString());
+                                        // Ảnh đã được chỉnh sửa: khung tự động cắt cũ không còn khớp
+                                        currentItem.clearCropSource();
 
                                         if (adapter != null) {
                                             adapter.notifyItemChanged(imagePosition);
@@ -492,6 +645,45 @@ public class PDFGroupActivity extends BaseActivity implements
                 }
             }
         }
+        // Xử lý kết quả khi chỉnh lại khung cắt của ảnh đã tự động cắt
+        else if (requestCode == REQUEST_ADJUST_CROP) {
+            int imagePosition = adjustCropPosition;
+            adjustCropPosition = -1;
+            String processedImageUriString = resultCode == RESULT_OK && data != null
+                    ? data.getStringExtra("processedImageUri") : null;
+            if (processedImageUriString != null && imagePosition >= 0 && imagePosition < imageList.size()) {
+                Uri croppedImageUri = Uri.parse(processedImageUriString);
+                setUIEnabled(false);
+
+                executorService.execute(() -> {
+                    Bitmap croppedBitmap = null;
+                    try {
+                        croppedBitmap = MediaStore.Images.Media.getBitmap(this.getContentResolver(), croppedImageUri);
+                    } catch (Exception e) {
+                        Log.e(TAG, "Error loading cropped image: " + croppedImageUri, e);
+                    }
+                    final Bitmap finalBitmap = croppedBitmap;
+                    mainHandler.post(() -> {
+                        if (finalBitmap != null && imagePosition < imageList.size()) {
+                            ImageItem currentItem = imageList.get(imagePosition);
+                            if (currentItem.getBitmap() != null && !currentItem.getBitmap().isRecycled()) {
+                                currentItem.getBitmap().recycle();
+                            }
+                            currentItem.setBitmap(finalBitmap);
+                            currentItem.setFilePath(croppedImageUri.toString());
+                            currentItem.clearCropSource();
+                            if (adapter != null) {
+                                adapter.notifyItemChanged(imagePosition);
+                            }
+                            Toast.makeText(this, getString(R.string.image_updated_successfully), Toast.LENGTH_SHORT).show();
+                        } else {
+                            Toast.makeText(this, getString(R.string.cannot_load_updated_image), Toast.LENGTH_SHORT).show();
+                        }
+                        setUIEnabled(true);
+                    });
+                });
+            }
+        }
     }
 
     /**
@@ -537,6 +729,11 @@ public class PDFGroupActivity extends BaseActivity implements
         if (currentPdfStyle != null) {
             outState.putString("currentPdfStyle", currentPdfStyle.name());
         }
+        if (galleryImportHandle != null) {
+            outState.putString(EXTRA_GALLERY_IMPORT_HANDLE, galleryImportHandle);
+            outState.putInt("galleryImportConsumed", galleryImportConsumed);
+        }
+        outState.putInt("adjustCropPosition", adjustCropPosition);
     }
 
     private void setUIEnabled(boolean enabled) {
@@ -684,29 +881,70 @@ public class PDFGroupActivity extends BaseActivity implements
     //region OnImageActionListener implementations
     /**
      * Xử lý sự kiện khi một ảnh trong danh sách được nhấp vào.
-     * Mở ImagePreviewActivity để xem và chỉnh sửa ảnh đó.
+     * Mở ImagePreviewActivity để xem và chỉnh sửa ảnh đó; ảnh đã tự động cắt có thêm lựa chọn chỉnh khung cắt.
      *
      * @param position Vị trí của ảnh được nhấp.
      */
     @Override
     public void onImageClick(int position) {
         if (position >= 0 && position < imageList.size()) {
-            String imageUriString = imageList.get(position).getFilePath();
-            if (imageUriString != null) {
-                Uri imageUri = Uri.parse(imageUriString);
-                Intent previewIntent = new Intent(this, ImagePreviewActivity.class);
-                previewIntent.putExtra("imageUri", imageUri);
-                previewIntent.putExtra("FROM_PDF_GROUP_PREVIEW", true);
-                previewIntent.putExtra("imagePosition", position);
-                // Thêm cờ quyền truy cập
-                previewIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-                startActivityForResult(previewIntent, REQUEST_IMAGE_PREVIEW);
+            ImageItem item = imageList.get(position);
+            if (item.hasCropSource()) {
+                // Ảnh đã tự động cắt: cho phép chỉnh lại khung trên ảnh gốc hoặc xem ảnh như bình thường
+                String[] actions = {getString(R.string.image_action_adjust_crop), getString(R.string.image_action_preview)};
+                new AlertDialog.Builder(this)
+                        .setItems(actions, (dialog, which) -> {
+                            if (which == 0) {
+                                openCropAdjustment(position);
+                            } else {
+                                openImagePreview(position);
+                            }
+                        })
+                        .show();
             } else {
-                Toast.makeText(this, getString(R.string.no_image_data_found), Toast.LENGTH_SHORT).show();
+                openImagePreview(position);
             }
         }
     }
 
+    /**
+     * Mở CropActivity trên ảnh gốc với khung đã dùng khi tự động cắt để người dùng chỉnh lại.
+     *
+     * @param position Vị trí của ảnh trong danh sách.
+     */
+    private void openCropAdjustment(int position) {
+        ImageItem item = imageList.get(position);
+        Intent cropIntent = new Intent(this, CropActivity.class);
+        cropIntent.putExtra("imageUri", item.getSourceFilePath());
+        cropIntent.putExtra("FROM_PDF_GROUP", true);
+        cropIntent.putExtra("detectedQuadrilateral", item.getCropQuad());
+        cropIntent.putExtra("originalImageWidth", item.getSourceWidth());
+        cropIntent.putExtra("originalImageHeight", item.getSourceHeight());
+        adjustCropPosition = position;
+        startActivityForResult(cropIntent, REQUEST_ADJUST_CROP);
+    }
+
+    /**
+     * Mở ImagePreviewActivity để xem và chỉnh sửa ảnh.
+     *
+     * @param position Vị trí của ảnh trong danh sách.
+     */
+    private void openImagePreview(int position) {
+        String imageUriString = imageList.get(position).getFilePath();
+        if (imageUriString != null) {
+            Uri imageUri = Uri.parse(imageUriString);
+            Intent previewIntent = new Intent(this, ImagePreviewActivity.class);
+            previewIntent.putExtra("imageUri", imageUri);
+            previewIntent.putExtra("FROM_PDF_GROUP_PREVIEW", true);
+            previewIntent.putExtra("imagePosition", position);
+            // Thêm cờ quyền truy cập
+            previewIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+            startActivityForResult(previewIntent, REQUEST_IMAGE_PREVIEW);
+        } else {
+            Toast.makeText(this, getString(R.string.no_image_data_found), Toast.LENGTH_SHORT).show();
+        }
+    }
+
     /**
      * Xử lý sự kiện khi người dùng xóa một ảnh khỏi danh sách.
      * Giải phóng bộ nhớ của bitmap và cập nhật lại UI.
@@ -756,6 +994,7 @@ public class PDFGroupActivity extends BaseActivity implements
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        GalleryImportPipeline.getInstance().detach(galleryImportHandle);
         if (executorService != null && !executorService.isShutdown()) {
             executorService.shutdownNow();
         }
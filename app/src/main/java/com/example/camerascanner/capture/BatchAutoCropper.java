@@ -0,0 +1,262 @@
+package com.example.camerascanner.capture;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import com.example.camerascanner.detection.DocumentDetector;
+import com.example.camerascanner.detection.QuadCandidate;
+import com.example.camerascanner.detection.QuadRefiner;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Lớp **BatchAutoCropper** tự động cắt trang cho ảnh nhập từ thư viện, chạy trên pool của {@link GalleryImportPipeline}.
+ * - Phát hiện khung trên bản thu nhỏ (giải mã bằng inSampleSize, cạnh dài khoảng DETECTION_MAX_DIMENSION),
+ *   nên bước này chạy song song cho nhiều ảnh mà tốn rất ít bộ nhớ.
+ * - Chỉ ảnh có khung mới được giải mã ở độ phân giải đầy đủ để tinh chỉnh cạnh và làm phẳng; số ảnh đầy đủ
+ *   được giải mã cùng lúc bị giới hạn bởi một Semaphore, không phụ thuộc kích thước pool.
+ * - Khung trả về nằm trong tọa độ ảnh gốc đã xoay theo EXIF, để người dùng có thể chỉnh lại sau bằng CropActivity.
+ * Mỗi luồng của pool giữ DocumentDetector/QuadRefiner riêng (ThreadLocal) vì hai lớp này không an toàn đa luồng.
+ * Phải được dùng sau khi thư viện OpenCV đã được nạp.
+ */
+final class BatchAutoCropper {
+
+    private static final String TAG = "BatchAutoCropper";
+
+    // Cạnh dài của ảnh dùng để phát hiện khung, giống CropActivity
+    private static final int DETECTION_MAX_DIMENSION = 640;
+    // Số ảnh độ phân giải đầy đủ tối đa được giải mã cùng lúc (mỗi ảnh 12 MP tốn ~100 MB khi xử lý)
+    private static final int MAX_FULL_RESOLUTION_DECODES = 2;
+    private static final int JPEG_QUALITY = 90;
+
+    /**
+     * Kết quả cắt một ảnh.
+     */
+    static final class Result {
+        final File pageFile;
+        // 4 góc [x1, y1, ..., x4, y4] trong tọa độ ảnh gốc đã xoay đúng hướng
+        final float[] quad;
+        final int sourceWidth;
+        final int sourceHeight;
+
+        Result(File pageFile, float[] quad, int sourceWidth, int sourceHeight) {
+            this.pageFile = pageFile;
+            this.quad = quad;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+        }
+    }
+
+    private final Semaphore fullResolutionPermits = new Semaphore(MAX_FULL_RESOLUTION_DECODES);
+
+    private final ThreadLocal<DocumentDetector> detectors = new ThreadLocal<DocumentDetector>() {
+        @Override
+        protected DocumentDetector initialValue() {
+            return new DocumentDetector();
+        }
+    };
+
+    private final ThreadLocal<QuadRefiner> quadRefiners = new ThreadLocal<QuadRefiner>() {
+        @Override
+        protected QuadRefiner initialValue() {
+            return new QuadRefiner();
+        }
+    };
+
+    /**
+     * TỰ ĐỘNG CẮT MỘT ẢNH:
+     * Phát hiện khung trên bản thu nhỏ, rồi tinh chỉnh và làm phẳng ở độ phân giải đầy đủ.
+     * @param source File ảnh gốc (đã sao chép vào cache)
+     * @param outputDir Thư mục ghi trang đã cắt
+     * @return Kết quả, hoặc null nếu không tìm thấy khung tài liệu hoặc không đủ bộ nhớ để làm phẳng (giữ nguyên ảnh gốc)
+     * @throws IOException Nếu không đọc được ảnh hoặc không ghi được trang
+     */
+    Result crop(File source, File outputDir) throws IOException {
+        int rotation = readRotationDegrees(source);
+
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(source.getAbsolutePath(), bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            throw new IOException("Không giải mã được ảnh: " + source.getName());
+        }
+        boolean swapped = rotation == 90 || rotation == 270;
+        int sourceWidth = swapped ? bounds.outHeight : bounds.outWidth;
+        int sourceHeight = swapped ? bounds.outWidth : bounds.outHeight;
+
+        Point[] quad = detect(source, Math.max(bounds.outWidth, bounds.outHeight), rotation, sourceWidth);
+        if (quad == null) {
+            return null;
+        }
+
+        // Bán kính tìm cạnh theo tỷ lệ giữa ảnh đầy đủ và ảnh phát hiện
+        double scale = (double) Math.max(sourceWidth, sourceHeight) / DETECTION_MAX_DIMENSION;
+        fullResolutionPermits.acquireUninterruptibly();
+        try {
+            return warpFullResolution(source, rotation, quad, QuadRefiner.searchRadiusForScale(scale),
+                    outputDir, sourceWidth, sourceHeight);
+        } catch (OutOfMemoryError e) {
+            // Một ảnh quá lớn không được làm dừng cả lô: giữ bản sao chưa cắt
+            Log.e(TAG, "Không đủ bộ nhớ để làm phẳng ảnh đầy đủ, giữ ảnh gốc: " + source.getName(), e);
+            return null;
+        } finally {
+            fullResolutionPermits.release();
+        }
+    }
+
+    /**
+     * Phát hiện khung trên bản thu nhỏ đúng hướng.
+     * @return 4 góc trong tọa độ ảnh gốc đã xoay, hoặc null nếu không tìm thấy
+     */
+    private Point[] detect(File source, int longestSide, int rotation, int sourceWidth) {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = 1;
+        while (longestSide / (options.inSampleSize * 2) >= DETECTION_MAX_DIMENSION) {
+            options.inSampleSize *= 2;
+        }
+        Bitmap sampled = BitmapFactory.decodeFile(source.getAbsolutePath(), options);
+        if (sampled == null) {
+            return null;
+        }
+
+        Mat rgba = new Mat();
+        Mat gray = new Mat();
+        try {
+            Utils.bitmapToMat(sampled, rgba);
+            sampled.recycle();
+            Imgproc.cvtColor(rgba, gray, Imgproc.COLOR_RGBA2GRAY);
+            rotate(gray, rotation);
+
+            // inSampleSize chỉ chia theo lũy thừa 2: thu nhỏ nốt về DETECTION_MAX_DIMENSION
+            double detectionScale = Math.min(1.0, (double) DETECTION_MAX_DIMENSION / Math.max(gray.cols(), gray.rows()));
+            if (detectionScale < 1.0) {
+                Imgproc.resize(gray, gray, new Size(), detectionScale, detectionScale, Imgproc.INTER_AREA);
+            }
+
+            DocumentDetector detector = detectors.get();
+            detector.resetTemporalState();
+            List<QuadCandidate> candidates = detector.detect(gray);
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            double toSource = (double) sourceWidth / gray.cols();
+            Point[] corners = candidates.get(0).getCorners();
+            Point[] scaled = new Point[4];
+            for (int i = 0; i < 4; i++) {
+                scaled[i] = new Point(corners[i].x * toSource, corners[i].y * toSource);
+            }
+            return scaled;
+        } finally {
+            rgba.release();
+            gray.release();
+        }
+    }
+
+    /**
+     * Giải mã ảnh đầy đủ, tinh chỉnh khung, làm phẳng và ghi trang. Người gọi phải giữ một permit.
+     * @return Kết quả với khung đã tinh chỉnh, hoặc null nếu không giải mã được ảnh đầy đủ
+     */
+    private Result warpFullResolution(File source, int rotation, Point[] quad, int refineRadius, File outputDir,
+                                      int sourceWidth, int sourceHeight) throws IOException {
+        Bitmap full = BitmapFactory.decodeFile(source.getAbsolutePath());
+        if (full == null) {
+            Log.e(TAG, "Không giải mã được ảnh đầy đủ: " + source.getName());
+            return null;
+        }
+
+        Mat page = new Mat();
+        Mat warped = new Mat();
+        try {
+            Utils.bitmapToMat(full, page);
+            full.recycle();
+            rotate(page, rotation);
+
+            Point[] refined = quadRefiners.get().refine(page, quad, refineRadius);
+            PageWarper.warp(page, refined, warped);
+            page.release();
+
+            Bitmap pageBitmap = Bitmap.createBitmap(warped.cols(), warped.rows(), Bitmap.Config.ARGB_8888);
+            Utils.matToBitmap(warped, pageBitmap);
+            warped.release();
+            File pageFile;
+            try {
+                pageFile = writeJpeg(pageBitmap, outputDir);
+            } finally {
+                pageBitmap.recycle();
+            }
+
+            float[] quadPoints = new float[8];
+            for (int i = 0; i < 4; i++) {
+                quadPoints[i * 2] = (float) refined[i].x;
+                quadPoints[i * 2 + 1] = (float) refined[i].y;
+            }
+            return new Result(pageFile, quadPoints, sourceWidth, sourceHeight);
+        } finally {
+            if (!full.isRecycled()) {
+                full.recycle();
+            }
+            page.release();
+            warped.release();
+        }
+    }
+
+    private static File writeJpeg(Bitmap bitmap, File outputDir) throws IOException {
+        File file = File.createTempFile("gallery_page_", ".jpeg", outputDir);
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, fos)) {
+                throw new FileNotFoundException("Không thể nén trang: " + file.getName());
+            }
+            fos.flush();
+        } catch (IOException e) {
+            if (!file.delete()) {
+                Log.w(TAG, "Không thể xóa file tạm: " + file.getAbsolutePath());
+            }
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * Xoay Mat tại chỗ theo góc EXIF (chiều kim đồng hồ).
+     */
+    private static void rotate(Mat mat, int rotationDegrees) {
+        switch (rotationDegrees) {
+            case 90:
+                Core.rotate(mat, mat, Core.ROTATE_90_CLOCKWISE);
+                break;
+            case 180:
+                Core.rotate(mat, mat, Core.ROTATE_180);
+                break;
+            case 270:
+                Core.rotate(mat, mat, Core.ROTATE_90_COUNTERCLOCKWISE);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static int readRotationDegrees(File source) {
+        try {
+            ExifInterface exif = new ExifInterface(source.getAbsolutePath());
+            return exif.getRotationDegrees();
+        } catch (IOException e) {
+            Log.w(TAG, "Không đọc được EXIF: " + source.getName(), e);
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.camerascanner.capture;
+
+import android.graphics.Bitmap;
+
+import com.example.camerascanner.detection.QuadRefiner;
+
+/**
+ * Lớp **BitmapPixelSource** cho {@link QuadRefiner} đọc trực tiếp các dải hẹp quanh cạnh khung từ Bitmap ảnh chụp
+ * (Bitmap.getPixels trên từng ROI), thay vì chuyển cả ảnh 12–50 MP sang Mat native chỉ để đọc vài dải.
+ * Mức xám dùng cùng hệ số với COLOR_RGBA2GRAY của OpenCV nên kết quả khớp với đường dùng Mat.
+ * Không an toàn khi dùng đồng thời từ nhiều luồng.
+ */
+public class BitmapPixelSource implements QuadRefiner.PixelSource {
+
+    private final Bitmap bitmap;
+    // Bộ đệm ARGB của ROI, chỉ cấp phát lại khi ROI lớn hơn
+    private int[] argbPixels = new int[0];
+
+    /**
+     * @param bitmap Bitmap ảnh chụp (không bị thay đổi, phải còn hợp lệ trong suốt lần tinh chỉnh)
+     */
+    public BitmapPixelSource(Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    @Override
+    public int getWidth() {
+        return bitmap.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return bitmap.getHeight();
+    }
+
+    @Override
+    public void readGray(int left, int top, int width, int height, byte[] out) {
+        int count = width * height;
+        if (argbPixels.length < count) {
+            argbPixels = new int[count];
+        }
+        bitmap.getPixels(argbPixels, 0, width, left, top, width, height);
+        for (int i = 0; i < count; i++) {
+            int argb = argbPixels[i];
+            int r = (argb >> 16) & 0xFF;
+            int g = (argb >> 8) & 0xFF;
+            int b = argb & 0xFF;
+            // Y = 0.299 R + 0.587 G + 0.114 B, số nguyên 14 bit như cvtColor
+            out[i] = (byte) ((r * 4899 + g * 9617 + b * 1868 + 8192) >> 14);
+        }
+    }
+}
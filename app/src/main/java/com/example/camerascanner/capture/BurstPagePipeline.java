@@ -0,0 +1,258 @@
+package com.example.camerascanner.capture;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.util.Log;
+
+import com.example.camerascanner.AppWarmUp;
+import com.example.camerascanner.detection.QuadRefiner;
+
+import org.opencv.android.Utils;
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.CLAHE;
+import org.opencv.imgproc.Imgproc;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lớp **BurstPagePipeline** xử lý nền các trang chụp liên tiếp ở chế độ chụp hàng loạt.
+ * Luồng chụp chỉ sao chép JPEG rồi trả ngay; việc giải mã, biến đổi phối cảnh theo khung đã phát hiện,
+ * tăng cường ảnh và ghi file chạy tuần tự trên một luồng worker riêng, nên người dùng có thể
+ * chụp trang tiếp theo trong khi các trang trước vẫn đang được xử lý.
+ * - Chỉ một worker: mỗi trang độ phân giải đầy đủ tốn vài chục MB khi xử lý, xử lý song song dễ hết bộ nhớ.
+ * - Thứ tự trang được giữ nguyên theo thứ tự chụp.
+ * - Người gọi dùng {@link #getPendingCount()} để tạm dừng tự động chụp khi hàng đợi đầy.
+ * Có thể tạo trước khi OpenCV nạp xong: worker chờ OpenCV (AppWarmUp) trước khi xử lý từng trang,
+ * và trang bị bỏ (báo lỗi) nếu OpenCV không nạp được.
+ */
+public class BurstPagePipeline {
+
+    private static final String TAG = "BurstPagePipeline";
+
+    private static final int JPEG_QUALITY = 90;
+    // Tham số CLAHE cho kênh độ sáng: làm đều ánh sáng trang mà không đổi màu
+    private static final double ENHANCE_CLIP_LIMIT = 1.5;
+    private static final Size ENHANCE_TILE_GRID_SIZE = new Size(8, 8);
+
+    /**
+     * Nhận thông báo khi số trang thay đổi. Được gọi trên luồng chụp hoặc luồng worker,
+     * người nhận tự chuyển về luồng UI nếu cần.
+     */
+    public interface Listener {
+        void onPageCountChanged(int processedCount, int pendingCount);
+    }
+
+    /**
+     * Nhận danh sách trang sau khi mọi trang trong hàng đợi đã xử lý xong.
+     */
+    public interface CompletionListener {
+        void onAllPagesProcessed(ArrayList<String> pageUris);
+    }
+
+    private final File outputDir;
+    private final Listener listener;
+    private final ExecutorService worker = Executors.newSingleThreadExecutor();
+    private final AtomicInteger pendingCount = new AtomicInteger(0);
+    // Chỉ được sửa trên worker
+    private final List<String> pageUris = new ArrayList<>();
+    private volatile int processedCount = 0;
+
+    // Chỉ được dùng trên worker
+    private CLAHE clahe;
+    private QuadRefiner quadRefiner;
+
+    /**
+     * @param outputDir Thư mục ghi các trang đã xử lý
+     * @param listener Nhận thông báo khi số trang thay đổi (có thể null)
+     */
+    public BurstPagePipeline(File outputDir, Listener listener) {
+        this.outputDir = outputDir;
+        this.listener = listener;
+    }
+
+    /**
+     * Đưa một trang vừa chụp vào hàng đợi xử lý. Trả về ngay.
+     * @param jpegBytes JPEG gốc từ ImageCapture (ImageProxy đã được đóng)
+     * @param rotationDegrees Góc xoay để ảnh đúng hướng hiển thị
+     * @param quadPoints 4 góc khung [x1, y1, ..., x4, y4] trong tọa độ ảnh chụp đã xoay đúng hướng
+     *                   (xem {@link com.example.camerascanner.detection.QuadCoordinateMapper}), hoặc null để giữ cả ảnh
+     * @param refineRadius Bán kính tìm cạnh của {@link QuadRefiner} quanh khung (pixel ảnh chụp), 0 để không tinh chỉnh
+     */
+    public void submit(byte[] jpegBytes, int rotationDegrees, float[] quadPoints, int refineRadius) {
+        int pending = pendingCount.incrementAndGet();
+        notifyListener(processedCount, pending);
+        worker.execute(() -> {
+            try {
+                Uri pageUri = processPage(jpegBytes, rotationDegrees, quadPoints, refineRadius);
+                if (pageUri != null) {
+                    pageUris.add(pageUri.toString());
+                    processedCount = pageUris.size();
+                }
+            } catch (Exception | OutOfMemoryError e) {
+                // Một trang quá lớn chỉ làm hỏng trang đó; Error không bắt trên luồng executor sẽ giết cả tiến trình
+                // và mất mọi trang đang chờ
+                Log.e(TAG, "Lỗi khi xử lý trang chụp liên tiếp: " + e.getMessage(), e);
+            } finally {
+                notifyListener(processedCount, pendingCount.decrementAndGet());
+            }
+        });
+    }
+
+    /**
+     * @return Số trang đã chụp nhưng chưa xử lý xong
+     */
+    public int getPendingCount() {
+        return pendingCount.get();
+    }
+
+    /**
+     * @return Số trang đã xử lý và ghi file thành công
+     */
+    public int getProcessedCount() {
+        return processedCount;
+    }
+
+    /**
+     * Chờ (không chặn) cho tới khi mọi trang đã nộp được xử lý xong rồi trả về danh sách URI theo thứ tự chụp.
+     * @param completionListener Được gọi trên luồng worker
+     */
+    public void finish(CompletionListener completionListener) {
+        worker.execute(() -> completionListener.onAllPagesProcessed(new ArrayList<>(pageUris)));
+    }
+
+    /**
+     * Dừng worker sau khi các trang đã nộp được xử lý xong.
+     */
+    public void shutdown() {
+        worker.execute(() -> {
+            if (quadRefiner != null) {
+                quadRefiner.release();
+                quadRefiner = null;
+            }
+        });
+        worker.shutdown();
+    }
+
+    private void notifyListener(int processed, int pending) {
+        if (listener != null) {
+            listener.onPageCountChanged(processed, pending);
+        }
+    }
+
+    /**
+     * XỬ LÝ MỘT TRANG:
+     * Giải mã JPEG đúng hướng, tinh chỉnh khung ở độ phân giải đầy đủ, làm phẳng theo khung bằng warpPerspective,
+     * cân bằng sáng rồi ghi JPEG.
+     */
+    private Uri processPage(byte[] jpegBytes, int rotationDegrees, float[] quadPoints, int refineRadius) {
+        // Trang có thể được chụp trước khi OpenCV nạp xong (chờ ở đây, trên worker)
+        if (!AppWarmUp.getInstance().awaitOpenCv(TAG)) {
+            Log.e(TAG, "OpenCV chưa sẵn sàng, bỏ trang đã chụp.");
+            return null;
+        }
+        Bitmap pageBitmap = CapturedPageDecoder.decodeOriented(jpegBytes, rotationDegrees);
+        if (pageBitmap == null) {
+            Log.e(TAG, "Không thể giải mã trang đã chụp.");
+            return null;
+        }
+
+        Mat page = new Mat();
+        Mat warped = new Mat();
+        try {
+            try {
+                Utils.bitmapToMat(pageBitmap, page);
+            } finally {
+                pageBitmap.recycle();
+            }
+
+            Mat output = page;
+            if (quadPoints != null && quadPoints.length == 8) {
+                PageWarper.warp(page, refineQuad(page, quadPoints, refineRadius), warped);
+                output = warped;
+            }
+            enhance(output);
+
+            Bitmap result = Bitmap.createBitmap(output.cols(), output.rows(), Bitmap.Config.ARGB_8888);
+            Utils.matToBitmap(output, result);
+            try {
+                return writeJpeg(result);
+            } finally {
+                result.recycle();
+            }
+        } finally {
+            page.release();
+            warped.release();
+        }
+    }
+
+    /**
+     * Chuyển khung sang Point[] và tinh chỉnh cạnh trên ảnh trang nếu refineRadius > 0.
+     */
+    private Point[] refineQuad(Mat page, float[] quadPoints, int refineRadius) {
+        Point[] corners = new Point[4];
+        for (int i = 0; i < 4; i++) {
+            corners[i] = new Point(quadPoints[i * 2], quadPoints[i * 2 + 1]);
+        }
+        if (refineRadius <= 0) {
+            return corners;
+        }
+        if (quadRefiner == null) {
+            quadRefiner = new QuadRefiner();
+        }
+        return quadRefiner.refine(page, corners, refineRadius);
+    }
+
+    /**
+     * TĂNG CƯỜNG ẢNH TRANG:
+     * Áp dụng CLAHE trên kênh L (Lab) để làm đều vùng tối/bóng đổ và tăng độ tương phản chữ,
+     * giữ nguyên màu (kiểu PDF trắng đen vẫn được chọn sau ở PDFGroupActivity).
+     * @param rgba Ảnh RGBA, được sửa tại chỗ
+     */
+    private void enhance(Mat rgba) {
+        if (clahe == null) {
+            clahe = Imgproc.createCLAHE(ENHANCE_CLIP_LIMIT, ENHANCE_TILE_GRID_SIZE);
+        }
+        Mat lab = new Mat();
+        List<Mat> channels = new ArrayList<>(3);
+        try {
+            Imgproc.cvtColor(rgba, lab, Imgproc.COLOR_RGBA2RGB);
+            Imgproc.cvtColor(lab, lab, Imgproc.COLOR_RGB2Lab);
+            Core.split(lab, channels);
+            clahe.apply(channels.get(0), channels.get(0));
+            Core.merge(channels, lab);
+            Imgproc.cvtColor(lab, lab, Imgproc.COLOR_Lab2RGB);
+            Imgproc.cvtColor(lab, rgba, Imgproc.COLOR_RGB2RGBA);
+        } finally {
+            lab.release();
+            for (Mat channel : channels) {
+                channel.release();
+            }
+        }
+    }
+
+    private Uri writeJpeg(Bitmap bitmap) {
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            Log.e(TAG, "Không thể tạo thư mục: " + outputDir.getAbsolutePath());
+            return null;
+        }
+        File file = new File(outputDir, "burst_page_" + System.currentTimeMillis() + "_" + pageUris.size() + ".jpeg");
+        try (FileOutputStream fos = new FileOutputStream(file)) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, fos);
+            fos.flush();
+            return Uri.fromFile(file);
+        } catch (IOException e) {
+            Log.e(TAG, "Không thể ghi trang: " + e.getMessage(), e);
+            return null;
+        }
+    }
+}
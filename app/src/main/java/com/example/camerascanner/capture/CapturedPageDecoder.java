@@ -0,0 +1,60 @@
+package com.example.camerascanner.capture;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+
+import androidx.camera.core.ImageProxy;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Các hàm tiện ích để giải mã ảnh JPEG nhận được từ ImageCapture.OnImageCapturedCallback
+ * thành Bitmap đúng hướng, chỉ giải mã một lần.
+ */
+public final class CapturedPageDecoder {
+
+    private CapturedPageDecoder() {
+    }
+
+    /**
+     * Sao chép dữ liệu JPEG ra khỏi ImageProxy để có thể đóng ImageProxy ngay (trả buffer cho camera).
+     * @param image ImageProxy định dạng JPEG
+     * @return Mảng byte JPEG
+     */
+    public static byte[] readJpegBytes(ImageProxy image) {
+        ByteBuffer buffer = image.getPlanes()[0].getBuffer();
+        buffer.rewind();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Giải mã JPEG và xoay về đúng hướng hiển thị.
+     * @param jpegBytes Dữ liệu JPEG
+     * @param rotationDegrees Góc xoay theo chiều kim đồng hồ (ImageInfo.getRotationDegrees())
+     * @return Bitmap đúng hướng, hoặc null nếu giải mã thất bại
+     */
+    public static Bitmap decodeOriented(byte[] jpegBytes, int rotationDegrees) {
+        Bitmap decoded = BitmapFactory.decodeByteArray(jpegBytes, 0, jpegBytes.length);
+        if (decoded == null || rotationDegrees % 360 == 0) {
+            return decoded;
+        }
+
+        Matrix matrix = new Matrix();
+        matrix.postRotate(rotationDegrees);
+        Bitmap rotated;
+        try {
+            rotated = Bitmap.createBitmap(decoded, 0, 0, decoded.getWidth(), decoded.getHeight(), matrix, true);
+        } catch (OutOfMemoryError e) {
+            // Không giữ ảnh đã giải mã khi không đủ bộ nhớ cho bản xoay
+            decoded.recycle();
+            throw e;
+        }
+        if (rotated != decoded) {
+            decoded.recycle();
+        }
+        return rotated;
+    }
+}
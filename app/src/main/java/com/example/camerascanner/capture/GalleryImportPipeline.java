@@ -0,0 +1,315 @@
+package com.example.camerascanner.capture;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.util.Log;
+
+import com.example.camerascanner.AppWarmUp;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lớp **GalleryImportPipeline** sao chép ảnh chọn từ thư viện vào bộ nhớ cache của ứng dụng.
+ * - Dùng chung một pool luồng có giới hạn cho cả tiến trình (không tạo executor mới cho mỗi lần chọn ảnh),
+ *   nhiều ảnh được sao chép song song theo số nhân CPU và băng thông bộ nhớ.
+ * - Sao chép qua FileChannel (transferTo) hoặc bộ đệm lớn, không đi qua InputStream 4 KB.
+ * - Tên file được tạo nguyên tử bằng File.createTempFile nên không trùng nhau dù cùng một mili giây.
+ * - Kết quả được giao trên luồng chính theo đúng thứ tự chọn ảnh, ngay khi từng ảnh sẵn sàng,
+ *   để màn hình nhận hiển thị các trang đầu trong khi phần còn lại vẫn đang được nhập.
+ * - Tùy chọn tự động cắt trang: mỗi ảnh được phát hiện khung và làm phẳng ngay trên pool
+ *   (xem {@link BatchAutoCropper}), ảnh gốc được giữ lại để người dùng chỉnh khung sau.
+ * Một phiên nhập được nhận diện bằng handle (chuỗi) để có thể truyền qua Intent, giống {@link PageBufferRegistry}.
+ */
+public final class GalleryImportPipeline {
+
+    private static final String TAG = "GalleryImportPipeline";
+    private static final GalleryImportPipeline INSTANCE = new GalleryImportPipeline();
+
+    // Sao chép chủ yếu chờ I/O: vài luồng là đủ bão hòa bộ nhớ trong, không chiếm hết CPU của máy nhiều nhân
+    private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+    private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+    /**
+     * Nhận tiến trình của một phiên nhập. Mọi callback chạy trên luồng chính;
+     * onPageImported / onPageFailed được gọi theo đúng thứ tự ảnh đã chọn.
+     */
+    public interface Listener {
+        void onPageImported(int index, ImportedPage page);
+
+        void onPageFailed(int index, Uri sourceUri);
+
+        void onProgress(int completedCount, int totalCount);
+
+        void onImportFinished(int importedCount, int failedCount);
+    }
+
+    /**
+     * Một ảnh đã nhập. Nếu ảnh được tự động cắt, {@link #getPageUri()} là trang đã làm phẳng và
+     * {@link #getSourceUri()} là bản sao ảnh gốc kèm khung đã dùng để cắt (tọa độ ảnh gốc đã xoay đúng hướng).
+     */
+    public static final class ImportedPage {
+        private final Uri pageUri;
+        private final Uri sourceUri;
+        private final float[] cropQuad;
+        private final int sourceWidth;
+        private final int sourceHeight;
+
+        ImportedPage(Uri pageUri) {
+            this(pageUri, null, null, 0, 0);
+        }
+
+        ImportedPage(Uri pageUri, Uri sourceUri, float[] cropQuad, int sourceWidth, int sourceHeight) {
+            this.pageUri = pageUri;
+            this.sourceUri = sourceUri;
+            this.cropQuad = cropQuad;
+            this.sourceWidth = sourceWidth;
+            this.sourceHeight = sourceHeight;
+        }
+
+        public Uri getPageUri() {
+            return pageUri;
+        }
+
+        public Uri getSourceUri() {
+            return sourceUri;
+        }
+
+        public float[] getCropQuad() {
+            return cropQuad;
+        }
+
+        public int getSourceWidth() {
+            return sourceWidth;
+        }
+
+        public int getSourceHeight() {
+            return sourceHeight;
+        }
+
+        public boolean isAutoCropped() {
+            return cropQuad != null;
+        }
+    }
+
+    private final ExecutorService pool = Executors.newFixedThreadPool(POOL_SIZE);
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Session> sessions = new ConcurrentHashMap<>();
+    private final BatchAutoCropper autoCropper = new BatchAutoCropper();
+
+    private GalleryImportPipeline() {
+    }
+
+    public static GalleryImportPipeline getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Bắt đầu nhập danh sách ảnh. Trả về ngay; việc sao chép chạy trên pool dùng chung.
+     * @param context Context (chỉ dùng ContentResolver của ứng dụng)
+     * @param sources URI ảnh theo thứ tự người dùng chọn
+     * @param outputDir Thư mục cache đích
+     * @param autoCrop true để tự động phát hiện khung và làm phẳng từng ảnh
+     * @return Handle của phiên nhập, dùng cho {@link #attach}
+     */
+    public String start(Context context, List<Uri> sources, File outputDir, boolean autoCrop) {
+        ContentResolver resolver = context.getApplicationContext().getContentResolver();
+        String handle = UUID.randomUUID().toString();
+        Session session = new Session(sources.toArray(new Uri[0]));
+        sessions.put(handle, session);
+
+        if (!outputDir.exists() && !outputDir.mkdirs()) {
+            Log.e(TAG, "Không thể tạo thư mục: " + outputDir.getAbsolutePath());
+        }
+        for (int i = 0; i < session.sources.length; i++) {
+            final int index = i;
+            pool.execute(() -> {
+                File target = null;
+                try {
+                    target = File.createTempFile("gallery_image_", ".jpeg", outputDir);
+                    copy(resolver, session.sources[index], target);
+                    ImportedPage page = autoCrop ? autoCrop(target, outputDir) : new ImportedPage(Uri.fromFile(target));
+                    mainHandler.post(() -> session.complete(index, page));
+                } catch (Throwable t) {
+                    // Mọi lỗi (URI không hợp lệ, thiếu quyền, hết bộ nhớ...) vẫn phải hoàn tất đúng một lần cho vị trí này,
+                    // nếu không các ảnh sau không bao giờ được giao (giao theo thứ tự) và phiên không kết thúc
+                    Log.e(TAG, "Không thể nhập ảnh: " + session.sources[index], t);
+                    if (target != null && target.exists() && !target.delete()) {
+                        Log.w(TAG, "Không thể xóa file tạm: " + target.getAbsolutePath());
+                    }
+                    mainHandler.post(() -> session.complete(index, null));
+                }
+            });
+        }
+        return handle;
+    }
+
+    /**
+     * Gắn người nhận vào phiên nhập (chỉ gọi trên luồng chính). Các ảnh đã giao trước đó
+     * (từ vị trí fromIndex) được phát lại ngay, sau đó nhận tiếp các ảnh mới.
+     * @param handle Handle nhận được từ {@link #start}
+     * @param fromIndex Số ảnh người nhận đã xử lý (0 nếu gắn lần đầu)
+     * @param listener Người nhận
+     * @return false nếu phiên không còn tồn tại
+     */
+    public boolean attach(String handle, int fromIndex, Listener listener) {
+        Session session = handle != null ? sessions.get(handle) : null;
+        if (session == null) {
+            return false;
+        }
+        session.listener = listener;
+        for (int i = fromIndex; i < session.nextToDeliver; i++) {
+            session.deliver(i);
+        }
+        listener.onProgress(session.completedCount, session.sources.length);
+        if (session.isFinished()) {
+            listener.onImportFinished(session.importedCount, session.completedCount - session.importedCount);
+            sessions.remove(handle);
+        }
+        return true;
+    }
+
+    /**
+     * Gỡ người nhận (ví dụ khi Activity bị hủy). Phiên vẫn tiếp tục; gắn lại bằng {@link #attach}.
+     * @param handle Handle của phiên
+     */
+    public void detach(String handle) {
+        Session session = handle != null ? sessions.get(handle) : null;
+        if (session != null) {
+            session.listener = null;
+        }
+    }
+
+    /**
+     * Tự động cắt ảnh vừa sao chép. Nếu không tìm thấy khung, xử lý lỗi hoặc hết bộ nhớ, giữ nguyên ảnh gốc.
+     */
+    private ImportedPage autoCrop(File copied, File outputDir) {
+        Uri copiedUri = Uri.fromFile(copied);
+        if (!AppWarmUp.getInstance().awaitOpenCv(TAG)) {
+            return new ImportedPage(copiedUri);
+        }
+        try {
+            BatchAutoCropper.Result result = autoCropper.crop(copied, outputDir);
+            if (result != null) {
+                return new ImportedPage(Uri.fromFile(result.pageFile), copiedUri,
+                        result.quad, result.sourceWidth, result.sourceHeight);
+            }
+        } catch (Exception | OutOfMemoryError e) {
+            // Hết bộ nhớ khi giải mã một ảnh quá lớn: giữ bản sao chưa cắt thay vì làm dừng cả phiên nhập
+            Log.e(TAG, "Không thể tự động cắt ảnh: " + copied.getName(), e);
+        }
+        return new ImportedPage(copiedUri);
+    }
+
+    /**
+     * Sao chép nội dung URI sang file đích qua FileChannel. Nếu nguồn không có kích thước xác định
+     * (ví dụ pipe từ nhà cung cấp nội dung), đọc bằng bộ đệm trực tiếp kích thước lớn.
+     */
+    private static void copy(ContentResolver resolver, Uri source, File target) throws IOException {
+        try (ParcelFileDescriptor descriptor = resolver.openFileDescriptor(source, "r")) {
+            if (descriptor == null) {
+                throw new FileNotFoundException("Không mở được: " + source);
+            }
+            try (FileInputStream inputStream = new FileInputStream(descriptor.getFileDescriptor());
+                 FileOutputStream outputStream = new FileOutputStream(target);
+                 FileChannel in = inputStream.getChannel();
+                 FileChannel out = outputStream.getChannel()) {
+                long size = descriptor.getStatSize();
+                if (size > 0) {
+                    long position = 0;
+                    while (position < size) {
+                        long transferred = in.transferTo(position, size - position, out);
+                        if (transferred <= 0) {
+                            break;
+                        }
+                        position += transferred;
+                    }
+                    if (position == size) {
+                        return;
+                    }
+                    // transferTo dừng sớm: chép tiếp phần còn lại bằng bộ đệm
+                    in.position(position);
+                }
+                ByteBuffer buffer = ByteBuffer.allocateDirect(COPY_BUFFER_SIZE);
+                while (in.read(buffer) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                }
+            }
+        }
+    }
+
+    /**
+     * Trạng thái một phiên nhập. Chỉ được đọc/ghi trên luồng chính (luồng sao chép chỉ post kết quả).
+     */
+    private static final class Session {
+        final Uri[] sources;
+        // null = đang nhập hoặc thất bại (phân biệt bằng done)
+        final ImportedPage[] results;
+        final boolean[] done;
+        int nextToDeliver = 0;
+        int completedCount = 0;
+        int importedCount = 0;
+        Listener listener;
+
+        Session(Uri[] sources) {
+            this.sources = sources;
+            this.results = new ImportedPage[sources.length];
+            this.done = new boolean[sources.length];
+        }
+
+        void complete(int index, ImportedPage page) {
+            results[index] = page;
+            done[index] = true;
+            completedCount++;
+            if (page != null) {
+                importedCount++;
+            }
+            // Giao theo thứ tự: chỉ giao khi mọi ảnh phía trước đã xong
+            while (nextToDeliver < sources.length && done[nextToDeliver]) {
+                deliver(nextToDeliver);
+                nextToDeliver++;
+            }
+            if (listener != null) {
+                listener.onProgress(completedCount, sources.length);
+                if (isFinished()) {
+                    listener.onImportFinished(importedCount, completedCount - importedCount);
+                    INSTANCE.sessions.values().remove(this);
+                }
+            }
+        }
+
+        void deliver(int index) {
+            if (listener == null) {
+                return;
+            }
+            if (results[index] != null) {
+                listener.onPageImported(index, results[index]);
+            } else {
+                listener.onPageFailed(index, sources[index]);
+            }
+        }
+
+        boolean isFinished() {
+            return completedCount == sources.length;
+        }
+    }
+}
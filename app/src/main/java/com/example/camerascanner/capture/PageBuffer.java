@@ -0,0 +1,70 @@
+package com.example.camerascanner.capture;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lớp **PageBuffer** giữ một trang đã chụp ở dạng Bitmap đã giải mã (đúng hướng) trong bộ nhớ,
+ * để màn hình kế tiếp dùng ngay mà không phải đọc lại và giải mã lại file JPEG.
+ * - Đếm tham chiếu: mỗi bên dùng gọi {@link #retain()} / {@link #release()}; Bitmap được recycle khi về 0.
+ * - File trên đĩa được ghi lười ở nền bởi {@link PageBufferRegistry}; {@link #getFileUri()} trả về null cho tới khi ghi xong.
+ */
+public class PageBuffer {
+
+    private final Bitmap bitmap;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private volatile Uri fileUri;
+
+    /**
+     * Tạo buffer với một tham chiếu ban đầu thuộc về người tạo.
+     * @param bitmap Ảnh đã giải mã và xoay đúng hướng
+     */
+    public PageBuffer(Bitmap bitmap) {
+        this.bitmap = bitmap;
+    }
+
+    /**
+     * Thêm một tham chiếu.
+     * @return false nếu buffer đã bị giải phóng (không được dùng nữa)
+     */
+    public boolean retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                return false;
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Bỏ một tham chiếu; Bitmap được recycle khi không còn ai dùng.
+     */
+    public void release() {
+        if (refCount.decrementAndGet() == 0 && !bitmap.isRecycled()) {
+            bitmap.recycle();
+        }
+    }
+
+    /**
+     * @return Bitmap của trang; chỉ hợp lệ khi người gọi đang giữ tham chiếu
+     */
+    public Bitmap getBitmap() {
+        return bitmap;
+    }
+
+    /**
+     * @return URI của file đã ghi xuống đĩa, hoặc null nếu chưa ghi xong
+     */
+    public Uri getFileUri() {
+        return fileUri;
+    }
+
+    void setFileUri(Uri fileUri) {
+        this.fileUri = fileUri;
+    }
+}
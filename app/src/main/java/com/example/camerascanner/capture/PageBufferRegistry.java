@@ -0,0 +1,117 @@
+package com.example.camerascanner.capture;
+
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.exifinterface.media.ExifInterface;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Lớp **PageBufferRegistry** là kho {@link PageBuffer} dùng chung trong tiến trình.
+ * Màn hình camera đăng ký trang vừa chụp và chỉ truyền một handle (chuỗi) qua Intent;
+ * màn hình nhận dùng handle để lấy lại Bitmap đã giải mã.
+ * Việc ghi file xuống đĩa chạy lười trên một luồng nền riêng, không nằm trên đường chụp → cắt.
+ * Nếu tiến trình bị hủy, registry mất dữ liệu; màn hình nhận khi đó dùng URI file làm đường dự phòng.
+ */
+public final class PageBufferRegistry {
+
+    private static final String TAG = "PageBufferRegistry";
+    private static final PageBufferRegistry INSTANCE = new PageBufferRegistry();
+
+    private final Map<String, PageBuffer> buffers = new ConcurrentHashMap<>();
+    private final ExecutorService diskExecutor = Executors.newSingleThreadExecutor();
+
+    private PageBufferRegistry() {
+    }
+
+    public static PageBufferRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Đăng ký buffer. Registry nhận tham chiếu ban đầu của buffer (người tạo không cần release nữa).
+     * @param buffer Buffer vừa tạo
+     * @return Handle để truyền qua Intent
+     */
+    public String register(PageBuffer buffer) {
+        String handle = UUID.randomUUID().toString();
+        buffers.put(handle, buffer);
+        return handle;
+    }
+
+    /**
+     * Lấy buffer theo handle và giữ thêm một tham chiếu cho người gọi.
+     * @param handle Handle nhận được từ {@link #register}
+     * @return Buffer (người gọi phải gọi release()), hoặc null nếu không còn trong registry
+     */
+    public PageBuffer acquire(String handle) {
+        if (handle == null) {
+            return null;
+        }
+        PageBuffer buffer = buffers.get(handle);
+        return (buffer != null && buffer.retain()) ? buffer : null;
+    }
+
+    /**
+     * Gỡ buffer khỏi registry và bỏ tham chiếu của registry (khi người nhận đã dùng xong hẳn).
+     * @param handle Handle của buffer
+     */
+    public void remove(String handle) {
+        if (handle == null) {
+            return;
+        }
+        PageBuffer buffer = buffers.remove(handle);
+        if (buffer != null) {
+            buffer.release();
+        }
+    }
+
+    /**
+     * Ghi JPEG gốc của trang xuống file ở nền (không mã hóa lại từ Bitmap) và đặt thẻ EXIF orientation
+     * để đường dự phòng đọc từ file (ExifInterface) cho ra cùng hướng với Bitmap trong buffer.
+     * @param buffer Buffer sẽ nhận URI file khi ghi xong
+     * @param jpegBytes Dữ liệu JPEG từ camera
+     * @param rotationDegrees Góc xoay cần áp dụng để ảnh đúng hướng
+     * @param file File đích
+     */
+    public void persistAsync(PageBuffer buffer, byte[] jpegBytes, int rotationDegrees, File file) {
+        diskExecutor.execute(() -> {
+            try (FileOutputStream fos = new FileOutputStream(file)) {
+                fos.write(jpegBytes);
+                fos.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "Không thể ghi trang xuống đĩa: " + e.getMessage(), e);
+                return;
+            }
+            try {
+                ExifInterface exif = new ExifInterface(file.getAbsolutePath());
+                exif.setAttribute(ExifInterface.TAG_ORIENTATION, String.valueOf(toExifOrientation(rotationDegrees)));
+                exif.saveAttributes();
+            } catch (IOException e) {
+                Log.w(TAG, "Không thể ghi EXIF orientation: " + e.getMessage(), e);
+            }
+            buffer.setFileUri(Uri.fromFile(file));
+        });
+    }
+
+    private static int toExifOrientation(int rotationDegrees) {
+        switch (rotationDegrees) {
+            case 90:
+                return ExifInterface.ORIENTATION_ROTATE_90;
+            case 180:
+                return ExifInterface.ORIENTATION_ROTATE_180;
+            case 270:
+                return ExifInterface.ORIENTATION_ROTATE_270;
+            default:
+                return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.camerascanner.capture;
+
+import com.example.camerascanner.detection.QuadGeometry;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Các hàm tiện ích làm phẳng trang tài liệu theo khung tứ giác, dùng chung cho chụp liên tiếp
+ * và tự động cắt ảnh nhập từ thư viện.
+ */
+public final class PageWarper {
+
+    // Cạnh dài tối đa của trang sau khi làm phẳng (~A4 ở 300 DPI), giới hạn bộ nhớ và kích thước file
+    public static final int MAX_OUTPUT_DIMENSION = 3508;
+
+    private PageWarper() {
+    }
+
+    /**
+     * Biến đổi phối cảnh khung tứ giác thành hình chữ nhật thẳng.
+     * Kích thước đích lấy theo cạnh dài nhất của khung, giới hạn bởi MAX_OUTPUT_DIMENSION.
+     * @param page Ảnh nguồn (độ phân giải đầy đủ)
+     * @param quad 4 góc khung trong tọa độ của page (thứ tự bất kỳ)
+     * @param dst Mat nhận trang đã làm phẳng
+     */
+    public static void warp(Mat page, Point[] quad, Mat dst) {
+        Point[] corners = QuadGeometry.sortPoints(quad);
+
+        double targetWidth = Math.max(QuadGeometry.distance(corners[0], corners[1]), QuadGeometry.distance(corners[3], corners[2]));
+        double targetHeight = Math.max(QuadGeometry.distance(corners[0], corners[3]), QuadGeometry.distance(corners[1], corners[2]));
+        double limit = Math.min(1.0, MAX_OUTPUT_DIMENSION / Math.max(targetWidth, targetHeight));
+        int width = Math.max(1, (int) (targetWidth * limit));
+        int height = Math.max(1, (int) (targetHeight * limit));
+
+        MatOfPoint2f srcPoints = new MatOfPoint2f(corners);
+        MatOfPoint2f dstPoints = new MatOfPoint2f(
+                new Point(0, 0),
+                new Point(width - 1, 0),
+                new Point(width - 1, height - 1),
+                new Point(0, height - 1));
+        Mat transform = Imgproc.getPerspectiveTransform(srcPoints, dstPoints);
+        try {
+            Imgproc.warpPerspective(page, dst, transform, new Size(width, height), Imgproc.INTER_LINEAR);
+        } finally {
+            transform.release();
+            srcPoints.release();
+            dstPoints.release();
+        }
+    }
+}
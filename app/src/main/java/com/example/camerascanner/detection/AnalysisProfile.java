@@ -0,0 +1,48 @@
+package com.example.camerascanner.detection;
+
+/**
+ * Lớp **AnalysisProfile** mô tả cấu hình luồng phân tích của màn hình camera:
+ * độ phân giải frame phân tích (hướng cảm biến, cạnh dài trước) và tầng pyramid dùng để tìm contour
+ * trong {@link DocumentDetector}. Ngưỡng Canny được DocumentDetector tự chọn theo độ phân giải phát hiện thực tế.
+ */
+public final class AnalysisProfile {
+
+    // Cấu hình mặc định (trước khi hiệu chỉnh hoặc khi hiệu chỉnh thất bại)
+    public static final AnalysisProfile DEFAULT = new AnalysisProfile(640, 480, DocumentDetector.DEFAULT_PYRAMID_LEVEL);
+
+    // Các cấu hình ứng viên, xếp theo chi phí tăng dần: máy yếu dùng frame nhỏ hơn, máy mạnh dùng frame lớn hơn
+    // (tìm contour vẫn ở 1/2 nên chi phí tăng vừa phải, còn tinh chỉnh góc sub-pixel chạy ở độ phân giải cao hơn)
+    static final AnalysisProfile[] CANDIDATES = {
+            new AnalysisProfile(480, 360, 1),
+            DEFAULT,
+            new AnalysisProfile(960, 720, 1),
+            new AnalysisProfile(1280, 960, 1),
+    };
+
+    private final int width;
+    private final int height;
+    private final int pyramidLevel;
+
+    public AnalysisProfile(int width, int height, int pyramidLevel) {
+        this.width = width;
+        this.height = height;
+        this.pyramidLevel = pyramidLevel;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getPyramidLevel() {
+        return pyramidLevel;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + "@L" + pyramidLevel;
+    }
+}
@@ -0,0 +1,253 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Size;
+import org.opencv.core.TermCriteria;
+import org.opencv.imgproc.CLAHE;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lớp **DetectionContext** chứa toàn bộ bộ đệm tạm (scratch) của OpenCV cho một lượt phát hiện khung tài liệu.
+ * Đối tượng này thuộc về luồng phân tích và tồn tại trong suốt phiên camera: các Mat, đối tượng CLAHE
+ * và kernel giãn nở được tạo một lần, chỉ cấp phát lại khi kích thước frame thay đổi.
+ * Context cũng quản lý tầng kim tự tháp (pyramid) dùng để phát hiện trên ảnh thu nhỏ
+ * và các tham số tinh chỉnh góc sub-pixel trên ảnh độ phân giải đầy đủ.
+ * Không an toàn khi dùng đồng thời từ nhiều luồng.
+ */
+public class DetectionContext {
+
+    // Tham số CLAHE và các kernel dùng trong tiền xử lý
+    private static final double CLAHE_CLIP_LIMIT = 2.0;
+    private static final Size CLAHE_TILE_GRID_SIZE = new Size(8, 8);
+    private static final Size DILATE_KERNEL_SIZE = new Size(3, 3);
+
+    // Kernel Gaussian theo tầng pyramid: ảnh càng nhỏ thì kernel càng nhỏ để giữ cùng mức làm mịn tương đối
+    private static final Size[] GAUSSIAN_KERNEL_SIZES = {new Size(7, 7), new Size(5, 5), new Size(3, 3)};
+    public static final int MAX_PYRAMID_LEVEL = GAUSSIAN_KERNEL_SIZES.length - 1;
+
+    // Tham số cornerSubPix: dừng sau 20 vòng lặp hoặc khi góc dịch chuyển dưới 0.03 pixel
+    private static final TermCriteria SUB_PIX_CRITERIA =
+            new TermCriteria(TermCriteria.EPS + TermCriteria.COUNT, 20, 0.03);
+    private static final Size SUB_PIX_ZERO_ZONE = new Size(-1, -1);
+
+    private final CLAHE clahe;
+    private final Mat dilateKernel;
+
+    // Bộ đệm cho ảnh cạnh và kết quả findContours
+    private final Mat edges = new Mat();
+    private final Mat hierarchy = new Mat();
+    private final List<MatOfPoint> contours = new ArrayList<>();
+    // Bản sao phía Java của hierarchy (mỗi contour 4 số: next, previous, firstChild, parent)
+    private int[] hierarchyData = new int[0];
+    // Bản sao phía Java của ảnh cạnh, dùng để chấm điểm cạnh mà không gọi JNI cho từng pixel
+    private byte[] edgePixels = new byte[0];
+
+    // Ảnh thu nhỏ theo tầng pyramid, nơi chạy blur/Canny/findContours
+    private final Mat pyramidFrame = new Mat();
+    // 4 góc cần tinh chỉnh sub-pixel ở độ phân giải đầy đủ
+    private final MatOfPoint2f subPixCorners = new MatOfPoint2f();
+    private Size subPixWindowSize = new Size(0, 0);
+
+    // Bộ đệm cho chế độ hỗ trợ bằng màu (U/V): kênh màu ở kích thước ảnh phát hiện, mặt nạ vùng sáng,
+    // bản đồ khoảng cách màu tới màu giấy và cạnh tìm được trên bản đồ đó
+    private final Mat chromaU = new Mat();
+    private final Mat chromaV = new Mat();
+    private final Mat paperMask = new Mat();
+    private final Mat chromaDistance = new Mat();
+    private final Mat chromaScratch = new Mat();
+    private final Mat chromaEdges = new Mat();
+
+    // Bộ đệm cho việc xấp xỉ đa giác của từng contour
+    private final MatOfPoint2f contour2f = new MatOfPoint2f();
+    private final MatOfPoint2f approxCurve = new MatOfPoint2f();
+
+    private int frameWidth = 0;
+    private int frameHeight = 0;
+    private int pyramidLevel = 0;
+
+    /**
+     * Khởi tạo context. Phải được gọi sau khi thư viện OpenCV đã được nạp.
+     */
+    public DetectionContext() {
+        clahe = Imgproc.createCLAHE(CLAHE_CLIP_LIMIT, CLAHE_TILE_GRID_SIZE);
+        dilateKernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, DILATE_KERNEL_SIZE);
+    }
+
+    /**
+     * Đảm bảo các bộ đệm có kích thước phù hợp với frame hiện tại và tầng pyramid được chọn.
+     * Chỉ cấp phát lại khi kích thước hoặc tầng thay đổi (ví dụ khi xoay thiết bị hoặc đổi độ phân giải).
+     * @param width Chiều rộng frame đã xử lý (độ phân giải đầy đủ)
+     * @param height Chiều cao frame đã xử lý (độ phân giải đầy đủ)
+     * @param level Tầng pyramid: 0 = đầy đủ, 1 = 1/2, 2 = 1/4
+     */
+    public void ensureSize(int width, int height, int level) {
+        level = Math.max(0, Math.min(MAX_PYRAMID_LEVEL, level));
+        if (width == frameWidth && height == frameHeight && level == pyramidLevel) {
+            return;
+        }
+        int detectionWidth = width >> level;
+        int detectionHeight = height >> level;
+        pyramidFrame.create(detectionHeight, detectionWidth, CvType.CV_8UC1);
+        edges.create(detectionHeight, detectionWidth, CvType.CV_8UC1);
+        edgePixels = new byte[detectionWidth * detectionHeight];
+
+        // Cửa sổ tìm kiếm sub-pixel phủ được sai số do thu nhỏ (2^level pixel) cộng thêm biên
+        int halfWindow = (1 << level) * 2 + 1;
+        subPixWindowSize = new Size(halfWindow, halfWindow);
+
+        frameWidth = width;
+        frameHeight = height;
+        pyramidLevel = level;
+    }
+
+    /**
+     * @return Hệ số phóng từ ảnh phát hiện (pyramid) lên độ phân giải đầy đủ
+     */
+    public int getPyramidScale() {
+        return 1 << pyramidLevel;
+    }
+
+    public int getPyramidLevel() {
+        return pyramidLevel;
+    }
+
+    /**
+     * Giải phóng các contour do findContours tạo ra ở lượt trước và làm rỗng danh sách để tái sử dụng.
+     */
+    public void clearContours() {
+        for (MatOfPoint contour : contours) {
+            contour.release();
+        }
+        contours.clear();
+    }
+
+    public CLAHE getClahe() {
+        return clahe;
+    }
+
+    public Mat getDilateKernel() {
+        return dilateKernel;
+    }
+
+    public Size getGaussianKernelSize() {
+        return GAUSSIAN_KERNEL_SIZES[pyramidLevel];
+    }
+
+    public Mat getPyramidFrame() {
+        return pyramidFrame;
+    }
+
+    public MatOfPoint2f getSubPixCorners() {
+        return subPixCorners;
+    }
+
+    public Size getSubPixWindowSize() {
+        return subPixWindowSize;
+    }
+
+    public Size getSubPixZeroZone() {
+        return SUB_PIX_ZERO_ZONE;
+    }
+
+    public TermCriteria getSubPixCriteria() {
+        return SUB_PIX_CRITERIA;
+    }
+
+    public Mat getEdges() {
+        return edges;
+    }
+
+    public Mat getHierarchy() {
+        return hierarchy;
+    }
+
+    public Mat getChromaU() {
+        return chromaU;
+    }
+
+    public Mat getChromaV() {
+        return chromaV;
+    }
+
+    public Mat getPaperMask() {
+        return paperMask;
+    }
+
+    public Mat getChromaDistance() {
+        return chromaDistance;
+    }
+
+    public Mat getChromaScratch() {
+        return chromaScratch;
+    }
+
+    public Mat getChromaEdges() {
+        return chromaEdges;
+    }
+
+    /**
+     * Đọc hierarchy của lượt findContours vừa chạy sang mảng Java bằng một lần gọi JNI.
+     * @return Mảng [next, previous, firstChild, parent] nối tiếp cho từng contour (dùng lại giữa các frame)
+     */
+    public int[] loadHierarchyData() {
+        int required = (int) hierarchy.total() * 4;
+        if (hierarchyData.length < required) {
+            hierarchyData = new int[required];
+        }
+        if (required > 0) {
+            hierarchy.get(0, 0, hierarchyData);
+        }
+        return hierarchyData;
+    }
+
+    /**
+     * Sao chép ảnh cạnh sang mảng Java bằng một lần gọi JNI.
+     * @param edgeMap Ảnh cạnh kích thước ảnh phát hiện (của context này hoặc của một {@link PreprocessedFrame})
+     * @return Mảng byte (hàng nối tiếp, rộng bằng ảnh phát hiện), khác 0 tại pixel cạnh
+     */
+    public byte[] loadEdgePixels(Mat edgeMap) {
+        edgeMap.get(0, 0, edgePixels);
+        return edgePixels;
+    }
+
+    public List<MatOfPoint> getContours() {
+        return contours;
+    }
+
+    public MatOfPoint2f getContour2f() {
+        return contour2f;
+    }
+
+    public MatOfPoint2f getApproxCurve() {
+        return approxCurve;
+    }
+
+    /**
+     * Giải phóng toàn bộ bộ nhớ native. Gọi một lần khi kết thúc phiên camera, trên luồng phân tích.
+     */
+    public void release() {
+        clearContours();
+        edges.release();
+        hierarchy.release();
+        pyramidFrame.release();
+        subPixCorners.release();
+        contour2f.release();
+        approxCurve.release();
+        chromaU.release();
+        chromaV.release();
+        paperMask.release();
+        chromaDistance.release();
+        chromaScratch.release();
+        chromaEdges.release();
+        dilateKernel.release();
+        frameWidth = 0;
+        frameHeight = 0;
+        pyramidLevel = 0;
+    }
+}
@@ -0,0 +1,635 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Lớp **DocumentDetector** là bộ máy phát hiện khung tài liệu dùng chung cho màn hình camera,
+ * màn hình cắt ảnh và luồng nhập ảnh từ thư viện.
+ * API đơn giản: đưa vào ảnh xám, nhận về danh sách khung tứ giác đã xếp hạng kèm điểm số.
+ * Quy trình: thu nhỏ theo pyramid → median blur → Gaussian → CLAHE → Canny (+ cạnh màu U/V nếu có) → dilate
+ * → findContours → lọc/xếp hạng tứ giác → tinh chỉnh góc sub-pixel ở độ phân giải đầy đủ.
+ * Khi không contour nào thành tứ giác (góc trang bị ngón tay che, góc nằm ngoài khung hình), khung được dựng lại
+ * từ các đoạn thẳng của cùng ảnh cạnh bằng {@link LineQuadFitter}, trong một ngân sách thời gian cứng.
+ * Quy trình có thể tách làm hai bước chạy trên hai luồng (pipeline của màn hình camera): {@link #preprocess} tới ảnh cạnh
+ * vào một {@link PreprocessedFrame}, rồi {@link #detect(PreprocessedFrame)} trên một instance khác.
+ * Lớp này chỉ phụ thuộc OpenCV (không dùng API Android) để có thể chạy benchmark trên JVM desktop.
+ * Mỗi instance giữ bộ đệm riêng nên không được dùng đồng thời từ nhiều luồng.
+ */
+public class DocumentDetector {
+
+    // --- Các hằng số OpenCV ---
+    private static final double APPROX_POLY_DP_EPSILON_FACTOR = 0.03;
+    private static final double MIN_COSINE_ANGLE = 0.3;
+    private static final double MIN_AREA_PERCENTAGE = 0.02;
+    private static final double MAX_AREA_PERCENTAGE = 0.90;
+
+    // --- Chấm điểm ứng viên ---
+    // Trọng số các đặc trưng (tổng = 1)
+    private static final double WEIGHT_AREA = 0.20;
+    private static final double WEIGHT_EDGE_SUPPORT = 0.30;
+    private static final double WEIGHT_RECTANGULARITY = 0.15;
+    private static final double WEIGHT_ANGLE = 0.15;
+    private static final double WEIGHT_TEMPORAL = 0.20;
+    // Từ tỷ lệ diện tích này trở lên, đặc trưng diện tích đã đạt tối đa: khung nền rất lớn không được cộng thêm điểm
+    private static final double FULL_SCORE_AREA_FRACTION = 0.25;
+    // Số điểm lấy mẫu trên mỗi cạnh khi đo độ bám cạnh
+    private static final int EDGE_SAMPLES_PER_SIDE = 24;
+    // Độ lệch góc trung bình (theo tỷ lệ đường chéo ảnh) mà tại đó điểm nhất quán thời gian về 0
+    private static final double TEMPORAL_DISTANCE_FRACTION = 0.1;
+    // Điểm nhất quán thời gian khi chưa có khung trước để so sánh
+    private static final double NEUTRAL_TEMPORAL_SCORE = 0.5;
+
+    // --- Hỗ trợ bằng màu (U/V) ---
+    // Khuếch đại khoảng cách màu |U - U_giấy| + |V - V_giấy| trước khi tìm cạnh (chênh lệch màu thường chỉ vài mức)
+    private static final double CHROMA_DISTANCE_GAIN = 4.0;
+    private static final double CHROMA_CANNY_THRESHOLD1 = 40;
+    private static final double CHROMA_CANNY_THRESHOLD2 = 100;
+    private static final Size CHROMA_BLUR_KERNEL = new Size(3, 3);
+    // Vùng sáng (ứng viên giấy) phải chiếm tối thiểu tỷ lệ này của ảnh thì mới ước lượng màu giấy
+    private static final double MIN_PAPER_FRACTION = 0.05;
+
+    // --- Dự phòng bằng đoạn thẳng (Hough) khi đường contour thất bại ---
+    // Ngân sách thời gian để không làm nghẽn luồng phân tích (xem cách LineQuadFitter chặn chi phí Hough)
+    private static final long LINE_FALLBACK_BUDGET_NS = 4_000_000L;
+    // Khung dựng từ đoạn thẳng có một phần suy diễn nên được xếp sau khung từ contour cùng chất lượng
+    private static final double LINE_FALLBACK_SCORE_FACTOR = 0.8;
+
+    // Mặc định: tìm contour trên ảnh 1/2 và trả về tối đa 3 ứng viên
+    public static final int DEFAULT_PYRAMID_LEVEL = 1;
+    public static final int DEFAULT_MAX_RESULTS = 3;
+
+    private final int pyramidLevel;
+    private final int maxResults;
+    private final DetectionContext context = new DetectionContext();
+    private final LineQuadFitter lineQuadFitter = new LineQuadFitter();
+
+    // Mat dùng cho detect(byte[]...), chỉ cấp phát lại khi kích thước thay đổi
+    private final Mat inputFrame = new Mat();
+
+    private double dynamicCannyThreshold1;
+    private double dynamicCannyThreshold2;
+
+    // Bộ ghi thời gian từng bước (tùy chọn), do người gọi sở hữu và mở/đóng frame
+    private FrameMetrics metrics;
+
+    // Khung tốt nhất của lần detect() trước (tọa độ độ phân giải đầy đủ), dùng cho điểm nhất quán thời gian
+    private Point[] previousBestQuad;
+
+    /**
+     * Tạo detector với tham số mặc định. Phải được gọi sau khi thư viện OpenCV đã được nạp.
+     */
+    public DocumentDetector() {
+        this(DEFAULT_PYRAMID_LEVEL, DEFAULT_MAX_RESULTS);
+    }
+
+    /**
+     * @param pyramidLevel Tầng pyramid dùng để tìm contour: 0 = đầy đủ, 1 = 1/2, 2 = 1/4
+     * @param maxResults Số khung ứng viên tối đa trả về
+     */
+    public DocumentDetector(int pyramidLevel, int maxResults) {
+        this.pyramidLevel = Math.max(0, Math.min(DetectionContext.MAX_PYRAMID_LEVEL, pyramidLevel));
+        this.maxResults = Math.max(1, maxResults);
+    }
+
+    /**
+     * Phát hiện khung tài liệu trong ảnh xám.
+     * Khung dựng từ đoạn thẳng (dự phòng khi góc bị che hoặc nằm ngoài khung hình) có thể có góc nằm ngoài ảnh.
+     * @param gray Ảnh xám CV_8UC1 (không bị thay đổi)
+     * @return Danh sách khung đã xếp hạng theo điểm giảm dần (rỗng nếu không tìm thấy)
+     */
+    public List<QuadCandidate> detect(Mat gray) {
+        return detect(gray, null, null);
+    }
+
+    /**
+     * Phát hiện khung tài liệu, kết hợp cạnh độ sáng với cạnh màu từ hai kênh U/V.
+     * Giúp tách giấy trắng khỏi nền sáng có màu (bàn gỗ sáng, nền kem...) khi chênh lệch độ sáng quá nhỏ cho Canny.
+     * Kênh màu thường có sẵn ở 1/2 kích thước (YUV 4:2:0), đúng bằng ảnh phát hiện ở tầng pyramid mặc định,
+     * nên phần xử lý thêm chỉ chạy trên 1/4 số điểm ảnh.
+     * @param gray Ảnh xám CV_8UC1 (không bị thay đổi)
+     * @param chromaU Kênh U CV_8UC1 cùng khung nhìn với gray (kích thước bất kỳ), hoặc null để chỉ dùng độ sáng
+     * @param chromaV Kênh V tương ứng, hoặc null
+     * @return Danh sách khung đã xếp hạng theo điểm giảm dần (rỗng nếu không tìm thấy)
+     */
+    public List<QuadCandidate> detect(Mat gray, Mat chromaU, Mat chromaV) {
+        context.ensureSize(gray.width(), gray.height(), pyramidLevel);
+        Mat detectionGray = context.getPyramidFrame();
+        Mat edges = context.getEdges();
+        preprocessInto(gray, chromaU, chromaV, detectionGray, edges);
+        return findCandidates(gray, detectionGray, edges);
+    }
+
+    /**
+     * BƯỚC 1 CỦA CHẾ ĐỘ PIPELINE: sao chép ảnh xám vào frame rồi tiền xử lý tới ảnh cạnh đã dilate.
+     * Sau khi hàm trả về, frame không còn tham chiếu tới gray (có thể đóng ImageProxy) và được chuyển cho
+     * một DocumentDetector khác chạy {@link #detect(PreprocessedFrame)} trên luồng khác.
+     * @param gray Ảnh xám CV_8UC1 (không bị thay đổi)
+     * @param chromaU Kênh U (xem {@link #detect(Mat, Mat, Mat)}), hoặc null
+     * @param chromaV Kênh V, hoặc null
+     * @param out Frame nhận kết quả
+     */
+    public void preprocess(Mat gray, Mat chromaU, Mat chromaV, PreprocessedFrame out) {
+        context.ensureSize(gray.width(), gray.height(), pyramidLevel);
+        out.copyGrayFrom(gray);
+        Mat pyramidFrame = context.getPyramidFrame();
+        out.ensureDetectionSize(pyramidFrame.width(), pyramidFrame.height());
+        preprocessInto(out.gray, chromaU, chromaV, out.detectionGray, out.edges);
+        out.preprocessed = true;
+    }
+
+    /**
+     * BƯỚC 2 CỦA CHẾ ĐỘ PIPELINE: tìm contour, chấm điểm, dự phòng bằng đoạn thẳng và tinh chỉnh góc
+     * trên frame đã qua {@link #preprocess}. Detector này phải có cùng tầng pyramid với detector của bước 1.
+     * @param frame Frame đã tiền xử lý (không bị thay đổi)
+     * @return Danh sách khung đã xếp hạng theo điểm giảm dần (rỗng nếu không tìm thấy)
+     */
+    public List<QuadCandidate> detect(PreprocessedFrame frame) {
+        if (!frame.preprocessed) {
+            throw new IllegalArgumentException("Frame chưa được tiền xử lý");
+        }
+        context.ensureSize(frame.gray.width(), frame.gray.height(), pyramidLevel);
+        return findCandidates(frame.gray, frame.detectionGray, frame.edges);
+    }
+
+    /**
+     * TIỀN XỬ LÝ: thu nhỏ theo pyramid → median blur → Gaussian → CLAHE → Canny (+ cạnh màu) → dilate.
+     * @param detectionGray Ảnh đích đã có kích thước ảnh phát hiện
+     * @param edges Ảnh cạnh đầu ra
+     */
+    private void preprocessInto(Mat gray, Mat chromaU, Mat chromaV, Mat detectionGray, Mat edges) {
+        // Điều chỉnh tham số OpenCV theo độ phân giải thực sự dùng để phát hiện (sau khi thu nhỏ)
+        adjustOpenCVParametersForResolution(detectionGray.width());
+
+        // THU NHỎ THEO PYRAMID:
+        // INTER_AREA lấy trung bình các pixel nên vừa thu nhỏ vừa khử nhiễu
+        Mat blurSource = gray;
+        if (context.getPyramidLevel() > 0) {
+            Imgproc.resize(gray, detectionGray, detectionGray.size(), 0, 0, Imgproc.INTER_AREA);
+            blurSource = detectionGray;
+        }
+        mark(FrameMetrics.Stage.PYRAMID);
+
+        // TIỀN XỬ LÝ ẢNH ĐỂ TĂNG CHẤT LƯỢNG DETECTION:
+        // 1. Median blur: Loại bỏ noise (salt & pepper)
+        // 2. Gaussian blur: Làm mịn ảnh
+        // 3. CLAHE: Tăng độ tương phản cục bộ
+        Imgproc.medianBlur(blurSource, detectionGray, 3);
+        mark(FrameMetrics.Stage.MEDIAN_BLUR);
+        Imgproc.GaussianBlur(detectionGray, detectionGray, context.getGaussianKernelSize(), 0);
+        mark(FrameMetrics.Stage.GAUSSIAN);
+        context.getClahe().apply(detectionGray, detectionGray);
+        mark(FrameMetrics.Stage.CLAHE);
+
+        // PHÁT HIỆN CẠNH VÀ TĂNG CƯỜNG:
+        // 1. Canny edge detection: Phát hiện cạnh với threshold động
+        // 2. Morphological dilation: Tăng cường cạnh để kết nối các đường đứt đoạn
+        Imgproc.Canny(detectionGray, edges, dynamicCannyThreshold1, dynamicCannyThreshold2);
+        mark(FrameMetrics.Stage.CANNY);
+        if (chromaU != null && chromaV != null) {
+            addChromaEdges(chromaU, chromaV, detectionGray, edges);
+            mark(FrameMetrics.Stage.CHROMA);
+        }
+        Imgproc.dilate(edges, edges, context.getDilateKernel());
+        mark(FrameMetrics.Stage.DILATE);
+    }
+
+    /**
+     * TÌM VÀ XẾP HẠNG KHUNG trên ảnh cạnh đã tiền xử lý, rồi tinh chỉnh góc ở độ phân giải đầy đủ.
+     * @param gray Ảnh xám độ phân giải đầy đủ
+     * @param detectionGray Ảnh phát hiện đã tiền xử lý
+     * @param edges Ảnh cạnh đã dilate (findContours không sửa ảnh nguồn)
+     */
+    private List<QuadCandidate> findCandidates(Mat gray, Mat detectionGray, Mat edges) {
+        try {
+            // TÌM CONTOUR VÀ XẾP HẠNG KHUNG TỨ GIÁC:
+            // RETR_CCOMP: contour ngoài và lỗ bên trong ở 2 tầng; lỗ được bỏ qua khi lọc nhưng tài liệu
+            // nằm bên trong một khung nền lớn vẫn là contour ngoài (RETR_EXTERNAL sẽ làm mất nó)
+            List<MatOfPoint> contours = context.getContours();
+            Imgproc.findContours(edges, contours, context.getHierarchy(), Imgproc.RETR_CCOMP, Imgproc.CHAIN_APPROX_SIMPLE);
+            mark(FrameMetrics.Stage.FIND_CONTOURS);
+            List<QuadCandidate> coarseCandidates =
+                    findQuadrilateralCandidates(contours, edges, detectionGray.width(), detectionGray.height());
+            mark(FrameMetrics.Stage.QUAD_SEARCH);
+
+            // DỰ PHÒNG BẰNG ĐOẠN THẲNG: chỉ chạy khi đường contour không tìm được khung nào
+            if (coarseCandidates.isEmpty()) {
+                QuadCandidate fitted = fitQuadFromLines(edges, detectionGray.width(), detectionGray.height());
+                mark(FrameMetrics.Stage.LINE_FALLBACK);
+                if (fitted != null) {
+                    // Góc suy ra từ giao điểm có thể nằm dưới ngón tay hoặc ngoài ảnh: không chạy cornerSubPix,
+                    // và không kẹp vào ảnh (kẹp riêng từng trục kéo góc ra khỏi hai cạnh đã khớp, làm méo khung)
+                    Point[] scaled = QuadGeometry.sortPoints(scaleCorners(fitted.getCorners()));
+                    previousBestQuad = scaled;
+                    List<QuadCandidate> results = new ArrayList<>(1);
+                    results.add(new QuadCandidate(scaled, fitted.getScore(),
+                            fitted.getAreaFraction(), fitted.getMaxCosine()));
+                    return results;
+                }
+            }
+
+            // TINH CHỈNH GÓC Ở ĐỘ PHÂN GIẢI ĐẦY ĐỦ cho các ứng viên được trả về
+            List<QuadCandidate> results = new ArrayList<>(coarseCandidates.size());
+            for (QuadCandidate candidate : coarseCandidates) {
+                Point[] refined = refineCornersSubPixel(candidate.getCorners(), gray);
+                results.add(new QuadCandidate(QuadGeometry.sortPoints(refined), candidate.getScore(),
+                        candidate.getAreaFraction(), candidate.getMaxCosine()));
+            }
+            mark(FrameMetrics.Stage.CORNER_REFINE);
+            previousBestQuad = results.isEmpty() ? null : results.get(0).getCorners();
+            return results;
+        } finally {
+            context.clearContours();
+        }
+    }
+
+    /**
+     * Phát hiện khung trên một buffer xám direct (ví dụ mặt phẳng Y của camera) mà không sao chép.
+     * @param gray ByteBuffer direct chứa ảnh xám
+     * @param width Chiều rộng ảnh
+     * @param height Chiều cao ảnh
+     * @param rowStride Số byte mỗi hàng (>= width)
+     * @return Danh sách khung đã xếp hạng
+     */
+    public List<QuadCandidate> detect(ByteBuffer gray, int width, int height, int rowStride) {
+        Mat wrapped = new Mat(height, width, CvType.CV_8UC1, gray, rowStride);
+        try {
+            return detect(wrapped);
+        } finally {
+            wrapped.release();
+        }
+    }
+
+    /**
+     * Phát hiện khung trên một mảng byte xám liền mạch (width * height byte).
+     * @param gray Mảng byte ảnh xám
+     * @param width Chiều rộng ảnh
+     * @param height Chiều cao ảnh
+     * @return Danh sách khung đã xếp hạng
+     */
+    public List<QuadCandidate> detect(byte[] gray, int width, int height) {
+        inputFrame.create(height, width, CvType.CV_8UC1);
+        inputFrame.put(0, 0, gray);
+        return detect(inputFrame);
+    }
+
+    /**
+     * CẠNH MÀU TỪ KÊNH U/V:
+     * 1. Đưa U/V về kích thước ảnh phát hiện (không làm gì nếu đã bằng).
+     * 2. Ước lượng màu giấy = trung bình U/V của vùng sáng (ngưỡng Otsu trên ảnh độ sáng).
+     * 3. Bản đồ khoảng cách màu |U - U_giấy| + |V - V_giấy|, khuếch đại và làm mịn nhẹ.
+     * 4. Canny trên bản đồ này rồi OR vào ảnh cạnh độ sáng.
+     * Nếu vùng sáng quá nhỏ (không có ứng viên giấy), giữ nguyên ảnh cạnh.
+     */
+    private void addChromaEdges(Mat chromaU, Mat chromaV, Mat luma, Mat edges) {
+        Size detectionSize = luma.size();
+        Mat u = chromaU;
+        Mat v = chromaV;
+        if (chromaU.cols() != luma.cols() || chromaU.rows() != luma.rows()) {
+            Imgproc.resize(chromaU, context.getChromaU(), detectionSize, 0, 0, Imgproc.INTER_LINEAR);
+            Imgproc.resize(chromaV, context.getChromaV(), detectionSize, 0, 0, Imgproc.INTER_LINEAR);
+            u = context.getChromaU();
+            v = context.getChromaV();
+        }
+
+        Mat paperMask = context.getPaperMask();
+        Imgproc.threshold(luma, paperMask, 0, 255, Imgproc.THRESH_BINARY | Imgproc.THRESH_OTSU);
+        if (Core.countNonZero(paperMask) < luma.total() * MIN_PAPER_FRACTION) {
+            return;
+        }
+        Scalar paperU = Core.mean(u, paperMask);
+        Scalar paperV = Core.mean(v, paperMask);
+
+        Mat distance = context.getChromaDistance();
+        Mat scratch = context.getChromaScratch();
+        Core.absdiff(u, paperU, distance);
+        Core.absdiff(v, paperV, scratch);
+        Core.addWeighted(distance, CHROMA_DISTANCE_GAIN, scratch, CHROMA_DISTANCE_GAIN, 0, distance);
+        Imgproc.GaussianBlur(distance, distance, CHROMA_BLUR_KERNEL, 0);
+
+        Mat chromaEdges = context.getChromaEdges();
+        Imgproc.Canny(distance, chromaEdges, CHROMA_CANNY_THRESHOLD1, CHROMA_CANNY_THRESHOLD2);
+        Core.bitwise_or(edges, chromaEdges, edges);
+    }
+
+    /**
+     * Gắn bộ ghi thời gian từng bước. detect() chỉ gọi mark(); beginFrame()/endFrame() do người gọi quản lý.
+     * @param metrics Bộ ghi, hoặc null để tắt
+     */
+    public void setMetrics(FrameMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Quên khung của lần detect() trước (ví dụ khi đổi sang ảnh khác hoặc đổi chế độ camera).
+     */
+    public void resetTemporalState() {
+        previousBestQuad = null;
+    }
+
+    /**
+     * Giải phóng toàn bộ bộ nhớ native của detector.
+     */
+    public void release() {
+        context.release();
+        lineQuadFitter.release();
+        inputFrame.release();
+    }
+
+    private void mark(FrameMetrics.Stage stage) {
+        if (metrics != null) {
+            metrics.mark(stage);
+        }
+    }
+
+    /**
+     * ĐIỀU CHỈNH THAM SỐ OPENCV THEO ĐỘ PHÂN GIẢI:
+     * Canny threshold được điều chỉnh động để phù hợp với kích thước frame.
+     * Frame nhỏ cần threshold thấp, frame lớn cần threshold cao hơn.
+     * @param frameWidth Chiều rộng frame dùng để phát hiện
+     */
+    private void adjustOpenCVParametersForResolution(int frameWidth) {
+        if (frameWidth <= 480) {
+            dynamicCannyThreshold1 = 20;
+            dynamicCannyThreshold2 = 60;
+        } else if (frameWidth <= 640) {
+            dynamicCannyThreshold1 = 30;
+            dynamicCannyThreshold2 = 90;
+        } else if (frameWidth <= 1280) {
+            dynamicCannyThreshold1 = 40;
+            dynamicCannyThreshold2 = 120;
+        } else {
+            dynamicCannyThreshold1 = 50;
+            dynamicCannyThreshold2 = 150;
+        }
+    }
+
+    /**
+     * TÌM VÀ XẾP HẠNG CÁC KHUNG TỨ GIÁC ỨNG VIÊN TỪ DANH SÁCH CONTOUR:
+     * 1. Loại sớm, không cấp phát: contour là lỗ (hierarchy), quá ít điểm, bounding rect nhỏ hơn diện tích tối thiểu,
+     *    chu vi nhỏ hơn chu vi của hình vuông có diện tích tối thiểu.
+     * 2. approxPolyDP và kiểm tra hình học trên phía Java: 4 đỉnh, diện tích, lồi, góc gần vuông.
+     * 3. Chấm điểm các ứng viên còn lại theo nhiều đặc trưng: diện tích (bão hòa ở FULL_SCORE_AREA_FRACTION),
+     *    độ bám cạnh dọc 4 cạnh, độ chữ nhật, chất lượng góc và độ nhất quán với khung lần trước.
+     * @param contours Danh sách contour từ findContours
+     * @param edges Ảnh cạnh đã dilate, dùng để chấm độ bám cạnh
+     * @param imageWidth Chiều rộng ảnh
+     * @param imageHeight Chiều cao ảnh
+     * @return Tối đa maxResults khung, xếp theo điểm giảm dần
+     */
+    private List<QuadCandidate> findQuadrilateralCandidates(List<MatOfPoint> contours, Mat edges,
+                                                            int imageWidth, int imageHeight) {
+        List<QuadCandidate> candidates = new ArrayList<>();
+        double totalArea = (double) imageWidth * imageHeight;
+        double minAllowedArea = totalArea * MIN_AREA_PERCENTAGE;
+        double maxAllowedArea = totalArea * MAX_AREA_PERCENTAGE;
+        // Hình vuông có chu vi nhỏ nhất trong các tứ giác cùng diện tích
+        double minAllowedPerimeter = 4 * Math.sqrt(minAllowedArea);
+
+        MatOfPoint2f contour2f = context.getContour2f();
+        MatOfPoint2f approxCurve = context.getApproxCurve();
+        int[] hierarchy = context.loadHierarchyData();
+        byte[] edgePixels = null;
+
+        // DUYỆT QUA TỪNG CONTOUR ĐỂ TÌM KHUNG TỨ GIÁC:
+        for (int index = 0; index < contours.size(); index++) {
+            // LOẠI SỚM:
+            // Lỗ bên trong một thành phần (có parent) là mặt trong của cùng dải cạnh, bỏ qua
+            if (hierarchy[index * 4 + 3] >= 0) {
+                continue;
+            }
+            MatOfPoint contour = contours.get(index);
+            if (contour.rows() < 4) {
+                continue;
+            }
+            Rect boundingRect = Imgproc.boundingRect(contour);
+            if (boundingRect.area() <= minAllowedArea) {
+                continue;
+            }
+
+            // Chuyển đổi contour sang MatOfPoint2f ngay trong bộ nhớ native (không qua toArray())
+            contour.convertTo(contour2f, CvType.CV_32F);
+            double perimeter = Imgproc.arcLength(contour2f, true);
+            if (perimeter < minAllowedPerimeter) {
+                continue;
+            }
+
+            // Làm mịn contour với thuật toán Douglas-Peucker
+            Imgproc.approxPolyDP(contour2f, approxCurve, APPROX_POLY_DP_EPSILON_FACTOR * perimeter, true);
+
+            // KIỂM TRA TIÊU CHÍ KHUNG TỨ GIÁC (trên phía Java, không cần thêm Mat trung gian):
+            // 1. Phải có đúng 4 đỉnh
+            // 2. Diện tích phải nằm trong khoảng cho phép (2%-90% ảnh)
+            // 3. Phải là hình lồi (convex)
+            // 4. Góc phải gần vuông (cosine < 0.3)
+            if (approxCurve.total() != 4) {
+                continue;
+            }
+            Point[] points = approxCurve.toArray();
+            double currentArea = QuadGeometry.polygonArea(points);
+            if (currentArea <= minAllowedArea || currentArea >= maxAllowedArea) {
+                continue;
+            }
+            if (!QuadGeometry.isConvex(points)) {
+                continue;
+            }
+            double maxCosine = QuadGeometry.maxCosine(points);
+            if (maxCosine >= MIN_COSINE_ANGLE) {
+                continue;
+            }
+
+            // CHẤM ĐIỂM ỨNG VIÊN:
+            if (edgePixels == null) {
+                // Chỉ sao chép ảnh cạnh khi có ít nhất một ứng viên vượt qua bộ lọc
+                edgePixels = context.loadEdgePixels(edges);
+            }
+            double areaFraction = currentArea / totalArea;
+            double score = scoreQuad(points, areaFraction, maxCosine, approxCurve, edgePixels, imageWidth, imageHeight);
+            candidates.add(new QuadCandidate(points, score, areaFraction, maxCosine));
+        }
+
+        Collections.sort(candidates, (a, b) -> Double.compare(b.getScore(), a.getScore()));
+        if (candidates.size() > maxResults) {
+            return new ArrayList<>(candidates.subList(0, maxResults));
+        }
+        return candidates;
+    }
+
+    /**
+     * CHẤM ĐIỂM MỘT TỨ GIÁC theo diện tích (bão hòa ở FULL_SCORE_AREA_FRACTION), độ bám cạnh,
+     * độ chữ nhật, chất lượng góc và độ nhất quán với khung lần trước.
+     * @param polygon Cùng 4 đỉnh dưới dạng MatOfPoint2f (dùng cho minAreaRect)
+     * @return Điểm 0..1
+     */
+    private double scoreQuad(Point[] points, double areaFraction, double maxCosine, MatOfPoint2f polygon,
+                             byte[] edgePixels, int imageWidth, int imageHeight) {
+        double currentArea = areaFraction * imageWidth * imageHeight;
+        double areaScore = Math.min(1.0, areaFraction / FULL_SCORE_AREA_FRACTION);
+        double edgeScore = edgeSupport(points, edgePixels, imageWidth, imageHeight);
+        double rectangularity = currentArea / Math.max(1e-6, Imgproc.minAreaRect(polygon).size.area());
+        double angleScore = 1.0 - maxCosine / MIN_COSINE_ANGLE;
+        double temporalScore = temporalConsistency(points, imageWidth, imageHeight);
+
+        return WEIGHT_AREA * areaScore
+                + WEIGHT_EDGE_SUPPORT * edgeScore
+                + WEIGHT_RECTANGULARITY * Math.min(1.0, rectangularity)
+                + WEIGHT_ANGLE * angleScore
+                + WEIGHT_TEMPORAL * temporalScore;
+    }
+
+    /**
+     * DỰNG KHUNG TỪ ĐOẠN THẲNG (dự phòng):
+     * Gọi {@link LineQuadFitter} với ngân sách LINE_FALLBACK_BUDGET_NS, rồi kiểm tra hình học và chấm điểm
+     * giống ứng viên từ contour (điểm nhân thêm LINE_FALLBACK_SCORE_FACTOR).
+     * @return Ứng viên trong tọa độ ảnh phát hiện, hoặc null
+     */
+    private QuadCandidate fitQuadFromLines(Mat edges, int imageWidth, int imageHeight) {
+        Point[] points = lineQuadFitter.fit(edges, LINE_FALLBACK_BUDGET_NS);
+        if (points == null) {
+            return null;
+        }
+        double totalArea = (double) imageWidth * imageHeight;
+        double areaFraction = QuadGeometry.polygonArea(points) / totalArea;
+        if (areaFraction <= MIN_AREA_PERCENTAGE || areaFraction >= MAX_AREA_PERCENTAGE || !QuadGeometry.isConvex(points)) {
+            return null;
+        }
+        double maxCosine = QuadGeometry.maxCosine(points);
+        if (maxCosine >= MIN_COSINE_ANGLE) {
+            return null;
+        }
+        MatOfPoint2f polygon = context.getApproxCurve();
+        polygon.fromArray(points);
+        double score = LINE_FALLBACK_SCORE_FACTOR
+                * scoreQuad(points, areaFraction, maxCosine, polygon, context.loadEdgePixels(edges), imageWidth, imageHeight);
+        return new QuadCandidate(points, score, areaFraction, maxCosine);
+    }
+
+    /**
+     * ĐỘ BÁM CẠNH:
+     * Tỷ lệ điểm lấy mẫu dọc 4 cạnh của khung rơi đúng vào pixel cạnh (ảnh Canny đã dilate).
+     * Khung do approxPolyDP "ép" từ một contour không thẳng sẽ có nhiều mẫu nằm ngoài cạnh thật.
+     * @return Giá trị 0..1 (1 = cả 4 cạnh đều nằm trên cạnh của ảnh)
+     */
+    private static double edgeSupport(Point[] quad, byte[] edgePixels, int width, int height) {
+        int supported = 0;
+        int total = 0;
+        for (int side = 0; side < 4; side++) {
+            Point a = quad[side];
+            Point b = quad[(side + 1) % 4];
+            for (int i = 0; i < EDGE_SAMPLES_PER_SIDE; i++) {
+                // Lấy mẫu ở giữa mỗi đoạn để tránh vùng góc (nơi dilate làm cạnh phình ra)
+                double t = (i + 0.5) / EDGE_SAMPLES_PER_SIDE;
+                int x = (int) Math.round(a.x + (b.x - a.x) * t);
+                int y = (int) Math.round(a.y + (b.y - a.y) * t);
+                if (x < 0 || y < 0 || x >= width || y >= height) {
+                    continue;
+                }
+                total++;
+                if (edgePixels[y * width + x] != 0) {
+                    supported++;
+                }
+            }
+        }
+        return total > 0 ? (double) supported / total : 0;
+    }
+
+    /**
+     * NHẤT QUÁN THỜI GIAN:
+     * So sánh ứng viên (tọa độ ảnh phát hiện) với khung tốt nhất của lần detect() trước.
+     * Mỗi góc được ghép với góc gần nhất của khung trước nên không phụ thuộc thứ tự đỉnh.
+     * @return Giá trị 0..1 (1 = trùng khung trước), NEUTRAL_TEMPORAL_SCORE nếu chưa có khung trước
+     */
+    private double temporalConsistency(Point[] quad, int imageWidth, int imageHeight) {
+        if (previousBestQuad == null) {
+            return NEUTRAL_TEMPORAL_SCORE;
+        }
+        int scale = context.getPyramidScale();
+        double totalDistance = 0;
+        for (Point corner : quad) {
+            double nearest = Double.MAX_VALUE;
+            for (Point previous : previousBestQuad) {
+                nearest = Math.min(nearest, Math.hypot(corner.x - previous.x / scale, corner.y - previous.y / scale));
+            }
+            totalDistance += nearest;
+        }
+        double diagonal = Math.hypot(imageWidth, imageHeight);
+        double meanDistance = totalDistance / quad.length;
+        return Math.max(0, 1 - meanDistance / (TEMPORAL_DISTANCE_FRACTION * diagonal));
+    }
+
+    /**
+     * TINH CHỈNH GÓC SUB-PIXEL Ở ĐỘ PHÂN GIẢI ĐẦY ĐỦ:
+     * Khung được tìm trên ảnh pyramid thu nhỏ nên mỗi góc có sai số tới 2^level pixel.
+     * Phóng các góc về độ phân giải đầy đủ rồi chạy cornerSubPix trong cửa sổ nhỏ quanh từng góc
+     * trên ảnh xám gốc (chưa blur). Góc nào bị kéo ra xa hơn cửa sổ tìm kiếm thì giữ nguyên vị trí phóng.
+     * @param coarsePoints 4 góc trong tọa độ ảnh pyramid
+     * @param fullResolutionGray Ảnh xám độ phân giải đầy đủ
+     * @return 4 góc trong tọa độ độ phân giải đầy đủ
+     */
+    private Point[] refineCornersSubPixel(Point[] coarsePoints, Mat fullResolutionGray) {
+        Point[] scaledPoints = scaleToFullResolution(coarsePoints, fullResolutionGray);
+
+        MatOfPoint2f corners = context.getSubPixCorners();
+        corners.fromArray(scaledPoints);
+        try {
+            Imgproc.cornerSubPix(fullResolutionGray, corners,
+                    context.getSubPixWindowSize(),
+                    context.getSubPixZeroZone(),
+                    context.getSubPixCriteria());
+        } catch (RuntimeException e) {
+            // cornerSubPix có thể thất bại với góc sát biên ảnh: dùng góc đã phóng
+            return scaledPoints;
+        }
+
+        Point[] refinedPoints = corners.toArray();
+        double maxShift = context.getSubPixWindowSize().width;
+        for (int i = 0; i < refinedPoints.length; i++) {
+            double dx = refinedPoints[i].x - scaledPoints[i].x;
+            double dy = refinedPoints[i].y - scaledPoints[i].y;
+            if (Math.abs(dx) > maxShift || Math.abs(dy) > maxShift) {
+                refinedPoints[i] = scaledPoints[i];
+            }
+        }
+        return refinedPoints;
+    }
+
+    /**
+     * Phóng các góc từ tọa độ ảnh pyramid về độ phân giải đầy đủ (lấy tâm ô pixel) và giữ chúng nằm trong ảnh.
+     */
+    private Point[] scaleToFullResolution(Point[] coarsePoints, Mat fullResolutionGray) {
+        int maxX = fullResolutionGray.width() - 1;
+        int maxY = fullResolutionGray.height() - 1;
+
+        Point[] scaledPoints = scaleCorners(coarsePoints);
+        for (Point point : scaledPoints) {
+            point.x = Math.min(maxX, Math.max(0, point.x));
+            point.y = Math.min(maxY, Math.max(0, point.y));
+        }
+        return scaledPoints;
+    }
+
+    /**
+     * Phóng các góc từ tọa độ ảnh pyramid về độ phân giải đầy đủ (lấy tâm ô pixel), không kẹp vào ảnh.
+     */
+    private Point[] scaleCorners(Point[] coarsePoints) {
+        int scale = context.getPyramidScale();
+        Point[] scaledPoints = new Point[coarsePoints.length];
+        for (int i = 0; i < coarsePoints.length; i++) {
+            scaledPoints[i] = new Point((coarsePoints[i].x + 0.5) * scale - 0.5, (coarsePoints[i].y + 0.5) * scale - 0.5);
+        }
+        return scaledPoints;
+    }
+}
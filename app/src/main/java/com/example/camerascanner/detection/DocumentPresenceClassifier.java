@@ -0,0 +1,150 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Lớp **DocumentPresenceClassifier** là bước lọc rẻ tiền chạy trước {@link DocumentDetector}:
+ * ước lượng trên ảnh rất nhỏ (cạnh dài CLASSIFIER_WIDTH pixel, ví dụ 80x60) xem khung hình có khả năng chứa tài liệu không.
+ * Khi camera hướng vào trần nhà, tường trơn hay bàn trống, toàn bộ chuỗi median blur → Gaussian → CLAHE → Canny
+ * → dilate → findContours được bỏ qua, chỉ tốn một lần thu nhỏ và một Canny trên vài nghìn pixel.
+ * Điểm số là min của hai đặc trưng (cả hai phải đạt):
+ * 1. Mật độ cạnh: tài liệu tạo ra viền và dòng chữ; ảnh trơn gần như không có cạnh.
+ * 2. Độ trải rộng của cạnh: hình chiếu cạnh theo hàng và cột phải trải ra đủ rộng theo cả hai chiều,
+ *    như viền của một hình chữ nhật lớn (một vết bẩn hay công tắc đèn nhỏ thì không).
+ * Để không bỏ lỡ tài liệu do phân loại nhầm, sau MAX_CONSECUTIVE_REJECTIONS lần từ chối liên tiếp
+ * một frame luôn được cho qua. Không an toàn khi dùng đồng thời từ nhiều luồng.
+ */
+public class DocumentPresenceClassifier {
+
+    // Cạnh dài của ảnh phân loại (cạnh ngắn theo tỷ lệ của frame)
+    public static final int CLASSIFIER_WIDTH = 80;
+    // Ngưỡng Canny thấp: INTER_AREA đã lấy trung bình nhiều pixel nên nhiễu cảm biến gần như biến mất
+    private static final double CANNY_THRESHOLD1 = 15;
+    private static final double CANNY_THRESHOLD2 = 45;
+    // Mật độ cạnh đạt điểm tối đa (viền của một trang chiếm 20% khung đã cho khoảng 2-3%)
+    private static final double FULL_SCORE_EDGE_DENSITY = 0.03;
+    // Độ trải rộng (theo chiều hẹp hơn) đạt điểm tối đa; tài liệu nhỏ nhất (2% diện tích) rộng khoảng 14% mỗi chiều
+    private static final double FULL_SCORE_EXTENT = 0.3;
+    // Điểm tối thiểu để chạy chuỗi phát hiện đầy đủ
+    public static final double DEFAULT_THRESHOLD = 0.35;
+    // Số frame từ chối liên tiếp tối đa trước khi bắt buộc cho một frame qua
+    private static final int MAX_CONSECUTIVE_REJECTIONS = 15;
+
+    private final double threshold;
+
+    private final Mat small = new Mat();
+    private final Mat edges = new Mat();
+    private final Mat columnProfile = new Mat();
+    private final Mat rowProfile = new Mat();
+    // Bản sao phía Java của hai hình chiếu, chỉ cấp phát lại khi kích thước thay đổi
+    private byte[] columnData = new byte[0];
+    private byte[] rowData = new byte[0];
+
+    private int consecutiveRejections = 0;
+    private double lastScore = 0;
+
+    /**
+     * Tạo bộ phân loại với ngưỡng mặc định. Phải được gọi sau khi thư viện OpenCV đã được nạp.
+     */
+    public DocumentPresenceClassifier() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold Điểm tối thiểu (0..1) để coi là có tài liệu
+     */
+    public DocumentPresenceClassifier(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Quyết định có chạy chuỗi phát hiện đầy đủ cho frame này không.
+     * @param gray Ảnh xám CV_8UC1 độ phân giải đầy đủ (không bị thay đổi)
+     * @return true nếu frame có khả năng chứa tài liệu, hoặc đã từ chối quá nhiều frame liên tiếp
+     */
+    public boolean shouldRunDetection(Mat gray) {
+        lastScore = score(gray);
+        if (lastScore >= threshold || consecutiveRejections >= MAX_CONSECUTIVE_REJECTIONS) {
+            consecutiveRejections = 0;
+            return true;
+        }
+        consecutiveRejections++;
+        return false;
+    }
+
+    /**
+     * TÍNH ĐIỂM CÓ TÀI LIỆU:
+     * Thu nhỏ bằng INTER_AREA → Canny → mật độ cạnh và độ trải rộng của hình chiếu cạnh theo hàng/cột.
+     * @param gray Ảnh xám CV_8UC1 (không bị thay đổi)
+     * @return Điểm 0..1
+     */
+    public double score(Mat gray) {
+        int width = CLASSIFIER_WIDTH;
+        int height = Math.max(1, (int) Math.round((double) CLASSIFIER_WIDTH * gray.rows() / Math.max(1, gray.cols())));
+        if (gray.rows() > gray.cols()) {
+            height = CLASSIFIER_WIDTH;
+            width = Math.max(1, (int) Math.round((double) CLASSIFIER_WIDTH * gray.cols() / Math.max(1, gray.rows())));
+        }
+        Imgproc.resize(gray, small, new Size(width, height), 0, 0, Imgproc.INTER_AREA);
+        Imgproc.Canny(small, edges, CANNY_THRESHOLD1, CANNY_THRESHOLD2);
+
+        double density = (double) Core.countNonZero(edges) / (width * height);
+        double densityScore = Math.min(1.0, density / FULL_SCORE_EDGE_DENSITY);
+        if (densityScore == 0) {
+            return 0;
+        }
+
+        // HÌNH CHIẾU CẠNH: cột/hàng nào có ít nhất một pixel cạnh
+        Core.reduce(edges, columnProfile, 0, Core.REDUCE_MAX);
+        Core.reduce(edges, rowProfile, 1, Core.REDUCE_MAX);
+        if (columnData.length != width) {
+            columnData = new byte[width];
+        }
+        if (rowData.length != height) {
+            rowData = new byte[height];
+        }
+        columnProfile.get(0, 0, columnData);
+        rowProfile.get(0, 0, rowData);
+        double extent = Math.min(span(columnData), span(rowData));
+        double extentScore = Math.min(1.0, extent / FULL_SCORE_EXTENT);
+
+        return Math.min(densityScore, extentScore);
+    }
+
+    /**
+     * @return Điểm của frame gần nhất được đánh giá bởi {@link #shouldRunDetection(Mat)}
+     */
+    public double getLastScore() {
+        return lastScore;
+    }
+
+    /**
+     * Giải phóng bộ nhớ native.
+     */
+    public void release() {
+        small.release();
+        edges.release();
+        columnProfile.release();
+        rowProfile.release();
+    }
+
+    /**
+     * @return Khoảng cách giữa phần tử khác 0 đầu tiên và cuối cùng, tính theo tỷ lệ độ dài (0 nếu không có)
+     */
+    private static double span(byte[] profile) {
+        int first = -1;
+        int last = -1;
+        for (int i = 0; i < profile.length; i++) {
+            if (profile[i] != 0) {
+                if (first < 0) {
+                    first = i;
+                }
+                last = i;
+            }
+        }
+        return first < 0 ? 0 : (double) (last - first + 1) / profile.length;
+    }
+}
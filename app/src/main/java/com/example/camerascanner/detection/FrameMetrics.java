@@ -0,0 +1,227 @@
+package com.example.camerascanner.detection;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Lớp **FrameMetrics** ghi thời gian (nano giây) của từng bước xử lý frame vào một ring buffer cố định.
+ * - Phía ghi (luồng phân tích) không cấp phát: beginFrame() → mark(stage) sau mỗi bước → endFrame().
+ *   Thời gian của một bước là khoảng cách từ lần mark (hoặc beginFrame) trước đó.
+ * - Phía đọc (overlay debug, xuất file) lấy p50/p95/max của CAPACITY frame gần nhất qua {@link #summarize()}.
+ * Bước nào không chạy trong frame (ví dụ không thu nhỏ pyramid) được ghi là 0 và bỏ qua khi tổng hợp.
+ */
+public class FrameMetrics {
+
+    /**
+     * Các bước của một frame phát hiện, theo thứ tự thực hiện.
+     */
+    public enum Stage {
+        PLANE_COPY,
+        PRESENCE_CHECK,
+        TRACKER_UPDATE,
+        PYRAMID,
+        MEDIAN_BLUR,
+        GAUSSIAN,
+        CLAHE,
+        CANNY,
+        CHROMA,
+        DILATE,
+        FIND_CONTOURS,
+        QUAD_SEARCH,
+        LINE_FALLBACK,
+        CORNER_REFINE,
+        TOTAL
+    }
+
+    // Số frame gần nhất được giữ lại
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Stage[] STAGES = Stage.values();
+
+    private final int capacity;
+    // samples[stage][frame]
+    private final long[][] samples;
+    private int writeIndex = 0;
+    private int frameCount = 0;
+
+    // Frame đang ghi, chỉ luồng phân tích truy cập
+    private final long[] currentFrame = new long[STAGES.length];
+    private long frameStartNs;
+    private long lastMarkNs;
+    private boolean frameOpen = false;
+
+    public FrameMetrics() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public FrameMetrics(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.samples = new long[STAGES.length][this.capacity];
+    }
+
+    /**
+     * Bắt đầu đo một frame mới.
+     */
+    public void beginFrame() {
+        Arrays.fill(currentFrame, 0);
+        frameStartNs = System.nanoTime();
+        lastMarkNs = frameStartNs;
+        frameOpen = true;
+    }
+
+    /**
+     * Kết thúc một bước: cộng thời gian từ lần mark trước vào bước này.
+     * @param stage Bước vừa hoàn thành
+     */
+    public void mark(Stage stage) {
+        if (!frameOpen) {
+            return;
+        }
+        long now = System.nanoTime();
+        currentFrame[stage.ordinal()] += now - lastMarkNs;
+        lastMarkNs = now;
+    }
+
+    /**
+     * Bỏ qua khoảng thời gian kể từ lần mark trước (công việc không thuộc bước nào).
+     */
+    public void skip() {
+        lastMarkNs = System.nanoTime();
+    }
+
+    /**
+     * Kết thúc frame và đưa kết quả vào ring buffer.
+     */
+    public void endFrame() {
+        if (!frameOpen) {
+            return;
+        }
+        frameOpen = false;
+        currentFrame[Stage.TOTAL.ordinal()] = System.nanoTime() - frameStartNs;
+        synchronized (samples) {
+            for (int s = 0; s < STAGES.length; s++) {
+                samples[s][writeIndex] = currentFrame[s];
+            }
+            writeIndex = (writeIndex + 1) % capacity;
+            frameCount = Math.min(frameCount + 1, capacity);
+        }
+    }
+
+    /**
+     * Hủy frame đang đo (ví dụ khi xử lý bị lỗi giữa chừng).
+     */
+    public void abortFrame() {
+        frameOpen = false;
+    }
+
+    /**
+     * Xóa toàn bộ mẫu đã ghi.
+     */
+    public void reset() {
+        synchronized (samples) {
+            writeIndex = 0;
+            frameCount = 0;
+        }
+    }
+
+    /**
+     * Tổng hợp p50/p95/max cho từng bước trên các frame trong ring buffer. Có cấp phát, không gọi trên hot path.
+     * @return Bảng tổng hợp, an toàn khi gọi từ luồng khác
+     */
+    public Summary summarize() {
+        long[][] copy;
+        int frames;
+        synchronized (samples) {
+            frames = frameCount;
+            copy = new long[STAGES.length][];
+            for (int s = 0; s < STAGES.length; s++) {
+                copy[s] = Arrays.copyOf(samples[s], frames);
+            }
+        }
+
+        double[] p50 = new double[STAGES.length];
+        double[] p95 = new double[STAGES.length];
+        double[] max = new double[STAGES.length];
+        for (int s = 0; s < STAGES.length; s++) {
+            long[] values = copy[s];
+            Arrays.sort(values);
+            // Bỏ các frame không chạy bước này (giá trị 0 nằm ở đầu sau khi sắp xếp)
+            int first = 0;
+            while (first < values.length && values[first] == 0) {
+                first++;
+            }
+            int count = values.length - first;
+            if (count == 0) {
+                continue;
+            }
+            p50[s] = values[first + percentileIndex(count, 0.50)] / 1e6;
+            p95[s] = values[first + percentileIndex(count, 0.95)] / 1e6;
+            max[s] = values[values.length - 1] / 1e6;
+        }
+        return new Summary(frames, p50, p95, max);
+    }
+
+    private static int percentileIndex(int count, double fraction) {
+        int index = (int) Math.ceil(fraction * count) - 1;
+        return Math.max(0, Math.min(count - 1, index));
+    }
+
+    /**
+     * Bảng tổng hợp bất biến, thời gian tính bằng mili giây.
+     */
+    public static class Summary {
+        public final int frames;
+        private final double[] p50Ms;
+        private final double[] p95Ms;
+        private final double[] maxMs;
+
+        Summary(int frames, double[] p50Ms, double[] p95Ms, double[] maxMs) {
+            this.frames = frames;
+            this.p50Ms = p50Ms;
+            this.p95Ms = p95Ms;
+            this.maxMs = maxMs;
+        }
+
+        public double p50(Stage stage) {
+            return p50Ms[stage.ordinal()];
+        }
+
+        public double p95(Stage stage) {
+            return p95Ms[stage.ordinal()];
+        }
+
+        public double max(Stage stage) {
+            return maxMs[stage.ordinal()];
+        }
+
+        /**
+         * Ghi bảng tổng hợp dạng CSV (stage,p50_ms,p95_ms,max_ms).
+         */
+        public void writeCsv(Writer writer) throws IOException {
+            writer.write("stage,p50_ms,p95_ms,max_ms\n");
+            for (Stage stage : STAGES) {
+                writer.write(String.format(Locale.US, "%s,%.3f,%.3f,%.3f\n",
+                        stage.name(), p50(stage), p95(stage), max(stage)));
+            }
+        }
+
+        /**
+         * @return Bảng nhiều dòng, mỗi dòng một bước, dùng cho overlay debug
+         */
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder.append(String.format(Locale.US, "frames=%d  (p50 / p95 / max ms)", frames));
+            for (Stage stage : STAGES) {
+                if (max(stage) == 0) {
+                    continue;
+                }
+                builder.append(String.format(Locale.US, "\n%-14s %6.2f %6.2f %6.2f",
+                        stage.name(), p50(stage), p95(stage), max(stage)));
+            }
+            return builder.toString();
+        }
+    }
+}
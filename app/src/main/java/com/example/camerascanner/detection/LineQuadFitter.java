@@ -0,0 +1,305 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.Arrays;
+
+/**
+ * Lớp **LineQuadFitter** dựng lại khung tài liệu từ các đoạn thẳng khi đường contour thất bại,
+ * ví dụ khi ngón tay che mất một góc trang hoặc một góc nằm ngoài khung hình (contour không còn khép kín 4 đỉnh).
+ * Quy trình trên ảnh cạnh Canny sẵn có của {@link DocumentDetector}:
+ * 1. HoughLinesP lấy các đoạn thẳng dài, giữ tối đa MAX_SEGMENTS đoạn dài nhất.
+ * 2. Chia đoạn theo hướng (gần ngang / gần dọc), rồi chia mỗi hướng thành 2 cạnh đối diện bằng 2-means
+ *    trên vị trí cắt đường giữa ảnh (trọng số theo độ dài).
+ * 3. Mỗi cạnh là một đường thẳng trung bình theo độ dài của các đoạn gần đường dài nhất trong nhóm.
+ * 4. Giao 4 đường cho ra 4 góc; góc bị che được nội suy từ 2 cạnh kề, góc ngoài ảnh được chấp nhận trong một biên nhỏ.
+ * GIỚI HẠN CHI PHÍ: HoughLinesP không thể dừng giữa chừng, nên chi phí của nó được chặn trước khi gọi:
+ * - Ảnh cạnh được thu nhỏ về cạnh dài tối đa HOUGH_MAX_DIMENSION trước khi tìm đoạn thẳng.
+ * - Bỏ qua khi ảnh cạnh quá dày hoặc có quá MAX_HOUGH_EDGE_PIXELS điểm cạnh (chi phí Hough tỷ lệ với số điểm cạnh;
+ *   nền nhiều chi tiết vừa chậm vừa không đáng tin).
+ * - Khi trung bình động chi phí các lần chạy gần đây đã vượt ngân sách, bỏ qua tối đa MAX_SKIPS_AFTER_OVERRUN lần
+ *   rồi mới đo lại.
+ * Hạn chót chỉ được kiểm tra giữa các bước sau Hough (giới hạn mềm), nên ngân sách là mục tiêu, không phải cam kết cứng.
+ * Không an toàn khi dùng đồng thời từ nhiều luồng.
+ */
+final class LineQuadFitter {
+
+    // Đoạn thẳng tối thiểu dài bằng tỷ lệ này của cạnh ngắn của ảnh
+    private static final double MIN_SEGMENT_LENGTH_FRACTION = 0.15;
+    private static final double MAX_LINE_GAP_FRACTION = 0.02;
+    private static final double HOUGH_RHO = 1;
+    private static final double HOUGH_THETA = Math.PI / 180;
+    // Ảnh cạnh dày hơn tỷ lệ này: bỏ qua (nền nhiều chi tiết, Hough tốn thời gian mà không đáng tin)
+    private static final double MAX_EDGE_DENSITY = 0.12;
+    // Cạnh dài tối đa của ảnh đưa vào Hough, và số điểm cạnh tối đa (mỗi điểm tốn ~180 lần cộng dồn theo góc)
+    private static final int HOUGH_MAX_DIMENSION = 320;
+    private static final int MAX_HOUGH_EDGE_PIXELS = 6000;
+    // Trung bình động chi phí các lần chạy; vượt ngân sách thì bỏ qua một số lần trước khi thử lại
+    private static final double COST_EMA_ALPHA = 0.3;
+    private static final int MAX_SKIPS_AFTER_OVERRUN = 10;
+    private static final int MAX_SEGMENTS = 120;
+    private static final int KMEANS_ITERATIONS = 6;
+    // Đoạn thuộc cùng cạnh với đoạn dài nhất nhóm: lệch hướng và lệch vị trí tối đa
+    private static final double MAX_SIDE_ANGLE_DIFF = Math.toRadians(8);
+    private static final double MAX_SIDE_OFFSET_FRACTION = 0.03;
+    // Hai cạnh đối diện phải cách nhau ít nhất tỷ lệ này của kích thước ảnh
+    private static final double MIN_SIDE_SEPARATION_FRACTION = 0.2;
+    // Góc được phép nằm ngoài ảnh tối đa tỷ lệ này của kích thước ảnh
+    private static final double MAX_CORNER_OUTSIDE_FRACTION = 0.15;
+
+    private final Mat lines = new Mat();
+    private final Mat decimatedEdges = new Mat();
+    private double costEmaNs = 0;
+    private int skipsSinceOverrun = 0;
+    // Bộ đệm phía Java, chỉ cấp phát lại khi có nhiều đoạn hơn
+    private int[] lineData = new int[0];
+    private double[] segmentLength = new double[0];
+    private Integer[] order = new Integer[0];
+
+    /**
+     * Dựng khung từ các đoạn thẳng trong ảnh cạnh.
+     * @param edges Ảnh cạnh CV_8UC1 (không bị thay đổi)
+     * @param budgetNs Ngân sách thời gian của lần gọi (ns)
+     * @return 4 góc [top-left, top-right, bottom-right, bottom-left] trong tọa độ ảnh cạnh
+     *         (có thể nằm ngoài ảnh trong biên cho phép), hoặc null nếu không dựng được / bị bỏ qua / hết thời gian
+     */
+    Point[] fit(Mat edges, long budgetNs) {
+        // Các lần chạy gần đây đã vượt ngân sách (thiết bị chậm hoặc cảnh nặng): nghỉ vài lần rồi mới thử lại
+        if (costEmaNs > budgetNs && skipsSinceOverrun < MAX_SKIPS_AFTER_OVERRUN) {
+            skipsSinceOverrun++;
+            return null;
+        }
+        skipsSinceOverrun = 0;
+
+        long startNs = System.nanoTime();
+        try {
+            return fitWithinBudget(edges, startNs + budgetNs);
+        } finally {
+            long costNs = System.nanoTime() - startNs;
+            costEmaNs = costEmaNs == 0 ? costNs : costEmaNs + COST_EMA_ALPHA * (costNs - costEmaNs);
+        }
+    }
+
+    private Point[] fitWithinBudget(Mat edges, long deadlineNs) {
+        // THU NHỎ ẢNH CẠNH: chặn kích thước đầu vào của Hough (INTER_AREA rồi nhị phân hóa để giữ cạnh mảnh)
+        Mat houghInput = edges;
+        double toEdges = 1.0;
+        int longSide = Math.max(edges.cols(), edges.rows());
+        if (longSide > HOUGH_MAX_DIMENSION) {
+            double factor = (double) HOUGH_MAX_DIMENSION / longSide;
+            Imgproc.resize(edges, decimatedEdges, new Size(Math.max(1, Math.round(edges.cols() * factor)),
+                    Math.max(1, Math.round(edges.rows() * factor))), 0, 0, Imgproc.INTER_AREA);
+            Imgproc.threshold(decimatedEdges, decimatedEdges, 0, 255, Imgproc.THRESH_BINARY);
+            houghInput = decimatedEdges;
+            toEdges = (double) edges.cols() / decimatedEdges.cols();
+        }
+        int width = houghInput.cols();
+        int height = houghInput.rows();
+        int edgePixels = Core.countNonZero(houghInput);
+        if (edgePixels > MAX_EDGE_DENSITY * width * height || edgePixels > MAX_HOUGH_EDGE_PIXELS) {
+            return null;
+        }
+
+        int shortSide = Math.min(width, height);
+        double minLength = MIN_SEGMENT_LENGTH_FRACTION * shortSide;
+        Imgproc.HoughLinesP(houghInput, lines, HOUGH_RHO, HOUGH_THETA, (int) Math.round(minLength * 0.8),
+                minLength, MAX_LINE_GAP_FRACTION * Math.hypot(width, height));
+        int count = lines.rows();
+        if (count < 4 || System.nanoTime() > deadlineNs) {
+            return null;
+        }
+        loadSegments(count);
+
+        // Phân nhóm theo hướng, dùng tối đa MAX_SEGMENTS đoạn dài nhất
+        int used = Math.min(count, MAX_SEGMENTS);
+        Line[] horizontal = splitOpposite(true, used, width, height);
+        Line[] vertical = horizontal != null ? splitOpposite(false, used, width, height) : null;
+        if (vertical == null || System.nanoTime() > deadlineNs) {
+            return null;
+        }
+
+        Point topLeft = intersect(horizontal[0], vertical[0]);
+        Point topRight = intersect(horizontal[0], vertical[1]);
+        Point bottomRight = intersect(horizontal[1], vertical[1]);
+        Point bottomLeft = intersect(horizontal[1], vertical[0]);
+        Point[] quad = {topLeft, topRight, bottomRight, bottomLeft};
+        double marginX = MAX_CORNER_OUTSIDE_FRACTION * width;
+        double marginY = MAX_CORNER_OUTSIDE_FRACTION * height;
+        for (Point corner : quad) {
+            if (corner == null || corner.x < -marginX || corner.y < -marginY
+                    || corner.x > width - 1 + marginX || corner.y > height - 1 + marginY) {
+                return null;
+            }
+        }
+        // Về tọa độ ảnh cạnh gốc (tâm ô pixel)
+        if (toEdges != 1.0) {
+            for (Point corner : quad) {
+                corner.x = (corner.x + 0.5) * toEdges - 0.5;
+                corner.y = (corner.y + 0.5) * toEdges - 0.5;
+            }
+        }
+        return quad;
+    }
+
+    void release() {
+        lines.release();
+        decimatedEdges.release();
+    }
+
+    private void loadSegments(int count) {
+        if (lineData.length < count * 4) {
+            lineData = new int[count * 4];
+            segmentLength = new double[count];
+            order = new Integer[count];
+        }
+        lines.get(0, 0, lineData);
+        for (int i = 0; i < count; i++) {
+            segmentLength[i] = Math.hypot(lineData[i * 4 + 2] - lineData[i * 4], lineData[i * 4 + 3] - lineData[i * 4 + 1]);
+            order[i] = i;
+        }
+        final double[] lengths = segmentLength;
+        Arrays.sort(order, 0, count, (a, b) -> Double.compare(lengths[b], lengths[a]));
+    }
+
+    /**
+     * Lấy các đoạn theo một hướng và chia thành 2 cạnh đối diện.
+     * @param horizontal true: đoạn gần ngang, chia thành cạnh trên/dưới; false: gần dọc, chia thành trái/phải
+     * @return [cạnh có vị trí nhỏ, cạnh có vị trí lớn], hoặc null nếu không đủ 2 cạnh tách biệt
+     */
+    private Line[] splitOpposite(boolean horizontal, int used, int width, int height) {
+        // Vị trí của đoạn = tọa độ cắt đường giữa ảnh (y tại x = width/2 với đoạn ngang, x tại y = height/2 với đoạn dọc)
+        double center = horizontal ? width / 2.0 : height / 2.0;
+        double extent = horizontal ? height : width;
+        int[] members = new int[used];
+        double[] positions = new double[used];
+        int memberCount = 0;
+        double low = Double.MAX_VALUE;
+        double high = -Double.MAX_VALUE;
+        for (int k = 0; k < used; k++) {
+            int i = order[k];
+            double dx = lineData[i * 4 + 2] - lineData[i * 4];
+            double dy = lineData[i * 4 + 3] - lineData[i * 4 + 1];
+            if ((Math.abs(dx) >= Math.abs(dy)) != horizontal) {
+                continue;
+            }
+            double position = horizontal
+                    ? lineData[i * 4 + 1] + (center - lineData[i * 4]) * dy / dx
+                    : lineData[i * 4] + (center - lineData[i * 4 + 1]) * dx / dy;
+            members[memberCount] = i;
+            positions[memberCount] = position;
+            memberCount++;
+            low = Math.min(low, position);
+            high = Math.max(high, position);
+        }
+        if (memberCount < 2 || high - low < MIN_SIDE_SEPARATION_FRACTION * extent) {
+            return null;
+        }
+
+        // 2-MEANS THEO VỊ TRÍ, trọng số theo độ dài đoạn
+        for (int iteration = 0; iteration < KMEANS_ITERATIONS; iteration++) {
+            double split = (low + high) / 2;
+            double lowSum = 0, lowWeight = 0, highSum = 0, highWeight = 0;
+            for (int m = 0; m < memberCount; m++) {
+                double weight = segmentLength[members[m]];
+                if (positions[m] < split) {
+                    lowSum += positions[m] * weight;
+                    lowWeight += weight;
+                } else {
+                    highSum += positions[m] * weight;
+                    highWeight += weight;
+                }
+            }
+            if (lowWeight == 0 || highWeight == 0) {
+                return null;
+            }
+            low = lowSum / lowWeight;
+            high = highSum / highWeight;
+        }
+        if (high - low < MIN_SIDE_SEPARATION_FRACTION * extent) {
+            return null;
+        }
+
+        double split = (low + high) / 2;
+        Line lowSide = fitSide(members, positions, memberCount, split, true, horizontal, center, extent);
+        Line highSide = fitSide(members, positions, memberCount, split, false, horizontal, center, extent);
+        if (lowSide == null || highSide == null) {
+            return null;
+        }
+        return new Line[]{lowSide, highSide};
+    }
+
+    /**
+     * Đường thẳng của một cạnh: trung bình theo độ dài (hướng và vị trí) của các đoạn gần đoạn dài nhất trong nhóm.
+     * Các đoạn đã được xếp theo độ dài giảm dần nên đoạn đầu tiên gặp được là đoạn dài nhất.
+     */
+    private Line fitSide(int[] members, double[] positions, int memberCount, double split, boolean lowSide,
+                         boolean horizontal, double center, double extent) {
+        double seedAngle = Double.NaN;
+        double seedPosition = 0;
+        double sumDirX = 0, sumDirY = 0, sumPosition = 0, sumWeight = 0;
+        for (int m = 0; m < memberCount; m++) {
+            if ((positions[m] < split) != lowSide) {
+                continue;
+            }
+            int i = members[m];
+            double dx = lineData[i * 4 + 2] - lineData[i * 4];
+            double dy = lineData[i * 4 + 3] - lineData[i * 4 + 1];
+            // Đưa hướng về cùng chiều (đoạn ngang đi sang phải, đoạn dọc đi xuống) để cộng được vector
+            if (horizontal ? dx < 0 : dy < 0) {
+                dx = -dx;
+                dy = -dy;
+            }
+            double angle = Math.atan2(dy, dx);
+            if (Double.isNaN(seedAngle)) {
+                seedAngle = angle;
+                seedPosition = positions[m];
+            } else if (Math.abs(angle - seedAngle) > MAX_SIDE_ANGLE_DIFF
+                    || Math.abs(positions[m] - seedPosition) > MAX_SIDE_OFFSET_FRACTION * extent) {
+                continue;
+            }
+            double weight = segmentLength[i];
+            sumDirX += dx;
+            sumDirY += dy;
+            sumPosition += positions[m] * weight;
+            sumWeight += weight;
+        }
+        if (sumWeight == 0) {
+            return null;
+        }
+        double position = sumPosition / sumWeight;
+        Point anchor = horizontal ? new Point(center, position) : new Point(position, center);
+        return new Line(anchor, sumDirX, sumDirY);
+    }
+
+    /**
+     * @return Giao điểm của hai đường, hoặc null nếu gần song song
+     */
+    private static Point intersect(Line a, Line b) {
+        double cross = a.dirX * b.dirY - a.dirY * b.dirX;
+        if (Math.abs(cross) < 1e-6) {
+            return null;
+        }
+        double t = ((b.anchor.x - a.anchor.x) * b.dirY - (b.anchor.y - a.anchor.y) * b.dirX) / cross;
+        return new Point(a.anchor.x + a.dirX * t, a.anchor.y + a.dirY * t);
+    }
+
+    /**
+     * Đường thẳng dạng điểm + vector chỉ phương (đã chuẩn hóa).
+     */
+    private static final class Line {
+        final Point anchor;
+        final double dirX;
+        final double dirY;
+
+        Line(Point anchor, double dirX, double dirY) {
+            double norm = Math.hypot(dirX, dirY);
+            this.anchor = anchor;
+            this.dirX = dirX / norm;
+            this.dirY = dirY / norm;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+/**
+ * Lớp **PreprocessedFrame** là kết quả của bước tiền xử lý ({@link DocumentDetector#preprocess}) được chuyển
+ * sang bước tìm khung ({@link DocumentDetector#detect(PreprocessedFrame)}) chạy trên luồng khác.
+ * Frame sở hữu bản sao ảnh xám độ phân giải đầy đủ, nên ImageProxy của camera có thể được đóng ngay sau bước 1.
+ * Mỗi frame chỉ được một luồng dùng tại một thời điểm; các Mat được cấp phát một lần và dùng lại giữa các frame.
+ */
+public class PreprocessedFrame {
+
+    // Bản sao ảnh xám độ phân giải đầy đủ (tracker, tinh chỉnh góc sub-pixel, đo độ nét)
+    final Mat gray = new Mat();
+    // Ảnh pyramid đã blur + CLAHE và ảnh cạnh đã dilate, cùng kích thước ảnh phát hiện
+    final Mat detectionGray = new Mat();
+    final Mat edges = new Mat();
+    // false nếu frame chỉ mang ảnh xám (frame theo dõi), không có ảnh cạnh
+    boolean preprocessed = false;
+
+    /**
+     * Tạo frame rỗng. Phải được gọi sau khi thư viện OpenCV đã được nạp.
+     */
+    public PreprocessedFrame() {
+    }
+
+    /**
+     * Sao chép ảnh xám vào frame (không tiền xử lý), dùng cho frame chỉ cần theo dõi.
+     * @param source Ảnh xám CV_8UC1 (ví dụ Mat bọc mặt phẳng Y của camera)
+     */
+    public void copyGrayFrom(Mat source) {
+        source.copyTo(gray);
+        preprocessed = false;
+    }
+
+    /**
+     * @return Bản sao ảnh xám độ phân giải đầy đủ (thuộc về frame, không giải phóng)
+     */
+    public Mat getGray() {
+        return gray;
+    }
+
+    /**
+     * @return true nếu frame đã qua bước tiền xử lý và có thể đưa vào {@link DocumentDetector#detect(PreprocessedFrame)}
+     */
+    public boolean isPreprocessed() {
+        return preprocessed;
+    }
+
+    void ensureDetectionSize(int width, int height) {
+        detectionGray.create(height, width, CvType.CV_8UC1);
+    }
+
+    /**
+     * Giải phóng bộ nhớ native.
+     */
+    public void release() {
+        gray.release();
+        detectionGray.release();
+        edges.release();
+        preprocessed = false;
+    }
+}
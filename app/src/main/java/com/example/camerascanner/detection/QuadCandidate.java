@@ -0,0 +1,71 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+
+/**
+ * Lớp **QuadCandidate** là một khung tứ giác ứng viên do {@link DocumentDetector} trả về.
+ * Các góc được sắp xếp theo thứ tự [top-left, top-right, bottom-right, bottom-left]
+ * và nằm trong hệ tọa độ của ảnh đầu vào (độ phân giải đầy đủ).
+ */
+public class QuadCandidate {
+
+    private final Point[] corners;
+    private final double score;
+    private final double areaFraction;
+    private final double maxCosine;
+
+    public QuadCandidate(Point[] corners, double score, double areaFraction, double maxCosine) {
+        this.corners = corners;
+        this.score = score;
+        this.areaFraction = areaFraction;
+        this.maxCosine = maxCosine;
+    }
+
+    /**
+     * @return 4 góc của khung (mảng nội bộ, không nên sửa)
+     */
+    public Point[] getCorners() {
+        return corners;
+    }
+
+    /**
+     * @return Điểm xếp hạng, càng cao càng tốt
+     */
+    public double getScore() {
+        return score;
+    }
+
+    /**
+     * @return Diện tích khung so với diện tích ảnh (0..1)
+     */
+    public double getAreaFraction() {
+        return areaFraction;
+    }
+
+    /**
+     * @return Cosine lớn nhất trong 4 góc (0 = cả 4 góc vuông)
+     */
+    public double getMaxCosine() {
+        return maxCosine;
+    }
+
+    /**
+     * @return Mảng 8 float [x1, y1, ..., x4, y4], định dạng dùng để truyền qua Intent
+     */
+    public float[] toFloatArray() {
+        float[] values = new float[8];
+        for (int i = 0; i < 4; i++) {
+            values[i * 2] = (float) corners[i].x;
+            values[i * 2 + 1] = (float) corners[i].y;
+        }
+        return values;
+    }
+
+    /**
+     * @return MatOfPoint mới chứa 4 góc (người gọi chịu trách nhiệm release)
+     */
+    public MatOfPoint toMatOfPoint() {
+        return new MatOfPoint(corners);
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.camerascanner.detection;
+
+/**
+ * Lớp **QuadCoordinateMapper** chuyển 4 góc khung giữa hai luồng ảnh của cùng một camera
+ * (ví dụ frame phân tích 640x480 và ảnh chụp độ phân giải đầy đủ).
+ * Mỗi luồng được coi là một vùng cắt giữa (center crop) của toàn bộ trường nhìn cảm biến theo tỷ lệ khung
+ * của luồng đó, rồi được phóng về kích thước của luồng. Việc ánh xạ đi qua tọa độ chuẩn hóa của trường nhìn
+ * cảm biến nên đúng cả khi hai luồng khác tỷ lệ khung (4:3 và 16:9), không chỉ nhân theo tỷ lệ kích thước.
+ * Cả hai kích thước phải cùng hướng (đã xoay về hướng hiển thị), góc xoay được xử lý trước bằng
+ * {@link QuadGeometry#rotateToDisplay}.
+ */
+public final class QuadCoordinateMapper {
+
+    // Tỷ lệ khung mặc định của cảm biến camera điện thoại khi không đọc được kích thước mảng điểm ảnh
+    public static final double DEFAULT_SENSOR_ASPECT_RATIO = 4.0 / 3.0;
+
+    private QuadCoordinateMapper() {
+    }
+
+    /**
+     * Ánh xạ khung từ luồng nguồn sang luồng đích.
+     * @param quad 4 góc dạng [x1, y1, ..., x4, y4] trong tọa độ luồng nguồn
+     * @param sourceWidth Chiều rộng luồng nguồn
+     * @param sourceHeight Chiều cao luồng nguồn
+     * @param targetWidth Chiều rộng luồng đích
+     * @param targetHeight Chiều cao luồng đích
+     * @param sensorAspectRatio Tỷ lệ cạnh dài / cạnh ngắn của vùng điểm ảnh hoạt động của cảm biến
+     * @return Mảng mới trong tọa độ luồng đích (đã kẹp trong biên ảnh), hoặc null nếu đầu vào không hợp lệ
+     */
+    public static float[] map(float[] quad, int sourceWidth, int sourceHeight,
+                              int targetWidth, int targetHeight, double sensorAspectRatio) {
+        if (quad == null || quad.length != 8 || sourceWidth <= 0 || sourceHeight <= 0
+                || targetWidth <= 0 || targetHeight <= 0) {
+            return null;
+        }
+        // Tỷ lệ khung của toàn trường nhìn theo cùng hướng với hai luồng
+        double longSide = Math.max(sensorAspectRatio, 1.0 / sensorAspectRatio);
+        double fieldAspect = sourceWidth >= sourceHeight ? longSide : 1.0 / longSide;
+
+        double[] source = visibleFraction(sourceWidth, sourceHeight, fieldAspect);
+        double[] target = visibleFraction(targetWidth, targetHeight, fieldAspect);
+
+        float[] mapped = new float[8];
+        for (int i = 0; i < 4; i++) {
+            // Nguồn -> tọa độ chuẩn hóa [0, 1] của toàn trường nhìn
+            double u = (1 - source[0]) / 2 + quad[i * 2] / sourceWidth * source[0];
+            double v = (1 - source[1]) / 2 + quad[i * 2 + 1] / sourceHeight * source[1];
+            // Trường nhìn -> đích
+            double x = (u - (1 - target[0]) / 2) / target[0] * targetWidth;
+            double y = (v - (1 - target[1]) / 2) / target[1] * targetHeight;
+            mapped[i * 2] = (float) Math.max(0, Math.min(targetWidth - 1, x));
+            mapped[i * 2 + 1] = (float) Math.max(0, Math.min(targetHeight - 1, y));
+        }
+        return mapped;
+    }
+
+    /**
+     * @return [tỷ lệ chiều rộng, tỷ lệ chiều cao] của trường nhìn mà một luồng có kích thước width x height nhìn thấy
+     */
+    private static double[] visibleFraction(int width, int height, double fieldAspect) {
+        double aspect = (double) width / height;
+        if (aspect >= fieldAspect) {
+            // Luồng rộng hơn trường nhìn: giữ toàn bộ chiều rộng, cắt trên/dưới
+            return new double[]{1.0, fieldAspect / aspect};
+        }
+        // Luồng hẹp hơn: giữ toàn bộ chiều cao, cắt hai bên
+        return new double[]{aspect / fieldAspect, 1.0};
+    }
+}
@@ -0,0 +1,190 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+
+import java.util.Arrays;
+
+/**
+ * Lớp **QuadGeometry** gom các phép tính hình học dùng chung cho khung tứ giác:
+ * sắp xếp 4 góc theo thứ tự chuẩn, tính cosine góc tại đỉnh và kích thước cạnh.
+ * Được dùng bởi {@link DocumentDetector}, màn hình camera và màn hình cắt ảnh.
+ */
+public final class QuadGeometry {
+
+    private QuadGeometry() {
+    }
+
+    /**
+     * SẮP XẾP 4 ĐIỂM THEO THỨ TỰ CHUẨN:
+     * Sắp xếp điểm theo thứ tự: [top-left, top-right, bottom-right, bottom-left].
+     * Điểm có y nhỏ nhất = top, y lớn nhất = bottom.
+     * Trong mỗi hàng, sắp xếp theo x (trái → phải).
+     * @param points Mảng 4 điểm của khung tứ giác (không bị thay đổi)
+     * @return Mảng mới với các điểm đã sắp xếp theo thứ tự chuẩn
+     */
+    public static Point[] sortPoints(Point[] points) {
+        Point[] pts = Arrays.copyOf(points, points.length);
+        Point[] rect = new Point[4];
+
+        // SẮP XẾP THEO CHIỀU DỌC (Y):
+        // Điểm có y nhỏ nhất = top, y lớn nhất = bottom
+        Arrays.sort(pts, (p1, p2) -> Double.compare(p1.y, p2.y));
+
+        // Tách thành 2 hàng: top (2 điểm đầu) và bottom (2 điểm cuối)
+        Point[] topPoints = Arrays.copyOfRange(pts, 0, 2);
+        Point[] bottomPoints = Arrays.copyOfRange(pts, 2, 4);
+
+        // SẮP XẾP THEO CHIỀU NGANG (X) TRONG MỖI HÀNG:
+        // Top row: trái → phải
+        Arrays.sort(topPoints, (p1, p2) -> Double.compare(p1.x, p2.x));
+        rect[0] = topPoints[0];    // top-left
+        rect[1] = topPoints[1];    // top-right
+
+        // Bottom row: trái → phải
+        Arrays.sort(bottomPoints, (p1, p2) -> Double.compare(p1.x, p2.x));
+        rect[3] = bottomPoints[0]; // bottom-left
+        rect[2] = bottomPoints[1]; // bottom-right
+
+        return rect;
+    }
+
+    /**
+     * Phiên bản của {@link #sortPoints(Point[])} cho MatOfPoint.
+     * @param pointsMat MatOfPoint chứa 4 điểm của khung tứ giác
+     * @return MatOfPoint mới với các điểm đã sắp xếp theo thứ tự chuẩn (người gọi chịu trách nhiệm release)
+     */
+    public static MatOfPoint sortPoints(MatOfPoint pointsMat) {
+        return new MatOfPoint(sortPoints(pointsMat.toArray()));
+    }
+
+    /**
+     * TÍNH GÓC GIỮA 3 ĐIỂM (p1-p2-p3):
+     * Sử dụng công thức dot product để tính cosine của góc.
+     * Góc càng gần 90° thì cosine càng gần 0.
+     * @param p1 Điểm đầu
+     * @param p2 Điểm giữa (đỉnh góc)
+     * @param p3 Điểm cuối
+     * @return Giá trị cosine của góc (0 = 90°, 1 = 0° hoặc 180°)
+     */
+    public static double angle(Point p1, Point p2, Point p3) {
+        double dx1 = p1.x - p2.x;
+        double dy1 = p1.y - p2.y;
+        double dx2 = p3.x - p2.x;
+        double dy2 = p3.y - p2.y;
+        // CÔNG THỨC DOT PRODUCT: cos(θ) = (a·b) / (|a|·|b|)
+        // Thêm 1e-10 để tránh chia cho 0
+        return (dx1 * dx2 + dy1 * dy2) / (Math.sqrt(dx1 * dx1 + dy1 * dy1) * Math.sqrt(dx2 * dx2 + dy2 * dy2) + 1e-10);
+    }
+
+    /**
+     * Cosine lớn nhất (theo trị tuyệt đối) trong 4 góc của khung. 0 nghĩa là cả 4 góc đều vuông.
+     * @param points 4 đỉnh theo thứ tự vòng
+     * @return Giá trị cosine lớn nhất
+     */
+    public static double maxCosine(Point[] points) {
+        double maxCosine = 0;
+        for (int i = 0; i < 4; i++) {
+            double cosineAngle = Math.abs(angle(points[i], points[(i + 1) % 4], points[(i + 2) % 4]));
+            maxCosine = Math.max(maxCosine, cosineAngle);
+        }
+        return maxCosine;
+    }
+
+    /**
+     * XOAY TỌA ĐỘ GÓC TỪ HƯỚNG CẢM BIẾN SANG HƯỚNG HIỂN THỊ:
+     * Tương đương với việc transpose + flip cả frame rồi mới phát hiện, nhưng chỉ áp dụng cho vài điểm.
+     * - 90°: (x, y) → (h - 1 - y, x)
+     * - 180°: (x, y) → (w - 1 - x, h - 1 - y)
+     * - 270°: (x, y) → (y, w - 1 - x)
+     * @param points Các điểm trong tọa độ ảnh cảm biến (không bị thay đổi)
+     * @param sensorWidth Chiều rộng ảnh cảm biến
+     * @param sensorHeight Chiều cao ảnh cảm biến
+     * @param rotationDegrees Góc xoay theo chiều kim đồng hồ cần áp dụng (0, 90, 180, 270)
+     * @return Mảng điểm mới trong tọa độ hướng hiển thị
+     */
+    public static Point[] rotateToDisplay(Point[] points, int sensorWidth, int sensorHeight, int rotationDegrees) {
+        Point[] rotated = new Point[points.length];
+        for (int i = 0; i < points.length; i++) {
+            double x = points[i].x;
+            double y = points[i].y;
+            switch (rotationDegrees) {
+                case 90:
+                    rotated[i] = new Point(sensorHeight - 1 - y, x);
+                    break;
+                case 180:
+                    rotated[i] = new Point(sensorWidth - 1 - x, sensorHeight - 1 - y);
+                    break;
+                case 270:
+                    rotated[i] = new Point(y, sensorWidth - 1 - x);
+                    break;
+                default:
+                    rotated[i] = new Point(x, y);
+                    break;
+            }
+        }
+        return rotated;
+    }
+
+    /**
+     * @return Chiều rộng ảnh sau khi xoay sang hướng hiển thị
+     */
+    public static int displayWidth(int sensorWidth, int sensorHeight, int rotationDegrees) {
+        return (rotationDegrees == 90 || rotationDegrees == 270) ? sensorHeight : sensorWidth;
+    }
+
+    /**
+     * @return Chiều cao ảnh sau khi xoay sang hướng hiển thị
+     */
+    public static int displayHeight(int sensorWidth, int sensorHeight, int rotationDegrees) {
+        return (rotationDegrees == 90 || rotationDegrees == 270) ? sensorWidth : sensorHeight;
+    }
+
+    /**
+     * Diện tích đa giác theo công thức shoelace (không cần gọi JNI).
+     * @param points Các đỉnh theo thứ tự vòng
+     * @return Diện tích (luôn dương)
+     */
+    public static double polygonArea(Point[] points) {
+        double area = 0;
+        for (int i = 0; i < points.length; i++) {
+            Point a = points[i];
+            Point b = points[(i + 1) % points.length];
+            area += a.x * b.y - b.x * a.y;
+        }
+        return Math.abs(area) / 2;
+    }
+
+    /**
+     * Kiểm tra đa giác lồi: tích có hướng của mọi cặp cạnh liên tiếp phải cùng dấu và khác 0.
+     * @param points Các đỉnh theo thứ tự vòng
+     * @return true nếu đa giác lồi
+     */
+    public static boolean isConvex(Point[] points) {
+        int sign = 0;
+        int n = points.length;
+        for (int i = 0; i < n; i++) {
+            Point a = points[i];
+            Point b = points[(i + 1) % n];
+            Point c = points[(i + 2) % n];
+            double cross = (b.x - a.x) * (c.y - b.y) - (b.y - a.y) * (c.x - b.x);
+            int currentSign = cross > 0 ? 1 : (cross < 0 ? -1 : 0);
+            if (currentSign == 0) {
+                return false;
+            }
+            if (sign == 0) {
+                sign = currentSign;
+            } else if (sign != currentSign) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Khoảng cách Euclid giữa hai điểm.
+     */
+    public static double distance(Point a, Point b) {
+        return Math.hypot(a.x - b.x, a.y - b.y);
+    }
+}
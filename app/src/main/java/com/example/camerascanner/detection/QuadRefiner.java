@@ -0,0 +1,297 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint2f;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lớp **QuadRefiner** tinh chỉnh khung tứ giác thô (phóng từ frame phân tích) trên ảnh chụp độ phân giải đầy đủ.
+ * Thay vì chạy lại bộ phát hiện trên cả ảnh, lớp này chỉ đọc các dải hẹp dọc theo 4 cạnh của khung thô:
+ * - Mỗi cạnh được lấy mẫu tại nhiều điểm; tại mỗi điểm, tìm vị trí gradient mạnh nhất theo phương pháp tuyến
+ *   trong bán kính tìm kiếm, nội suy parabol để đạt độ chính xác dưới pixel.
+ * - Các điểm cạnh được khớp thành đường thẳng bằng fitLine (DIST_HUBER, bền với điểm nhiễu).
+ * - Góc mới là giao điểm của hai đường thẳng kề nhau.
+ * Ảnh chỉ được đọc trong các ROI nhỏ bao quanh từng đoạn cạnh nên chi phí tỷ lệ với chu vi khung × bán kính,
+ * không phải với số điểm ảnh. Ảnh có thể là Mat hoặc bất kỳ {@link PixelSource} nào (ví dụ Bitmap ảnh chụp),
+ * nên không cần chuyển cả ảnh sang Mat chỉ để đọc vài dải hẹp. Nếu một cạnh không đủ điểm cạnh tin cậy, giữ nguyên cạnh thô;
+ * nếu khung kết quả không hợp lệ, trả về khung thô.
+ * Không an toàn khi dùng đồng thời từ nhiều luồng.
+ */
+public class QuadRefiner {
+
+    /**
+     * Nguồn điểm ảnh chỉ cần đọc được một vùng chữ nhật dưới dạng mức xám.
+     */
+    public interface PixelSource {
+        int getWidth();
+
+        int getHeight();
+
+        /**
+         * Đọc vùng (left, top, width, height) nằm trong ảnh thành mức xám 8 bit.
+         * @param out Mảng đích, có ít nhất width × height phần tử, theo hàng (stride = width)
+         */
+        void readGray(int left, int top, int width, int height, byte[] out);
+    }
+
+    // Sai số (pixel frame phân tích) dự kiến của khung thô; bán kính tìm kiếm = sai số này × hệ số phóng
+    private static final double ANALYSIS_ERROR_PIXELS = 4.0;
+    private static final int MIN_SEARCH_RADIUS = 6;
+    private static final int MAX_SEARCH_RADIUS = 96;
+    // Lấy mẫu mỗi cạnh: chia thành các đoạn (mỗi đoạn một ROI), bỏ phần gần góc (dễ lẫn với cạnh kề)
+    private static final int SEGMENTS_PER_SIDE = 8;
+    private static final int SAMPLES_PER_SEGMENT = 6;
+    private static final double CORNER_MARGIN = 0.08;
+    // Chênh lệch mức xám tối thiểu để coi là cạnh, và tỷ lệ mẫu tối thiểu để tin đường thẳng khớp được
+    private static final int MIN_EDGE_STRENGTH = 12;
+    private static final double MIN_SIDE_SUPPORT = 0.5;
+
+    // Bộ đệm tái sử dụng
+    private final Mat roiGray = new Mat();
+    private final MatOfPoint2f sidePoints = new MatOfPoint2f();
+    private final Mat fittedLine = new Mat();
+    private byte[] roiPixels = new byte[0];
+    private final float[] lineValues = new float[4];
+
+    /**
+     * Bán kính tìm kiếm phù hợp khi khung được phóng từ frame phân tích lên ảnh chụp.
+     * @param scale Hệ số phóng (cạnh ảnh chụp / cạnh frame phân tích)
+     * @return Bán kính (pixel ảnh chụp)
+     */
+    public static int searchRadiusForScale(double scale) {
+        return (int) Math.max(MIN_SEARCH_RADIUS, Math.min(MAX_SEARCH_RADIUS, Math.ceil(ANALYSIS_ERROR_PIXELS * scale)));
+    }
+
+    /**
+     * TINH CHỈNH KHUNG TRÊN ẢNH ĐỘ PHÂN GIẢI ĐẦY ĐỦ.
+     * @param image Ảnh xám (CV_8UC1) hoặc RGBA (CV_8UC4); chỉ các ROI quanh cạnh được chuyển sang xám
+     * @param coarseQuad 4 góc thô theo thứ tự TL, TR, BR, BL trong tọa độ của image
+     * @param searchRadius Nửa bề rộng dải tìm kiếm theo pháp tuyến mỗi cạnh (pixel)
+     * @return 4 góc đã tinh chỉnh (TL, TR, BR, BL), hoặc bản sao khung thô nếu không tinh chỉnh được
+     */
+    public Point[] refine(Mat image, Point[] coarseQuad, int searchRadius) {
+        return refine(new MatPixelSource(image), coarseQuad, searchRadius);
+    }
+
+    /**
+     * TINH CHỈNH KHUNG TRÊN MỘT NGUỒN ĐIỂM ẢNH BẤT KỲ: chỉ các ROI quanh cạnh được đọc.
+     * @param image Nguồn điểm ảnh của ảnh độ phân giải đầy đủ
+     * @param coarseQuad 4 góc thô theo thứ tự TL, TR, BR, BL trong tọa độ của image
+     * @param searchRadius Nửa bề rộng dải tìm kiếm theo pháp tuyến mỗi cạnh (pixel)
+     * @return 4 góc đã tinh chỉnh (TL, TR, BR, BL), hoặc bản sao khung thô nếu không tinh chỉnh được
+     */
+    public Point[] refine(PixelSource image, Point[] coarseQuad, int searchRadius) {
+        Point[] coarse = QuadGeometry.sortPoints(coarseQuad);
+        double[][] lines = new double[4][];
+        int refinedSides = 0;
+        for (int side = 0; side < 4; side++) {
+            Point a = coarse[side];
+            Point b = coarse[(side + 1) % 4];
+            lines[side] = fitSide(image, a, b, searchRadius);
+            if (lines[side] != null) {
+                refinedSides++;
+            } else {
+                // Giữ cạnh thô: đường thẳng qua a theo hướng a -> b
+                double length = QuadGeometry.distance(a, b);
+                if (length < 1) {
+                    return copy(coarse);
+                }
+                lines[side] = new double[]{(b.x - a.x) / length, (b.y - a.y) / length, a.x, a.y};
+            }
+        }
+        if (refinedSides == 0) {
+            return copy(coarse);
+        }
+
+        // Góc i là giao của cạnh (i - 1) và cạnh i
+        Point[] refined = new Point[4];
+        double maxShift = searchRadius * 2.0;
+        for (int i = 0; i < 4; i++) {
+            Point corner = intersect(lines[(i + 3) % 4], lines[i]);
+            if (corner == null || QuadGeometry.distance(corner, coarse[i]) > maxShift
+                    || corner.x < 0 || corner.y < 0 || corner.x > image.getWidth() - 1 || corner.y > image.getHeight() - 1) {
+                return copy(coarse);
+            }
+            refined[i] = corner;
+        }
+        return QuadGeometry.isConvex(refined) ? refined : copy(coarse);
+    }
+
+    /**
+     * Tìm các điểm cạnh dọc theo đoạn a -> b và khớp đường thẳng.
+     * @return [vx, vy, x0, y0] của đường thẳng, hoặc null nếu không đủ điểm cạnh
+     */
+    private double[] fitSide(PixelSource image, Point a, Point b, int radius) {
+        double length = QuadGeometry.distance(a, b);
+        if (length < 1) {
+            return null;
+        }
+        double dx = (b.x - a.x) / length;
+        double dy = (b.y - a.y) / length;
+        // Pháp tuyến đơn vị của cạnh
+        double nx = -dy;
+        double ny = dx;
+
+        int totalSamples = SEGMENTS_PER_SIDE * SAMPLES_PER_SEGMENT;
+        List<Point> edgePoints = new ArrayList<>(totalSamples);
+        double[] profile = new double[2 * radius + 1];
+        double usable = 1 - 2 * CORNER_MARGIN;
+
+        for (int segment = 0; segment < SEGMENTS_PER_SIDE; segment++) {
+            double tStart = CORNER_MARGIN + usable * segment / SEGMENTS_PER_SIDE;
+            double tEnd = CORNER_MARGIN + usable * (segment + 1) / SEGMENTS_PER_SIDE;
+
+            // ROI bao đoạn cạnh [tStart, tEnd] mở rộng ±radius theo pháp tuyến
+            double x0 = a.x + dx * length * tStart;
+            double y0 = a.y + dy * length * tStart;
+            double x1 = a.x + dx * length * tEnd;
+            double y1 = a.y + dy * length * tEnd;
+            int left = (int) Math.floor(Math.min(x0, x1) - Math.abs(nx) * radius) - 1;
+            int top = (int) Math.floor(Math.min(y0, y1) - Math.abs(ny) * radius) - 1;
+            int right = (int) Math.ceil(Math.max(x0, x1) + Math.abs(nx) * radius) + 2;
+            int bottom = (int) Math.ceil(Math.max(y0, y1) + Math.abs(ny) * radius) + 2;
+            left = Math.max(0, left);
+            top = Math.max(0, top);
+            right = Math.min(image.getWidth(), right);
+            bottom = Math.min(image.getHeight(), bottom);
+            if (right - left < 3 || bottom - top < 3) {
+                continue;
+            }
+            int roiWidth = right - left;
+            int roiHeight = bottom - top;
+            if (roiPixels.length < roiWidth * roiHeight) {
+                roiPixels = new byte[roiWidth * roiHeight];
+            }
+            image.readGray(left, top, roiWidth, roiHeight, roiPixels);
+
+            for (int k = 0; k < SAMPLES_PER_SEGMENT; k++) {
+                double t = tStart + (tEnd - tStart) * (k + 0.5) / SAMPLES_PER_SEGMENT;
+                double px = a.x + dx * length * t;
+                double py = a.y + dy * length * t;
+
+                // Đọc mức xám dọc pháp tuyến (lân cận gần nhất)
+                boolean inside = true;
+                for (int s = -radius; s <= radius && inside; s++) {
+                    int x = (int) Math.round(px + nx * s) - left;
+                    int y = (int) Math.round(py + ny * s) - top;
+                    if (x < 0 || y < 0 || x >= roiWidth || y >= roiHeight) {
+                        inside = false;
+                    } else {
+                        profile[s + radius] = roiPixels[y * roiWidth + x] & 0xFF;
+                    }
+                }
+                if (!inside) {
+                    continue;
+                }
+
+                // Gradient trung tâm lớn nhất theo pháp tuyến
+                int best = -1;
+                double bestStrength = MIN_EDGE_STRENGTH;
+                for (int i = 1; i < profile.length - 1; i++) {
+                    double strength = Math.abs(profile[i + 1] - profile[i - 1]);
+                    if (strength > bestStrength) {
+                        bestStrength = strength;
+                        best = i;
+                    }
+                }
+                if (best < 0) {
+                    continue;
+                }
+
+                // Nội suy parabol quanh đỉnh để đạt độ chính xác dưới pixel
+                double offset = 0;
+                if (best > 1 && best < profile.length - 2) {
+                    double left1 = Math.abs(profile[best] - profile[best - 2]);
+                    double right1 = Math.abs(profile[best + 2] - profile[best]);
+                    double denominator = left1 - 2 * bestStrength + right1;
+                    if (denominator < 0) {
+                        offset = Math.max(-0.5, Math.min(0.5, 0.5 * (left1 - right1) / denominator));
+                    }
+                }
+                double s = best - radius + offset;
+                edgePoints.add(new Point(px + nx * s, py + ny * s));
+            }
+        }
+
+        if (edgePoints.size() < totalSamples * MIN_SIDE_SUPPORT) {
+            return null;
+        }
+        sidePoints.fromList(edgePoints);
+        Imgproc.fitLine(sidePoints, fittedLine, Imgproc.DIST_HUBER, 0, 0.01, 0.01);
+        fittedLine.get(0, 0, lineValues);
+        return new double[]{lineValues[0], lineValues[1], lineValues[2], lineValues[3]};
+    }
+
+    /**
+     * Đọc ROI của Mat (đã chuyển sang xám nếu cần) bằng một lần gọi JNI, dùng chung bộ đệm roiGray.
+     */
+    private final class MatPixelSource implements PixelSource {
+        private final Mat image;
+
+        MatPixelSource(Mat image) {
+            this.image = image;
+        }
+
+        @Override
+        public int getWidth() {
+            return image.cols();
+        }
+
+        @Override
+        public int getHeight() {
+            return image.rows();
+        }
+
+        @Override
+        public void readGray(int left, int top, int width, int height, byte[] out) {
+            Mat roi = image.submat(new Rect(left, top, width, height));
+            try {
+                if (image.channels() == 4) {
+                    Imgproc.cvtColor(roi, roiGray, Imgproc.COLOR_RGBA2GRAY);
+                } else if (image.channels() == 3) {
+                    Imgproc.cvtColor(roi, roiGray, Imgproc.COLOR_RGB2GRAY);
+                } else {
+                    roi.copyTo(roiGray);
+                }
+            } finally {
+                roi.release();
+            }
+            roiGray.get(0, 0, out);
+        }
+    }
+
+    /**
+     * Giao điểm của hai đường thẳng dạng [vx, vy, x0, y0].
+     * @return Giao điểm, hoặc null nếu hai đường gần song song
+     */
+    private static Point intersect(double[] first, double[] second) {
+        double cross = first[0] * second[1] - first[1] * second[0];
+        if (Math.abs(cross) < 1e-6) {
+            return null;
+        }
+        double t = ((second[2] - first[2]) * second[1] - (second[3] - first[3]) * second[0]) / cross;
+        return new Point(first[2] + t * first[0], first[3] + t * first[1]);
+    }
+
+    private static Point[] copy(Point[] points) {
+        Point[] result = new Point[points.length];
+        for (int i = 0; i < points.length; i++) {
+            result[i] = points[i].clone();
+        }
+        return result;
+    }
+
+    /**
+     * Giải phóng bộ nhớ native.
+     */
+    public void release() {
+        roiGray.release();
+        sidePoints.release();
+        fittedLine.release();
+    }
+}
@@ -0,0 +1,134 @@
+package com.example.camerascanner.detection;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Lớp **ResolutionCalibrator** đo chi phí {@link DocumentDetector} ngay trên thiết bị để chọn cấu hình phân tích
+ * ({@link AnalysisProfile}) tốt nhất mà vẫn đạt độ trễ mục tiêu cho mỗi lần phát hiện.
+ * Mỗi cấu hình được đo trên một frame tổng hợp có cùng kích thước (nền nhiễu + một trang sáng bị nghiêng),
+ * vài lần chạy khởi động rồi lấy trung vị. Các cấu hình được thử theo chi phí tăng dần và dừng ở cấu hình đầu tiên
+ * vượt mục tiêu, nên máy yếu chỉ tốn vài lần đo. Nếu ngay cấu hình rẻ nhất cũng vượt mục tiêu, dùng cấu hình rẻ nhất.
+ * Lớp này chỉ phụ thuộc OpenCV để có thể chạy trên JVM desktop.
+ */
+public class ResolutionCalibrator {
+
+    // Độ trễ mục tiêu cho một lần phát hiện đầy đủ: FrameScheduler vẫn giãn tần suất phát hiện theo ngân sách CPU,
+    // nên mục tiêu này giữ cho một frame phát hiện không làm overlay khựng quá một khung hình 30 fps
+    public static final double DEFAULT_TARGET_LATENCY_MS = 25.0;
+
+    private static final int WARM_UP_RUNS = 2;
+    private static final int MEASURED_RUNS = 5;
+    // Độ lệch chuẩn mức xám của nhiễu nền (mô phỏng nhiễu cảm biến)
+    private static final double NOISE_STDDEV = 12.0;
+
+    /**
+     * Kết quả hiệu chỉnh: cấu hình được chọn và độ trễ trung vị đo được của từng cấu hình đã thử.
+     */
+    public static final class Result {
+        private final AnalysisProfile profile;
+        private final String measurements;
+
+        Result(AnalysisProfile profile, String measurements) {
+            this.profile = profile;
+            this.measurements = measurements;
+        }
+
+        public AnalysisProfile getProfile() {
+            return profile;
+        }
+
+        public String getMeasurements() {
+            return measurements;
+        }
+    }
+
+    private final double targetLatencyMs;
+
+    /**
+     * @param targetLatencyMs Độ trễ trung vị tối đa cho một lần phát hiện (ms)
+     */
+    public ResolutionCalibrator(double targetLatencyMs) {
+        this.targetLatencyMs = targetLatencyMs;
+    }
+
+    /**
+     * Đo lần lượt các cấu hình ứng viên và chọn cấu hình lớn nhất đạt mục tiêu.
+     * Chạy vài trăm ms trên máy yếu; không gọi trên luồng UI. Phải được gọi sau khi OpenCV đã được nạp.
+     * @return Kết quả hiệu chỉnh
+     */
+    public Result calibrate() {
+        AnalysisProfile chosen = AnalysisProfile.CANDIDATES[0];
+        StringBuilder measurements = new StringBuilder();
+        for (AnalysisProfile candidate : AnalysisProfile.CANDIDATES) {
+            double medianMs = measure(candidate);
+            measurements.append(String.format(Locale.US, "%s=%.1fms ", candidate, medianMs));
+            if (medianMs > targetLatencyMs) {
+                break;
+            }
+            chosen = candidate;
+        }
+        return new Result(chosen, measurements.toString().trim());
+    }
+
+    /**
+     * @return Độ trễ trung vị (ms) của DocumentDetector với cấu hình đã cho
+     */
+    private static double measure(AnalysisProfile profile) {
+        Mat frame = createSyntheticFrame(profile.getWidth(), profile.getHeight());
+        DocumentDetector detector = new DocumentDetector(profile.getPyramidLevel(), DocumentDetector.DEFAULT_MAX_RESULTS);
+        try {
+            for (int i = 0; i < WARM_UP_RUNS; i++) {
+                detector.detect(frame);
+            }
+            double[] timings = new double[MEASURED_RUNS];
+            for (int i = 0; i < MEASURED_RUNS; i++) {
+                long start = System.nanoTime();
+                detector.detect(frame);
+                timings[i] = (System.nanoTime() - start) / 1e6;
+            }
+            Arrays.sort(timings);
+            return timings[MEASURED_RUNS / 2];
+        } finally {
+            detector.release();
+            frame.release();
+        }
+    }
+
+    /**
+     * Tạo frame xám giống frame camera: nền tối có nhiễu và một trang sáng nghiêng chiếm khoảng nửa khung.
+     */
+    private static Mat createSyntheticFrame(int width, int height) {
+        Mat frame = new Mat(height, width, CvType.CV_8UC1, new Scalar(70));
+        Point[] page = {
+                new Point(width * 0.22, height * 0.15),
+                new Point(width * 0.80, height * 0.20),
+                new Point(width * 0.75, height * 0.88),
+                new Point(width * 0.18, height * 0.82),
+        };
+        List<MatOfPoint> polygons = new ArrayList<>(1);
+        polygons.add(new MatOfPoint(page));
+        Imgproc.fillPoly(frame, polygons, new Scalar(210));
+        polygons.get(0).release();
+
+        // Nhiễu Gauss quanh 128 rồi cộng có dấu (addWeighted tính trên số thực trước khi bão hòa)
+        Mat noise = new Mat(height, width, CvType.CV_8UC1);
+        try {
+            Core.randn(noise, 128, NOISE_STDDEV);
+            Core.addWeighted(frame, 1.0, noise, 1.0, -128, frame);
+        } finally {
+            noise.release();
+        }
+        return frame;
+    }
+}
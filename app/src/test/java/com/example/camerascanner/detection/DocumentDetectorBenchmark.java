@@ -0,0 +1,116 @@
+package com.example.camerascanner.detection;
+
+import org.junit.Test;
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Benchmark {@link DocumentDetector} trên JVM (host), không cần thiết bị.
+ * Chỉ chạy khi truyền thư mục frame qua -Ddetector.benchmark.frames=&lt;dir&gt;; thư viện native OpenCV
+ * bản desktop được trỏ tới bằng -Dopencv.native.dir (xem testOptions trong app/build.gradle.kts).
+ * Thư mục frame có thể chứa ảnh thường (jpg/png, đọc dạng ảnh xám) hoặc Y plane thô đặt tên dạng
+ * &lt;tên&gt;_&lt;rộng&gt;x&lt;cao&gt;.y (ví dụ frame001_640x480.y).
+ */
+public class DocumentDetectorBenchmark {
+
+    private static final String FRAMES_PROPERTY = "detector.benchmark.frames";
+    private static final int WARM_UP_ITERATIONS = 20;
+    private static final int MEASURED_PASSES = 5;
+    private static final Pattern RAW_Y_NAME = Pattern.compile(".*_(\\d+)x(\\d+)\\.y$");
+
+    @Test
+    public void benchmarkDetector() throws IOException {
+        String framesDir = System.getProperty(FRAMES_PROPERTY);
+        assumeTrue("Bỏ qua benchmark: chưa đặt -D" + FRAMES_PROPERTY, framesDir != null && !framesDir.isEmpty());
+
+        System.loadLibrary(Core.NATIVE_LIBRARY_NAME);
+
+        List<Mat> frames = loadFrames(new File(framesDir));
+        assertFalse("Không có frame nào trong " + framesDir, frames.isEmpty());
+
+        DocumentDetector detector = new DocumentDetector();
+        try {
+            for (int i = 0; i < WARM_UP_ITERATIONS; i++) {
+                detector.detect(frames.get(i % frames.size()));
+            }
+
+            long[] latenciesNs = new long[frames.size() * MEASURED_PASSES];
+            int found = 0;
+            long totalStart = System.nanoTime();
+            for (int pass = 0; pass < MEASURED_PASSES; pass++) {
+                for (int i = 0; i < frames.size(); i++) {
+                    long start = System.nanoTime();
+                    if (!detector.detect(frames.get(i)).isEmpty()) {
+                        found++;
+                    }
+                    latenciesNs[pass * frames.size() + i] = System.nanoTime() - start;
+                }
+            }
+            long totalNs = System.nanoTime() - totalStart;
+
+            Arrays.sort(latenciesNs);
+            System.out.println(String.format(Locale.US,
+                    "DocumentDetector: %d frames, %.1f fps, p50=%.2fms p99=%.2fms, found quad in %.0f%%",
+                    latenciesNs.length,
+                    latenciesNs.length * 1e9 / totalNs,
+                    percentile(latenciesNs, 0.50) / 1e6,
+                    percentile(latenciesNs, 0.99) / 1e6,
+                    found * 100.0 / latenciesNs.length));
+        } finally {
+            detector.release();
+            for (Mat frame : frames) {
+                frame.release();
+            }
+        }
+    }
+
+    private static List<Mat> loadFrames(File dir) throws IOException {
+        List<Mat> frames = new ArrayList<>();
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return frames;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            String name = file.getName().toLowerCase(Locale.US);
+            Matcher rawMatcher = RAW_Y_NAME.matcher(name);
+            if (rawMatcher.matches()) {
+                int width = Integer.parseInt(rawMatcher.group(1));
+                int height = Integer.parseInt(rawMatcher.group(2));
+                byte[] data = Files.readAllBytes(file.toPath());
+                if (data.length < width * height) {
+                    continue;
+                }
+                Mat frame = new Mat(height, width, CvType.CV_8UC1);
+                frame.put(0, 0, Arrays.copyOf(data, width * height));
+                frames.add(frame);
+            } else if (name.endsWith(".jpg") || name.endsWith(".jpeg") || name.endsWith(".png")) {
+                Mat frame = Imgcodecs.imread(file.getAbsolutePath(), Imgcodecs.IMREAD_GRAYSCALE);
+                if (!frame.empty()) {
+                    frames.add(frame);
+                }
+            }
+        }
+        return frames;
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        int index = (int) Math.ceil(fraction * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.camerascanner.detection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Kiểm thử {@link QuadCoordinateMapper} trên JVM (host): chỉ là phép cắt theo tỷ lệ khung + phóng,
+ * không cần OpenCV hay thiết bị.
+ */
+public class QuadCoordinateMapperTest {
+
+    private static final double SENSOR_4_3 = 4.0 / 3.0;
+    private static final float DELTA = 0.01f;
+
+    @Test
+    public void sameSize_mapsToItself() {
+        float[] quad = {100, 80, 540, 90, 530, 400, 110, 390};
+
+        float[] mapped = QuadCoordinateMapper.map(quad, 640, 480, 640, 480, SENSOR_4_3);
+
+        assertArrayEquals(quad, mapped, DELTA);
+    }
+
+    @Test
+    public void fourThreeToSixteenNine_cropsTopAndBottom() {
+        // Ảnh 16:9 chỉ thấy 75% chiều cao giữa của trường nhìn 4:3
+        float[] quad = {160, 120, 480, 120, 480, 360, 160, 360};
+
+        float[] mapped = QuadCoordinateMapper.map(quad, 640, 480, 1920, 1080, SENSOR_4_3);
+
+        assertArrayEquals(new float[]{480, 180, 1440, 180, 1440, 900, 480, 900}, mapped, DELTA);
+    }
+
+    @Test
+    public void sixteenNineToFourThree_addsBackCroppedBands() {
+        float[] quad = {0, 0, 1440, 0, 1440, 900, 960, 540};
+
+        float[] mapped = QuadCoordinateMapper.map(quad, 1920, 1080, 640, 480, SENSOR_4_3);
+
+        assertArrayEquals(new float[]{0, 60, 480, 60, 480, 360, 320, 240}, mapped, DELTA);
+    }
+
+    @Test
+    public void portrait_cropsLeftAndRight() {
+        // Frame phân tích 3:4 dọc sang ảnh chụp 9:16 dọc: ảnh chụp chỉ thấy 75% chiều rộng giữa
+        float[] quad = {120, 160, 360, 160, 360, 480, 120, 480};
+
+        float[] mapped = QuadCoordinateMapper.map(quad, 480, 640, 1080, 1920, SENSOR_4_3);
+
+        assertArrayEquals(new float[]{180, 480, 900, 480, 900, 1440, 180, 1440}, mapped, DELTA);
+    }
+
+    @Test
+    public void invalidInput_returnsNull() {
+        float[] quad = {0, 0, 10, 0, 10, 10, 0, 10};
+
+        assertNull(QuadCoordinateMapper.map(null, 640, 480, 1920, 1080, SENSOR_4_3));
+        assertNull(QuadCoordinateMapper.map(new float[6], 640, 480, 1920, 1080, SENSOR_4_3));
+        assertNull(QuadCoordinateMapper.map(quad, 0, 480, 1920, 1080, SENSOR_4_3));
+        assertNull(QuadCoordinateMapper.map(quad, 640, 480, 1920, -1, SENSOR_4_3));
+    }
+}